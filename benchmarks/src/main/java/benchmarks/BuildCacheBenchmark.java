@@ -0,0 +1,77 @@
+package benchmarks;
+
+import cache.BuildCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import toolchain.JavaCompilerToolchain;
+import toolchain.Toolchain;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cache key computation the build stage runs for every source file, cached or not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BuildCacheBenchmark {
+
+    @Param({"1024", "65536"})
+    private int sourceBytes;
+
+    private Path source;
+    private String batch;
+    private final Toolchain toolchain = new JavaCompilerToolchain();
+    private final Map<String, String> config = Map.of("pipeline.language", "java", "app.version", "1.0");
+
+    /**
+     * Writes a source file of the measured size.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void createSource() throws IOException {
+        source = Files.createTempFile("Benchmark", ".java");
+        StringBuilder text = new StringBuilder("class Benchmark {\n");
+        while (text.length() < sourceBytes) {
+            text.append("    int field").append(text.length()).append(" = 42;\n");
+        }
+        Files.writeString(source, text.append("}\n"), StandardCharsets.UTF_8);
+        batch = BuildCache.batchDigest(List.of(source));
+    }
+
+    /**
+     * Deletes the source file.
+     *
+     * @throws IOException if the file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void deleteSource() throws IOException {
+        Files.deleteIfExists(source);
+    }
+
+    /**
+     * Computes the key of one source file.
+     *
+     * @return The key, consumed by JMH so the call is not optimized away.
+     * @throws IOException if the file cannot be read.
+     */
+    @Benchmark
+    public String key() throws IOException {
+        return BuildCache.key(source, toolchain, config, batch);
+    }
+}
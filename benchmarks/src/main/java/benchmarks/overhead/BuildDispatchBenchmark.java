@@ -0,0 +1,105 @@
+package benchmarks.overhead;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pipeline.PipelineConfig;
+import stages.Build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the build stage over thousands of unchanged files: toolchain lookup, cache key
+ * computation, cache restore and result reporting, without any compilation. The stage also
+ * checks the unchanged JAR; packaging on its own is measured by {@link PackagingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BuildDispatchBenchmark {
+
+    @Param({"100", "2000"})
+    private int files;
+
+    private Path workDir;
+    private PipelineConfig config;
+    private PrintStream console;
+
+    /**
+     * Writes the source files and builds them once, so every measured build hits the cache.
+     * The build output is discarded while measuring.
+     *
+     * @throws IOException if the files cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void createSources() throws IOException {
+        workDir = Files.createTempDirectory("build-dispatch");
+        List<String> scripts = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            Path source = workDir.resolve("src").resolve("Script" + i + ".java");
+            Files.createDirectories(source.getParent());
+            Files.writeString(source, "class Script" + i + " { int value = " + i + "; }\n", StandardCharsets.UTF_8);
+            scripts.add(source.toAbsolutePath().toString());  // Absolute paths are used as they are
+        }
+
+        Map<String, String> values = new HashMap<>();
+        values.put("scripts", String.join(",", scripts));
+        values.put("app.version", "1.0");
+        values.put("build.parallelism", "4");
+        values.put("build.output.dir", workDir.resolve("out").toString());
+        values.put("build.cache.dir", workDir.resolve("cache").toString());
+        values.put("package.file", workDir.resolve("app.jar").toString());
+        config = PipelineConfig.of(values);
+
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        if (!new Build(config).execute()) {
+            System.setOut(console);
+            throw new IllegalStateException("The warm-up build failed");
+        }
+    }
+
+    /**
+     * Restores the console and deletes the files.
+     *
+     * @throws IOException if a file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void deleteSources() throws IOException {
+        System.setOut(console);
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Runs the build stage with every file restored from the cache.
+     *
+     * @return true if the build succeeded.
+     */
+    @Benchmark
+    public boolean cachedBuild() {
+        return new Build(config).execute();
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks.overhead;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pipeline.PipelineConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading the configuration snapshot every pipeline run starts with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigLoadingBenchmark {
+
+    private static final int IN_MEMORY_KEYS = 100;
+
+    private Path overlay;
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Writes an overlay with references to resolve, and fills an in-memory configuration.
+     *
+     * @throws IOException if the overlay cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void createConfig() throws IOException {
+        overlay = Files.createTempFile("overlay", ".properties");
+        Files.writeString(overlay, String.join("\n",
+                "app.name=${USER:-pipeline}",
+                "tests=Test1,Test2,${EXTRA_TESTS:-Test3}",
+                "build.output.dir=${BUILD_ROOT:-target}/scripts",
+                "pipeline.parallelism=8"), StandardCharsets.UTF_8);
+
+        for (int i = 0; i < IN_MEMORY_KEYS; i++) {
+            values.put("custom.key" + i, i % 10 == 0 ? "${custom.key" + (i + 1) + "}" : "value" + i);
+        }
+    }
+
+    /**
+     * Deletes the overlay.
+     *
+     * @throws IOException if the file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void deleteConfig() throws IOException {
+        Files.deleteIfExists(overlay);
+    }
+
+    /**
+     * Loads config.properties from the classpath, as every pipeline run does.
+     *
+     * @return The snapshot.
+     */
+    @Benchmark
+    public PipelineConfig load() {
+        return PipelineConfig.load();
+    }
+
+    /**
+     * Loads config.properties with a "--config" overlay using references.
+     *
+     * @return The snapshot.
+     */
+    @Benchmark
+    public PipelineConfig loadWithOverlay() {
+        return PipelineConfig.load(List.of(overlay));
+    }
+
+    /**
+     * Validates and resolves an in-memory configuration, without any file access.
+     *
+     * @return The snapshot.
+     */
+    @Benchmark
+    public PipelineConfig inMemory() {
+        return PipelineConfig.of(values);
+    }
+}
@@ -0,0 +1,16 @@
+package benchmarks.overhead;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A test class doing nothing, so the launcher benchmarks only measure the launcher.
+ */
+public class EmptyTest {
+
+    /**
+     * Passes at once.
+     */
+    @Test
+    public void passes() {
+    }
+}
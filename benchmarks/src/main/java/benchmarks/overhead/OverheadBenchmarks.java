@@ -0,0 +1,35 @@
+package benchmarks.overhead;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the pipeline overhead benchmarks with the GC profiler, which adds the allocation rate
+ * (bytes per operation) of every benchmark to its time.
+ * Usage: {@code java -cp benchmarks/target/benchmarks.jar benchmarks.overhead.OverheadBenchmarks [JMH options]}.
+ */
+public final class OverheadBenchmarks {
+
+    private OverheadBenchmarks() {
+    }
+
+    /**
+     * Runs the benchmarks of this package. JMH command line options (e.g., "-f 1 -i 3") are applied on top.
+     *
+     * @param args JMH command line options.
+     * @throws RunnerException if a benchmark fails.
+     * @throws CommandLineOptionException if an option is invalid.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(OverheadBenchmarks.class.getPackageName() + "\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,117 @@
+package benchmarks.overhead;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import packaging.JarPackager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures packaging the build output into a JAR: once from scratch, with every entry compressed,
+ * and once over the previous JAR, with every entry copied from it and the file left untouched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PackagingBenchmark {
+
+    private static final int ENTRY_BYTES = 4096;
+
+    @Param({"100", "2000"})
+    private int files;
+
+    private Path workDir;
+    private Path outputDir;
+    private Path unchangedJar;
+    private Path freshJar;
+    private final JarPackager packager = new JarPackager(4, 6, Instant.parse("1980-02-01T00:00:00Z"));
+
+    /**
+     * Writes the build output, half compressible text and half random bytes like compiled
+     * classes, and packages it once so the unchanged JAR exists.
+     *
+     * @throws IOException if the files cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void createOutput() throws IOException {
+        workDir = Files.createTempDirectory("packaging");
+        outputDir = workDir.resolve("out");
+        unchangedJar = workDir.resolve("unchanged.jar");
+        freshJar = workDir.resolve("fresh.jar");
+        Random random = new Random(42);
+        for (int i = 0; i < files; i++) {
+            Path file = outputDir.resolve("pkg" + i % 10).resolve("Script" + i + ".class");
+            Files.createDirectories(file.getParent());
+            byte[] bytes = new byte[ENTRY_BYTES];
+            random.nextBytes(bytes);
+            for (int j = 0; j < bytes.length / 2; j++) {
+                bytes[j] = (byte) ('a' + j % 7);
+            }
+            Files.write(file, bytes);
+        }
+        packager.pack(List.of(outputDir), unchangedJar, Map.of());
+    }
+
+    /**
+     * Deletes the fresh JAR, so the next invocation compresses every entry again.
+     *
+     * @throws IOException if the file cannot be deleted.
+     */
+    @Setup(Level.Invocation)
+    public void deleteFreshJar() throws IOException {
+        Files.deleteIfExists(freshJar);
+    }
+
+    /**
+     * Deletes the files.
+     *
+     * @throws IOException if a file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void deleteOutput() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Packages the output with no previous JAR.
+     *
+     * @return The outcome.
+     * @throws IOException if the JAR cannot be written.
+     */
+    @Benchmark
+    public JarPackager.Result fresh() throws IOException {
+        return packager.pack(List.of(outputDir), freshJar, Map.of());
+    }
+
+    /**
+     * Packages the output over an identical previous JAR.
+     *
+     * @return The outcome.
+     * @throws IOException if the JAR cannot be written.
+     */
+    @Benchmark
+    public JarPackager.Result unchanged() throws IOException {
+        return packager.pack(List.of(outputDir), unchangedJar, Map.of());
+    }
+}
@@ -0,0 +1,124 @@
+package benchmarks.overhead;
+
+import git.GitBackend;
+import git.JGitBackend;
+import git.ProcessGitBackend;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures what the deploy stage pays per git step: starting a git process directly, through
+ * the ProcessRunner, and reading the same information in-process with JGit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProcessSpawnBenchmark {
+
+    private Path repository;
+    private GitBackend jgit;
+    private GitBackend process;
+
+    /**
+     * Creates a repository with one commit.
+     *
+     * @throws IOException if the repository cannot be written.
+     * @throws GitAPIException if the commit fails.
+     */
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException, GitAPIException {
+        repository = Files.createTempDirectory("spawn");
+        try (Git git = Git.init().setDirectory(repository.toFile()).call()) {
+            Files.writeString(repository.resolve("README.md"), "benchmark\n", StandardCharsets.UTF_8);
+            git.add().addFilepattern("README.md").call();
+            git.commit().setMessage("Initial commit").setAuthor("bench", "bench@example.org")
+                    .setCommitter("bench", "bench@example.org").call();
+        }
+        jgit = new JGitBackend(repository);
+        process = new ProcessGitBackend(repository);
+    }
+
+    /**
+     * Closes the backends and deletes the repository.
+     *
+     * @throws IOException if a file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        jgit.close();
+        process.close();
+        try (Stream<Path> paths = Files.walk(repository)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Starts "git --version" with a bare ProcessBuilder, the lower bound of any git step.
+     *
+     * @return The exit code.
+     * @throws IOException if git cannot be started.
+     * @throws InterruptedException if interrupted.
+     */
+    @Benchmark
+    public int processBuilder() throws IOException, InterruptedException {
+        Process git = new ProcessBuilder("git", "--version").redirectErrorStream(true).start();
+        git.getInputStream().transferTo(OutputStream.nullOutputStream());
+        return git.waitFor();
+    }
+
+    /**
+     * Starts "git --version" through the ProcessRunner, adding its drain and sink threads.
+     *
+     * @return The result.
+     * @throws IOException if git cannot be started.
+     * @throws InterruptedException if interrupted.
+     */
+    @Benchmark
+    public ProcessResult processRunner() throws IOException, InterruptedException {
+        return new ProcessRunner("git", "--version").run();
+    }
+
+    /**
+     * Reads the head commit with the git command line.
+     *
+     * @return The commit hash.
+     * @throws IOException if git fails.
+     */
+    @Benchmark
+    public String processHeadCommit() throws IOException {
+        return process.headCommit();
+    }
+
+    /**
+     * Reads the head commit in-process with JGit.
+     *
+     * @return The commit hash.
+     * @throws IOException if the repository cannot be read.
+     */
+    @Benchmark
+    public String jgitHeadCommit() throws IOException {
+        return jgit.headCommit();
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks.overhead;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pipeline.PipelineConfig;
+import pipeline.StageScheduler;
+import stages.Build;
+import stages.Deploy;
+import stages.Stage;
+import stages.Test;
+import stages.Validate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures building the stage graph of the default pipeline, before any stage runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StageConstructionBenchmark {
+
+    private PipelineConfig config;
+
+    /**
+     * Loads the default configuration once.
+     */
+    @Setup(Level.Trial)
+    public void loadConfig() {
+        config = PipelineConfig.load();
+    }
+
+    /**
+     * Creates every configured stage and adds it to a validated scheduler, the way App does.
+     *
+     * @return The scheduler.
+     */
+    @Benchmark
+    public StageScheduler createScheduler() {
+        Map<String, Supplier<Stage>> stages = Map.of(
+                "build", () -> new Build(config),
+                "test", () -> new Test(config),
+                "benchmark", () -> new stages.Benchmark(config),
+                "validate", () -> new Validate(config),
+                "deploy", () -> new Deploy(config));
+
+        StageScheduler scheduler = new StageScheduler(config.getInt("pipeline.parallelism", 4));
+        for (String name : config.getList("pipeline.stages", List.of())) {
+            scheduler.addStage(stages.get(name).get(), config.getList("stage." + name + ".depends", List.of()));
+        }
+        scheduler.validate();
+        return scheduler;
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks.overhead;
+
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import runner.TestRunner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the fixed cost of running one test class through the JUnit launcher: once with a new
+ * launcher session, as a fresh pipeline process pays it, and once with a session kept open, as
+ * the warm test daemon does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TestLauncherBenchmark {
+
+    private static final List<String> TEST_CLASSES = List.of(EmptyTest.class.getName());
+
+    private LauncherSession session;
+
+    /**
+     * Opens the shared launcher session.
+     */
+    @Setup(Level.Trial)
+    public void openSession() {
+        session = LauncherFactory.openSession();
+    }
+
+    /**
+     * Closes the shared launcher session.
+     */
+    @TearDown(Level.Trial)
+    public void closeSession() {
+        session.close();
+    }
+
+    /**
+     * Opens a launcher session, runs one class and closes the session.
+     *
+     * @return The result of the run.
+     */
+    @Benchmark
+    public TestRunner.Result newSession() {
+        try (LauncherSession fresh = LauncherFactory.openSession()) {
+            return TestRunner.run(fresh, TEST_CLASSES, Map.of(), entry -> { });
+        }
+    }
+
+    /**
+     * Runs one class in the shared launcher session.
+     *
+     * @return The result of the run.
+     */
+    @Benchmark
+    public TestRunner.Result sharedSession() {
+        return TestRunner.run(session, TEST_CLASSES, Map.of(), entry -> { });
+    }
+}
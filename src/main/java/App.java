@@ -1,92 +1,543 @@
+import artifact.ArtifactIO;
+import batch.BatchReport;
+import batch.ProjectManifest;
+import batch.ProjectOutput;
+import metrics.Metrics;
+import metrics.Span;
+import metrics.Tracer;
+import pipeline.FileWatcher;
+import pipeline.PipelineConfig;
+import pipeline.StageScheduler;
+import pipeline.TaskExecutors;
+import progress.Progress;
+import runner.LauncherPool;
+import stages.Benchmark;
 import stages.Build;
-import stages.Test;
 import stages.Deploy;
+import stages.Stage;
+import stages.Test;
+import stages.Validate;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 
 /**
- * The App class manages the build pipeline, executing build, test, and deploy stages.
+ * The App class manages the build pipeline, executing the stages declared in config.properties.
  */
 public class App {
 
+    private static final List<String> DEFAULT_STAGES = List.of("build", "test", "benchmark", "validate", "deploy");
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_PROGRESS_FPS = 10;
+    private static final String DEFAULT_PROMETHEUS_FILE = ".pipeline-cache/metrics.prom";
+    private static final String DEFAULT_TRACES_FILE = ".pipeline-cache/traces.jsonl";
+    private static final long DEFAULT_TRACES_MAX_BYTES = 16L * 1024 * 1024;
+    private static final String DEFAULT_DIGESTS_FILE = ".pipeline-cache/digests.bin";
+    private static final List<String> DEFAULT_WATCH_DIRS = List.of("src/test/java");
+    private static final long DEFAULT_WATCH_DEBOUNCE_MILLIS = 300;
+    private static final int DEFAULT_BATCH_PARALLELISM = 4;
+    private static final String DEFAULT_PROJECT_CONFIG = "pipeline.properties";
+    private static final String DEFAULT_BATCH_LOGS_DIR = ".pipeline-cache/batch";
+    private static final String DEFAULT_BATCH_REPORT_FILE = ".pipeline-cache/batch/report.txt";
+
     /**
      * The main entry point for the build pipeline.
-     * It executes the build, test, and deploy stages sequentially.
-     * @param args Command-line arguments (not used).
+     * It runs the configured stages, starting each one as soon as the stages it depends on succeeded.
+     * @param args Command-line arguments: "--shard i/n" runs only the i-th of n slices of the test classes,
+     *             "--config file" applies a config overlay on top of config.properties (repeatable),
+     *             "--watch" keeps running and builds and tests again what changes,
+     *             "--projects manifest" runs the pipelines of the projects listed in the manifest.
      * @throws Exception If an error occurs during the pipeline execution.
      */
     public static void main(String[] args) throws Exception {
-        System.out.println("Starting the build pipeline...");
-
-        boolean buildSuccess = checkBuild();  // Call the build check method
-        if (buildSuccess) {
-            boolean testsPassed = checkTest();  // Call the test check method
-            if (testsPassed) {
-                boolean deploySuccess = checkDeploy();  // Call the deploy check method
-                if (deploySuccess) {
-                    System.out.println("All stages completed successfully. The application has been deployed.");
-                } else {
-                    System.out.println("Deployment failed. Stopping pipeline.");
-                    System.exit(1);  // Stop the pipeline due to deployment failure
+        Test.Shard shard = Test.Shard.ALL;
+        List<Path> overlays = new ArrayList<>();
+        boolean watch = false;
+        Path manifest = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--watch")) {
+                watch = true;
+            } else if (args[i].equals("--projects") && i + 1 < args.length) {
+                manifest = Paths.get(args[++i]);
+            } else if (args[i].equals("--shard") && i + 1 < args.length) {
+                try {
+                    shard = Test.Shard.parse(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    System.exit(2);
+                    return;
                 }
+            } else if (args[i].equals("--config") && i + 1 < args.length) {
+                overlays.add(Paths.get(args[++i]));
             } else {
-                System.out.println("Tests failed. Stopping pipeline.");
-                System.exit(1);  // Stop the pipeline due to failed tests
+                System.out.println("Unknown argument: " + args[i]);
+                System.exit(2);
             }
+        }
+        if (manifest != null && (watch || shard.count() > 1)) {
+            System.out.println("--projects cannot be combined with --watch or --shard");
+            System.exit(2);
+        }
+
+        // Parsed and validated once; every stage reads the same snapshot
+        PipelineConfig config;
+        try {
+            config = PipelineConfig.load(overlays);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        TaskExecutors.configure(config);
+
+        // Digests of unchanged sources and artifacts are remembered across runs instead of read again
+        Path digestsFile = config.getPath("artifacts.digests.file", DEFAULT_DIGESTS_FILE);
+        ArtifactIO.loadDigests(digestsFile);
+
+        if (manifest != null) {
+            boolean success = runProjects(config, overlays, manifest);
+            exportMetrics(config);
+            saveDigests(digestsFile);
+            if (!success) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        startProgress(config);
+        System.out.println("Starting the build pipeline...");
+
+        StageScheduler scheduler;
+        try {
+            scheduler = createScheduler(config, availableStages(config, shard, watch));
+        } catch (IllegalArgumentException e) {
+            Progress.stop();
+            System.out.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        boolean success;
+        long start = System.nanoTime();
+        try (Span span = Metrics.tracer().startSpan("pipeline")) {
+            span.setAttribute("pipeline.stages", String.join(",", config.getList("pipeline.stages", DEFAULT_STAGES)));
+            span.setAttribute("pipeline.shard", shard.toString());
+            success = scheduler.run();
+            span.setStatus(success, "a stage failed");
+        } finally {
+            Progress.stop();
+        }
+        Metrics.registry().timer("run.duration", "outcome", success ? "success" : "failure")
+                .record(System.nanoTime() - start);
+        exportMetrics(config);
+        saveDigests(digestsFile);
+
+        if (watch) {
+            System.out.println(success ? "All stages completed successfully." : "Pipeline failed.");
+            watch(config, digestsFile);
+            return;
+        }
+        if (success) {
+            System.out.println("All stages completed successfully.");
         } else {
-            System.out.println("Build failed. Stopping pipeline.");
-            System.exit(0);  // Stop the pipeline due to build failure
+            System.out.println("Pipeline failed. Stopping pipeline.");
+            System.exit(1);  // Stop the pipeline due to a failed stage
         }
     }
 
     /**
-     * Checks if the build stage passes.
-     * @return true if the build succeeds, false otherwise.
+     * Starts drawing the progress of the stages. One renderer draws the progress of every stage;
+     * lines are logged instead when stdout is not a terminal.
+     * @param config The pipeline configuration.
      */
-    public static boolean checkBuild() {
-        System.out.println("Checking build...");
-        Build buildStage = new Build();
-        boolean buildSuccess = buildStage.execute();
-
-        if (buildSuccess) {
-            System.out.println("Build succeeded! Proceeding to the test stage...");
-            return true;  // Build passed
-        } else {
-            System.out.println("Build failed. Stopping pipeline.");
-            return false;  // Build failed
+    private static void startProgress(PipelineConfig config) {
+        String progressMode = config.get("progress.mode", "");
+        Progress.start(progressMode.isEmpty() ? Progress.Mode.AUTO
+                        : Progress.Mode.valueOf(progressMode.toUpperCase(Locale.ROOT)),
+                config.getInt("progress.fps", DEFAULT_PROGRESS_FPS));
+    }
+
+    /**
+     * Watch mode: waits for changes to the scripts, the "watch.dirs" directories (the test sources
+     * by default), the test class directories or the configuration files, then builds the scripts
+     * that changed and runs the test classes they affect, in this warm JVM. A configuration change
+     * is loaded without a restart and builds and tests everything again; an invalid one is reported
+     * and the previous configuration kept. Runs until the process is stopped.
+     * @param config The configuration of the first run.
+     * @param digestsFile The digest memo, saved after every run.
+     * @throws IOException if the directories cannot be watched.
+     * @throws InterruptedException if interrupted while waiting for changes.
+     */
+    private static void watch(PipelineConfig config, Path digestsFile) throws IOException, InterruptedException {
+        Duration debounce = Duration.ofMillis(config.getLong("watch.debounce", DEFAULT_WATCH_DEBOUNCE_MILLIS));
+        try (FileWatcher watcher = new FileWatcher(debounce)) {
+            watcher.watchTree(Build.SCRIPTS_DIR);
+            for (String dir : config.getList("watch.dirs", DEFAULT_WATCH_DIRS)) {
+                watcher.watchTree(Paths.get(dir));
+            }
+            for (String dir : config.getList("test.classes.dirs", List.of())) {
+                watcher.watchTree(Paths.get(dir));
+            }
+            watcher.watchFiles(config.getSources());
+
+            while (true) {
+                System.out.println("Watching for changes...");
+                FileWatcher.Changes changes = watcher.awaitChanges();
+                boolean everything = changes.overflow();
+                if (everything) {
+                    System.out.println("Missed file events, building and testing everything again.");
+                }
+                if (config.isStale()) {
+                    try {
+                        config = config.reloadIfChanged();
+                        watcher.watchFiles(config.getSources());
+                        TaskExecutors.configure(config);
+                        System.out.println("Configuration reloaded.");
+                        everything = true;
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(e.getMessage());
+                        System.out.println("Keeping the previous configuration.");
+                    }
+                }
+
+                // The configuration files are not inputs of the stages themselves
+                Set<Path> changed = new TreeSet<>(changes.files());
+                for (Path source : config.getSources()) {
+                    changed.remove(source.toAbsolutePath().normalize());
+                }
+                if (changed.isEmpty() && !everything) {
+                    continue;
+                }
+
+                startProgress(config);
+                boolean success;
+                long start = System.nanoTime();
+                try (Span span = Metrics.tracer().startSpan("watch run")) {
+                    span.setAttribute("watch.files", changed.size());
+                    success = runChanges(config, changed, everything);
+                    span.setStatus(success, "a stage failed");
+                } finally {
+                    Progress.stop();
+                }
+                Metrics.registry().timer("run.duration", "outcome", success ? "success" : "failure")
+                        .record(System.nanoTime() - start);
+                exportMetrics(config);
+                saveDigests(digestsFile);
+                System.out.println(success ? "All stages completed successfully." : "Pipeline failed.");
+            }
         }
     }
 
     /**
-     * Checks if the test stage passes.
-     * @return true if all tests pass, false otherwise.
+     * Runs the build and test stages, if configured in "pipeline.stages", on what changed:
+     * only the listed scripts whose file changed are built, and only the test classes affected
+     * by the changed files are run.
+     * @param config The pipeline configuration.
+     * @param changed The changed files.
+     * @param everything true to build every script and run the tests selected by "test.mode".
+     * @return true if every stage run succeeded.
+     * @throws InterruptedException if interrupted while waiting for a stage.
      */
-    public static boolean checkTest() {
-        System.out.println("Running tests...");
-        boolean testsPassed = Test.runTests();
+    private static boolean runChanges(PipelineConfig config, Set<Path> changed, boolean everything)
+            throws InterruptedException {
+        List<String> configured = config.getList("pipeline.stages", DEFAULT_STAGES);
+        Path scriptsDir = Build.SCRIPTS_DIR.toAbsolutePath().normalize();
+        List<String> scripts = new ArrayList<>();
+        for (String script : config.getList("scripts", List.of())) {
+            if (everything || changed.contains(scriptsDir.resolve(script).normalize())) {
+                scripts.add(script);
+            }
+        }
 
-        if (testsPassed) {
-            System.out.println("All tests passed successfully.");
-            return true;  // All tests passed
-        } else {
-            System.out.println("Some tests failed.");
-            return false;  // Tests failed
+        StageScheduler scheduler = new StageScheduler(config.getInt("pipeline.parallelism", DEFAULT_PARALLELISM));
+        List<String> scheduled = new ArrayList<>();
+        if (configured.contains("build") && !scripts.isEmpty()) {
+            scheduler.addStage(new Build(config, scripts), List.of());
+            scheduled.add("build");
         }
+        if (configured.contains("test")) {
+            scheduler.addStage(new Test(config, everything ? null : changed),
+                    scheduled.contains("build") ? List.of("build") : List.of());
+            scheduled.add("test");
+        }
+        if (scheduled.isEmpty()) {
+            System.out.println("Nothing to build or test for this change.");
+            return true;
+        }
+        System.out.println("Running " + String.join(" and ", scheduled) + " for "
+                + (everything ? "every file" : changed.size() + " changed files") + "...");
+        scheduler.validate();
+        return scheduler.run();
     }
 
     /**
-     * Deploys the application to GitHub.
-     * @return true if the deployment succeeds, false otherwise.
+     * Batch mode: runs the pipelines of the projects listed in a manifest in this JVM, at most
+     * "batch.parallelism" at a time. Each project gets its own configuration, its own class loader
+     * for its test classes and its own log file in "batch.logs.dir". The compiler, the JUnit launcher
+     * sessions, the remote cache connections and the digest memo are shared by every project.
+     * A combined report is printed and written to "batch.report.file".
+     * @param config The configuration of the batch itself.
+     * @param overlays The overlays given on the command line, applied to every project.
+     * @param manifestFile The manifest listing the project directories.
+     * @return true if every project succeeded.
+     * @throws InterruptedException if interrupted while waiting for the projects.
      */
-    public static boolean checkDeploy() {
-        System.out.println("Deploying the application to GitHub...");
-        Deploy deployStage = new Deploy();
-        boolean deploySuccess = deployStage.deploy();
-
-        if (deploySuccess) {
-            System.out.println("Deployment succeeded!");
-            return true;  // Deployment passed
-        } else {
-            System.out.println("Deployment failed. Stopping pipeline.");
-            return false;  // Deployment failed
+    private static boolean runProjects(PipelineConfig config, List<Path> overlays, Path manifestFile)
+            throws InterruptedException {
+        List<ProjectManifest.Project> projects;
+        try {
+            projects = ProjectManifest.read(manifestFile);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Cannot read the project manifest: " + e.getMessage());
+            return false;
+        }
+        if (projects.isEmpty()) {
+            System.out.println("No projects in " + manifestFile + ".");
+            return true;
+        }
+        int parallelism = Math.min(config.getInt("batch.parallelism", DEFAULT_BATCH_PARALLELISM), projects.size());
+        Path logsDir = config.getPath("batch.logs.dir", DEFAULT_BATCH_LOGS_DIR);
+        String projectConfig = config.get("batch.project.config", DEFAULT_PROJECT_CONFIG);
+        System.out.println("Running the pipelines of " + projects.size() + " projects, " + parallelism
+                + " at a time...");
+
+        Map<ProjectManifest.Project, BatchReport.Entry> outcomes = new HashMap<>();
+        long start = System.nanoTime();
+        LauncherPool.share();
+        ProjectOutput.install();
+        try (Span span = Metrics.tracer().startSpan("batch");
+             ExecutorService executor = TaskExecutors.newScope("projects", parallelism)) {
+            span.setAttribute("batch.projects", projects.size());
+            CompletionService<BatchReport.Entry> completion = new ExecutorCompletionService<>(executor);
+            for (ProjectManifest.Project project : projects) {
+                completion.submit(Tracer.wrap(() -> runProject(project, overlays, projectConfig, logsDir)));
+            }
+            boolean success = true;
+            for (int i = 1; i <= projects.size(); i++) {
+                BatchReport.Entry entry = completion.take().get();
+                outcomes.put(entry.project(), entry);
+                success &= entry.success();
+                System.out.println("[" + i + "/" + projects.size() + "] " + entry.line());
+            }
+            span.setStatus(success, "a project failed");
+        } catch (ExecutionException e) {
+            // runProject catches exceptions, so only errors (e.g. OutOfMemoryError) end up here
+            throw new IllegalStateException("Project crashed", e.getCause());
+        } finally {
+            ProjectOutput.uninstall();
+            LauncherPool.closeAll();
+        }
+
+        List<BatchReport.Entry> entries = new ArrayList<>();
+        for (ProjectManifest.Project project : projects) {
+            entries.add(outcomes.get(project));
+        }
+        BatchReport report = new BatchReport(entries, System.nanoTime() - start);
+        System.out.print(report.render());
+        Path reportFile = config.getPath("batch.report.file", DEFAULT_BATCH_REPORT_FILE);
+        try {
+            report.write(reportFile);
+        } catch (IOException e) {
+            System.out.println("Could not write the batch report " + reportFile + ": " + e.getMessage());
+        }
+        return report.success();
+    }
+
+    /**
+     * Runs the pipeline of one project of a batch, sending its output to its log file.
+     * @param project The project.
+     * @param overlays The overlays given on the command line.
+     * @param projectConfig The name of the overlay read from the project directory, when present.
+     * @param logsDir The directory of the log files.
+     * @return The outcome of the project.
+     */
+    private static BatchReport.Entry runProject(ProjectManifest.Project project, List<Path> overlays,
+                                                String projectConfig, Path logsDir) {
+        Path log = logsDir.resolve(project.name() + ".log");
+        long start = System.nanoTime();
+        boolean success;
+        try {
+            success = ProjectOutput.capture(log, () -> runPipeline(project, overlays, projectConfig));
+        } catch (Exception e) {
+            System.out.println("Project " + project.name() + " crashed: " + e);
+            success = false;
+        }
+        long nanos = System.nanoTime() - start;
+        Metrics.registry().timer("project.duration", "outcome", success ? "success" : "failure").record(nanos);
+        return new BatchReport.Entry(project, success, nanos, log);
+    }
+
+    /**
+     * Loads the configuration of a project and runs its stages. The configuration is config.properties,
+     * then the overlays given on the command line, then the overlay of the project directory, if any;
+     * relative paths are relative to the project directory. The executors are shared by the whole
+     * batch, so a project overlay selecting other threads with "pipeline.executor" fails the project.
+     * @param project The project.
+     * @param overlays The overlays given on the command line.
+     * @param projectConfig The name of the overlay read from the project directory, when present.
+     * @return true if every stage succeeded.
+     * @throws InterruptedException if interrupted while waiting for a stage.
+     */
+    private static boolean runPipeline(ProjectManifest.Project project, List<Path> overlays, String projectConfig)
+            throws InterruptedException {
+        try (Span span = Metrics.tracer().startSpan("project " + project.name())) {
+            span.setAttribute("project.dir", project.directory().toString());
+            List<Path> projectOverlays = new ArrayList<>(overlays);
+            Path own = project.directory().resolve(projectConfig);
+            if (Files.isRegularFile(own)) {
+                projectOverlays.add(own);
+            }
+
+            boolean success;
+            try {
+                PipelineConfig config = PipelineConfig.load(project.directory(), projectOverlays);
+                if (TaskExecutors.modeOf(config) != TaskExecutors.mode()) {
+                    throw new IllegalArgumentException("pipeline.executor applies to the whole batch: set it in "
+                            + "config.properties or a --config overlay, not in " + own);
+                }
+                System.out.println("Starting the build pipeline of " + project.directory() + "...");
+                success = createScheduler(config, availableStages(config, Test.Shard.ALL, true)).run();
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                success = false;
+            }
+            System.out.println(success ? "All stages completed successfully." : "Pipeline failed.");
+            span.setStatus(success, "a stage failed");
+            return success;
+        }
+    }
+
+    /**
+     * Saves the digest memo. A failure to write it is reported but does not fail the pipeline.
+     * @param digestsFile The memo file, for the report.
+     */
+    private static void saveDigests(Path digestsFile) {
+        try {
+            ArtifactIO.saveDigests();
+        } catch (IOException e) {
+            System.out.println("Could not write the digest memo " + digestsFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the metrics of the run as a Prometheus text file and appends its trace to the trace file.
+     * A failure to write them is reported but does not fail the pipeline.
+     * @param config The pipeline configuration.
+     */
+    private static void exportMetrics(PipelineConfig config) {
+        if (!config.getBoolean("metrics.enabled", true)) {
+            return;
+        }
+        try {
+            // Virtual threads are not counted: this is the number of platform threads the run needed
+            Metrics.registry().gauge("jvm.threads.peak").set(ManagementFactory.getThreadMXBean().getPeakThreadCount());
+            Metrics.registry().writePrometheus(config.getPath("metrics.prometheus.file", DEFAULT_PROMETHEUS_FILE));
+            Metrics.tracer().export(config.getPath("metrics.traces.file", DEFAULT_TRACES_FILE),
+                    config.getLong("metrics.traces.maxBytes", DEFAULT_TRACES_MAX_BYTES));
+        } catch (IOException e) {
+            System.out.println("Could not write the pipeline metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists every stage the pipeline knows how to run, by the name used in config.properties.
+     * A new stage only has to be registered here and listed in "pipeline.stages".
+     * @param config The pipeline configuration handed to every stage.
+     * @param shard The shard of test classes run by the test stage.
+     * @param reloadTests true to load the test classes in a class loader of their own for every run:
+     *                    in watch mode, and for every project of a batch.
+     * @return The stage factories, by stage name.
+     */
+    static Map<String, Supplier<Stage>> availableStages(PipelineConfig config, Test.Shard shard,
+                                                        boolean reloadTests) {
+        return Map.of(
+                "build", () -> new Build(config),
+                "test", () -> reloadTests ? new Test(config, (Collection<Path>) null) : new Test(config, shard),
+                "validate", () -> new Validate(config),
+                "benchmark", () -> new Benchmark(config),
+                "deploy", () -> new Deploy(config)
+        );
+    }
+
+    /**
+     * Builds the stage graph from config.properties.
+     * A stage without a "stage.<name>.depends" entry depends on the stage listed before it,
+     * so a plain "pipeline.stages" list keeps running sequentially. A dependency on a stage left
+     * out of "pipeline.stages" is replaced by that stage's own dependencies, so a shorter stage
+     * list keeps the order of the default graph without overriding the depends entries.
+     * @param config The pipeline configuration.
+     * @param availableStages The stage factories, by stage name.
+     * @return A scheduler holding every configured stage.
+     */
+    static StageScheduler createScheduler(PipelineConfig config, Map<String, Supplier<Stage>> availableStages) {
+        StageScheduler scheduler = new StageScheduler(config.getInt("pipeline.parallelism", DEFAULT_PARALLELISM));
+
+        List<String> stages = config.getList("pipeline.stages", DEFAULT_STAGES);
+        String previous = null;
+        for (String name : stages) {
+            Supplier<Stage> factory = availableStages.get(name);
+            if (factory == null) {
+                throw new IllegalArgumentException("Unknown stage in pipeline.stages: " + name);
+            }
+
+            String dependsKey = "stage." + name + ".depends";
+            List<String> dependsOn;
+            if (config.contains(dependsKey)) {
+                dependsOn = scheduledDependencies(config, config.getList(dependsKey, List.of()), stages,
+                        availableStages.keySet(), new HashSet<>());
+            } else if (previous != null) {
+                dependsOn = List.of(previous);
+            } else {
+                dependsOn = List.of();
+            }
+
+            scheduler.addStage(factory.get(), dependsOn);
+            previous = name;
+        }
+
+        scheduler.validate();  // Reject unknown dependencies and cycles before anything runs
+        return scheduler;
+    }
+
+    /**
+     * Replaces the dependencies on stages that are not scheduled with their own dependencies.
+     * @param config The pipeline configuration.
+     * @param dependencies The dependencies from a "stage.<name>.depends" entry.
+     * @param scheduled The stages of "pipeline.stages".
+     * @param known The names of every available stage. Unknown names are kept for the scheduler to reject.
+     * @param replaced The stages replaced so far, so a cycle of unscheduled stages ends.
+     * @return The dependencies, all of them scheduled or unknown.
+     */
+    private static List<String> scheduledDependencies(PipelineConfig config, List<String> dependencies,
+                                                      List<String> scheduled, Set<String> known, Set<String> replaced) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String dependency : dependencies) {
+            if (scheduled.contains(dependency) || !known.contains(dependency)) {
+                result.add(dependency);
+            } else if (replaced.add(dependency)) {
+                result.addAll(scheduledDependencies(config, config.getList("stage." + dependency + ".depends",
+                        List.of()), scheduled, known, replaced));
+            }
         }
+        return new ArrayList<>(result);
     }
 }
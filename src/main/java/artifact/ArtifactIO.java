@@ -0,0 +1,205 @@
+package artifact;
+
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ArtifactIO hashes, reads and copies the files the pipeline moves around: sources and artifacts
+ * in the build caches, blobs sent to remote workers and entries of the packaged JAR.
+ * <ul>
+ *   <li>Large files are hashed and read through memory-mapped windows, small ones through a file
+ *       channel, without going through input streams.</li>
+ *   <li>Digests are remembered by file key, modification time and size (see {@link DigestMemo}),
+ *       and the memo is kept across runs, so an unchanged file is never read again to be hashed.</li>
+ *   <li>Files are copied with {@link FileChannel#transferTo}, which lets the kernel copy them
+ *       without passing the bytes through the JVM.</li>
+ * </ul>
+ * Without {@link #loadDigests}, for example in a cache server or a remote worker, digests are
+ * only remembered for the life of the process.
+ */
+public final class ArtifactIO {
+
+    // Smaller files are read into a buffer: mapping them costs more than reading them
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // A file modified this recently may change again within the timestamp resolution: it is not remembered
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static volatile DigestMemo memo = new DigestMemo();
+    private static volatile Path memoFile;
+
+    /**
+     * Utility class.
+     */
+    private ArtifactIO() {
+    }
+
+    /**
+     * Loads the digests remembered by previous runs. Digests computed from now on are remembered in
+     * the same file by {@link #saveDigests}.
+     *
+     * @param file The memo file.
+     */
+    public static synchronized void loadDigests(Path file) {
+        memo = DigestMemo.load(file);
+        memoFile = file;
+    }
+
+    /**
+     * Writes the remembered digests back to the file given to {@link #loadDigests}, if any.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public static synchronized void saveDigests() throws IOException {
+        if (memoFile != null) {
+            memo.save(memoFile);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file, or returns the remembered one if the file did not
+     * change since it was hashed.
+     *
+     * @param file The file.
+     * @return The digest, in lowercase hexadecimal.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String sha256(Path file) throws IOException {
+        return HEX.formatHex(digest(file));
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file, or returns the remembered one if the file did not
+     * change since it was hashed.
+     *
+     * @param file The file.
+     * @return The 32 digest bytes.
+     * @throws IOException if the file cannot be read.
+     */
+    public static byte[] digest(Path file) throws IOException {
+        BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+        String fileKey = fileKey(file, before);
+        long modifiedNanos = before.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        byte[] remembered = memo.get(fileKey, modifiedNanos, before.size());
+        if (remembered != null) {
+            Metrics.registry().counter("artifacts.digests", "result", "memo").increment();
+            return remembered;
+        }
+
+        long start = System.currentTimeMillis();
+        MessageDigest sha256 = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    sha256.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, size - position)));
+                }
+            } else {
+                // A heap buffer: the digest reads its array directly instead of copying it out
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+                while (channel.read(buffer) > 0) {
+                    sha256.update(buffer.flip());
+                    buffer.clear();
+                }
+            }
+        }
+        byte[] digest = sha256.digest();
+        Metrics.registry().counter("artifacts.digests", "result", "hashed").increment();
+        Metrics.registry().counter("artifacts.hashed.bytes").increment(before.size());
+
+        // Only remember files that did not change while being read and are not still being written
+        BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+        boolean unchanged = after.lastModifiedTime().equals(before.lastModifiedTime()) && after.size() == before.size();
+        if (unchanged && modifiedNanos < TimeUnit.MILLISECONDS.toNanos(start) - RACY_NANOS) {
+            memo.put(fileKey, modifiedNanos, before.size(), digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Reads a whole file. Large files are mapped rather than copied onto the heap.
+     *
+     * @param file The file.
+     * @return The contents, positioned at 0.
+     * @throws IOException if the file cannot be read or is larger than 2 GB.
+     */
+    public static ByteBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to read at once: " + file);
+            }
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Keep reading until full
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Copies a file, replacing the target. The bytes are moved by the kernel, not through the heap.
+     *
+     * @param source The file to copy.
+     * @param target The copy.
+     * @throws IOException if the source cannot be read or the target cannot be written.
+     */
+    public static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    break;  // The source was truncated while being copied
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Returns the identity of a file in the memo: its device and inode where the file system
+     * reports them, so a renamed or hard-linked file keeps its digest, and its path otherwise.
+     *
+     * @param file The file.
+     * @param attributes Its attributes.
+     * @return The file key.
+     */
+    private static String fileKey(Path file, BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key != null ? key.toString() : file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     *
+     * @return A new digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
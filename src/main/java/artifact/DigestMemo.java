@@ -0,0 +1,142 @@
+package artifact;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The DigestMemo remembers the SHA-256 digest of files across runs, so a file that did not change
+ * is not read again. A file is identified by its file key (device and inode on Unix, the path
+ * elsewhere); a remembered digest is only used while the file keeps the same modification time
+ * and size. The least recently used entries are dropped once the memo holds {@link #MAX_ENTRIES}.
+ *
+ * File format: the magic number, then records of
+ * (UTF file key, long modification time in nanos, long size, 32 digest bytes).
+ */
+final class DigestMemo {
+
+    private static final int MAGIC = 0x50444d31;  // "PDM1"
+    private static final int DIGEST_BYTES = 32;
+    private static final int MAX_ENTRIES = 200_000;
+
+    /**
+     * A remembered digest.
+     *
+     * @param modifiedNanos The modification time of the file when it was hashed, in nanoseconds.
+     * @param size The size of the file when it was hashed.
+     * @param digest The SHA-256 digest.
+     */
+    record Entry(long modifiedNanos, long size, byte[] digest) {
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean changed;
+
+    /**
+     * Loads a memo file. A missing or unreadable file gives an empty memo: every file is hashed
+     * again, which is only slower.
+     *
+     * @param file The memo file.
+     * @return The loaded memo.
+     */
+    static DigestMemo load(Path file) {
+        DigestMemo memo = new DigestMemo();
+        if (!Files.exists(file)) {
+            return memo;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC) {
+                System.out.println("Ignoring digest memo with an unknown format: " + file);
+                return memo;
+            }
+            while (true) {
+                String fileKey = in.readUTF();
+                long modifiedNanos = in.readLong();
+                long size = in.readLong();
+                byte[] digest = new byte[DIGEST_BYTES];
+                in.readFully(digest);
+                memo.entries.put(fileKey, new Entry(modifiedNanos, size, digest));
+            }
+        } catch (EOFException e) {
+            return memo;  // End of file, or a record cut short by a crash
+        } catch (IOException e) {
+            System.out.println("Could not read the digest memo: " + e.getMessage());
+            return memo;
+        }
+    }
+
+    /**
+     * Returns the remembered digest of a file, if it did not change since it was hashed.
+     *
+     * @param fileKey The file key.
+     * @param modifiedNanos The current modification time of the file.
+     * @param size The current size of the file.
+     * @return The digest, or null if unknown or stale.
+     */
+    synchronized byte[] get(String fileKey, long modifiedNanos, long size) {
+        Entry entry = entries.get(fileKey);
+        return entry != null && entry.modifiedNanos() == modifiedNanos && entry.size() == size
+                ? entry.digest() : null;
+    }
+
+    /**
+     * Remembers the digest of a file.
+     *
+     * @param fileKey The file key.
+     * @param modifiedNanos The modification time of the file when it was hashed.
+     * @param size The size of the file when it was hashed.
+     * @param digest The digest.
+     */
+    synchronized void put(String fileKey, long modifiedNanos, long size, byte[] digest) {
+        entries.put(fileKey, new Entry(modifiedNanos, size, digest));
+        changed = true;
+    }
+
+    /**
+     * Writes the memo next to its final place, then moves it in, so a concurrent reader never
+     * sees half a file. Nothing is written when no digest was added.
+     *
+     * @param file The memo file.
+     * @throws IOException if the file cannot be written.
+     */
+    synchronized void save(Path file) throws IOException {
+        if (!changed) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(".tmp-" + UUID.randomUUID());
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.writeInt(MAGIC);
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().modifiedNanos());
+                    out.writeLong(entry.getValue().size());
+                    out.write(entry.getValue().digest());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The combined report of a batch: the outcome, duration and log file of every project, in
+ * manifest order, with the totals first.
+ */
+public final class BatchReport {
+
+    /**
+     * The outcome of one project.
+     *
+     * @param project The project.
+     * @param success true if every stage of its pipeline succeeded.
+     * @param nanos How long its pipeline ran.
+     * @param log The log file holding its output.
+     */
+    public record Entry(ProjectManifest.Project project, boolean success, long nanos, Path log) {
+
+        /**
+         * Renders the entry as one line of the report.
+         *
+         * @return The line, without line break.
+         */
+        public String line() {
+            return String.format(Locale.ROOT, "%-6s %8.1f s  %-24s %s", success ? "ok" : "FAILED", nanos / 1e9,
+                    project.name(), log);
+        }
+    }
+
+    private final List<Entry> entries;
+    private final long nanos;
+
+    /**
+     * Constructor for the BatchReport class.
+     *
+     * @param entries The outcome of every project, in manifest order.
+     * @param nanos How long the whole batch ran.
+     */
+    public BatchReport(List<Entry> entries, long nanos) {
+        this.entries = List.copyOf(entries);
+        this.nanos = nanos;
+    }
+
+    /**
+     * Tells whether every project succeeded.
+     *
+     * @return true if no project failed.
+     */
+    public boolean success() {
+        return entries.stream().allMatch(Entry::success);
+    }
+
+    /**
+     * Renders the report. The first line compares the duration of the batch with the summed
+     * durations of the project pipelines, i.e. what running them one after the other would take.
+     *
+     * @return The report text.
+     */
+    public String render() {
+        long failed = entries.stream().filter(entry -> !entry.success()).count();
+        long projectNanos = entries.stream().mapToLong(Entry::nanos).sum();
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "%d projects: %d succeeded, %d failed in %.1f s (%.1f s of pipelines)",
+                entries.size(), entries.size() - failed, failed, nanos / 1e9, projectNanos / 1e9));
+        for (Entry entry : entries) {
+            lines.add("  " + entry.line());
+        }
+        return String.join("\n", lines) + "\n";
+    }
+
+    /**
+     * Writes the report to a file, replacing it atomically.
+     *
+     * @param file The report file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, ".report-", ".tmp");
+        try {
+            Files.writeString(temporary, render(), StandardCharsets.UTF_8);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
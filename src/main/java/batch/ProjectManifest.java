@@ -0,0 +1,73 @@
+package batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The list of projects run by the batch mode: one project directory per line, absolute or relative
+ * to the manifest. Blank lines and lines starting with "#" are ignored.
+ *
+ * Every project is named after its directory; a name already taken gets a numbered suffix
+ * ("app", "app-2"), so names can be used for log files.
+ */
+public final class ProjectManifest {
+
+    /**
+     * One project of the batch.
+     *
+     * @param name The unique name of the project.
+     * @param directory The absolute project directory.
+     */
+    public record Project(String name, Path directory) {
+    }
+
+    /**
+     * Utility class.
+     */
+    private ProjectManifest() {
+    }
+
+    /**
+     * Reads a manifest.
+     *
+     * @param manifest The manifest file.
+     * @return The projects, in manifest order.
+     * @throws IOException if the manifest cannot be read.
+     * @throws IllegalArgumentException listing every entry that is not a directory.
+     */
+    public static List<Project> read(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Project> projects = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String entry = line.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            Path directory = base.resolve(entry).normalize();
+            if (!Files.isDirectory(directory)) {
+                errors.add(manifest + ":" + lineNumber + ": not a directory: " + entry);
+                continue;
+            }
+            String name = directory.getFileName() == null ? "root" : directory.getFileName().toString();
+            String unique = name;
+            for (int suffix = 2; !names.add(unique); suffix++) {
+                unique = name + "-" + suffix;
+            }
+            projects.add(new Project(unique, directory));
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Invalid project manifest:\n  " + String.join("\n  ", errors));
+        }
+        return projects;
+    }
+}
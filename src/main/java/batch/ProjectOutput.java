@@ -0,0 +1,126 @@
+package batch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+/**
+ * Sends what each project of a batch prints to a log file of its own, so the output of projects
+ * running at the same time is not interleaved on the console.
+ *
+ * While installed, {@link System#out} and {@link System#err} write to the log of the project the
+ * printing thread works for. A thread works for the project of the thread that started it: the
+ * stage threads, compile workers and output readers started by a project inherit its log. Threads
+ * working for no project, such as the one reporting the batch, keep printing to the console.
+ */
+public final class ProjectOutput {
+
+    private static final InheritableThreadLocal<OutputStream> CURRENT = new InheritableThreadLocal<>();
+
+    private static PrintStream originalOut;
+    private static PrintStream originalErr;
+
+    /**
+     * Utility class.
+     */
+    private ProjectOutput() {
+    }
+
+    /**
+     * Replaces the standard streams with streams writing to the log of the current project.
+     */
+    public static synchronized void install() {
+        if (originalOut != null) {
+            return;
+        }
+        originalOut = System.out;
+        originalErr = System.err;
+        System.setOut(new PrintStream(new Router(originalOut), true, originalOut.charset()));
+        System.setErr(new PrintStream(new Router(originalErr), true, originalErr.charset()));
+    }
+
+    /**
+     * Puts the original standard streams back.
+     */
+    public static synchronized void uninstall() {
+        if (originalOut == null) {
+            return;
+        }
+        System.out.flush();
+        System.err.flush();
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+        originalOut = null;
+        originalErr = null;
+    }
+
+    /**
+     * Runs the work of one project, sending what it prints to a log file.
+     *
+     * @param logFile The log file, replaced if it exists.
+     * @param work The work of the project.
+     * @param <T> The result type of the work.
+     * @return The result of the work.
+     * @throws Exception if the log cannot be created or the work fails.
+     */
+    public static <T> T capture(Path logFile, Callable<T> work) throws Exception {
+        Files.createDirectories(logFile.toAbsolutePath().getParent());
+        OutputStream previous = CURRENT.get();
+        try (OutputStream log = new BufferedOutputStream(Files.newOutputStream(logFile))) {
+            CURRENT.set(log);
+            try {
+                return work.call();
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Writes to the log of the project of the current thread, or to the console outside any project.
+     */
+    private static final class Router extends OutputStream {
+
+        private final OutputStream console;
+
+        /**
+         * Constructor for the Router class.
+         *
+         * @param console Where threads working for no project write.
+         */
+        Router(OutputStream console) {
+            this.console = console;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+
+        /**
+         * Returns where the current thread writes.
+         *
+         * @return The log of its project, or the console.
+         */
+        private OutputStream target() {
+            OutputStream log = CURRENT.get();
+            return log != null ? log : console;
+        }
+    }
+}
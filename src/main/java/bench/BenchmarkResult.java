@@ -0,0 +1,125 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The primary score of one JMH benchmark, with its 99.9% confidence interval.
+ *
+ * @param benchmark The fully qualified benchmark method.
+ * @param params The benchmark parameters, sorted by name.
+ * @param mode The JMH mode ("thrpt", "avgt", "sample" or "ss").
+ * @param score The score.
+ * @param low The lower bound of the confidence interval (NaN when unknown).
+ * @param high The upper bound of the confidence interval (NaN when unknown).
+ * @param unit The unit of the score (e.g., "us/op").
+ */
+public record BenchmarkResult(String benchmark, Map<String, String> params, String mode, double score,
+                              double low, double high, String unit) {
+
+    /**
+     * How a benchmark changed between two runs.
+     *
+     * @param previous The result of the previous run.
+     * @param current The result of this run.
+     * @param changePercent The change of the score, in percent of the previous score.
+     * @param significant true if the confidence intervals do not overlap.
+     * @param regression true if the benchmark got significantly worse by at least the threshold.
+     */
+    public record Change(BenchmarkResult previous, BenchmarkResult current, double changePercent,
+                         boolean significant, boolean regression) {
+    }
+
+    /**
+     * Reads the results of a JMH run written with "-rf json".
+     *
+     * @param json The content of the result file.
+     * @return The results, in file order.
+     * @throws IllegalArgumentException if the content is not a JMH result file.
+     */
+    public static List<BenchmarkResult> parse(String json) {
+        if (!(Json.parse(json) instanceof List<?> entries)) {
+            throw new IllegalArgumentException("Expected a JSON array of benchmark results");
+        }
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (Object entry : entries) {
+            Map<?, ?> result = asMap(entry);
+            Map<?, ?> metric = asMap(result.get("primaryMetric"));
+            Map<String, String> params = new TreeMap<>();
+            if (result.get("params") instanceof Map<?, ?> values) {
+                values.forEach((name, value) -> params.put(name.toString(), String.valueOf(value)));
+            }
+
+            double low = Double.NaN;
+            double high = Double.NaN;
+            if (metric.get("scoreConfidence") instanceof List<?> bounds && bounds.size() == 2) {
+                low = number(bounds.get(0));
+                high = number(bounds.get(1));
+            }
+            results.add(new BenchmarkResult(String.valueOf(result.get("benchmark")), params,
+                    String.valueOf(result.get("mode")), number(metric.get("score")), low, high,
+                    String.valueOf(metric.get("scoreUnit"))));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the name identifying this benchmark across runs: the method and its parameters.
+     *
+     * @return The key (e.g., "benchmarks.BuildCacheBenchmark.key{sourceBytes=1024}").
+     */
+    public String key() {
+        return params.isEmpty() ? benchmark : benchmark + params;
+    }
+
+    /**
+     * Compares this result with the result of a previous run. A change is significant when the
+     * confidence intervals of both runs do not overlap; it is a regression when it is significant,
+     * in the wrong direction (lower throughput, higher time) and at least the threshold.
+     *
+     * @param previous The previous result of the same benchmark.
+     * @param thresholdPercent The smallest change reported as a regression, in percent.
+     * @return The change.
+     */
+    public Change compareTo(BenchmarkResult previous, double thresholdPercent) {
+        double changePercent = (score - previous.score) / previous.score * 100;
+        boolean known = !Double.isNaN(low) && !Double.isNaN(high)
+                && !Double.isNaN(previous.low) && !Double.isNaN(previous.high);
+        boolean significant = known && (low > previous.high || high < previous.low);
+        boolean worse = mode.equals("thrpt") ? changePercent < 0 : changePercent > 0;
+        return new Change(previous, this, changePercent, significant,
+                significant && worse && Math.abs(changePercent) >= thresholdPercent);
+    }
+
+    /**
+     * Casts a JSON value to an object.
+     *
+     * @param value The value.
+     * @return The object members.
+     */
+    private static Map<?, ?> asMap(Object value) {
+        if (!(value instanceof Map<?, ?> map)) {
+            throw new IllegalArgumentException("Expected a JSON object, got " + value);
+        }
+        return map;
+    }
+
+    /**
+     * Reads a number. JMH writes the values it could not compute as the strings "NaN" or "Infinity".
+     *
+     * @param value The JSON value.
+     * @return The number.
+     */
+    private static double number(Object value) {
+        if (value instanceof Double number) {
+            return number;
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
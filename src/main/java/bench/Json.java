@@ -0,0 +1,241 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader, enough for the result files written by JMH. Objects are read as
+ * {@code Map<String, Object>}, arrays as {@code List<Object>}, numbers as {@code Double},
+ * and true, false and null as {@code Boolean} and null.
+ */
+public final class Json {
+
+    private final String text;
+    private int position;
+
+    /**
+     * Constructor for the Json class.
+     *
+     * @param text The JSON text.
+     */
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses a JSON document.
+     *
+     * @param text The JSON text.
+     * @return The parsed value.
+     * @throws IllegalArgumentException if the text is not valid JSON.
+     */
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.position != text.length()) {
+            throw json.error("Unexpected content after the document");
+        }
+        return value;
+    }
+
+    /**
+     * Reads the value at the current position.
+     *
+     * @return The value.
+     */
+    private Object value() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of document");
+        }
+        char c = text.charAt(position);
+        return switch (c) {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> string();
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", null);
+            default -> {
+                if (c == '-' || Character.isDigit(c)) {
+                    yield number();
+                }
+                throw error("Unexpected character '" + c + "'");
+            }
+        };
+    }
+
+    /**
+     * Reads an object.
+     *
+     * @return The members, in document order.
+     */
+    private Map<String, Object> object() {
+        Map<String, Object> members = new LinkedHashMap<>();
+        position++;  // {
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return members;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            members.put(name, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return members;
+            }
+        }
+    }
+
+    /**
+     * Reads an array.
+     *
+     * @return The elements.
+     */
+    private List<Object> array() {
+        List<Object> elements = new ArrayList<>();
+        position++;  // [
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return elements;
+        }
+        while (true) {
+            elements.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return elements;
+            }
+        }
+    }
+
+    /**
+     * Reads a string, decoding its escapes.
+     *
+     * @return The string.
+     */
+    private String string() {
+        StringBuilder value = new StringBuilder();
+        position++;  // "
+        while (true) {
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char escape = text.charAt(position++);
+            switch (escape) {
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    if (position + 4 > text.length()) {
+                        throw error("Truncated unicode escape");
+                    }
+                    value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                }
+                default -> value.append(escape);  // \" \\ \/
+            }
+        }
+    }
+
+    /**
+     * Reads a number.
+     *
+     * @return The number.
+     */
+    private Double number() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + text.substring(start, position) + "'");
+        }
+    }
+
+    /**
+     * Reads a literal word.
+     *
+     * @param word The expected word.
+     * @param value The value of the word.
+     * @return The value.
+     */
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, position)) {
+            throw error("Expected '" + word + "'");
+        }
+        position += word.length();
+        return value;
+    }
+
+    /**
+     * Returns the current character without consuming it.
+     *
+     * @return The character, or 0 at the end of the document.
+     */
+    private char peek() {
+        return position < text.length() ? text.charAt(position) : 0;
+    }
+
+    /**
+     * Consumes an expected character.
+     *
+     * @param c The character.
+     */
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    /**
+     * Skips spaces, tabs and line breaks.
+     */
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    /**
+     * Creates a parse error pointing at the current position.
+     *
+     * @param message The problem.
+     * @return The exception, to be thrown.
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
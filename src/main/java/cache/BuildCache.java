@@ -0,0 +1,448 @@
+package cache;
+
+import artifact.ArtifactIO;
+import toolchain.CompileResult;
+import toolchain.Toolchain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The BuildCache is a local, content-addressed cache of compilation results.
+ * Entries are keyed by a hash of the source file's contents, its toolchain and the relevant
+ * configuration values, so an unchanged file is restored from the cache instead of compiled.
+ * A file compiled by a batch toolchain may reference the other files of its batch, so its key also
+ * covers their contents: when one of them changes, the whole batch is compiled again.
+ * Each entry stores the compiler output and a copy of the produced artifacts. When the cache
+ * grows past its size cap, the least recently used entries are evicted.
+ *
+ * The total size of the entries is kept in a usage file, updated as entries are stored, so a build
+ * only walks the cache when it has grown past its cap (or when the usage file is missing).
+ *
+ * Layout: {@code <dir>/<first two hex digits>/<key>/result.properties} and {@code .../files/<artifact>},
+ * plus {@code <dir>/usage}.
+ */
+public class BuildCache {
+
+    private static final String RESULT_FILE = "result.properties";
+    private static final String FILES_DIR = "files";
+    private static final String USAGE_FILE = "usage";
+    private static final String KEY_VERSION = "3";
+
+    // A file lock is held by the process, not by a thread: threads take turns before locking
+    private static final Object USAGE_LOCK = new Object();
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * Constructor for the BuildCache class.
+     * @param directory The directory holding the cache entries.
+     * @param maxBytes The size above which least recently used entries are evicted.
+     */
+    public BuildCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Computes the digest of the sources a batch toolchain compiles together, from their names and contents.
+     * @param sources The source files of the batch, in any order.
+     * @return The hex-encoded SHA-256 digest.
+     * @throws IOException if a source file cannot be read.
+     */
+    public static String batchDigest(List<Path> sources) throws IOException {
+        MessageDigest digest = sha256();
+        List<Path> sorted = new ArrayList<>(sources);
+        sorted.sort(Comparator.comparing(Path::toString));
+        for (Path source : sorted) {
+            update(digest, source.getFileName().toString());
+            digest.update(ArtifactIO.digest(source));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the cache key of a source file.
+     * @param source The source file.
+     * @param toolchain The toolchain compiling the file.
+     * @param config The configuration values that influence compilation, by key.
+     * @param batch The {@link #batchDigest} of the sources compiled together with the file, or an empty
+     *              string for a file compiled on its own.
+     * @return The hex-encoded SHA-256 key.
+     * @throws IOException if the source file cannot be read.
+     */
+    public static String key(Path source, Toolchain toolchain, Map<String, String> config, String batch)
+            throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, KEY_VERSION);
+        update(digest, toolchain.getClass().getName());
+        update(digest, System.getProperty("java.version"));  // In-process toolchains depend on the JVM
+        update(digest, source.getFileName().toString());
+        config.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> update(digest, entry.getKey() + "=" + entry.getValue()));
+        update(digest, batch);
+        digest.update(ArtifactIO.digest(source));  // Remembered across runs while the file is unchanged
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the digest of the compiled classes a test run loads, from the name and contents of
+     * every file below the class directories.
+     * @param classDirs The class directories, in classpath order; missing ones are skipped.
+     * @return The hex-encoded SHA-256 digest.
+     * @throws IOException if a directory cannot be listed or a file cannot be read.
+     */
+    public static String classesDigest(List<Path> classDirs) throws IOException {
+        MessageDigest digest = sha256();
+        for (Path classDir : classDirs) {
+            update(digest, classDir.getFileName() == null ? "" : classDir.getFileName().toString());
+            if (!Files.isDirectory(classDir)) {
+                continue;
+            }
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(classDir)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                update(digest, classDir.relativize(file).toString().replace('\\', '/'));
+                digest.update(ArtifactIO.digest(file));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the cache key of a test class. Any change to the compiled classes, the libraries on
+     * the classpath or the JVM runs the class again.
+     * @param className The fully qualified name of the test class.
+     * @param classes The {@link #classesDigest} of the class directories.
+     * @return The hex-encoded SHA-256 key.
+     */
+    public static String testKey(String className, String classes) {
+        MessageDigest digest = sha256();
+        update(digest, KEY_VERSION);
+        update(digest, "test");
+        update(digest, System.getProperty("java.version"));
+        update(digest, System.getProperty("java.class.path"));
+        update(digest, className);
+        update(digest, classes);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Restores a cached result, copying its artifacts back into the output directory.
+     * @param key The cache key of the source file.
+     * @param source The source file.
+     * @param outputDir The directory the artifacts are restored to.
+     * @return The cached result, or null if the key is not in the cache.
+     * @throws IOException if the entry cannot be read or its artifacts cannot be copied.
+     */
+    public CompileResult restore(String key, Path source, Path outputDir) throws IOException {
+        Path entry = entryDir(key);
+        Path resultFile = entry.resolve(RESULT_FILE);
+        if (!Files.exists(resultFile)) {
+            return null;
+        }
+
+        Properties result = new Properties();
+        try (InputStream input = Files.newInputStream(resultFile)) {
+            result.load(input);
+        }
+
+        List<Path> artifacts = new ArrayList<>();
+        for (String artifact : result.getProperty("artifacts", "").split("\n")) {
+            if (artifact.isEmpty()) {
+                continue;
+            }
+            Path cached = entry.resolve(FILES_DIR).resolve(artifact);
+            if (!Files.exists(cached)) {
+                deleteRecursively(entry);  // Damaged entry: drop it and treat it as a miss
+                return null;
+            }
+            Path target = outputDir.resolve(artifact);
+            Files.createDirectories(target.getParent());
+            ArtifactIO.copy(cached, target);
+            artifacts.add(Path.of(artifact));
+        }
+
+        // The modification time of the result file records the last use, for LRU eviction
+        Files.setLastModifiedTime(resultFile, FileTime.fromMillis(System.currentTimeMillis()));
+        return new CompileResult(source, true, result.getProperty("output", ""), List.of(), artifacts);
+    }
+
+    /**
+     * Stores a successful result and a copy of its artifacts.
+     * Failed results are not cached: a failing file has to change before it can succeed.
+     * @param key The cache key of the source file.
+     * @param result The compilation result.
+     * @param outputDir The directory the artifacts were written to.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void store(String key, CompileResult result, Path outputDir) throws IOException {
+        if (!result.success()) {
+            return;
+        }
+
+        Path entry = entryDir(key);
+        Files.createDirectories(entry.getParent());
+
+        // Write the entry next to its final place, then move it in so readers never see half an entry
+        Path staging = Files.createTempDirectory(entry.getParent(), ".tmp-");
+        try {
+            List<String> artifacts = new ArrayList<>();
+            for (Path artifact : result.artifacts()) {
+                Path target = staging.resolve(FILES_DIR).resolve(artifact);
+                Files.createDirectories(target.getParent());
+                ArtifactIO.copy(outputDir.resolve(artifact), target);
+                artifacts.add(artifact.toString().replace('\\', '/'));
+            }
+
+            Properties properties = new Properties();
+            properties.setProperty("source", result.source().toString());
+            properties.setProperty("output", result.output());
+            properties.setProperty("artifacts", String.join("\n", artifacts));
+            try (OutputStream output = Files.newOutputStream(staging.resolve(RESULT_FILE))) {
+                properties.store(output, null);
+            }
+
+            long size = sizeOf(staging);
+            try {
+                Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+                addUsage(size);
+            } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+                // Another build stored the same key first; its entry is identical
+            } catch (IOException e) {
+                if (!Files.exists(entry)) {
+                    throw e;
+                }
+            }
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits in its size cap. Nothing is read
+     * but the usage file while the cache fits; otherwise the entries are walked, which also corrects
+     * the usage file (e.g. for damaged entries dropped on restore).
+     * @throws IOException if the cache directory cannot be read.
+     */
+    public void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        synchronized (USAGE_LOCK) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(USAGE_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                long usage = readUsage(channel);
+                if (usage >= 0 && usage <= maxBytes) {
+                    return;
+                }
+                writeUsage(channel, evictEntries());
+            }
+        }
+    }
+
+    /**
+     * Walks the entries and deletes the least recently used ones until the cache fits in its size cap.
+     * @return The total size of the entries left.
+     * @throws IOException if the cache directory cannot be read.
+     */
+    private long evictEntries() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> shards = Files.list(directory)) {
+            entries = shards.filter(Files::isDirectory)
+                    .flatMap(BuildCache::listEntries)
+                    .filter(entry -> Files.exists(entry.resolve(RESULT_FILE)))
+                    .collect(Collectors.toList());
+        }
+
+        long totalBytes = 0;
+        List<CacheEntry> usage = new ArrayList<>();
+        for (Path entry : entries) {
+            CacheEntry cacheEntry = new CacheEntry(entry, sizeOf(entry),
+                    Files.getLastModifiedTime(entry.resolve(RESULT_FILE)).toMillis());
+            totalBytes += cacheEntry.size();
+            usage.add(cacheEntry);
+        }
+
+        // Least recently used first
+        usage.sort(Comparator.comparingLong(CacheEntry::lastUse));
+        for (CacheEntry entry : usage) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            deleteRecursively(entry.directory());
+            totalBytes -= entry.size();
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Adds the size of a new entry to the usage file. Without a usage file, the next eviction
+     * walks the cache and creates it.
+     * @param bytes The size of the entry.
+     * @throws IOException if the usage file cannot be updated.
+     */
+    private void addUsage(long bytes) throws IOException {
+        synchronized (USAGE_LOCK) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(USAGE_FILE), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                long usage = readUsage(channel);
+                if (usage >= 0) {
+                    writeUsage(channel, usage + bytes);
+                }
+            } catch (NoSuchFileException e) {
+                // Not counted yet
+            }
+        }
+    }
+
+    /**
+     * Reads the total size of the entries from the usage file.
+     * @param channel The usage file, locked.
+     * @return The size in bytes, or -1 if the file is new or damaged.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long readUsage(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        channel.position(0);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Read the whole value
+        }
+        return buffer.hasRemaining() ? -1 : buffer.flip().getLong();
+    }
+
+    /**
+     * Replaces the total size of the entries in the usage file.
+     * @param channel The usage file, locked.
+     * @param bytes The size in bytes.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeUsage(FileChannel channel, long bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(bytes).flip();
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.truncate(Long.BYTES);
+    }
+
+    /**
+     * Returns the directory of a cache entry.
+     * @param key The cache key.
+     * @return The entry directory.
+     */
+    private Path entryDir(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Lists the entries of one shard directory.
+     * @param shard The shard directory.
+     * @return The entry directories.
+     */
+    private static Stream<Path> listEntries(Path shard) {
+        try {
+            return Files.list(shard).filter(Files::isDirectory).collect(Collectors.toList()).stream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Computes the total size of the files below a directory.
+     * @param directory The directory.
+     * @return The size in bytes.
+     * @throws IOException if the directory cannot be read.
+     */
+    private static long sizeOf(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            long size = 0;
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                size += Files.size(file);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Deletes a directory and everything below it, if it exists.
+     * @param directory The directory to delete.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * The size and last use of one cache entry, used for eviction.
+     * @param directory The entry directory.
+     * @param size The size of the entry in bytes.
+     * @param lastUse The time of the last store or restore, in milliseconds.
+     */
+    private record CacheEntry(Path directory, long size, long lastUse) {
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     * @return A new digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Adds a length-prefixed string to a digest, so adjacent values cannot run into each other.
+     * @param digest The digest.
+     * @param value The value to add.
+     */
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,417 @@
+package cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import pipeline.PipelineConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The CacheServer shares build results between pipeline runners over HTTP, following the
+ * Bazel HTTP remote cache protocol: {@code GET}, {@code HEAD} and {@code PUT} on
+ * {@code /ac/<key>} for action results and {@code /cas/<sha256>} for the blobs they name.
+ * Blobs are checked against their digest on upload. Bodies are streamed in both directions,
+ * compressed with gzip or deflate when the client asks for it. When the stored files grow past
+ * the size cap, the least recently used are evicted.
+ *
+ * The server listens on "build.cache.server.bind", loopback by default. Anyone who can reach it
+ * can read the stored artifacts and upload results that other runners will restore, so it is
+ * never exposed without "build.cache.remote.token": every request must then carry that token as
+ * a bearer token, or it is answered with 401.
+ *
+ * Usage: {@code java -cp <pipeline classpath> cache.CacheServer <port> [dir] [max bytes]}
+ *
+ * Layout: {@code <dir>/ac/<first two hex digits>/<key>} and {@code <dir>/cas/<first two hex digits>/<digest>}.
+ */
+public class CacheServer {
+
+    private static final String DEFAULT_DIR = ".pipeline-cache/cache-server";
+    private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+    private static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+    private static final Pattern PATH = Pattern.compile("/(ac|cas)/([0-9a-f]{64})");
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // Eviction frees space down to this share of the cap, so it does not run on every upload
+    private static final double EVICTION_TARGET = 0.9;
+    private static final int LOCK_STRIPES = 64;
+
+    private final InetAddress bindAddress;
+    private final int port;
+    private final byte[] authorization;  // The expected Authorization header, empty to accept any request
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+    // Replacing or evicting a file and accounting for it happen under the lock of its path
+    private final Object[] pathLocks = new Object[LOCK_STRIPES];
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    /**
+     * Constructor for a server listening on the loopback address and accepting any request.
+     * @param port The TCP port to listen on, 0 for any free port.
+     * @param directory The directory holding the stored files.
+     * @param maxBytes The size above which least recently used files are evicted.
+     */
+    public CacheServer(int port, Path directory, long maxBytes) {
+        this(InetAddress.getLoopbackAddress(), port, "", directory, maxBytes);
+    }
+
+    /**
+     * Constructor for the CacheServer class.
+     * @param bindAddress The address to listen on.
+     * @param port The TCP port to listen on, 0 for any free port.
+     * @param token The bearer token every request must carry, empty to accept any request.
+     * @param directory The directory holding the stored files.
+     * @param maxBytes The size above which least recently used files are evicted.
+     */
+    public CacheServer(InetAddress bindAddress, int port, String token, Path directory, long maxBytes) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.authorization = token.isEmpty() ? new byte[0] : ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < pathLocks.length; i++) {
+            pathLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Starts a cache server, bound to "build.cache.server.bind" and checking "build.cache.remote.token",
+     * and serves until the process is stopped.
+     * @param args The port, then optionally the directory and the size cap in bytes.
+     * @throws IOException if the port cannot be bound or the directory cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: cache.CacheServer <port> [dir] [max bytes]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args.length > 1 ? args[1] : DEFAULT_DIR);
+        long maxBytes = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_MAX_BYTES;
+        InetAddress bindAddress;
+        String token;
+        try {
+            PipelineConfig config = PipelineConfig.load();
+            bindAddress = InetAddress.getByName(config.get("build.cache.server.bind", DEFAULT_BIND_ADDRESS));
+            token = config.get("build.cache.remote.token", "");
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (token.isEmpty() && !bindAddress.isLoopbackAddress()) {
+            System.out.println("Refusing to listen on " + bindAddress.getHostAddress()
+                    + " without a token: set build.cache.remote.token on the server and the pipeline.");
+            System.exit(2);
+        }
+        CacheServer cacheServer = new CacheServer(bindAddress, Integer.parseInt(args[0]), token, directory,
+                maxBytes);
+        cacheServer.start();
+        System.out.println("Cache server " + ProcessHandle.current().pid() + " listening on "
+                + bindAddress.getHostAddress() + ":" + cacheServer.getPort() + ", " + cacheServer.totalBytes.get()
+                + " of " + maxBytes + " bytes used in " + directory);
+    }
+
+    /**
+     * Measures the stored files, evicts down to the cap and starts serving requests on a pool of threads.
+     * @throws IOException if the port cannot be bound or the directory cannot be read.
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        totalBytes.set(listFiles().stream().mapToLong(StoredFile::size).sum());
+        if (totalBytes.get() > maxBytes) {
+            evict();  // The cap was lowered since the last start
+        }
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        handlers = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Stops serving requests.
+     */
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The bound port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Handles one request.
+     * @param exchange The request and its response.
+     * @throws IOException if the connection fails.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!authorized(exchange)) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            Matcher matcher = PATH.matcher(exchange.getRequestURI().getPath());
+            if (!matcher.matches()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            Path file = directory.resolve(matcher.group(1)).resolve(matcher.group(2).substring(0, 2))
+                    .resolve(matcher.group(2));
+            boolean verify = matcher.group(1).equals("cas");
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> get(exchange, file, true);
+                case "HEAD" -> get(exchange, file, false);
+                case "PUT" -> put(exchange, file, verify ? matcher.group(2) : null);
+                default -> exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    /**
+     * Checks the bearer token of a request, in constant time.
+     * @param exchange The request.
+     * @return true if the request carries the token, or the server accepts any request.
+     */
+    private boolean authorized(HttpExchange exchange) {
+        if (authorization.length == 0) {
+            return true;
+        }
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && MessageDigest.isEqual(header.getBytes(StandardCharsets.UTF_8), authorization);
+    }
+
+    /**
+     * Streams a stored file, gzip-compressed if the client accepts it.
+     * @param exchange The request and its response.
+     * @param file The stored file.
+     * @param withBody false to answer a HEAD request.
+     * @throws IOException if the connection fails.
+     */
+    private void get(HttpExchange exchange, Path file, boolean withBody) throws IOException {
+        InputStream input;
+        long size;
+        try {
+            input = Files.newInputStream(file);
+            size = Files.size(file);
+        } catch (NoSuchFileException e) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        try (input) {
+            // The modification time records the last use, for LRU eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if (!withBody) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accepted != null && accepted.contains("gzip")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);  // Chunked: the compressed size is not known up front
+                try (OutputStream body = new GZIPOutputStream(exchange.getResponseBody(), BUFFER_BYTES)) {
+                    input.transferTo(body);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, size);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    input.transferTo(body);
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams an upload to a temporary file and moves it into place. A blob whose contents do
+     * not match its digest is rejected, so a client never downloads a damaged artifact.
+     * @param exchange The request and its response.
+     * @param file The stored file.
+     * @param digest The expected SHA-256 digest of the contents, or null for an action result.
+     * @throws IOException if the connection fails.
+     */
+    private void put(HttpExchange exchange, Path file, String digest) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(".tmp-" + UUID.randomUUID());
+        try {
+            MessageDigest sha256 = sha256();
+            try (InputStream body = new DigestInputStream(decode(exchange), sha256)) {
+                Files.copy(body, temp);
+            }
+            if (digest != null && !HexFormat.of().formatHex(sha256.digest()).equals(digest)) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            long size = Files.size(temp);
+            synchronized (lockFor(file)) {
+                long replaced = sizeIfExists(file);
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                totalBytes.addAndGet(size - replaced);
+            }
+            exchange.sendResponseHeaders(200, -1);
+            if (totalBytes.get() > maxBytes) {
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Opens the body of an upload, decompressing it if it is sent with a content encoding.
+     * @param exchange The request.
+     * @return The uncompressed body.
+     * @throws IOException if the encoding is not supported.
+     */
+    private static InputStream decode(HttpExchange exchange) throws IOException {
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        InputStream body = exchange.getRequestBody();
+        if (encoding == null || encoding.equals("identity")) {
+            return body;
+        } else if (encoding.equals("gzip")) {
+            return new GZIPInputStream(body, BUFFER_BYTES);
+        } else if (encoding.equals("deflate")) {
+            return new InflaterInputStream(body);
+        }
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    /**
+     * Evicts the least recently used files until the store is back under its cap.
+     * Only one eviction runs at a time; uploads arriving meanwhile are not held up.
+     * @throws IOException if the directory cannot be read.
+     */
+    private void evict() throws IOException {
+        synchronized (evictionLock) {
+            if (totalBytes.get() <= maxBytes) {
+                return;  // Another upload evicted first
+            }
+            List<StoredFile> files = listFiles();
+            files.sort(Comparator.comparingLong(StoredFile::lastUse));
+            long target = (long) (maxBytes * EVICTION_TARGET);
+            for (StoredFile file : files) {
+                if (totalBytes.get() <= target) {
+                    break;
+                }
+                // The file may have been replaced by an upload since it was listed
+                synchronized (lockFor(file.path())) {
+                    long size = sizeIfExists(file.path());
+                    if (Files.deleteIfExists(file.path())) {
+                        totalBytes.addAndGet(-size);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the lock guarding a stored file.
+     * @param file The stored file.
+     * @return The lock of the stripe the file belongs to.
+     */
+    private Object lockFor(Path file) {
+        return pathLocks[Math.floorMod(file.getFileName().hashCode(), pathLocks.length)];
+    }
+
+    /**
+     * Returns the size of a file that may not exist.
+     * @param file The file.
+     * @return The size in bytes, 0 if there is no such file.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long sizeIfExists(Path file) throws IOException {
+        try {
+            return Files.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Lists the stored files with their size and last use.
+     * @return The stored files.
+     * @throws IOException if the directory cannot be read.
+     */
+    private List<StoredFile> listFiles() throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (path.getFileName().toString().startsWith(".tmp-")) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    files.add(new StoredFile(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                } catch (NoSuchFileException e) {
+                    // Replaced or evicted while listing
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The size and last use of one stored file, used for eviction.
+     * @param path The file.
+     * @param size The size of the file in bytes.
+     * @param lastUse The time of the last upload or download, in milliseconds.
+     */
+    private record StoredFile(Path path, long size, long lastUse) {
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     * @return A new digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
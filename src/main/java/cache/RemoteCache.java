@@ -0,0 +1,363 @@
+package cache;
+
+import artifact.ArtifactIO;
+import pipeline.PipelineConfig;
+import toolchain.CompileResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The RemoteCache is the client of a shared {@link CacheServer}, checked after the local
+ * {@link BuildCache} misses. An action result ({@code /ac/<key>}, keyed like the local cache)
+ * lists the compiler output and the SHA-256 digest of every artifact; the artifacts themselves
+ * are blobs ({@code /cas/<digest>}), uploaded only when the server does not hold them yet.
+ * Uploads and downloads are streamed and compressed. Test classes that passed are recorded as
+ * action results too, keyed by the classes they ran against, so an unchanged class is not run again.
+ *
+ * The remote cache only ever saves work: when the server cannot be reached or answers with an
+ * error, the cache is switched off for the rest of the run and the build goes on with the local
+ * cache alone.
+ *
+ * When "build.cache.remote.token" is set, every request carries it as a bearer token.
+ *
+ * The HTTP clients are shared by every RemoteCache of the process, so the builds of a watch
+ * session or of a batch of projects reuse the same connections to the server.
+ */
+public class RemoteCache {
+
+    private static final long DEFAULT_TIMEOUT_SECONDS = 10;
+    private static final String TEST_PASSED = "passed";
+    private static final Map<Duration, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private final URI baseUri;
+    private final Duration timeout;
+    private final boolean upload;
+    private final String token;
+    private final HttpClient client;
+    private volatile boolean disabled;
+
+    /**
+     * Constructor for a client of a server accepting any request.
+     * @param baseUri The address of the cache server, e.g. http://cache:7200/.
+     * @param timeout How long one request may take.
+     * @param upload false to only read from the server, e.g. on developer machines.
+     */
+    public RemoteCache(URI baseUri, Duration timeout, boolean upload) {
+        this(baseUri, timeout, upload, "");
+    }
+
+    /**
+     * Constructor for the RemoteCache class.
+     * @param baseUri The address of the cache server, e.g. http://cache:7200/.
+     * @param timeout How long one request may take.
+     * @param upload false to only read from the server, e.g. on developer machines.
+     * @param token The bearer token of the server, empty to send none.
+     */
+    public RemoteCache(URI baseUri, Duration timeout, boolean upload, String token) {
+        this.baseUri = baseUri.toString().endsWith("/") ? baseUri : URI.create(baseUri + "/");
+        this.timeout = timeout;
+        this.upload = upload;
+        this.token = token;
+        this.client = CLIENTS.computeIfAbsent(timeout, connectTimeout ->
+                HttpClient.newBuilder().connectTimeout(connectTimeout).build());
+    }
+
+    /**
+     * Creates the client of the server set in "build.cache.remote.url".
+     * @param config The pipeline configuration.
+     * @return The remote cache, or null if no server is configured.
+     */
+    public static RemoteCache fromConfig(PipelineConfig config) {
+        String url = config.get("build.cache.remote.url", "");
+        if (url.isEmpty()) {
+            return null;
+        }
+        return new RemoteCache(URI.create(url),
+                Duration.ofSeconds(config.getLong("build.cache.remote.timeout", DEFAULT_TIMEOUT_SECONDS)),
+                config.getBoolean("build.cache.remote.upload", true),
+                config.get("build.cache.remote.token", ""));
+    }
+
+    /**
+     * Restores a result from the server, downloading its artifacts into the output directory.
+     * @param key The cache key of the source file.
+     * @param source The source file.
+     * @param outputDir The directory the artifacts are restored to.
+     * @return The cached result, or null on a miss or when the server is unavailable.
+     */
+    public CompileResult restore(String key, Path source, Path outputDir) {
+        if (disabled) {
+            return null;
+        }
+        try {
+            HttpResponse<InputStream> response = send(request("ac/" + key).GET().build());
+            Properties result = new Properties();
+            try (InputStream body = decode(response)) {
+                if (response.statusCode() == 404) {
+                    return null;
+                }
+                check(response, "ac/" + key);
+                result.load(body);
+            }
+
+            List<Path> artifacts = new ArrayList<>();
+            for (String line : result.getProperty("artifacts", "").split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space = line.lastIndexOf(' ');
+                String artifact = line.substring(0, space);
+                Path target = outputDir.resolve(artifact).normalize();
+                if (!target.startsWith(outputDir.normalize()) || !download(line.substring(space + 1), target)) {
+                    return null;  // Evicted or damaged blob: compile the file again
+                }
+                artifacts.add(Path.of(artifact));
+            }
+            return new CompileResult(source, true, result.getProperty("output", ""), List.of(), artifacts);
+        } catch (IOException e) {
+            disable(e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Uploads a successful result and the artifacts the server does not hold yet.
+     * The action result goes last, so a reader never finds a result whose blobs are missing.
+     * @param key The cache key of the source file.
+     * @param result The compilation result.
+     * @param outputDir The directory the artifacts were written to.
+     */
+    public void store(String key, CompileResult result, Path outputDir) {
+        if (disabled || !upload || !result.success()) {
+            return;
+        }
+        try {
+            List<String> artifacts = new ArrayList<>();
+            for (Path artifact : result.artifacts()) {
+                Path file = outputDir.resolve(artifact);
+                String digest = ArtifactIO.sha256(file);
+                HttpResponse<Void> head = client.send(request("cas/" + digest)
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                if (head.statusCode() == 404) {
+                    // Streamed from the file and compressed on the fly, never held in memory
+                    HttpRequest put = request("cas/" + digest)
+                            .header("Content-Encoding", "deflate")
+                            .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> deflated(file)))
+                            .build();
+                    check(client.send(put, HttpResponse.BodyHandlers.discarding()), "cas/" + digest);
+                } else {
+                    check(head, "cas/" + digest);
+                }
+                artifacts.add(artifact.toString().replace('\\', '/') + " " + digest);
+            }
+
+            Properties properties = new Properties();
+            properties.setProperty("output", result.output());
+            properties.setProperty("artifacts", String.join("\n", artifacts));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            properties.store(bytes, null);
+            HttpRequest put = request("ac/" + key).PUT(HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray()))
+                    .build();
+            check(client.send(put, HttpResponse.BodyHandlers.discarding()), "ac/" + key);
+        } catch (IOException e) {
+            disable(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether a test class already passed against the same inputs.
+     * @param key The {@link BuildCache#testKey} of the test class.
+     * @return true if the server recorded a pass, false on a miss or when the server is unavailable.
+     */
+    public boolean testPassed(String key) {
+        if (disabled) {
+            return false;
+        }
+        try {
+            HttpResponse<InputStream> response = send(request("ac/" + key).GET().build());
+            Properties result = new Properties();
+            try (InputStream body = decode(response)) {
+                if (response.statusCode() == 404) {
+                    return false;
+                }
+                check(response, "ac/" + key);
+                result.load(body);
+            }
+            return TEST_PASSED.equals(result.getProperty("outcome"));
+        } catch (IOException e) {
+            disable(e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Records that a test class passed. Failures are not recorded, so they always run again.
+     * @param key The {@link BuildCache#testKey} of the test class.
+     * @param className The fully qualified name of the test class.
+     */
+    public void storeTestPassed(String key, String className) {
+        if (disabled || !upload) {
+            return;
+        }
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("test", className);
+            properties.setProperty("outcome", TEST_PASSED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            properties.store(bytes, null);
+            HttpRequest put = request("ac/" + key).PUT(HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray()))
+                    .build();
+            check(client.send(put, HttpResponse.BodyHandlers.discarding()), "ac/" + key);
+        } catch (IOException e) {
+            disable(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Streams a blob into a file, checking its digest before moving it into place.
+     * @param digest The SHA-256 digest of the blob.
+     * @param target The file to write.
+     * @return true if the blob was downloaded, false if the server does not hold it or it is damaged.
+     * @throws IOException if the server cannot be reached or the file cannot be written.
+     * @throws InterruptedException if interrupted while waiting for the server.
+     */
+    private boolean download(String digest, Path target) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = send(request("cas/" + digest).GET().build());
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(".tmp-" + UUID.randomUUID());
+        try {
+            MessageDigest sha256 = sha256();
+            try (InputStream body = new DigestInputStream(decode(response), sha256)) {
+                if (response.statusCode() == 404) {
+                    return false;
+                }
+                check(response, "cas/" + digest);
+                Files.copy(body, temp);
+            }
+            if (!HexFormat.of().formatHex(sha256.digest()).equals(digest)) {
+                return false;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Sends a request whose response body is read as a stream.
+     * @param request The request.
+     * @return The response.
+     * @throws IOException if the server cannot be reached.
+     * @throws InterruptedException if interrupted while waiting for the server.
+     */
+    private HttpResponse<InputStream> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * Starts a request to a path of the server, accepting compressed answers and carrying the token.
+     * @param path The path, "ac/&lt;key&gt;" or "cas/&lt;digest&gt;".
+     * @return The request builder.
+     */
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(path)).timeout(timeout)
+                .header("Accept-Encoding", "gzip");
+        return token.isEmpty() ? builder : builder.header("Authorization", "Bearer " + token);
+    }
+
+    /**
+     * Opens a response body, decompressing it if the server compressed it.
+     * @param response The response.
+     * @return The uncompressed body.
+     * @throws IOException if the body cannot be read.
+     */
+    private static InputStream decode(HttpResponse<InputStream> response) throws IOException {
+        boolean gzip = response.headers().firstValue("Content-Encoding").map("gzip"::equals).orElse(false);
+        return gzip && response.statusCode() == 200 ? new GZIPInputStream(response.body()) : response.body();
+    }
+
+    /**
+     * Opens a file for a compressed upload.
+     * @param file The file.
+     * @return The file contents, deflate-compressed as they are read.
+     */
+    private static InputStream deflated(Path file) {
+        try {
+            return new DeflaterInputStream(Files.newInputStream(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Fails on an unexpected status, so a misbehaving server disables the cache like an unreachable one.
+     * @param response The response.
+     * @param path The requested path.
+     * @throws IOException if the status is not 200.
+     */
+    private static void check(HttpResponse<?> response, String path) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP " + response.statusCode() + " for " + path);
+        }
+    }
+
+    /**
+     * Switches the remote cache off for the rest of the run.
+     * @param cause Why the server could not be used.
+     */
+    private void disable(IOException cause) {
+        if (!disabled) {
+            disabled = true;
+            Throwable reason = cause.getMessage() == null && cause.getCause() != null ? cause.getCause() : cause;
+            System.out.println("Remote build cache " + baseUri + " is unavailable, using the local cache only: "
+                    + (reason.getMessage() == null ? reason : reason.getMessage()));
+        }
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     * @return A new digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -1,30 +1,21 @@
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
+import pipeline.PipelineConfig;
 
 /**
  * This class loads configuration properties from the "config.properties" file.
  * It provides a method to retrieve property values by key.
+ * The values come from a {@link PipelineConfig} snapshot, so they are trimmed and their
+ * ${NAME} references resolved, exactly as the stages see them.
  */
 public class config {
 
-    private Properties properties = new Properties();
+    private final PipelineConfig snapshot;
 
     /**
      * Constructor for config class.
-     * Loads properties from the "config.properties" file.
+     * Loads properties from the "config.properties" file and its overlays.
      */
     public config() {
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream("config.properties")) {
-            if (input == null) {
-                System.out.println("Sorry, unable to find config.properties");
-                return;
-            }
-            // Load the properties file
-            properties.load(input);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        snapshot = PipelineConfig.load();
     }
 
     /**
@@ -33,7 +24,7 @@ public class config {
      * @return The value of the property, or null if the key does not exist.
      */
     public String getProperty(String key) {
-        return properties.getProperty(key);
+        return snapshot.get(key);
     }
 
     /**
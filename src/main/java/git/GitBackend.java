@@ -0,0 +1,74 @@
+package git;
+
+import java.io.IOException;
+
+/**
+ * A way of staging, committing and pushing the changes of a working tree.
+ * The deploy stage uses the in-process {@link JGitBackend} and falls back to
+ * {@link ProcessGitBackend}, which runs the git command line.
+ */
+public interface GitBackend extends AutoCloseable {
+
+    /**
+     * Returns the name of this backend in config.properties.
+     *
+     * @return The backend name (e.g., "jgit").
+     */
+    String getName();
+
+    /**
+     * Stages every change of the working tree: modified and new files are added, deleted files removed.
+     * Only the paths reported as changed are touched, instead of re-adding the whole tree.
+     *
+     * @return The number of paths staged.
+     * @throws IOException if the changes cannot be listed or staged.
+     */
+    int stageChanges() throws IOException;
+
+    /**
+     * Commits the staged changes.
+     *
+     * @param message The commit message.
+     * @return true if a commit was created, false if nothing was staged.
+     * @throws IOException if the commit fails.
+     */
+    boolean commit(String message) throws IOException;
+
+    /**
+     * Pushes the current branch to a remote repository.
+     *
+     * @param remoteUrl The URL or path of the remote repository.
+     * @param credentials The credentials for the remote, or null if it needs none (e.g., a local bare repository).
+     * @return The number of objects sent, 0 if the remote was already up to date.
+     * @throws IOException if the push is rejected or fails.
+     */
+    int push(String remoteUrl, Credentials credentials) throws IOException;
+
+    /**
+     * Returns the commit checked out in the working tree.
+     *
+     * @return The commit hash.
+     * @throws IOException if HEAD cannot be read.
+     */
+    String headCommit() throws IOException;
+
+    /**
+     * Releases the resources held by the backend.
+     */
+    @Override
+    void close();
+
+    /**
+     * A user name and token for an HTTPS remote.
+     *
+     * @param username The user name.
+     * @param token The personal access token.
+     */
+    record Credentials(String username, String token) {
+
+        @Override
+        public String toString() {
+            return "Credentials[username=" + username + ", token=***]";  // Never log the token
+        }
+    }
+}
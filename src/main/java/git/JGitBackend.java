@@ -0,0 +1,191 @@
+package git;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.RmCommand;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Stages, commits and pushes in-process with JGit, without starting any git process.
+ */
+public class JGitBackend implements GitBackend {
+
+    private final Git git;
+
+    /**
+     * Constructor for the JGitBackend class.
+     *
+     * @param workTree The working tree of the repository (or any directory below it).
+     * @throws IOException if no repository is found.
+     */
+    public JGitBackend(Path workTree) throws IOException {
+        this.git = Git.open(workTree.toFile());
+    }
+
+    @Override
+    public String getName() {
+        return "jgit";
+    }
+
+    /**
+     * Stages the paths the status reports as changed, in one index update for the
+     * additions and one for the removals.
+     *
+     * @return The number of paths staged.
+     * @throws IOException if the status or the index cannot be read or written.
+     */
+    @Override
+    public int stageChanges() throws IOException {
+        try {
+            Status status = git.status().call();
+            Set<String> toAdd = new TreeSet<>();
+            toAdd.addAll(status.getModified());
+            toAdd.addAll(status.getUntracked());
+            Set<String> toRemove = new TreeSet<>(status.getMissing());
+
+            if (!toAdd.isEmpty()) {
+                AddCommand add = git.add();
+                toAdd.forEach(add::addFilepattern);
+                add.call();
+            }
+            if (!toRemove.isEmpty()) {
+                RmCommand rm = git.rm().setCached(true);
+                toRemove.forEach(rm::addFilepattern);
+                rm.call();
+            }
+            return toAdd.size() + toRemove.size();
+        } catch (GitAPIException e) {
+            throw new IOException("Cannot stage the changes: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean commit(String message) throws IOException {
+        try {
+            Status status = git.status().call();
+            if (status.getAdded().isEmpty() && status.getChanged().isEmpty() && status.getRemoved().isEmpty()) {
+                return false;
+            }
+            git.commit().setMessage(message).call();
+            return true;
+        } catch (GitAPIException e) {
+            throw new IOException("Cannot commit: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Pushes the current branch as a thin pack, reusing the deltas and objects already
+     * compressed in the local packs instead of recompressing them.
+     *
+     * @param remoteUrl The URL or path of the remote repository.
+     * @param credentials The credentials for the remote, or null.
+     * @return The number of objects in the pack sent to the remote.
+     * @throws IOException if the push is rejected or fails.
+     */
+    @Override
+    public int push(String remoteUrl, Credentials credentials) throws IOException {
+        PackConfig packConfig = new PackConfig(git.getRepository());
+        packConfig.setReuseDeltas(true);
+        packConfig.setReuseObjects(true);
+
+        try {
+            String branch = git.getRepository().getFullBranch();
+            if (branch == null || !branch.startsWith(Constants.R_HEADS)) {
+                throw new IOException("HEAD is not on a branch, nothing to push");
+            }
+            PushCommand push = git.push()
+                    .setRemote(remoteUrl)
+                    .add(branch)
+                    .setThin(true)
+                    .setTransportConfigCallback(transport -> transport.setPackConfig(packConfig));
+            if (credentials != null) {
+                push.setCredentialsProvider(new UsernamePasswordCredentialsProvider(credentials.username(),
+                        credentials.token()));
+            }
+
+            int objects = 0;
+            for (PushResult result : push.call()) {
+                for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+                    if (update.getStatus() != RemoteRefUpdate.Status.OK
+                            && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                        throw new IOException("Push of " + update.getRemoteName() + " rejected: " + update.getStatus()
+                                + (update.getMessage() != null ? " (" + update.getMessage() + ")" : ""));
+                    }
+                }
+                objects += objectsSent(result);
+            }
+            return objects;
+        } catch (GitAPIException e) {
+            throw new IOException("Cannot push: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String headCommit() throws IOException {
+        ObjectId head = git.getRepository().resolve(Constants.HEAD);
+        if (head == null) {
+            throw new IOException("The repository has no commit yet");
+        }
+        return head.name();
+    }
+
+    @Override
+    public void close() {
+        git.close();
+    }
+
+    /**
+     * Counts the objects a push sent, from its result: the objects reachable from the updated refs
+     * but not from any ref the remote advertised before the push, which is what the pack holds.
+     *
+     * @param result The result of the push.
+     * @return The number of objects sent, 0 if every ref was already up to date.
+     * @throws IOException if the objects cannot be read.
+     */
+    private int objectsSent(PushResult result) throws IOException {
+        Repository repository = git.getRepository();
+        try (ObjectWalk walk = new ObjectWalk(repository)) {
+            boolean updated = false;
+            for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+                if (update.getStatus() == RemoteRefUpdate.Status.OK && !update.isDelete()) {
+                    walk.markStart(walk.parseAny(update.getNewObjectId()));
+                    updated = true;
+                }
+            }
+            if (!updated) {
+                return 0;
+            }
+            for (Ref ref : result.getAdvertisedRefs()) {
+                ObjectId id = ref.getObjectId();
+                if (id != null && repository.getObjectDatabase().has(id)) {
+                    walk.markUninteresting(walk.parseAny(id));
+                }
+            }
+
+            int count = 0;
+            while (walk.next() != null) {
+                count++;  // Commits
+            }
+            while (walk.nextObject() != null) {
+                count++;  // Trees and blobs
+            }
+            return count;
+        }
+    }
+}
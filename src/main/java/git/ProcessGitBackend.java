@@ -0,0 +1,200 @@
+package git;
+
+import pipeline.OutputSink;
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stages, commits and pushes by running the git command line. Every command is passed as an
+ * argument array, so messages and paths with spaces reach git unchanged.
+ */
+public class ProcessGitBackend implements GitBackend {
+
+    private static final Pattern WRITING_OBJECTS = Pattern.compile("Writing objects: +100% \\((\\d+)/\\d+\\)");
+
+    private final Path workTree;
+
+    /**
+     * Constructor for the ProcessGitBackend class.
+     *
+     * @param workTree The working tree of the repository.
+     */
+    public ProcessGitBackend(Path workTree) {
+        this.workTree = workTree;
+    }
+
+    @Override
+    public String getName() {
+        return "process";
+    }
+
+    /**
+     * Stages the paths "git status" reports as changed, with a single "git add".
+     *
+     * @return The number of paths staged.
+     * @throws IOException if git fails.
+     */
+    @Override
+    public int stageChanges() throws IOException {
+        // -z keeps file names verbatim: no quoting, NUL separated, renames followed by their source
+        String status = git(false, "status", "--porcelain", "-z", "--untracked-files=all");
+        List<String> paths = new ArrayList<>();
+        String[] entries = status.split("\0");
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i];
+            if (entry.length() < 4) {
+                continue;
+            }
+            if (entry.charAt(1) != ' ') {
+                paths.add(entry.substring(3));  // Changed in the working tree, not yet staged
+            }
+            if (entry.charAt(0) == 'R' || entry.charAt(0) == 'C') {
+                i++;  // Skip the source path of a rename or copy
+            }
+        }
+        if (paths.isEmpty()) {
+            return 0;
+        }
+
+        List<String> add = new ArrayList<>(List.of("add", "--all", "--"));
+        add.addAll(paths);
+        git(true, add.toArray(new String[0]));
+        return paths.size();
+    }
+
+    @Override
+    public boolean commit(String message) throws IOException {
+        if (gitExitCode("diff", "--cached", "--quiet") == 0) {
+            return false;  // Nothing staged
+        }
+        git(true, "commit", "-m", message);
+        return true;
+    }
+
+    /**
+     * Pushes the current branch. The credentials of an HTTPS remote are put into the URL of this
+     * push only; they are never written to the git configuration.
+     *
+     * @param remoteUrl The URL or path of the remote repository.
+     * @param credentials The credentials for the remote, or null.
+     * @return The number of objects sent, read from the progress git reports on its error stream.
+     * @throws IOException if the push fails.
+     */
+    @Override
+    public int push(String remoteUrl, Credentials credentials) throws IOException {
+        ProcessResult result = run(runner("push", "--progress", authenticatedUrl(remoteUrl, credentials), "HEAD")
+                .sink(OutputSink.console("")));
+        if (!result.success()) {
+            throw new IOException("Git command failed: git push");
+        }
+        // e.g. "Writing objects: 100% (3/3), 245 bytes | 245.00 KiB/s, done."
+        Matcher matcher = WRITING_OBJECTS.matcher(result.stderr());
+        int objects = 0;
+        while (matcher.find()) {
+            objects = Integer.parseInt(matcher.group(1));
+        }
+        return objects;
+    }
+
+    @Override
+    public String headCommit() throws IOException {
+        return git(false, "rev-parse", "HEAD").trim();
+    }
+
+    @Override
+    public void close() {
+        // Nothing held between commands
+    }
+
+    /**
+     * Adds credentials to an HTTPS URL.
+     *
+     * @param remoteUrl The remote URL.
+     * @param credentials The credentials, or null.
+     * @return The URL with the credentials, or the URL unchanged for other remotes.
+     * @throws IOException if the URL is malformed.
+     */
+    private static String authenticatedUrl(String remoteUrl, Credentials credentials) throws IOException {
+        if (credentials == null || !remoteUrl.startsWith("https://")) {
+            return remoteUrl;
+        }
+        try {
+            URI uri = new URI(remoteUrl);
+            return new URI(uri.getScheme(), credentials.username() + ":" + credentials.token(), uri.getHost(),
+                    uri.getPort(), uri.getPath(), uri.getQuery(), uri.getFragment()).toString();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid repository URL: " + remoteUrl, e);
+        }
+    }
+
+    /**
+     * Runs a git command in the working tree.
+     *
+     * @param print true to print the output as it arrives.
+     * @param args The git arguments.
+     * @return The standard output of the command.
+     * @throws IOException if git cannot be started or fails.
+     */
+    private String git(boolean print, String... args) throws IOException {
+        // Keep every line: the callers parse the whole output
+        ProcessRunner runner = runner(args).bufferLines(Integer.MAX_VALUE);
+        if (print) {
+            runner.sink(OutputSink.console(""));
+        }
+        ProcessResult result = run(runner);
+        if (!result.success()) {
+            throw new IOException("Git command failed: git " + args[0]
+                    + (print ? "" : "\n" + result.stderr().trim()));
+        }
+        return result.stdout();
+    }
+
+    /**
+     * Runs a git command for its exit code only.
+     *
+     * @param args The git arguments.
+     * @return The exit code.
+     * @throws IOException if git cannot be started.
+     */
+    private int gitExitCode(String... args) throws IOException {
+        return run(runner(args).bufferLines(1)).exitCode();
+    }
+
+    /**
+     * Prepares a git command in the working tree.
+     *
+     * @param args The git arguments.
+     * @return The runner, not started yet.
+     */
+    private ProcessRunner runner(String... args) {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        return new ProcessRunner(command).directory(workTree);
+    }
+
+    /**
+     * Runs a git command and waits for it to exit.
+     *
+     * @param runner The prepared command.
+     * @return The result.
+     * @throws IOException if git cannot be started or the wait is interrupted.
+     */
+    private static ProcessResult run(ProcessRunner runner) throws IOException {
+        try {
+            return runner.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for git", e);
+        }
+    }
+}
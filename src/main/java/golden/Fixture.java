@@ -0,0 +1,185 @@
+package golden;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * A recorded run of the validated program. A fixture named "sum" is made of files in the
+ * fixtures directory, all optional except the expected output:
+ * <ul>
+ *     <li>sum.in: the standard input of the program;</li>
+ *     <li>sum.args: the program arguments, one per line;</li>
+ *     <li>sum.out: the expected standard output (golden file);</li>
+ *     <li>sum.exit: the expected exit code (0 when missing);</li>
+ *     <li>sum.time: the recorded duration in milliseconds, checked against a tolerance.</li>
+ * </ul>
+ *
+ * @param name The fixture name.
+ * @param directory The fixtures directory.
+ * @param input The standard input (empty when there is no .in file).
+ * @param args The program arguments.
+ * @param expectedOutput The expected output lines, or null when not recorded yet.
+ * @param expectedExitCode The expected exit code.
+ * @param recordedMillis The recorded duration, or -1 when not recorded.
+ */
+public record Fixture(String name, Path directory, byte[] input, List<String> args, List<String> expectedOutput,
+                      int expectedExitCode, long recordedMillis) {
+
+    public static final String INPUT = ".in";
+    public static final String ARGS = ".args";
+    public static final String OUTPUT = ".out";
+    public static final String EXIT = ".exit";
+    public static final String TIME = ".time";
+
+    /**
+     * Loads every fixture of a directory, sorted by name. A fixture exists as soon as one of its
+     * input, arguments or output files does.
+     *
+     * @param directory The fixtures directory.
+     * @return The fixtures (empty if the directory does not exist).
+     * @throws IOException if a file cannot be read or holds an invalid number.
+     */
+    public static List<Fixture> loadAll(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        Set<String> names = new TreeSet<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(file -> file.endsWith(INPUT) || file.endsWith(ARGS) || file.endsWith(OUTPUT))
+                    .forEach(file -> names.add(file.substring(0, file.lastIndexOf('.'))));
+        }
+
+        List<Fixture> fixtures = new ArrayList<>();
+        for (String name : names) {
+            fixtures.add(load(directory, name));
+        }
+        return fixtures;
+    }
+
+    /**
+     * Loads one fixture.
+     *
+     * @param directory The fixtures directory.
+     * @param name The fixture name.
+     * @return The fixture.
+     * @throws IOException if a file cannot be read or holds an invalid number.
+     */
+    private static Fixture load(Path directory, String name) throws IOException {
+        Path input = directory.resolve(name + INPUT);
+        Path args = directory.resolve(name + ARGS);
+        Path output = directory.resolve(name + OUTPUT);
+        return new Fixture(name, directory,
+                Files.exists(input) ? Files.readAllBytes(input) : new byte[0],
+                Files.exists(args) ? readLines(args).stream().filter(arg -> !arg.isEmpty()).toList() : List.of(),
+                Files.exists(output) ? readLines(output) : null,
+                (int) readNumber(directory.resolve(name + EXIT), 0),
+                readNumber(directory.resolve(name + TIME), -1));
+    }
+
+    /**
+     * Tells whether the expected output was recorded.
+     *
+     * @return true if the fixture has a golden output file.
+     */
+    public boolean isRecorded() {
+        return expectedOutput != null;
+    }
+
+    /**
+     * Compares the outcome of a run with the golden files: the exit code, then the output.
+     *
+     * @param output The output lines of the run.
+     * @param exitCode The exit code of the run.
+     * @param errors What the program printed to its standard error, indented, shown when the exit code differs.
+     * @return The differences, as indented report lines, or an empty string if the run matches.
+     */
+    public String compare(List<String> output, int exitCode, String errors) {
+        StringBuilder report = new StringBuilder();
+        if (exitCode != expectedExitCode) {
+            report.append("  Exit code ").append(exitCode).append(", expected ").append(expectedExitCode)
+                    .append(".\n").append(errors);
+        }
+        String diff = LineDiff.diff(expectedOutput, output);
+        if (!diff.isEmpty()) {
+            report.append("  Output differs from ").append(name).append(OUTPUT).append(":\n").append(diff.indent(4));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Compares the duration of a run with the recorded one. The limit is the recorded duration
+     * plus the tolerance, plus a fixed slack so very short runs do not fail on noise.
+     *
+     * @param millis The duration of the run.
+     * @param tolerancePercent How much slower than recorded a run may be, in percent.
+     * @param slackMillis The fixed slack added to the limit.
+     * @return The report line if the run was too slow, or an empty string if it was not or no duration was recorded.
+     */
+    public String compareTiming(long millis, int tolerancePercent, long slackMillis) {
+        if (recordedMillis < 0) {
+            return "";
+        }
+        long limit = recordedMillis * (100 + tolerancePercent) / 100 + slackMillis;
+        return millis > limit
+                ? "  Took " + millis + " ms, recorded " + recordedMillis + " ms (limit " + limit + " ms).\n"
+                : "";
+    }
+
+    /**
+     * Records the outcome of a run as the new golden files of this fixture.
+     *
+     * @param output The output lines.
+     * @param exitCode The exit code; the .exit file is only written when it is not 0.
+     * @param millis The duration of the run.
+     * @throws IOException if a file cannot be written.
+     */
+    public void record(List<String> output, int exitCode, long millis) throws IOException {
+        Files.write(directory.resolve(name + OUTPUT), output, StandardCharsets.UTF_8);
+        Path exit = directory.resolve(name + EXIT);
+        if (exitCode != 0) {
+            Files.writeString(exit, exitCode + System.lineSeparator(), StandardCharsets.UTF_8);
+        } else {
+            Files.deleteIfExists(exit);
+        }
+        Files.writeString(directory.resolve(name + TIME), millis + System.lineSeparator(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a text file as lines, whatever its line terminators.
+     *
+     * @param file The file.
+     * @return The lines.
+     * @throws IOException if the file cannot be read.
+     */
+    private static List<String> readLines(Path file) throws IOException {
+        return Files.readString(file, StandardCharsets.UTF_8).lines().toList();
+    }
+
+    /**
+     * Reads a file holding a single number.
+     *
+     * @param file The file.
+     * @param defaultValue The value when the file does not exist.
+     * @return The number.
+     * @throws IOException if the file cannot be read or is not a number.
+     */
+    private static long readNumber(Path file, long defaultValue) throws IOException {
+        if (!Files.exists(file)) {
+            return defaultValue;
+        }
+        String text = Files.readString(file, StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in " + file + ": " + text, e);
+        }
+    }
+}
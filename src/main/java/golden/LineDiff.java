@@ -0,0 +1,149 @@
+package golden;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line-based diff of an expected and an actual output, printed in the unified format
+ * ("-" for expected lines missing from the output, "+" for unexpected lines).
+ */
+public final class LineDiff {
+
+    private static final int CONTEXT_LINES = 2;
+    private static final int MAX_DIFF_LINES = 40;
+    // Above this many lines, only the first difference is shown instead of a full diff
+    private static final int MAX_COMPARED_LINES = 2000;
+
+    private LineDiff() {
+    }
+
+    /**
+     * Describes the differences between two outputs.
+     *
+     * @param expected The expected lines.
+     * @param actual The actual lines.
+     * @return The diff, or an empty string if the outputs are equal.
+     */
+    public static String diff(List<String> expected, List<String> actual) {
+        if (expected.equals(actual)) {
+            return "";
+        }
+        if (expected.size() > MAX_COMPARED_LINES || actual.size() > MAX_COMPARED_LINES) {
+            return firstDifference(expected, actual);
+        }
+        return format(edits(expected, actual));
+    }
+
+    /**
+     * Computes the shortest edit script between two outputs from their longest common subsequence.
+     *
+     * @param expected The expected lines.
+     * @param actual The actual lines.
+     * @return The edits, in order.
+     */
+    private static List<Edit> edits(List<String> expected, List<String> actual) {
+        int n = expected.size();
+        int m = actual.size();
+        // common[i][j]: length of the longest common subsequence of expected[i..] and actual[j..]
+        int[][] common = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                common[i][j] = expected.get(i).equals(actual.get(j))
+                        ? common[i + 1][j + 1] + 1
+                        : Math.max(common[i + 1][j], common[i][j + 1]);
+            }
+        }
+
+        List<Edit> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && expected.get(i).equals(actual.get(j))) {
+                edits.add(new Edit(' ', expected.get(i), i++, j++));
+            } else if (j < m && (i == n || common[i][j + 1] > common[i + 1][j])) {
+                // On a tie the missing line goes first, so a changed line reads "-old" then "+new"
+                edits.add(new Edit('+', actual.get(j), i, j++));
+            } else {
+                edits.add(new Edit('-', expected.get(i), i++, j));
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Prints the changed lines with a few lines of context, in hunks.
+     *
+     * @param edits The edit script.
+     * @return The printed diff.
+     */
+    private static String format(List<Edit> edits) {
+        StringBuilder diff = new StringBuilder();
+        int printed = 0;
+        int lastPrinted = -2;  // Forces a hunk header before the first line
+        for (int k = 0; k < edits.size(); k++) {
+            if (!nearChange(edits, k)) {
+                continue;
+            }
+            if (printed == MAX_DIFF_LINES) {
+                diff.append("...\n");
+                break;
+            }
+            Edit edit = edits.get(k);
+            if (lastPrinted != k - 1) {
+                diff.append("@@ -").append(edit.expectedLine() + 1).append(" +").append(edit.actualLine() + 1)
+                        .append(" @@\n");
+            }
+            diff.append(edit.type()).append(edit.text()).append('\n');
+            lastPrinted = k;
+            printed++;
+        }
+        return diff.toString();
+    }
+
+    /**
+     * Tells whether an edit is a change or within the context of one.
+     *
+     * @param edits The edit script.
+     * @param index The index of the edit.
+     * @return true if the edit is printed.
+     */
+    private static boolean nearChange(List<Edit> edits, int index) {
+        int from = Math.max(0, index - CONTEXT_LINES);
+        int to = Math.min(edits.size() - 1, index + CONTEXT_LINES);
+        for (int k = from; k <= to; k++) {
+            if (edits.get(k).type() != ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describes the first line that differs, for outputs too long to diff.
+     *
+     * @param expected The expected lines.
+     * @param actual The actual lines.
+     * @return The description.
+     */
+    private static String firstDifference(List<String> expected, List<String> actual) {
+        int line = 0;
+        while (line < expected.size() && line < actual.size() && expected.get(line).equals(actual.get(line))) {
+            line++;
+        }
+        return "First difference at line " + (line + 1) + " (" + expected.size() + " lines expected, "
+                + actual.size() + " printed):\n"
+                + "-" + (line < expected.size() ? expected.get(line) : "<end of output>") + "\n"
+                + "+" + (line < actual.size() ? actual.get(line) : "<end of output>") + "\n";
+    }
+
+    /**
+     * One line of the edit script.
+     *
+     * @param type ' ' for a common line, '-' for a missing line, '+' for an unexpected line.
+     * @param text The line.
+     * @param expectedLine The index of the line in the expected output.
+     * @param actualLine The index of the line in the actual output.
+     */
+    private record Edit(char type, String text, int expectedLine, int actualLine) {
+    }
+}
@@ -0,0 +1,68 @@
+package history;
+
+import org.junit.jupiter.api.ClassDescriptor;
+import org.junit.jupiter.api.ClassOrderer;
+import org.junit.jupiter.api.ClassOrdererContext;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Orders test classes from the longest to the shortest expected duration, so that with parallel
+ * execution the slowest class starts first instead of last and the workers finish together.
+ * Jupiter creates the orderer itself, so the expected durations of a run travel with its
+ * discovery request, encoded by {@link #encode(Map)} in the {@link #DURATIONS_PARAMETER}
+ * configuration parameter; runs launched at the same time each keep their own. Classes without
+ * history go first, since they could be the slowest of all.
+ */
+public class LongestFirstClassOrderer implements ClassOrderer {
+
+    /** The configuration parameter holding the expected durations of the run. */
+    public static final String DURATIONS_PARAMETER = "pipeline.testclass.order.durations";
+
+    /**
+     * Encodes the expected durations as the value of {@link #DURATIONS_PARAMETER}.
+     *
+     * @param durations The expected durations in nanoseconds, by class name.
+     * @return The durations, written as "class=nanos" pairs separated by commas.
+     */
+    public static String encode(Map<String, Long> durations) {
+        return durations.entrySet().stream()
+                .map(duration -> duration.getKey() + "=" + duration.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Decodes the value of {@link #DURATIONS_PARAMETER}. Malformed pairs are skipped.
+     *
+     * @param value The encoded durations.
+     * @return The expected durations in nanoseconds, by class name.
+     */
+    static Map<String, Long> decode(String value) {
+        Map<String, Long> durations = new HashMap<>();
+        for (String pair : value.split(",")) {
+            int equals = pair.lastIndexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            try {
+                durations.put(pair.substring(0, equals), Long.parseLong(pair.substring(equals + 1)));
+            } catch (NumberFormatException e) {
+                // Not a duration, the class goes first like one without history
+            }
+        }
+        return durations;
+    }
+
+    @Override
+    public void orderClasses(ClassOrdererContext context) {
+        Map<String, Long> durations = context.getConfigurationParameter(DURATIONS_PARAMETER)
+                .map(LongestFirstClassOrderer::decode)
+                .orElse(Map.of());
+        context.getClassDescriptors().sort(Comparator.comparingLong(
+                (ClassDescriptor descriptor) -> durations.getOrDefault(descriptor.getTestClass().getName(),
+                        Long.MAX_VALUE)).reversed());
+    }
+}
@@ -0,0 +1,288 @@
+package history;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TestHistory stores the duration and outcome of every test class and method across runs.
+ * Records are appended to a compact binary file after each run, so nothing is re-parsed from text
+ * reports. The expected duration of a test is the mean of its last few runs; once the file holds
+ * far more records than that, it is compacted down to the recent ones.
+ *
+ * File format: the magic number, then records of
+ * (long epoch millis, UTF class name, UTF method name or "", long duration in nanos, byte outcome).
+ */
+public class TestHistory {
+
+    private static final int MAGIC = 0x50544831;  // "PTH1"
+    private static final int RUNS_KEPT = 5;
+    private static final int COMPACT_FACTOR = 4;
+
+    // A file lock is held by the process, not by a thread: threads take turns before locking
+    private static final Object FILE_LOCK = new Object();
+
+    /**
+     * The outcome of one test class or method.
+     */
+    public enum Outcome {
+        SUCCESSFUL,
+        FAILED,
+        ABORTED,
+        SKIPPED
+    }
+
+    /**
+     * One recorded execution.
+     *
+     * @param className The test class.
+     * @param methodName The test method, or an empty string for the class as a whole.
+     * @param durationNanos The duration in nanoseconds.
+     * @param outcome The outcome.
+     */
+    public record Entry(String className, String methodName, long durationNanos, Outcome outcome) {
+    }
+
+    private final Path file;
+    private final Map<String, Deque<Entry>> recent = new LinkedHashMap<>();
+    private int recordCount;
+
+    /**
+     * Constructor for the TestHistory class.
+     *
+     * @param file The history file.
+     */
+    private TestHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the history file. A missing file gives an empty history, and a record cut short
+     * by a crash ends the history there.
+     *
+     * @param file The history file.
+     * @return The loaded history.
+     */
+    public static TestHistory load(Path file) {
+        TestHistory history = new TestHistory(file);
+        if (!Files.exists(file)) {
+            return history;
+        }
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC) {
+                System.out.println("Ignoring test history with an unknown format: " + file);
+                return history;
+            }
+            while (true) {
+                in.readLong();  // timestamp, only kept for people reading the file
+                String className = in.readUTF();
+                String methodName = in.readUTF();
+                long durationNanos = in.readLong();
+                Outcome outcome = Outcome.values()[in.readUnsignedByte()];
+                history.remember(new Entry(className, methodName, durationNanos, outcome));
+            }
+        } catch (EOFException e) {
+            return history;  // End of file, or a record cut short by a crash
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Could not read the test history: " + e.getMessage());
+            return history;
+        }
+    }
+
+    /**
+     * Returns the expected duration of a test class, from its recent runs.
+     *
+     * @param className The test class.
+     * @return The mean duration in nanoseconds, or -1 if the class never ran.
+     */
+    public long expectedNanos(String className) {
+        return expectedNanos(className, "");
+    }
+
+    /**
+     * Returns the expected duration of a test method, from its recent runs.
+     *
+     * @param className The test class.
+     * @param methodName The test method, or an empty string for the whole class.
+     * @return The mean duration in nanoseconds, or -1 if it never ran.
+     */
+    public long expectedNanos(String className, String methodName) {
+        Deque<Entry> entries = recent.get(key(className, methodName));
+        if (entries == null || entries.isEmpty()) {
+            return -1;
+        }
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.durationNanos();
+        }
+        return total / entries.size();
+    }
+
+    /**
+     * Returns the expected durations of the given test classes.
+     *
+     * @param classNames The test classes.
+     * @return The expected duration in nanoseconds of every class that ran before.
+     */
+    public Map<String, Long> expectedClassDurations(List<String> classNames) {
+        Map<String, Long> durations = new HashMap<>();
+        for (String className : classNames) {
+            long expected = expectedNanos(className);
+            if (expected >= 0) {
+                durations.put(className, expected);
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Appends the entries of a run to the history file, compacting the file when it holds
+     * many more records than the recent runs used for estimates. Writers hold a lock on a
+     * sidecar ".lock" file, so pipelines running shards side by side can share the history:
+     * a compaction reads the file again under the lock, so it keeps what other shards appended
+     * since this history was loaded.
+     *
+     * @param entries The entries of the run.
+     * @throws IOException if the file cannot be written.
+     */
+    public void append(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (Entry entry : entries) {
+            remember(entry);
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path lockFile = parent.resolve(file.getFileName() + ".lock");
+        synchronized (FILE_LOCK) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.lock()) {
+                if (needsCompaction()) {
+                    TestHistory current = load(file);
+                    for (Entry entry : entries) {
+                        current.remember(entry);
+                    }
+                    if (current.needsCompaction()) {
+                        current.compact(parent);
+                        recent.clear();
+                        recent.putAll(current.recent);
+                        recordCount = current.recordCount;
+                        return;
+                    }
+                }
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(encode(entries, channel.size() == 0));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether the history holds many more records than the recent runs used for estimates.
+     *
+     * @return true if the file should be compacted.
+     */
+    private boolean needsCompaction() {
+        return recordCount > COMPACT_FACTOR * RUNS_KEPT * Math.max(1, recent.size());
+    }
+
+    /**
+     * Replaces the history file with the recent runs only. The caller holds the lock.
+     *
+     * @param parent The directory of the history file.
+     * @throws IOException if the file cannot be written.
+     */
+    private void compact(Path parent) throws IOException {
+        List<Entry> kept = new ArrayList<>();
+        for (Deque<Entry> keyEntries : recent.values()) {
+            kept.addAll(keyEntries);
+        }
+        Path temporary = Files.createTempFile(parent, ".history-", ".tmp");
+        try {
+            Files.write(temporary, encode(kept, true));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        recordCount = kept.size();
+    }
+
+    /**
+     * Adds an entry to the in-memory statistics, keeping only the most recent runs per test.
+     *
+     * @param entry The entry.
+     */
+    private void remember(Entry entry) {
+        Deque<Entry> entries = recent.computeIfAbsent(key(entry.className(), entry.methodName()),
+                key -> new ArrayDeque<>());
+        entries.addLast(entry);
+        if (entries.size() > RUNS_KEPT) {
+            entries.removeFirst();
+        }
+        recordCount++;
+    }
+
+    /**
+     * Encodes entries in the history file format.
+     *
+     * @param entries The entries.
+     * @param withHeader true to start with the magic number (for a new file).
+     * @return The encoded bytes.
+     * @throws IOException never, the output is in memory.
+     */
+    private static byte[] encode(List<Entry> entries, boolean withHeader) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (withHeader) {
+            out.writeInt(MAGIC);
+        }
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries) {
+            out.writeLong(now);
+            out.writeUTF(entry.className());
+            out.writeUTF(entry.methodName());
+            out.writeLong(entry.durationNanos());
+            out.writeByte(entry.outcome().ordinal());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Builds the key of a class or method.
+     *
+     * @param className The test class.
+     * @param methodName The test method, or an empty string.
+     * @return The key.
+     */
+    private static String key(String className, String methodName) {
+        return className + "#" + methodName;
+    }
+}
@@ -0,0 +1,173 @@
+package impact;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The classes referenced by one compiled class, read straight from its class file.
+ * References come from the constant pool: class entries plus every type named in field and
+ * method descriptors. Constants inlined by javac (static final primitives and strings) leave
+ * no reference behind, so they are not tracked.
+ *
+ * @param className The binary name of the class (e.g., "stages.Build$Step").
+ * @param sourcePath The source file the class was compiled from, relative to its source root
+ *                   (e.g., "stages/Build.java"), or null if the class file does not record it.
+ * @param references The binary names of the referenced classes.
+ */
+public record ClassFileInfo(String className, String sourcePath, Set<String> references) {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final Pattern DESCRIPTOR_TYPE = Pattern.compile("L([\\w/$]+)[;<]");
+
+    /**
+     * Reads a class file.
+     *
+     * @param classFile The class file.
+     * @return The class name, source path and references.
+     * @throws IOException if the file cannot be read or is not a class file.
+     */
+    public static ClassFileInfo read(Path classFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(classFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a class file: " + classFile);
+            }
+            in.readUnsignedShort();  // minor version
+            in.readUnsignedShort();  // major version
+
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNameIndex = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1 -> utf8[i] = in.readUTF();
+                    case 7 -> classNameIndex[i] = in.readUnsignedShort();
+                    case 8, 16, 19, 20 -> in.readUnsignedShort();
+                    case 15 -> {
+                        in.readUnsignedByte();
+                        in.readUnsignedShort();
+                    }
+                    case 3, 4, 9, 10, 11, 12, 17, 18 -> in.readInt();
+                    case 5, 6 -> {
+                        in.readLong();
+                        i++;  // Long and double constants take two slots
+                    }
+                    default -> throw new IOException("Unknown constant pool tag " + tag + " in " + classFile);
+                }
+            }
+
+            in.readUnsignedShort();  // access flags
+            String className = toBinaryName(utf8[classNameIndex[in.readUnsignedShort()]]);
+            in.readUnsignedShort();  // super class, already in the constant pool
+            skip(in, in.readUnsignedShort() * 2);  // interfaces, already in the constant pool
+            skipMembers(in);  // fields
+            skipMembers(in);  // methods
+
+            String sourceFile = null;
+            int attributes = in.readUnsignedShort();
+            for (int i = 0; i < attributes; i++) {
+                String name = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("SourceFile".equals(name)) {
+                    sourceFile = utf8[in.readUnsignedShort()];
+                } else {
+                    skip(in, length);
+                }
+            }
+
+            Set<String> references = new HashSet<>();
+            for (int i = 1; i < count; i++) {
+                if (classNameIndex[i] != 0) {
+                    addReference(references, utf8[classNameIndex[i]]);
+                } else if (utf8[i] != null && utf8[i].indexOf(';') > 0) {
+                    // Field and method descriptors name types that have no class entry of their own
+                    Matcher matcher = DESCRIPTOR_TYPE.matcher(utf8[i]);
+                    while (matcher.find()) {
+                        references.add(toBinaryName(matcher.group(1)));
+                    }
+                }
+            }
+            references.remove(className);
+
+            return new ClassFileInfo(className, toSourcePath(className, sourceFile), references);
+        }
+    }
+
+    /**
+     * Adds a class entry to the references, unwrapping array types.
+     *
+     * @param references The references found so far.
+     * @param internalName The internal name of the class entry (e.g., "a/B" or "[La/B;").
+     */
+    private static void addReference(Set<String> references, String internalName) {
+        if (internalName.startsWith("[")) {
+            Matcher matcher = DESCRIPTOR_TYPE.matcher(internalName);
+            if (matcher.find()) {
+                references.add(toBinaryName(matcher.group(1)));
+            }
+        } else {
+            references.add(toBinaryName(internalName));
+        }
+    }
+
+    /**
+     * Builds the source path of a class from its package and SourceFile attribute.
+     *
+     * @param className The binary name of the class.
+     * @param sourceFile The SourceFile attribute (e.g., "Build.java"), or null.
+     * @return The source path relative to its source root, or null if unknown.
+     */
+    private static String toSourcePath(String className, String sourceFile) {
+        if (sourceFile == null) {
+            return null;
+        }
+        int lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? sourceFile : className.substring(0, lastDot).replace('.', '/') + "/" + sourceFile;
+    }
+
+    /**
+     * Converts an internal class name to a binary name.
+     *
+     * @param internalName The internal name (e.g., "stages/Build$Step").
+     * @return The binary name (e.g., "stages.Build$Step").
+     */
+    private static String toBinaryName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    /**
+     * Skips the fields or methods section of a class file.
+     *
+     * @param in The class file input.
+     * @throws IOException if the file cannot be read.
+     */
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int members = in.readUnsignedShort();
+        for (int i = 0; i < members; i++) {
+            skip(in, 6);  // access flags, name and descriptor (the descriptor is in the constant pool)
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                in.readUnsignedShort();
+                skip(in, in.readInt());
+            }
+        }
+    }
+
+    /**
+     * Skips an exact number of bytes.
+     *
+     * @param in The class file input.
+     * @param bytes The number of bytes to skip.
+     * @throws IOException if the file ends early.
+     */
+    private static void skip(DataInputStream in, int bytes) throws IOException {
+        in.skipNBytes(bytes);
+    }
+}
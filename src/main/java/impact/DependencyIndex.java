@@ -0,0 +1,228 @@
+package impact;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The DependencyIndex records, for every compiled class, the classes it references and the
+ * source file it comes from. It is built from the class files after a green test run and saved
+ * with the commit it describes, so the next run can tell which test classes a change can reach.
+ */
+public class DependencyIndex {
+
+    private static final String COMMIT_KEY = "commit";
+    private static final String CLASS_PREFIX = "class.";
+
+    private final String commit;
+    private final Map<String, Set<String>> references;
+    private final Map<String, String> sources;
+
+    /**
+     * Constructor for the DependencyIndex class.
+     *
+     * @param commit The commit the index was built from.
+     * @param references The classes referenced by each class.
+     * @param sources The source path of each class, relative to its source root.
+     */
+    private DependencyIndex(String commit, Map<String, Set<String>> references, Map<String, String> sources) {
+        this.commit = commit;
+        this.references = references;
+        this.sources = sources;
+    }
+
+    /**
+     * Builds the index from the class files below the given directories.
+     *
+     * @param classDirs The directories holding compiled classes (missing directories are skipped).
+     * @param commit The commit the classes were compiled from.
+     * @return The new index.
+     * @throws IOException if a class file cannot be read.
+     */
+    public static DependencyIndex build(List<Path> classDirs, String commit) throws IOException {
+        Map<String, Set<String>> references = new HashMap<>();
+        Map<String, String> sources = new HashMap<>();
+        for (Path classDir : classDirs) {
+            if (!Files.isDirectory(classDir)) {
+                continue;
+            }
+            List<Path> classFiles;
+            try (Stream<Path> files = Files.walk(classDir)) {
+                classFiles = files.filter(file -> file.toString().endsWith(".class")).collect(Collectors.toList());
+            }
+            for (Path classFile : classFiles) {
+                ClassFileInfo info = ClassFileInfo.read(classFile);
+                references.put(info.className(), info.references());
+                if (info.sourcePath() != null) {
+                    sources.put(info.className(), info.sourcePath());
+                }
+            }
+        }
+
+        // Only references between indexed classes matter; drop JDK and library classes
+        for (Set<String> referenced : references.values()) {
+            referenced.retainAll(references.keySet());
+        }
+        return new DependencyIndex(commit, references, sources);
+    }
+
+    /**
+     * Loads a saved index.
+     *
+     * @param file The index file.
+     * @return The index, or null if the file is missing or unreadable.
+     */
+    public static DependencyIndex load(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+        String commit = properties.getProperty(COMMIT_KEY);
+        if (commit == null) {
+            return null;
+        }
+        Map<String, Set<String>> references = new HashMap<>();
+        Map<String, String> sources = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(CLASS_PREFIX)) {
+                continue;
+            }
+            // Value format: "<source path>|<reference>,<reference>,..."
+            String className = key.substring(CLASS_PREFIX.length());
+            String value = properties.getProperty(key);
+            int separator = value.indexOf('|');
+            if (separator > 0) {
+                sources.put(className, value.substring(0, separator));
+            }
+            Set<String> referenced = new HashSet<>();
+            for (String reference : value.substring(separator + 1).split(",")) {
+                if (!reference.isEmpty()) {
+                    referenced.add(reference);
+                }
+            }
+            references.put(className, referenced);
+        }
+        return new DependencyIndex(commit, references, sources);
+    }
+
+    /**
+     * Saves the index, replacing the previous file atomically.
+     *
+     * @param file The index file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        entries.put(COMMIT_KEY, commit);
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            String source = sources.getOrDefault(entry.getKey(), "");
+            entries.put(CLASS_PREFIX + entry.getKey(), source + "|" + String.join(",", entry.getValue()));
+        }
+        Properties properties = new Properties();
+        properties.putAll(entries);
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, ".index-", ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporary)) {
+            properties.store(output, "Test dependency index");
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the commit the index was built from.
+     *
+     * @return The commit hash.
+     */
+    public String getCommit() {
+        return commit;
+    }
+
+    /**
+     * Tells whether a class is known to the index.
+     *
+     * @param className The binary class name.
+     * @return true if the class was compiled when the index was built.
+     */
+    public boolean contains(String className) {
+        return references.containsKey(className);
+    }
+
+    /**
+     * Finds the classes compiled from a changed file.
+     *
+     * @param changedPath The path of the changed file, as reported by git (e.g., "src/main/java/stages/Build.java").
+     * @return The classes compiled from the file, empty if none is known.
+     */
+    public Set<String> classesForSource(String changedPath) {
+        String normalized = changedPath.replace('\\', '/');
+        Set<String> classes = new HashSet<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            String source = entry.getValue();
+            if (normalized.equals(source) || normalized.endsWith("/" + source)) {
+                classes.add(entry.getKey());
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Finds the test classes that can reach any of the changed classes through their references.
+     * A test class counts as reaching itself.
+     *
+     * @param testClasses The candidate test classes.
+     * @param changedClasses The classes compiled from changed files.
+     * @return The affected test classes.
+     */
+    public Set<String> affectedTests(Collection<String> testClasses, Set<String> changedClasses) {
+        Map<String, List<String>> referencedBy = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            for (String referenced : entry.getValue()) {
+                referencedBy.computeIfAbsent(referenced, key -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+
+        // Walk the reverse graph from the changed classes to every class depending on them
+        Set<String> reached = new HashSet<>(changedClasses);
+        Deque<String> queue = new ArrayDeque<>(changedClasses);
+        while (!queue.isEmpty()) {
+            for (String dependent : referencedBy.getOrDefault(queue.poll(), List.of())) {
+                if (reached.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+
+        // A nested class is always referenced by its outer class, so reaching it reaches the outer class too
+        Set<String> affected = new HashSet<>();
+        for (String testClass : testClasses) {
+            if (reached.contains(testClass)) {
+                affected.add(testClass);
+            }
+        }
+        return affected;
+    }
+}
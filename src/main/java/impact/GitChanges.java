@@ -0,0 +1,104 @@
+package impact;
+
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads commits and changed files from git.
+ * Every method returns null instead of throwing when git is missing or fails,
+ * so callers can fall back to running everything.
+ */
+public final class GitChanges {
+
+    private GitChanges() {
+    }
+
+    /**
+     * Returns the commit checked out in a project directory.
+     *
+     * @param directory The project directory.
+     * @return The commit hash, or null if it cannot be read.
+     */
+    public static String headCommit(Path directory) {
+        List<String> lines = git(directory, "rev-parse", "HEAD");
+        return lines == null || lines.isEmpty() ? null : lines.get(0).trim();
+    }
+
+    /**
+     * Lists the files of a project directory changed since a commit, including uncommitted and
+     * untracked files. Changes elsewhere in the repository, e.g. in the other projects of a
+     * monorepo, are left out.
+     *
+     * @param directory The project directory, anywhere in its repository.
+     * @param base The commit to compare against.
+     * @return The changed paths relative to the project directory, or null if git failed.
+     */
+    public static List<String> changedFiles(Path directory, String base) {
+        List<String> changed = git(directory, "diff", "--name-only", "--relative", base, "--", ".");
+        List<String> untracked = git(directory, "ls-files", "--others", "--exclude-standard", "--", ".");
+        if (changed == null || untracked == null) {
+            return null;
+        }
+        List<String> files = new ArrayList<>(changed);
+        files.addAll(untracked);
+        files.removeIf(String::isBlank);
+        return files;
+    }
+
+    /**
+     * Reads the commit recorded by the last successful deployment.
+     *
+     * @param file The file the deploy stage records its commit in.
+     * @return The commit hash, or null if nothing was deployed yet.
+     */
+    public static String readCommit(Path file) {
+        try {
+            return Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8).trim() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records a commit, e.g. the one just deployed.
+     *
+     * @param file The file to write the commit to.
+     * @param commit The commit hash.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void recordCommit(Path file, String commit) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.writeString(file, commit + System.lineSeparator(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs a git command and returns its output lines.
+     *
+     * @param directory The directory to run git in.
+     * @param args The git arguments.
+     * @return The output lines, or null if git could not be run or failed.
+     */
+    private static List<String> git(Path directory, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        try {
+            ProcessResult result = new ProcessRunner(command).directory(directory.toAbsolutePath())
+                    .bufferLines(Integer.MAX_VALUE).run();
+            return result.success() ? result.stdout().lines().toList() : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
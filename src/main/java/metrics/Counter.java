@@ -0,0 +1,44 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, e.g. the number of files compiled. Safe to increment from any thread.
+ */
+public final class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Constructor for the Counter class. Counters are created by {@link MetricsRegistry#counter}.
+     */
+    Counter() {
+    }
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Adds to the count.
+     *
+     * @param amount The amount to add, ignored when negative.
+     */
+    public void increment(long amount) {
+        if (amount > 0) {
+            count.add(amount);
+        }
+    }
+
+    /**
+     * Returns the current count.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return count.sum();
+    }
+}
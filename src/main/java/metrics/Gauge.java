@@ -0,0 +1,45 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that can go up and down, e.g. the number of threads, or the highest value it reached.
+ * Safe to update from any thread.
+ */
+public final class Gauge {
+
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * Constructor for the Gauge class. Gauges are created by {@link MetricsRegistry#gauge}.
+     */
+    Gauge() {
+    }
+
+    /**
+     * Replaces the value.
+     *
+     * @param value The new value.
+     */
+    public void set(long value) {
+        this.value.set(value);
+    }
+
+    /**
+     * Raises the value to a new maximum, e.g. to track the peak of a level that moves up and down.
+     *
+     * @param candidate The current level, ignored when not above the value.
+     */
+    public void recordMax(long candidate) {
+        value.accumulateAndGet(candidate, Math::max);
+    }
+
+    /**
+     * Returns the current value.
+     *
+     * @return The value.
+     */
+    public long value() {
+        return value.get();
+    }
+}
@@ -0,0 +1,96 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of recorded values (durations, sizes...) over fixed buckets, exported the way
+ * Prometheus expects: a cumulative count per upper bound, plus the sum and count of every value.
+ * Safe to record from any thread.
+ */
+public final class Histogram {
+
+    private final double[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Constructor for the Histogram class. Histograms are created by {@link MetricsRegistry#histogram}.
+     *
+     * @param bounds The upper bounds of the buckets, in ascending order; values above the last
+     *               bound are only counted in the implicit "+Inf" bucket.
+     */
+    Histogram(double[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be ascending: " + Arrays.toString(bounds));
+            }
+        }
+        this.bounds = bounds.clone();
+        buckets = new LongAdder[bounds.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one value.
+     *
+     * @param value The value.
+     */
+    public void record(double value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;  // The first bound above the value
+        }
+        if (index < buckets.length) {
+            buckets[index].increment();
+        }
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Returns the upper bounds of the buckets.
+     *
+     * @return A copy of the bounds.
+     */
+    public double[] bounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Returns, for every bound, how many values were lower or equal to it.
+     *
+     * @return The cumulative counts, one per bound.
+     */
+    public long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The count.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     *
+     * @return The sum.
+     */
+    public double sum() {
+        return sum.sum();
+    }
+}
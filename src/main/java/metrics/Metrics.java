@@ -0,0 +1,32 @@
+package metrics;
+
+/**
+ * The registry and tracer shared by every stage of the pipeline process, like Micrometer's
+ * global registry. Stages record into them; the App exports them when the run ends.
+ */
+public final class Metrics {
+
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+    private static final Tracer TRACER = new Tracer("diego-pipeline");
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the registry of the process.
+     *
+     * @return The registry.
+     */
+    public static MetricsRegistry registry() {
+        return REGISTRY;
+    }
+
+    /**
+     * Returns the tracer of the process.
+     *
+     * @return The tracer.
+     */
+    public static Tracer tracer() {
+        return TRACER;
+    }
+}
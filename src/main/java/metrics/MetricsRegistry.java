@@ -0,0 +1,272 @@
+package metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the counters, gauges, timers and histograms of a pipeline run, in the spirit of Micrometer:
+ * a meter is identified by a dotted name (e.g. "build.files.compiled") and a set of tags
+ * (e.g. "toolchain", "java"), asking twice for the same meter returns the same instance,
+ * and every meter is safe to update from any thread.
+ *
+ * The registry is exported in the Prometheus text format, e.g. for the node_exporter
+ * textfile collector: names get a "pipeline_" prefix and dots become underscores,
+ * counters end with "_total" and timers with "_seconds".
+ */
+public final class MetricsRegistry {
+
+    private static final String PREFIX = "pipeline_";
+
+    private final Map<Id, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<Id, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<Id, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<Id, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * The identity of a meter.
+     *
+     * @param name The dotted meter name.
+     * @param tags The tags, sorted by key.
+     */
+    private record Id(String name, SortedMap<String, String> tags) {
+
+        /**
+         * Creates an id from alternating tag keys and values.
+         *
+         * @param name The dotted meter name.
+         * @param tags The tags, as key, value, key, value...
+         * @return The id.
+         */
+        static Id of(String name, String... tags) {
+            if (tags.length % 2 != 0) {
+                throw new IllegalArgumentException("Tags of " + name + " must be key/value pairs");
+            }
+            SortedMap<String, String> sorted = new TreeMap<>();
+            for (int i = 0; i < tags.length; i += 2) {
+                sorted.put(tags[i], String.valueOf(tags[i + 1]));
+            }
+            return new Id(name, Collections.unmodifiableSortedMap(sorted));
+        }
+    }
+
+    /**
+     * Returns the counter with this name and tags, creating it on first use.
+     *
+     * @param name The dotted meter name.
+     * @param tags The tags, as key, value, key, value...
+     * @return The counter.
+     */
+    public Counter counter(String name, String... tags) {
+        return counters.computeIfAbsent(Id.of(name, tags), id -> new Counter());
+    }
+
+    /**
+     * Returns the gauge with this name and tags, creating it on first use.
+     *
+     * @param name The dotted meter name.
+     * @param tags The tags, as key, value, key, value...
+     * @return The gauge.
+     */
+    public Gauge gauge(String name, String... tags) {
+        return gauges.computeIfAbsent(Id.of(name, tags), id -> new Gauge());
+    }
+
+    /**
+     * Returns the timer with this name and tags, creating it on first use.
+     *
+     * @param name The dotted meter name.
+     * @param tags The tags, as key, value, key, value...
+     * @return The timer.
+     */
+    public Timer timer(String name, String... tags) {
+        return timers.computeIfAbsent(Id.of(name, tags), id -> new Timer());
+    }
+
+    /**
+     * Returns the histogram with this name and tags, creating it on first use.
+     *
+     * @param name The dotted meter name.
+     * @param bounds The upper bounds of the buckets, in ascending order. Only used on creation.
+     * @param tags The tags, as key, value, key, value...
+     * @return The histogram.
+     */
+    public Histogram histogram(String name, double[] bounds, String... tags) {
+        return histograms.computeIfAbsent(Id.of(name, tags), id -> new Histogram(bounds));
+    }
+
+    /**
+     * Renders every meter in the Prometheus text exposition format.
+     *
+     * @return The exposition text.
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder();
+        writeFamilies(text, counters, "_total", "counter", (labels, counter) ->
+                List.of(labels + " " + counter.count()));
+        writeFamilies(text, gauges, "", "gauge", (labels, gauge) ->
+                List.of(labels + " " + gauge.value()));
+        writeFamilies(text, timers, "_seconds", "histogram", (labels, timer) ->
+                histogramSamples(labels, timer.histogram()));
+        writeFamilies(text, histograms, "", "histogram", (labels, histogram) ->
+                histogramSamples(labels, histogram));
+        return text.toString();
+    }
+
+    /**
+     * Writes {@link #scrape()} to a file, replacing it atomically so a collector never reads half a file.
+     *
+     * @param file The file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writePrometheus(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, ".metrics-", ".tmp");
+        Files.writeString(temporary, scrape(), StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Renders the samples of one meter, given its label set.
+     *
+     * @param <M> The meter type.
+     */
+    private interface SampleWriter<M> {
+
+        /**
+         * Renders the samples of one meter.
+         *
+         * @param labels The rendered labels of the meter (e.g. {@code {stage="build"}}), possibly empty.
+         * @param meter The meter.
+         * @return The sample lines, each starting with the suffix of the metric name.
+         */
+        List<String> samples(String labels, M meter);
+    }
+
+    /**
+     * Writes the meters of one kind, grouped by name with a single TYPE line per name.
+     *
+     * @param text The text being built.
+     * @param meters The meters, by id.
+     * @param suffix The suffix appended to every name.
+     * @param type The Prometheus metric type.
+     * @param writer Renders the samples of one meter.
+     * @param <M> The meter type.
+     */
+    private static <M> void writeFamilies(StringBuilder text, Map<Id, M> meters, String suffix, String type,
+                                          SampleWriter<M> writer) {
+        List<Id> ids = new ArrayList<>(meters.keySet());
+        ids.sort(Comparator.comparing(Id::name).thenComparing(id -> id.tags().toString()));
+
+        String family = null;
+        for (Id id : ids) {
+            String name = PREFIX + sanitize(id.name()) + suffix;
+            if (!name.equals(family)) {
+                text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+                family = name;
+            }
+            for (String sample : writer.samples(labels(id.tags()), meters.get(id))) {
+                // Histogram samples start with their own suffix ("_bucket", "_sum"...), other meters with the labels
+                text.append(name).append(sample).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Renders the bucket, sum and count samples of a histogram.
+     *
+     * @param labels The rendered labels of the meter.
+     * @param histogram The histogram.
+     * @return The sample lines, without the metric name.
+     */
+    private static List<String> histogramSamples(String labels, Histogram histogram) {
+        List<String> samples = new ArrayList<>();
+        double[] bounds = histogram.bounds();
+        long[] counts = histogram.cumulativeCounts();
+        long count = histogram.count();
+        for (int i = 0; i < bounds.length; i++) {
+            samples.add("_bucket" + withLabel(labels, "le", format(bounds[i])) + " " + counts[i]);
+        }
+        samples.add("_bucket" + withLabel(labels, "le", "+Inf") + " " + count);
+        samples.add("_sum" + labels + " " + format(histogram.sum()));
+        samples.add("_count" + labels + " " + count);
+        return samples;
+    }
+
+    /**
+     * Renders a label set.
+     *
+     * @param tags The tags.
+     * @return The labels in braces, or an empty string without tags.
+     */
+    private static String labels(SortedMap<String, String> tags) {
+        if (tags.isEmpty()) {
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        tags.forEach((key, value) -> {
+            if (labels.length() > 1) {
+                labels.append(',');
+            }
+            labels.append(sanitize(key)).append("=\"").append(escapeValue(value)).append('"');
+        });
+        return labels.append('}').toString();
+    }
+
+    /**
+     * Adds one label to a rendered label set.
+     *
+     * @param labels The rendered labels, possibly empty.
+     * @param key The label key.
+     * @param value The label value.
+     * @return The rendered labels with the new one last.
+     */
+    private static String withLabel(String labels, String key, String value) {
+        String label = key + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    /**
+     * Turns a dotted name into a valid Prometheus name.
+     *
+     * @param name The name.
+     * @return The name with every character other than letters, digits and underscores replaced by "_".
+     */
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /**
+     * Escapes a label value.
+     *
+     * @param value The value.
+     * @return The value with backslashes, quotes and line breaks escaped.
+     */
+    private static String escapeValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Formats a sample value.
+     *
+     * @param value The value.
+     * @return The value without a trailing ".0" for whole numbers.
+     */
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,169 @@
+package metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One timed operation of a trace: the whole pipeline, a stage, a step of a stage or a child process.
+ * A span is started by a {@link Tracer} and becomes the current span of the starting thread, so the
+ * spans started next on that thread are nested below it. Closing it ends it and makes its
+ * predecessor current again; use it in a try-with-resources block.
+ */
+public final class Span implements AutoCloseable {
+
+    /**
+     * The outcome of a span, as in OpenTelemetry.
+     */
+    public enum Status {
+        UNSET, OK, ERROR
+    }
+
+    private final Tracer tracer;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String name;
+    private final long startEpochNanos;
+    private final long startNanoTime;
+    private final Thread thread;
+    private final Span previous;
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+    private Status status = Status.UNSET;
+    private String statusMessage = "";
+    private long endEpochNanos;
+    private boolean ended;
+
+    /**
+     * Constructor for the Span class. Spans are started by {@link Tracer#startSpan}.
+     *
+     * @param tracer The tracer collecting the span.
+     * @param spanId The id of the span.
+     * @param parent The parent span, or null for a root span.
+     * @param name The name of the span.
+     * @param previous The span current on this thread before, restored when this one is closed.
+     */
+    Span(Tracer tracer, String spanId, Span parent, String name, Span previous) {
+        this.tracer = tracer;
+        this.spanId = spanId;
+        this.parentSpanId = parent == null ? "" : parent.spanId;
+        this.name = name;
+        this.previous = previous;
+        this.thread = Thread.currentThread();
+        this.startEpochNanos = Tracer.epochNanos();
+        this.startNanoTime = System.nanoTime();
+    }
+
+    /**
+     * Adds an attribute to the span.
+     *
+     * @param key The attribute name, e.g. "process.exit_code".
+     * @param value A string, boolean, integral or floating-point value.
+     * @return This span.
+     */
+    public synchronized Span setAttribute(String key, Object value) {
+        attributes.put(key, value);
+        return this;
+    }
+
+    /**
+     * Records the outcome of the span.
+     *
+     * @param success true if the operation succeeded.
+     * @param message A description of the failure, ignored on success.
+     * @return This span.
+     */
+    public synchronized Span setStatus(boolean success, String message) {
+        status = success ? Status.OK : Status.ERROR;
+        statusMessage = success || message == null ? "" : message;
+        return this;
+    }
+
+    /**
+     * Ends the span. Only the first call has an effect.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            endEpochNanos = startEpochNanos + (System.nanoTime() - startNanoTime);
+        }
+        if (Thread.currentThread() == thread) {
+            Tracer.restore(this, previous);
+        }
+        tracer.finished(this);
+    }
+
+    /**
+     * Returns the id of the span.
+     *
+     * @return The span id, as 16 hexadecimal digits.
+     */
+    public String spanId() {
+        return spanId;
+    }
+
+    /**
+     * Returns the id of the parent span.
+     *
+     * @return The parent span id, or an empty string for a root span.
+     */
+    public String parentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * Returns the name of the span.
+     *
+     * @return The name.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns when the span started.
+     *
+     * @return The start time, in nanoseconds since the epoch.
+     */
+    public long startEpochNanos() {
+        return startEpochNanos;
+    }
+
+    /**
+     * Returns when the span ended.
+     *
+     * @return The end time, in nanoseconds since the epoch, or 0 while it is running.
+     */
+    public synchronized long endEpochNanos() {
+        return endEpochNanos;
+    }
+
+    /**
+     * Returns the attributes of the span.
+     *
+     * @return A copy of the attributes, in insertion order.
+     */
+    public synchronized Map<String, Object> attributes() {
+        return new LinkedHashMap<>(attributes);
+    }
+
+    /**
+     * Returns the outcome of the span.
+     *
+     * @return The status.
+     */
+    public synchronized Status status() {
+        return status;
+    }
+
+    /**
+     * Returns the description of a failed span.
+     *
+     * @return The message, empty unless the status is {@link Status#ERROR}.
+     */
+    public synchronized String statusMessage() {
+        return statusMessage;
+    }
+}
@@ -0,0 +1,66 @@
+package metrics;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Records how long something took, as a histogram of durations in seconds.
+ */
+public final class Timer {
+
+    // From 1 ms to 10 min, enough for a compiler call as well as a whole stage
+    static final double[] DEFAULT_BOUNDS_SECONDS =
+            {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+
+    private final Histogram seconds = new Histogram(DEFAULT_BOUNDS_SECONDS);
+
+    /**
+     * Constructor for the Timer class. Timers are created by {@link MetricsRegistry#timer}.
+     */
+    Timer() {
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        seconds.record(nanos / 1e9);
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param duration The duration.
+     */
+    public void record(Duration duration) {
+        record(duration.toNanos());
+    }
+
+    /**
+     * Runs a task and records how long it took, whether it succeeded or threw.
+     *
+     * @param task The task.
+     * @param <T> The result type of the task.
+     * @return The result of the task.
+     * @throws Exception if the task threw.
+     */
+    public <T> T recordCallable(Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the recorded durations, in seconds.
+     *
+     * @return The histogram.
+     */
+    public Histogram histogram() {
+        return seconds;
+    }
+}
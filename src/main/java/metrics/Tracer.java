@@ -0,0 +1,300 @@
+package metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Collects the spans of one pipeline run as a single trace: Pipeline, then Stage, then Step,
+ * then Process. Every thread has a current span; a span started without an explicit parent is
+ * nested below it. Work handed to another thread keeps its parent through {@link #wrap(Callable)}.
+ *
+ * The finished spans are appended to a file as one OpenTelemetry (OTLP/JSON) document per run,
+ * one document per line, the format the OpenTelemetry Collector file receiver reads.
+ */
+public final class Tracer {
+
+    // Bounds the memory of long-lived processes (test daemon, benchmarks) that never export
+    private static final int MAX_SPANS = 10_000;
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final String serviceName;
+    private final Random random = new SecureRandom();
+    private final List<Span> finished = new ArrayList<>();
+    private String traceId;
+    private int dropped;
+
+    /**
+     * Constructor for the Tracer class.
+     *
+     * @param serviceName The "service.name" resource attribute of the exported spans.
+     */
+    public Tracer(String serviceName) {
+        this.serviceName = serviceName;
+        this.traceId = newId(16);
+    }
+
+    /**
+     * Starts a span below the current span of this thread and makes it current.
+     *
+     * @param name The name of the span.
+     * @return The span, to be closed when the operation ends.
+     */
+    public Span startSpan(String name) {
+        return startSpan(name, CURRENT.get());
+    }
+
+    /**
+     * Starts a span below the given parent and makes it current on this thread.
+     *
+     * @param name The name of the span.
+     * @param parent The parent span, or null for a root span.
+     * @return The span, to be closed when the operation ends.
+     */
+    public Span startSpan(String name, Span parent) {
+        Span span = new Span(this, newId(8), parent, name, CURRENT.get());
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Returns the current span of this thread.
+     *
+     * @return The span, or null outside any span.
+     */
+    public static Span current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes a task run below the span current at the time of the call, on whatever thread it runs.
+     *
+     * @param task The task.
+     * @param <T> The result type of the task.
+     * @return The wrapped task.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Span parent = CURRENT.get();
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(parent);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Returns the spans finished so far, in the order they ended.
+     *
+     * @return A copy of the spans.
+     */
+    public synchronized List<Span> finishedSpans() {
+        return new ArrayList<>(finished);
+    }
+
+    /**
+     * Appends the finished spans to a file as one OTLP/JSON line, then starts a new trace.
+     * The file is moved to "&lt;file&gt;.1" once it grows past maxBytes, so it stays bounded.
+     *
+     * @param file The file.
+     * @param maxBytes The size above which the file is rotated.
+     * @throws IOException if the file cannot be written.
+     */
+    public void export(Path file, long maxBytes) throws IOException {
+        String document;
+        synchronized (this) {
+            if (finished.isEmpty()) {
+                return;
+            }
+            document = toOtlpJson(finished);
+            if (dropped > 0) {
+                System.out.println("Dropped " + dropped + " spans over the limit of " + MAX_SPANS + ".");
+            }
+            finished.clear();
+            dropped = 0;
+            traceId = newId(16);
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        if (Files.exists(file) && Files.size(file) > maxBytes) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.writeString(file, document + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Collects a span that ended.
+     *
+     * @param span The span.
+     */
+    synchronized void finished(Span span) {
+        if (finished.size() < MAX_SPANS) {
+            finished.add(span);
+        } else {
+            dropped++;
+        }
+    }
+
+    /**
+     * Makes the predecessor of a closed span current again, if the closed span is still current.
+     *
+     * @param span The closed span.
+     * @param previous The span that was current before it.
+     */
+    static void restore(Span span, Span previous) {
+        if (CURRENT.get() == span) {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Returns the current time with nanosecond resolution, as OTLP expects.
+     *
+     * @return The nanoseconds since the epoch.
+     */
+    static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * Renders spans as an OTLP/JSON "ExportTraceServiceRequest".
+     *
+     * @param spans The spans.
+     * @return The JSON document, on one line.
+     */
+    private String toOtlpJson(List<Span> spans) {
+        StringBuilder json = new StringBuilder("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        attribute(json, "service.name", serviceName);
+        json.append("]},\"scopeSpans\":[{\"scope\":{\"name\":").append(quote(serviceName)).append("},\"spans\":[");
+        for (int i = 0; i < spans.size(); i++) {
+            Span span = spans.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"traceId\":").append(quote(traceId))
+                    .append(",\"spanId\":").append(quote(span.spanId()));
+            if (!span.parentSpanId().isEmpty()) {
+                json.append(",\"parentSpanId\":").append(quote(span.parentSpanId()));
+            }
+            json.append(",\"name\":").append(quote(span.name()))
+                    .append(",\"kind\":1")  // SPAN_KIND_INTERNAL
+                    .append(",\"startTimeUnixNano\":\"").append(span.startEpochNanos()).append('"')
+                    .append(",\"endTimeUnixNano\":\"").append(span.endEpochNanos()).append('"')
+                    .append(",\"attributes\":[");
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : span.attributes().entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                attribute(json, entry.getKey(), entry.getValue());
+                first = false;
+            }
+            json.append("],\"status\":{\"code\":").append(span.status().ordinal());
+            if (!span.statusMessage().isEmpty()) {
+                json.append(",\"message\":").append(quote(span.statusMessage()));
+            }
+            json.append("}}");
+        }
+        return json.append("]}]}]}").toString();
+    }
+
+    /**
+     * Renders one OTLP attribute.
+     *
+     * @param json The JSON being built.
+     * @param key The attribute name.
+     * @param value The attribute value.
+     */
+    private static void attribute(StringBuilder json, String key, Object value) {
+        json.append("{\"key\":").append(quote(key)).append(",\"value\":{");
+        if (value instanceof Boolean bool) {
+            json.append("\"boolValue\":").append(bool);
+        } else if (value instanceof Long || value instanceof Integer) {
+            json.append("\"intValue\":\"").append(value).append('"');  // int64 values are strings in OTLP/JSON
+        } else if (value instanceof Double || value instanceof Float) {
+            json.append("\"doubleValue\":").append(value);
+        } else {
+            json.append("\"stringValue\":").append(quote(String.valueOf(value)));
+        }
+        json.append("}}");
+    }
+
+    /**
+     * Quotes and escapes a JSON string.
+     *
+     * @param value The string.
+     * @return The JSON string literal.
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Creates a random, non-zero id.
+     *
+     * @param bytes The length of the id, 16 for a trace and 8 for a span.
+     * @return The id, in lowercase hexadecimal.
+     */
+    private String newId(int bytes) {
+        byte[] id = new byte[bytes];
+        do {
+            random.nextBytes(id);
+        } while (isZero(id));
+        return HEX.formatHex(id);
+    }
+
+    /**
+     * Checks for the all-zero id, which OpenTelemetry treats as invalid.
+     *
+     * @param id The id.
+     * @return true if every byte is 0.
+     */
+    private static boolean isZero(byte[] id) {
+        for (byte b : id) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
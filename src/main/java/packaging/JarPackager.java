@@ -0,0 +1,446 @@
+package packaging;
+
+import artifact.ArtifactIO;
+import pipeline.TaskExecutors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The JarPackager writes the build output into a reproducible JAR file: the same inputs always
+ * give the same bytes, whatever the machine, the time zone or the file system order.
+ * <ul>
+ *   <li>Entries are sorted by name, after the manifest, and every entry carries the same fixed timestamp.</li>
+ *   <li>Entries are deflated in parallel on worker threads, then written in order in a single pass
+ *       over a file channel, so the JAR is never held in memory.</li>
+ *   <li>An entry whose contents did not change since the previous JAR is copied from it as it is,
+ *       without being compressed again.</li>
+ *   <li>When the new JAR is identical to the previous one, the previous file is left untouched,
+ *       so the stages after the build see an unchanged artifact.</li>
+ * </ul>
+ * The JAR is written next to its final place and moved in when complete. Hidden files and the
+ * ".staging-" directories toolchains write into are not packaged.
+ */
+public final class JarPackager {
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION = 20;  // 2.0: deflate and directories
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final String MANIFEST_DIR = "META-INF/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    // Written as the archive comment: entries are only reused from a JAR written the same way
+    private static final String FORMAT = "diego-pipeline-jar/1 level ";
+    // Entries prepared ahead of the writer, per compressing thread
+    private static final int WINDOW_PER_THREAD = 2;
+
+    private final int parallelism;
+    private final int compressionLevel;
+    private final int dosTime;
+    private final int dosDate;
+
+    /**
+     * The outcome of packaging.
+     *
+     * @param jar The JAR file.
+     * @param entries The number of entries, directories included.
+     * @param reused The number of entries copied from the previous JAR without compressing them again.
+     * @param bytes The size of the JAR file.
+     * @param sha256 The SHA-256 digest of the JAR file.
+     * @param unchanged true if the JAR was identical to the previous one and left untouched.
+     */
+    public record Result(Path jar, int entries, int reused, long bytes, String sha256, boolean unchanged) {
+    }
+
+    /**
+     * Constructor for the JarPackager class.
+     *
+     * @param parallelism The number of threads compressing entries.
+     * @param compressionLevel The deflate level, from 0 (store) to 9 (smallest).
+     * @param timestamp The modification time written for every entry.
+     */
+    public JarPackager(int parallelism, int compressionLevel, Instant timestamp) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, got: " + compressionLevel);
+        }
+        this.parallelism = Math.max(1, parallelism);
+        this.compressionLevel = compressionLevel;
+
+        // Zip entries store a local date and time; UTC is used so the time zone of the machine does not matter
+        LocalDateTime time = LocalDateTime.ofInstant(timestamp, ZoneOffset.UTC);
+        if (time.getYear() < 1980 || time.getYear() > 2107) {
+            throw new IllegalArgumentException("Zip timestamps must be between 1980 and 2107, got: " + timestamp);
+        }
+        this.dosDate = (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+        this.dosTime = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() / 2;
+    }
+
+    /**
+     * Packages the files below some directories into a JAR.
+     *
+     * @param roots The directories to package, e.g. the compiled classes and the resources.
+     *              When two directories hold the same file, the first one wins.
+     * @param jar The JAR file to write.
+     * @param manifest The main attributes of the manifest, in order (e.g. "Main-Class").
+     * @return The outcome.
+     * @throws IOException if a file cannot be read or the JAR cannot be written.
+     */
+    public Result pack(List<Path> roots, Path jar, Map<String, String> manifest) throws IOException {
+        Map<String, Path> files = new TreeMap<>();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(file -> isPackaged(root, file))
+                        .forEach(file -> files.putIfAbsent(entryName(root, file), file));
+            }
+        }
+        files.remove(MANIFEST);  // Generated below
+
+        // The manifest comes first, so JarInputStream finds it; then every name, directories included, sorted
+        List<String> names = new ArrayList<>(List.of(MANIFEST_DIR, MANIFEST));
+        TreeMap<String, Path> entries = new TreeMap<>();
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            String name = file.getKey();
+            for (int slash = name.indexOf('/'); slash >= 0; slash = name.indexOf('/', slash + 1)) {
+                String directory = name.substring(0, slash + 1);
+                if (!directory.equals(MANIFEST_DIR)) {
+                    entries.putIfAbsent(directory, null);
+                }
+            }
+            entries.put(name, file.getValue());
+        }
+        names.addAll(entries.keySet());
+        if (names.size() > MAX_ENTRIES) {
+            throw new IOException("Too many entries for a zip file without ZIP64: " + names.size());
+        }
+
+        String format = FORMAT + compressionLevel;
+        ZipIndex previous = ZipIndex.read(jar);
+        if (previous != null && !previous.comment().equals(format)) {
+            previous = null;
+        }
+        ByteBuffer manifestBytes = ByteBuffer.wrap(manifest(manifest));
+
+        Files.createDirectories(jar.toAbsolutePath().getParent());
+        Path temp = jar.resolveSibling(".tmp-" + jar.getFileName());
+        int reused = 0;
+        try (ExecutorService workers = TaskExecutors.newScope("package", parallelism)) {
+            // Compression runs ahead on the workers while the entries are written in order. Only a window
+            // of entries is in flight, so the compressed bytes of a large tree are never all held at once.
+            Deque<Future<Prepared>> prepared = new ArrayDeque<>();
+            int window = WINDOW_PER_THREAD * parallelism;
+            int submitted = 0;
+            for (; submitted < Math.min(window, names.size()); submitted++) {
+                prepared.add(submit(workers, names.get(submitted), entries, manifestBytes, previous));
+            }
+
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 FileChannel source = previous == null ? null : FileChannel.open(jar, StandardOpenOption.READ)) {
+                ByteArrayOutputStream directory = new ByteArrayOutputStream();
+                while (!prepared.isEmpty()) {
+                    Prepared entry = prepared.poll().get();
+                    if (submitted < names.size()) {
+                        prepared.add(submit(workers, names.get(submitted++), entries, manifestBytes, previous));
+                    }
+                    long offset = out.position();
+                    if (offset > MAX_SIZE) {
+                        throw new IOException("JAR too large for a zip file without ZIP64");
+                    }
+                    write(out, localHeader(entry));
+                    if (entry.reused() != null) {
+                        transfer(source, entry.reused().dataOffset(), entry.compressedSize(), out);
+                        reused++;
+                    } else {
+                        write(out, entry.data());
+                    }
+                    directory.write(centralHeader(entry, offset).array());
+                }
+
+                long directoryOffset = out.position();
+                write(out, ByteBuffer.wrap(directory.toByteArray()));
+                write(out, end(names.size(), directory.size(), directoryOffset, format));
+            }
+
+            long bytes = Files.size(temp);
+            String sha256 = ArtifactIO.sha256(temp);
+            if (Files.isRegularFile(jar) && Files.size(jar) == bytes && ArtifactIO.sha256(jar).equals(sha256)) {
+                return new Result(jar, names.size(), reused, bytes, sha256, true);
+            }
+            Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(jar, names.size(), reused, bytes, sha256, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while packaging", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Starts preparing an entry on a worker.
+     *
+     * @param workers The compressing threads.
+     * @param name The entry name.
+     * @param entries The packaged file of every entry name, null for a directory.
+     * @param manifestBytes The contents of the manifest.
+     * @param previous The index of the previous JAR, or null.
+     * @return The entry, ready to be written once the future completes.
+     */
+    private Future<Prepared> submit(ExecutorService workers, String name, Map<String, Path> entries,
+                                    ByteBuffer manifestBytes, ZipIndex previous) {
+        Path file = entries.get(name);
+        return workers.submit(() -> name.equals(MANIFEST) ? prepare(name, manifestBytes, previous)
+                : file == null ? prepare(name, ByteBuffer.allocate(0), previous)
+                : prepare(name, ArtifactIO.read(file), previous));
+    }
+
+    /**
+     * An entry ready to be written.
+     *
+     * @param name The entry name.
+     * @param method The compression method.
+     * @param crc The CRC-32 of the contents.
+     * @param size The size of the contents.
+     * @param compressedSize The size of the bytes written.
+     * @param data The bytes to write, or null when they are copied from the previous JAR.
+     * @param reused The entry of the previous JAR to copy, or null.
+     */
+    private record Prepared(String name, int method, long crc, long size, long compressedSize, ByteBuffer data,
+                            ZipIndex.Entry reused) {
+    }
+
+    /**
+     * Finds an entry unchanged in the previous JAR, or compresses it. Runs on a worker thread.
+     * An entry that deflate does not make smaller is stored.
+     *
+     * @param name The entry name.
+     * @param contents The contents, mapped from the file when it is large.
+     * @param previous The index of the previous JAR, or null.
+     * @return The prepared entry.
+     */
+    private Prepared prepare(String name, ByteBuffer contents, ZipIndex previous) {
+        int size = contents.remaining();
+        CRC32 crc32 = new CRC32();
+        crc32.update(contents.duplicate());
+        long crc = crc32.getValue();
+        ZipIndex.Entry old = previous == null ? null : previous.get(name);
+        if (old != null && old.crc() == crc && old.size() == size) {
+            return new Prepared(name, old.method(), crc, size, old.compressedSize(), null, old);
+        }
+        if (size == 0 || name.endsWith("/")) {
+            return new Prepared(name, METHOD_STORED, crc, size, size, contents, null);
+        }
+
+        if (compressionLevel > 0) {
+            Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                deflater.setInput(contents.duplicate());
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(size / 2 + 64);
+                byte[] buffer = new byte[16 * 1024];
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+                if (compressed.size() < size) {
+                    return new Prepared(name, METHOD_DEFLATED, crc, size, compressed.size(),
+                            ByteBuffer.wrap(compressed.toByteArray()), null);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return new Prepared(name, METHOD_STORED, crc, size, size, contents, null);
+    }
+
+    /**
+     * Builds the manifest. Attribute order is kept, so the manifest is reproducible too.
+     *
+     * @param attributes The main attributes.
+     * @return The manifest bytes.
+     */
+    private static byte[] manifest(Map<String, String> attributes) {
+        StringBuilder manifest = new StringBuilder("Manifest-Version: 1.0\r\n");
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            manifest.append(attribute.getKey()).append(": ").append(attribute.getValue()).append("\r\n");
+        }
+        return manifest.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the local header of an entry.
+     *
+     * @param entry The entry.
+     * @return The header.
+     */
+    private ByteBuffer localHeader(Prepared entry) {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(ZipIndex.LOCAL_HEADER_SIZE + name.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ZipIndex.LOCAL_HEADER_SIGNATURE)
+                .putShort((short) VERSION)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) entry.method())
+                .putShort((short) dosTime)
+                .putShort((short) dosDate)
+                .putInt((int) entry.crc())
+                .putInt((int) entry.compressedSize())
+                .putInt((int) entry.size())
+                .putShort((short) name.length)
+                .putShort((short) 0)
+                .put(name);
+        return header.flip();
+    }
+
+    /**
+     * Encodes the central directory header of an entry.
+     *
+     * @param entry The entry.
+     * @param offset The position of its local header.
+     * @return The header.
+     */
+    private ByteBuffer centralHeader(Prepared entry, long offset) {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(ZipIndex.CENTRAL_HEADER_SIZE + name.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ZipIndex.CENTRAL_HEADER_SIGNATURE)
+                .putShort((short) VERSION)
+                .putShort((short) VERSION)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) entry.method())
+                .putShort((short) dosTime)
+                .putShort((short) dosDate)
+                .putInt((int) entry.crc())
+                .putInt((int) entry.compressedSize())
+                .putInt((int) entry.size())
+                .putShort((short) name.length)
+                .putShort((short) 0)  // Extra field
+                .putShort((short) 0)  // Comment
+                .putShort((short) 0)  // Disk
+                .putShort((short) 0)  // Internal attributes
+                .putInt(0)            // External attributes
+                .putInt((int) offset)
+                .put(name);
+        return header.flip();
+    }
+
+    /**
+     * Encodes the end of the central directory.
+     *
+     * @param count The number of entries.
+     * @param directorySize The size of the central directory.
+     * @param directoryOffset The position of the central directory.
+     * @param comment The archive comment.
+     * @return The record.
+     * @throws IOException if the central directory starts too far for a zip file without ZIP64.
+     */
+    private static ByteBuffer end(int count, long directorySize, long directoryOffset, String comment)
+            throws IOException {
+        if (directoryOffset + directorySize > MAX_SIZE) {
+            throw new IOException("JAR too large for a zip file without ZIP64");
+        }
+        byte[] commentBytes = comment.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer end = ByteBuffer.allocate(ZipIndex.END_SIZE + commentBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(ZipIndex.END_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) count)
+                .putShort((short) count)
+                .putInt((int) directorySize)
+                .putInt((int) directoryOffset)
+                .putShort((short) commentBytes.length)
+                .put(commentBytes);
+        return end.flip();
+    }
+
+    /**
+     * Writes a whole buffer.
+     *
+     * @param out The JAR being written.
+     * @param buffer The bytes.
+     * @throws IOException if writing fails.
+     */
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Copies compressed bytes from the previous JAR, without going through the heap.
+     *
+     * @param source The previous JAR.
+     * @param position The position of the bytes.
+     * @param count The number of bytes.
+     * @param out The JAR being written.
+     * @throws IOException if the previous JAR is shorter than expected.
+     */
+    private static void transfer(FileChannel source, long position, long count, FileChannel out) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            long transferred = source.transferTo(position + copied, count - copied, out);
+            if (transferred <= 0) {
+                throw new IOException("Previous JAR ended before its entry data");
+            }
+            copied += transferred;
+        }
+    }
+
+    /**
+     * Tells whether a file of the build output is packaged. Hidden files and directories, such as
+     * the ".staging-" directories of toolchains still running, are left out.
+     *
+     * @param root The packaged directory.
+     * @param file A file below it.
+     * @return true if the file goes into the JAR.
+     */
+    private static boolean isPackaged(Path root, Path file) {
+        for (Path part : root.relativize(file)) {
+            if (part.toString().startsWith(".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the entry name of a file: its path below the packaged directory, with "/" separators.
+     *
+     * @param root The packaged directory.
+     * @param file A file below it.
+     * @return The entry name.
+     */
+    private static String entryName(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+}
@@ -0,0 +1,168 @@
+package packaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The central directory of an existing zip file: for every entry, where its compressed bytes are
+ * and what they decompress to. {@link JarPackager} uses it to copy unchanged entries of the
+ * previous JAR as they are, without decompressing or compressing them again.
+ *
+ * Only plain zip files are read (no ZIP64, no multi-disk archives), which covers every JAR the
+ * packager writes.
+ */
+final class ZipIndex {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    /**
+     * One entry of the zip file.
+     *
+     * @param method The compression method, 0 (stored) or 8 (deflated).
+     * @param crc The CRC-32 of the uncompressed contents.
+     * @param compressedSize The size of the compressed bytes.
+     * @param size The size of the uncompressed contents.
+     * @param dataOffset The position of the compressed bytes in the file.
+     */
+    record Entry(int method, long crc, long compressedSize, long size, long dataOffset) {
+    }
+
+    private final Map<String, Entry> entries;
+    private final String comment;
+
+    /**
+     * Constructor for the ZipIndex class.
+     *
+     * @param entries The entries by name.
+     * @param comment The comment of the archive.
+     */
+    private ZipIndex(Map<String, Entry> entries, String comment) {
+        this.entries = entries;
+        this.comment = comment;
+    }
+
+    /**
+     * Reads the central directory of a zip file.
+     *
+     * @param file The zip file.
+     * @return The index, or null if the file does not exist or is not a zip file this class can read.
+     */
+    static ZipIndex read(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < END_SIZE) {
+                return null;
+            }
+
+            // The end record is the last thing in the file, followed only by the archive comment
+            int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+            int end = -1;
+            for (int i = tailSize - END_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_SIGNATURE && i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return null;
+            }
+            int count = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            byte[] commentBytes = new byte[tail.getShort(end + 20) & 0xFFFF];
+            tail.get(end + END_SIZE, commentBytes);
+            if (directoryOffset + directorySize > fileSize) {
+                return null;
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            Map<String, Entry> entries = new HashMap<>();
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    return null;
+                }
+                int method = directory.getShort(position + 10) & 0xFFFF;
+                long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+                long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+                long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long headerOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+                byte[] name = new byte[nameLength];
+                directory.get(position + CENTRAL_HEADER_SIZE, name);
+                position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+                // The data follows the local header, whose extra field may differ from the central one
+                ByteBuffer local = read(channel, headerOffset, LOCAL_HEADER_SIZE);
+                if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    return null;
+                }
+                long dataOffset = headerOffset + LOCAL_HEADER_SIZE + (local.getShort(26) & 0xFFFF)
+                        + (local.getShort(28) & 0xFFFF);
+                entries.put(new String(name, StandardCharsets.UTF_8),
+                        new Entry(method, crc, compressedSize, size, dataOffset));
+            }
+            return new ZipIndex(entries, new String(commentBytes, StandardCharsets.UTF_8));
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return null;  // Damaged or unusual archive: nothing is reused
+        }
+    }
+
+    /**
+     * Returns an entry.
+     *
+     * @param name The entry name.
+     * @return The entry, or null if the archive does not contain it.
+     */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns the comment of the archive.
+     *
+     * @return The comment, empty if none.
+     */
+    String comment() {
+        return comment;
+    }
+
+    /**
+     * Reads a range of a file into a little-endian buffer.
+     *
+     * @param channel The file.
+     * @param position The start of the range.
+     * @param size The length of the range.
+     * @return The bytes.
+     * @throws IOException if the file is shorter than the range.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+}
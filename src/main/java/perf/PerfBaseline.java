@@ -0,0 +1,176 @@
+package perf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The reference metrics of each measured program, kept between pipeline runs.
+ * A run is a regression when one of its metrics goes past the baseline plus its tolerance.
+ * The baseline is only written when a program is measured for the first time or when it is
+ * recorded again explicitly, so slow drifts cannot creep in one run at a time.
+ */
+public class PerfBaseline {
+
+    private final Map<String, PerfMetrics> baselines;
+    private boolean changed;
+
+    /**
+     * Constructor for the PerfBaseline class.
+     *
+     * @param baselines The metrics, by program (fixture) name.
+     */
+    private PerfBaseline(Map<String, PerfMetrics> baselines) {
+        this.baselines = baselines;
+    }
+
+    /**
+     * How far a metric may go past its baseline.
+     *
+     * @param percent The allowed increase, in percent of the baseline.
+     * @param slack An absolute allowance added on top, so tiny baselines are not failed by noise.
+     */
+    public record Tolerance(int percent, long slack) {
+
+        /**
+         * Returns the highest accepted value.
+         *
+         * @param baseline The baseline value.
+         * @return The limit.
+         */
+        public long limit(long baseline) {
+            return baseline * (100 + percent) / 100 + slack;
+        }
+    }
+
+    /**
+     * Loads a saved baseline.
+     *
+     * @param file The baseline file.
+     * @return The baseline, empty if the file is missing or unreadable.
+     */
+    public static PerfBaseline load(Path file) {
+        Map<String, PerfMetrics> baselines = new HashMap<>();
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            } catch (IOException | IllegalArgumentException e) {
+                return new PerfBaseline(baselines);
+            }
+            // Keys: "<name>.wall", "<name>.cpu", "<name>.rss" and "<name>.gc"
+            for (String key : properties.stringPropertyNames()) {
+                if (key.endsWith("." + PerfMetrics.Metric.WALL.key())) {
+                    String name = key.substring(0, key.lastIndexOf('.'));
+                    try {
+                        baselines.put(name, new PerfMetrics(read(properties, name, PerfMetrics.Metric.WALL),
+                                read(properties, name, PerfMetrics.Metric.CPU),
+                                read(properties, name, PerfMetrics.Metric.RSS),
+                                read(properties, name, PerfMetrics.Metric.GC)));
+                    } catch (NumberFormatException e) {
+                        // Measured again on the next run
+                    }
+                }
+            }
+        }
+        return new PerfBaseline(baselines);
+    }
+
+    /**
+     * Reads one metric of a program.
+     *
+     * @param properties The baseline file.
+     * @param name The program name.
+     * @param metric The metric.
+     * @return The value, or -1 if it is missing.
+     */
+    private static long read(Properties properties, String name, PerfMetrics.Metric metric) {
+        return Long.parseLong(properties.getProperty(name + "." + metric.key(), "-1"));
+    }
+
+    /**
+     * Returns the baseline of a program.
+     *
+     * @param name The program name.
+     * @return The metrics, or null if it was never measured.
+     */
+    public synchronized PerfMetrics get(String name) {
+        return baselines.get(name);
+    }
+
+    /**
+     * Sets the baseline of a program.
+     *
+     * @param name The program name.
+     * @param metrics The new reference metrics.
+     */
+    public synchronized void put(String name, PerfMetrics metrics) {
+        baselines.put(name, metrics);
+        changed = true;
+    }
+
+    /**
+     * Compares a run with a baseline.
+     *
+     * @param baseline The baseline metrics.
+     * @param current The metrics of the run.
+     * @param tolerances The tolerance of each metric; metrics without one are not compared.
+     * @return One description per metric past its limit (empty if there is no regression).
+     */
+    public static List<String> regressions(PerfMetrics baseline, PerfMetrics current,
+                                           Map<PerfMetrics.Metric, Tolerance> tolerances) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<PerfMetrics.Metric, Tolerance> entry : tolerances.entrySet()) {
+            PerfMetrics.Metric metric = entry.getKey();
+            long reference = metric.of(baseline);
+            long value = metric.of(current);
+            if (reference < 0 || value < 0) {
+                continue;  // Not measured on this platform
+            }
+            long limit = entry.getValue().limit(reference);
+            if (value > limit) {
+                regressions.add(metric.key() + " " + value + " " + metric.unit() + ", baseline " + reference
+                        + " " + metric.unit() + " (limit " + limit + ")");
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Saves the baseline if it changed, replacing the previous file atomically.
+     *
+     * @param file The baseline file.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void save(Path file) throws IOException {
+        if (!changed) {
+            return;
+        }
+        Map<String, String> entries = new TreeMap<>();
+        for (Map.Entry<String, PerfMetrics> entry : baselines.entrySet()) {
+            for (PerfMetrics.Metric metric : PerfMetrics.Metric.values()) {
+                entries.put(entry.getKey() + "." + metric.key(), Long.toString(metric.of(entry.getValue())));
+            }
+        }
+        Properties properties = new Properties();
+        properties.putAll(entries);
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, ".baseline-", ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporary)) {
+            properties.store(output, "Performance baseline");
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+}
@@ -0,0 +1,94 @@
+package perf;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Resources used by one run of a program. A metric that could not be measured on this platform
+ * is -1 and is never compared.
+ *
+ * @param wallMillis The elapsed time, in milliseconds.
+ * @param cpuMillis The user and system CPU time, in milliseconds.
+ * @param peakRssKb The peak resident set size, in kilobytes.
+ * @param gcCount The number of garbage collections.
+ */
+public record PerfMetrics(long wallMillis, long cpuMillis, long peakRssKb, long gcCount) {
+
+    /**
+     * The compared metrics, with the name used in the baseline file and in reports.
+     */
+    public enum Metric {
+        WALL("wall", "ms", PerfMetrics::wallMillis),
+        CPU("cpu", "ms", PerfMetrics::cpuMillis),
+        RSS("rss", "kB", PerfMetrics::peakRssKb),
+        GC("gc", "collections", PerfMetrics::gcCount);
+
+        private final String key;
+        private final String unit;
+        private final ToLongFunction<PerfMetrics> value;
+
+        Metric(String key, String unit, ToLongFunction<PerfMetrics> value) {
+            this.key = key;
+            this.unit = unit;
+            this.value = value;
+        }
+
+        /**
+         * Returns the name of the metric in config keys and the baseline file.
+         *
+         * @return The key (e.g., "wall").
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * Returns the unit the metric is printed in.
+         *
+         * @return The unit.
+         */
+        public String unit() {
+            return unit;
+        }
+
+        /**
+         * Reads the metric from a run.
+         *
+         * @param metrics The metrics of the run.
+         * @return The value, or -1 if it was not measured.
+         */
+        public long of(PerfMetrics metrics) {
+            return value.applyAsLong(metrics);
+        }
+    }
+
+    /**
+     * Combines several runs of the same program, taking the median of every metric so a single
+     * slow run does not decide the outcome.
+     *
+     * @param runs The metrics of each run (at least one).
+     * @return The median metrics.
+     */
+    public static PerfMetrics median(List<PerfMetrics> runs) {
+        return new PerfMetrics(median(runs, Metric.WALL), median(runs, Metric.CPU), median(runs, Metric.RSS),
+                median(runs, Metric.GC));
+    }
+
+    /**
+     * Returns the median of one metric.
+     *
+     * @param runs The metrics of each run.
+     * @param metric The metric.
+     * @return The median value.
+     */
+    private static long median(List<PerfMetrics> runs, Metric metric) {
+        List<Long> values = runs.stream().map(metric::of).sorted(Comparator.naturalOrder()).toList();
+        return values.get(values.size() / 2);
+    }
+
+    @Override
+    public String toString() {
+        return wallMillis + " ms wall, " + cpuMillis + " ms CPU, " + peakRssKb + " kB peak RSS, " + gcCount + " GCs";
+    }
+}
@@ -0,0 +1,128 @@
+package perf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the resources used by one run of a Java program. The JVM options returned by
+ * {@link #jvmOptions()} make the program log its garbage collections to a file; while it runs,
+ * a virtual thread samples its CPU time and peak resident set size (from /proc on Linux).
+ * Usage: add the options to the command, pass {@link #attach} as the start listener of the
+ * runner, then call {@link #finish} once the program exited.
+ */
+public class ProcessProbe {
+
+    private static final long SAMPLE_MILLIS = 20;
+    private static final Pattern GC_PAUSE = Pattern.compile("GC\\((\\d+)\\) Pause");
+    private static final Pattern PEAK_RSS = Pattern.compile("VmHWM:\\s+(\\d+) kB");
+
+    private final Path gcLog;
+    private final Path jfrFile;
+    private volatile long cpuMillis = -1;
+    private volatile long peakRssKb = -1;
+    private Thread sampler;
+
+    /**
+     * Constructor for the ProcessProbe class.
+     *
+     * @param workDir The directory the GC log is written to, created if needed.
+     * @param jfrFile The flight recording written by the program, or null for none.
+     * @throws IOException if the directory cannot be created.
+     */
+    public ProcessProbe(Path workDir, Path jfrFile) throws IOException {
+        Files.createDirectories(workDir);
+        // Not created here: the JVM would rotate an existing file out of the way
+        this.gcLog = workDir.resolve("gc-" + UUID.randomUUID() + ".log");
+        this.jfrFile = jfrFile;
+    }
+
+    /**
+     * Returns the JVM options to add before the main class of the measured program.
+     *
+     * @return The options.
+     */
+    public List<String> jvmOptions() {
+        List<String> options = new ArrayList<>();
+        options.add("-Xlog:gc:file=\"" + gcLog.toAbsolutePath() + "\"::filecount=0");
+        if (jfrFile != null) {
+            options.add("-XX:StartFlightRecording=filename=" + jfrFile.toAbsolutePath() + ",settings=profile");
+        }
+        return options;
+    }
+
+    /**
+     * Starts sampling the program.
+     *
+     * @param process The program, just started.
+     */
+    public void attach(ProcessHandle process) {
+        sampler = Thread.ofVirtual().name("probe-" + process.pid()).start(() -> {
+            Path status = Path.of("/proc", Long.toString(process.pid()), "status");
+            while (process.isAlive()) {
+                sample(process, status);
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes one sample. The CPU time and the peak RSS only grow, so the last sample before the
+     * program exits is the closest to the final value.
+     *
+     * @param process The program.
+     * @param status The /proc status file of the program.
+     */
+    private void sample(ProcessHandle process, Path status) {
+        process.info().totalCpuDuration().map(Duration::toMillis).ifPresent(cpu -> cpuMillis = cpu);
+        try {
+            Matcher matcher = PEAK_RSS.matcher(Files.readString(status, StandardCharsets.UTF_8));
+            if (matcher.find()) {
+                peakRssKb = Long.parseLong(matcher.group(1));
+            }
+        } catch (IOException e) {
+            // Not on Linux, or the program just exited
+        }
+    }
+
+    /**
+     * Stops sampling and collects the metrics of the run.
+     *
+     * @param wallNanos The elapsed time of the run.
+     * @return The metrics.
+     * @throws InterruptedException if interrupted while the sampler stops.
+     */
+    public PerfMetrics finish(long wallNanos) throws InterruptedException {
+        if (sampler != null) {
+            sampler.join();
+        }
+        long gcCount = -1;
+        try {
+            Set<String> collections = new HashSet<>();
+            for (String line : Files.readAllLines(gcLog, StandardCharsets.UTF_8)) {
+                Matcher matcher = GC_PAUSE.matcher(line);
+                if (matcher.find()) {
+                    collections.add(matcher.group(1));  // A concurrent cycle logs several pauses
+                }
+            }
+            gcCount = collections.size();
+            Files.deleteIfExists(gcLog);
+        } catch (IOException e) {
+            // The program did not start a JVM that understood -Xlog
+        }
+        return new PerfMetrics(wallNanos / 1_000_000, cpuMillis, peakRssKb, gcCount);
+    }
+}
@@ -0,0 +1,303 @@
+package pipeline;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The FileWatcher reports the files that changed below a set of directories, and a set of single
+ * files such as the configuration. Editors and compilers touch several files, often several times,
+ * for one change: events are coalesced until no new one arrives for the debounce delay, and each
+ * changed file is reported once.
+ *
+ * A {@link WatchService} only watches the directories registered with it, so every subdirectory is
+ * registered, including the ones created while watching. A watched directory that is missing, or
+ * deleted while watching (e.g. by "mvn clean"), is waited for through its nearest existing parent,
+ * and watched again once it is created.
+ */
+public class FileWatcher implements AutoCloseable {
+
+    private final WatchService service;
+    private final Duration debounce;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> trees = new HashSet<>();
+    private final Set<Path> files = new HashSet<>();
+    private final Set<Path> missing = new HashSet<>();  // Watched directories waiting to be created
+
+    /**
+     * The files that changed.
+     *
+     * @param files The changed files, as absolute normalized paths, sorted.
+     * @param overflow true if events were lost, so any file may have changed.
+     */
+    public record Changes(Set<Path> files, boolean overflow) {
+    }
+
+    /**
+     * Constructor for the FileWatcher class.
+     *
+     * @param debounce How long no event must arrive before the changes are reported.
+     * @throws IOException if the file system does not support watching.
+     */
+    public FileWatcher(Duration debounce) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.debounce = debounce;
+    }
+
+    /**
+     * Watches every file below a directory. A missing directory is watched once it is created.
+     *
+     * @param directory The directory.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public void watchTree(Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        trees.add(root);
+        if (Files.isDirectory(root)) {
+            registerTree(root);
+        } else {
+            awaitCreation(root);
+        }
+    }
+
+    /**
+     * Watches single files, e.g. configuration files. Other files of their directories are ignored.
+     *
+     * @param watched The files.
+     * @throws IOException if a directory cannot be watched.
+     */
+    public void watchFiles(Collection<Path> watched) throws IOException {
+        for (Path file : watched) {
+            Path absolute = file.toAbsolutePath().normalize();
+            files.add(absolute);
+            if (Files.isDirectory(absolute.getParent())) {
+                register(absolute.getParent());
+            } else {
+                awaitCreation(absolute.getParent());
+            }
+        }
+    }
+
+    /**
+     * Waits for changes to watched files, then for the debounce delay to pass without a new event.
+     * Events for other files of the directories holding single watched files are ignored.
+     *
+     * @return The changes.
+     * @throws InterruptedException if interrupted while waiting, or the watcher was closed.
+     */
+    public Changes awaitChanges() throws InterruptedException {
+        Set<Path> changed = new TreeSet<>();
+        boolean overflow = false;
+        try {
+            while (changed.isEmpty() && !overflow) {
+                WatchKey key = service.take();
+                while (key != null) {
+                    overflow |= collect(key, changed);
+                    key = service.poll(debounce.toMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            throw new InterruptedException("File watcher closed");
+        }
+        return new Changes(changed, overflow);
+    }
+
+    /**
+     * Stops watching.
+     *
+     * @throws IOException if the watch service cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    /**
+     * Adds the events of a signalled directory to the changed files.
+     *
+     * @param key The signalled key.
+     * @param changed The changed files so far.
+     * @return true if events were lost.
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                overflow |= watchCreated(path, changed);
+            }
+            if (files.contains(path)) {
+                changed.add(path);
+            } else if (isInTree(path)) {
+                if (Files.isDirectory(path)) {
+                    // A new directory: watch it, and report the files created in it before it was registered
+                    try {
+                        registerTree(path);
+                        try (Stream<Path> walk = Files.walk(path)) {
+                            changed.addAll(walk.filter(Files::isRegularFile).collect(Collectors.toList()));
+                        }
+                    } catch (IOException e) {
+                        overflow = true;
+                    }
+                } else {
+                    changed.add(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);  // Deleted directory
+            overflow |= watchDeleted(directory);
+        }
+        return overflow;
+    }
+
+    /**
+     * Waits for a missing directory to be created, by watching its nearest existing parent.
+     *
+     * @param directory The missing directory.
+     * @throws IOException if the parent cannot be watched.
+     */
+    private void awaitCreation(Path directory) throws IOException {
+        missing.add(directory);
+        Path parent = directory.getParent();
+        while (parent != null && !Files.isDirectory(parent)) {
+            parent = parent.getParent();
+        }
+        if (parent != null) {
+            register(parent);
+        }
+    }
+
+    /**
+     * Follows a directory created on the way to a missing watched directory. Once the watched
+     * directory exists, it is watched again and the files already in it are reported.
+     *
+     * @param created The created directory.
+     * @param changed The changed files so far.
+     * @return true if a directory could not be watched, so changes may have been missed.
+     */
+    private boolean watchCreated(Path created, Set<Path> changed) {
+        boolean overflow = false;
+        for (Path directory : List.copyOf(missing)) {
+            if (!directory.startsWith(created)) {
+                continue;
+            }
+            missing.remove(directory);
+            try {
+                if (!Files.isDirectory(directory)) {
+                    awaitCreation(directory);  // One more level of its parents exists now
+                } else if (trees.contains(directory)) {
+                    registerTree(directory);
+                    try (Stream<Path> walk = Files.walk(directory)) {
+                        changed.addAll(walk.filter(Files::isRegularFile).collect(Collectors.toList()));
+                    }
+                } else {
+                    register(directory);
+                    for (Path file : files) {
+                        if (file.getParent().equals(directory) && Files.exists(file)) {
+                            changed.add(file);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                overflow = true;
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * Waits for a deleted directory to come back if it is watched itself, as a tree or as the
+     * directory of a watched file. A deleted subdirectory of a tree is seen by its parent instead.
+     *
+     * @param directory The deleted directory.
+     * @return true if its parent could not be watched, so changes may have been missed.
+     */
+    private boolean watchDeleted(Path directory) {
+        boolean watched = trees.contains(directory);
+        for (Path file : files) {
+            watched |= file.getParent().equals(directory);
+        }
+        if (!watched || Files.isDirectory(directory)) {
+            return false;
+        }
+        System.out.println(directory + " was deleted, watching for it to be created again.");
+        try {
+            awaitCreation(directory);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Tells whether a path is below a watched directory.
+     *
+     * @param path The path.
+     * @return true if it is below a directory passed to {@link #watchTree}.
+     */
+    private boolean isInTree(Path path) {
+        for (Path tree : trees) {
+            if (path.startsWith(tree)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers a directory and all its subdirectories.
+     *
+     * @param root The directory.
+     * @throws IOException if a directory cannot be listed or watched.
+     */
+    private void registerTree(Path root) throws IOException {
+        List<Path> subdirectories;
+        try (Stream<Path> walk = Files.walk(root)) {
+            subdirectories = walk.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        for (Path directory : subdirectories) {
+            register(directory);
+        }
+    }
+
+    /**
+     * Registers one directory, unless it already is.
+     *
+     * @param directory The directory.
+     * @throws IOException if the directory cannot be watched.
+     */
+    private void register(Path directory) throws IOException {
+        if (directories.containsValue(directory)) {
+            return;
+        }
+        WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+    }
+}
@@ -0,0 +1,20 @@
+package pipeline;
+
+/**
+ * One line written by a child process.
+ *
+ * @param process The name of the process (usually its program name).
+ * @param stream The stream the line was written to.
+ * @param text The line, without its line terminator.
+ * @param timestampMillis When the line was read, in epoch milliseconds.
+ */
+public record OutputLine(String process, Stream stream, String text, long timestampMillis) {
+
+    /**
+     * The standard streams of a process.
+     */
+    public enum Stream {
+        STDOUT,
+        STDERR
+    }
+}
@@ -0,0 +1,85 @@
+package pipeline;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Receives the lines of a child process as they are read. Sinks are called from a single
+ * dispatcher thread per process, in the order the lines arrived. A slow sink slows the process
+ * down instead of buffering without bound. Any lambda is a sink, e.g. to publish structured
+ * {@link OutputLine} events.
+ */
+@FunctionalInterface
+public interface OutputSink extends AutoCloseable {
+
+    /**
+     * Receives one line.
+     *
+     * @param line The line.
+     */
+    void accept(OutputLine line);
+
+    /**
+     * Flushes and releases the sink once the process ended.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Prints every line to the console.
+     *
+     * @param prefix Printed before every line (e.g., "[javac] "), or an empty string.
+     * @return The console sink.
+     */
+    static OutputSink console(String prefix) {
+        return line -> {
+            if (line.stream() == OutputLine.Stream.STDERR) {
+                System.err.println(prefix + line.text());
+            } else {
+                System.out.println(prefix + line.text());
+            }
+        };
+    }
+
+    /**
+     * Appends every line to a log file, with its time and stream.
+     *
+     * @param file The log file, created if needed.
+     * @return The log file sink, to be closed when the process ended.
+     * @throws IOException if the file cannot be opened.
+     */
+    static OutputSink logFile(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        return new OutputSink() {
+            @Override
+            public void accept(OutputLine line) {
+                try {
+                    writer.write(Instant.ofEpochMilli(line.timestampMillis()) + " " + line.process() + " "
+                            + line.stream() + " " + line.text());
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+}
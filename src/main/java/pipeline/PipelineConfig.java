@@ -0,0 +1,522 @@
+package pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The PipelineConfig is an immutable snapshot of the pipeline configuration, parsed once and
+ * handed to every stage. Values are trimmed, {@code ${NAME}} references are resolved, and
+ * comma-separated lists are split up front, so stages read it concurrently without locking or I/O.
+ *
+ * The snapshot is layered: config.properties from the classpath, then the files listed in its
+ * "config.overlays" key, then the files given on the command line. When the classpath holds the
+ * copy Maven made in target/classes, config.properties is read from src/main/resources instead,
+ * so that edits are picked up without a Maven run. A later layer overrides the
+ * keys of the earlier ones. A reference {@code ${NAME}} or {@code ${NAME:-default}} is resolved
+ * from another config key, then an environment variable, then a system property.
+ *
+ * Relative paths are relative to the project directory: the working directory, unless the snapshot
+ * was loaded for another project (see {@link #load(Path, List)}).
+ */
+public final class PipelineConfig {
+
+    private static final String CONFIG_FILE = "config.properties";
+    // Where Maven copies config.properties from, relative to the project holding target/classes
+    private static final String SOURCE_CONFIG_FILE = "src/main/resources/config.properties";
+    private static final String OVERLAYS_KEY = "config.overlays";
+    private static final Pattern REFERENCE = Pattern.compile("\\$\\{([^}:]+)(?::-([^}]*))?}");
+    private static final int MAX_REFERENCE_DEPTH = 10;
+
+    // Keys whose values must parse as the given type, checked when the snapshot is loaded
+    private static final Set<String> POSITIVE_INT_KEYS = Set.of("pipeline.parallelism", "build.parallelism",
+            "test.parallelism", "validate.parallelism", "validate.timeout", "validate.timing.tolerance",
+            "validate.perf.runs", "validate.perf.tolerance.wall", "validate.perf.tolerance.cpu",
+            "validate.perf.tolerance.rss", "validate.perf.tolerance.gc", "benchmark.forks",
+            "benchmark.warmupIterations", "benchmark.iterations", "benchmark.threshold", "benchmark.timeout",
+            "progress.fps", "batch.parallelism");
+    private static final Set<String> LONG_KEYS = Set.of("build.cache.maxBytes", "test.daemon.idleTimeout",
+            "metrics.traces.maxBytes", "remote.timeout", "build.cache.remote.timeout", "watch.debounce");
+    private static final Set<String> BOOLEAN_KEYS = Set.of("build.cache.enabled", "test.parallel.enabled",
+            "test.daemon.enabled", "validate.record", "validate.perf.enabled", "validate.perf.jfr", "metrics.enabled",
+            "build.cache.remote.upload");
+    private static final Map<String, Set<String>> CHOICE_KEYS = Map.of("test.mode", Set.of("all", "affected"),
+            "validate.mode", Set.of("golden", "interactive"), "progress.mode", Set.of("auto", "tty", "plain", "off"),
+            "pipeline.executor", Set.of("platform", "virtual"));
+
+    private final Map<String, String> values;
+    private final Map<String, List<String>> lists;
+    private final List<Path> overlays;
+    private final Map<Path, Long> sources;
+    private final Path directory;
+
+    /**
+     * Constructor for the PipelineConfig class.
+     *
+     * @param values The resolved values, by key.
+     * @param overlays The overlay files given on the command line.
+     * @param sources The modification time of every file the snapshot was read from.
+     * @param directory The project directory relative paths are resolved against.
+     */
+    private PipelineConfig(Map<String, String> values, List<Path> overlays, Map<Path, Long> sources, Path directory) {
+        this.directory = directory;
+        this.values = Collections.unmodifiableMap(values);
+        this.overlays = List.copyOf(overlays);
+        this.sources = Collections.unmodifiableMap(sources);
+
+        Map<String, List<String>> split = new HashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            split.put(entry.getKey(), splitList(entry.getValue()));
+        }
+        this.lists = Collections.unmodifiableMap(split);
+    }
+
+    /**
+     * Loads config.properties from the classpath and the overlays it lists.
+     *
+     * @return The validated snapshot.
+     * @throws IllegalArgumentException if a file cannot be read or a value is invalid.
+     */
+    public static PipelineConfig load() {
+        return load(List.of());
+    }
+
+    /**
+     * Loads config.properties from the classpath, the overlays it lists and the given overlay files.
+     *
+     * @param overlays Overlay files, e.g. given with "--config" on the command line. Each one must exist.
+     * @return The validated snapshot.
+     * @throws IllegalArgumentException if a file cannot be read or a value is invalid.
+     */
+    public static PipelineConfig load(List<Path> overlays) {
+        return load(Paths.get(""), overlays);
+    }
+
+    /**
+     * Loads the configuration of a project other than the one in the working directory, e.g. when
+     * running the pipelines of several projects in one process: config.properties from the classpath,
+     * the overlays it lists (relative to the project directory) and the given overlay files.
+     *
+     * @param directory The project directory, which relative paths are resolved against.
+     * @param overlays Overlay files. Each one must exist.
+     * @return The validated snapshot.
+     * @throws IllegalArgumentException if a file cannot be read or a value is invalid.
+     */
+    public static PipelineConfig load(Path directory, List<Path> overlays) {
+        Properties raw = new Properties();
+        Map<Path, Long> sources = new LinkedHashMap<>();
+
+        URL base = PipelineConfig.class.getClassLoader().getResource(CONFIG_FILE);
+        Path baseFile = base == null ? null : sourceFile(base);
+        if (base == null) {
+            System.out.println("Sorry, unable to find " + CONFIG_FILE);
+        } else if (baseFile != null) {
+            loadOverlay(raw, baseFile, sources);
+        } else {
+            try (InputStream input = base.openStream()) {
+                raw.load(input);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read " + base + ": " + e.getMessage(), e);
+            }
+        }
+
+        // Overlays listed in the base file are optional, the ones asked for explicitly are not.
+        // A missing one is still recorded, so creating it makes the snapshot stale.
+        for (String overlay : splitList(raw.getProperty(OVERLAYS_KEY, ""))) {
+            Path file = directory.resolve(overlay);
+            if (Files.exists(file)) {
+                loadOverlay(raw, file, sources);
+            } else {
+                sources.put(file, lastModified(file));
+            }
+        }
+        for (Path file : overlays) {
+            if (!Files.exists(file)) {
+                throw new IllegalArgumentException("Config file not found: " + file);
+            }
+            loadOverlay(raw, file, sources);
+        }
+
+        Map<String, String> values = new HashMap<>();
+        for (String key : raw.stringPropertyNames()) {
+            values.put(key, raw.getProperty(key).trim());
+        }
+        return fromMap(values, overlays, sources, directory);
+    }
+
+    /**
+     * Builds a snapshot from values held in memory, e.g. for tools and benchmarks.
+     *
+     * @param values The raw values, by key.
+     * @return The validated snapshot.
+     * @throws IllegalArgumentException if a value is invalid.
+     */
+    public static PipelineConfig of(Map<String, String> values) {
+        Map<String, String> trimmed = new HashMap<>();
+        values.forEach((key, value) -> trimmed.put(key, value.trim()));
+        return fromMap(trimmed, List.of(), Map.of(), Paths.get(""));
+    }
+
+    /**
+     * Tells whether a file this snapshot was read from changed since it was loaded.
+     *
+     * @return true if the configuration should be reloaded.
+     */
+    public boolean isStale() {
+        for (Map.Entry<Path, Long> source : sources.entrySet()) {
+            if (lastModified(source.getKey()) != source.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an up-to-date snapshot: this one if no file changed, otherwise a freshly loaded one.
+     * Stages that already hold this snapshot keep it, so a run never sees two configurations.
+     *
+     * @return The current snapshot.
+     * @throws IllegalArgumentException if the changed configuration is invalid.
+     */
+    public PipelineConfig reloadIfChanged() {
+        return isStale() ? load(directory, overlays) : this;
+    }
+
+    /**
+     * Returns the files this snapshot was read from: config.properties, when it is a plain file,
+     * and every overlay, including the optional overlays that do not exist yet.
+     *
+     * @return The files, in the order they were applied.
+     */
+    public Set<Path> getSources() {
+        return sources.keySet();
+    }
+
+    /**
+     * Returns the overlay files given on the command line.
+     *
+     * @return The overlay files, in the order they are applied.
+     */
+    public List<Path> getOverlays() {
+        return overlays;
+    }
+
+    /**
+     * Returns the project directory.
+     *
+     * @return The directory relative paths are resolved against, empty for the working directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Resolves a path against the project directory, e.g. an entry of a list of directories.
+     *
+     * @param path The path, absolute or relative to the project directory.
+     * @return The path.
+     */
+    public Path resolve(String path) {
+        return directory.resolve(path);
+    }
+
+    /**
+     * Returns a value.
+     *
+     * @param key The key.
+     * @return The trimmed value, or null if the key is missing.
+     */
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * Returns a value, falling back to a default value when it is missing.
+     *
+     * @param key The key.
+     * @param defaultValue The value to use when the key is missing.
+     * @return The trimmed value or the default value.
+     */
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * Tells whether a key is set.
+     *
+     * @param key The key.
+     * @return true if the key is present (even with an empty value).
+     */
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * Returns an integer value.
+     *
+     * @param key The key.
+     * @param defaultValue The value to use when the key is missing or empty.
+     * @return The value.
+     * @throws IllegalArgumentException if the value is not an integer.
+     */
+    public int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        return value == null || value.isEmpty() ? defaultValue : parse(key, value, Integer::parseInt);
+    }
+
+    /**
+     * Returns a long value.
+     *
+     * @param key The key.
+     * @param defaultValue The value to use when the key is missing or empty.
+     * @return The value.
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        return value == null || value.isEmpty() ? defaultValue : parse(key, value, Long::parseLong);
+    }
+
+    /**
+     * Returns a boolean value.
+     *
+     * @param key The key.
+     * @param defaultValue The value to use when the key is missing or empty.
+     * @return The value.
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = values.get(key);
+        return value == null || value.isEmpty() ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Returns a comma-separated list, trimmed and without empty entries.
+     *
+     * @param key The key.
+     * @param defaultValue The list to use when the key is missing.
+     * @return The unmodifiable list.
+     */
+    public List<String> getList(String key, List<String> defaultValue) {
+        return lists.getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * Returns a path value.
+     *
+     * @param key The key.
+     * @param defaultValue The path to use when the key is missing.
+     * @return The path, resolved against the project directory.
+     */
+    public Path getPath(String key, String defaultValue) {
+        return resolve(get(key, defaultValue));
+    }
+
+    /**
+     * Returns every value.
+     *
+     * @return The unmodifiable values, by key.
+     */
+    public Map<String, String> asMap() {
+        return values;
+    }
+
+    /**
+     * Resolves references and validates the values.
+     *
+     * @param values The trimmed raw values.
+     * @param overlays The overlay files given on the command line.
+     * @param sources The files the values were read from.
+     * @param directory The project directory.
+     * @return The snapshot.
+     * @throws IllegalArgumentException listing every invalid value.
+     */
+    private static PipelineConfig fromMap(Map<String, String> values, List<Path> overlays, Map<Path, Long> sources,
+                                          Path directory) {
+        List<String> errors = new ArrayList<>();
+        Map<String, String> resolved = new HashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            try {
+                resolved.put(entry.getKey(), resolve(entry.getValue(), values, 0));
+            } catch (IllegalArgumentException e) {
+                errors.add(entry.getKey() + ": " + e.getMessage());
+            }
+        }
+
+        PipelineConfig config = new PipelineConfig(resolved, overlays, sources, directory);
+        for (String key : resolved.keySet()) {
+            String value = resolved.get(key);
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                if (POSITIVE_INT_KEYS.contains(key) && config.getInt(key, 1) < 1) {
+                    errors.add(key + ": must be at least 1, got " + value);
+                } else if (LONG_KEYS.contains(key)) {
+                    config.getLong(key, 0);
+                } else if (BOOLEAN_KEYS.contains(key) && !value.equals("true") && !value.equals("false")) {
+                    errors.add(key + ": must be true or false, got " + value);
+                } else if (CHOICE_KEYS.containsKey(key) && !CHOICE_KEYS.get(key).contains(value)) {
+                    errors.add(key + ": must be one of " + CHOICE_KEYS.get(key) + ", got " + value);
+                } else if (key.equals("package.compressionLevel")
+                        && (config.getInt(key, 0) < 0 || config.getInt(key, 0) > 9)) {
+                    errors.add(key + ": must be between 0 and 9, got " + value);
+                }
+            } catch (IllegalArgumentException e) {
+                errors.add(e.getMessage());
+            }
+        }
+        if (!errors.isEmpty()) {
+            Collections.sort(errors);
+            throw new IllegalArgumentException("Invalid configuration:\n  " + String.join("\n  ", errors));
+        }
+        return config;
+    }
+
+    /**
+     * Replaces the {@code ${NAME}} references in a value.
+     *
+     * @param value The raw value.
+     * @param values Every raw value, for references to other keys.
+     * @param depth The number of references followed so far, to stop on cycles.
+     * @return The resolved value.
+     * @throws IllegalArgumentException if a reference cannot be resolved.
+     */
+    private static String resolve(String value, Map<String, String> values, int depth) {
+        if (value.indexOf("${") < 0) {
+            return value;
+        }
+        if (depth >= MAX_REFERENCE_DEPTH) {
+            throw new IllegalArgumentException("references nested too deeply (cycle?) in " + value);
+        }
+
+        Matcher matcher = REFERENCE.matcher(value);
+        StringBuilder result = new StringBuilder();
+        while (matcher.find()) {
+            String name = matcher.group(1).trim();
+            String replacement;
+            if (values.containsKey(name)) {
+                replacement = resolve(values.get(name), values, depth + 1);
+            } else if (System.getenv(name) != null) {
+                replacement = System.getenv(name);
+            } else if (System.getProperty(name) != null) {
+                replacement = System.getProperty(name);
+            } else if (matcher.group(2) != null) {
+                replacement = resolve(matcher.group(2), values, depth + 1);
+            } else {
+                throw new IllegalArgumentException("${" + name + "} is neither a config key nor an environment variable");
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Applies an overlay file on top of the values loaded so far.
+     *
+     * @param raw The values loaded so far.
+     * @param file The overlay file.
+     * @param sources The files read so far, with their modification times.
+     */
+    private static void loadOverlay(Properties raw, Path file, Map<Path, Long> sources) {
+        try (InputStream input = Files.newInputStream(file)) {
+            raw.load(input);
+            sources.put(file, lastModified(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses a value, naming the key in the error.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @param parser The parser.
+     * @param <T> The parsed type.
+     * @return The parsed value.
+     * @throws IllegalArgumentException if the value cannot be parsed.
+     */
+    private static <T> T parse(String key, String value, Function<String, T> parser) {
+        try {
+            return parser.apply(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + ": not a number: " + value);
+        }
+    }
+
+    /**
+     * Finds the file config.properties is read from when it is not packaged in a JAR. On the
+     * classes directory of a Maven build, that is the resource it is copied from, so an edit is
+     * seen before Maven copies it again.
+     *
+     * @param base The config.properties resource.
+     * @return The file, or null if the resource is not a plain file.
+     */
+    private static Path sourceFile(URL base) {
+        if (!base.getProtocol().equals("file")) {
+            return null;
+        }
+        Path file;
+        try {
+            file = Paths.get(base.toURI());
+        } catch (URISyntaxException e) {
+            return null;  // Not reloadable, read from the URL
+        }
+        Path classes = file.getParent();
+        Path target = classes == null ? null : classes.getParent();
+        if (target != null && target.getParent() != null && classes.getFileName().toString().equals("classes")
+                && target.getFileName().toString().equals("target")) {
+            Path source = target.getParent().resolve(SOURCE_CONFIG_FILE);
+            if (Files.isRegularFile(source)) {
+                return source;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Returns the modification time of a file.
+     *
+     * @param file The file.
+     * @return The time in milliseconds, or -1 if the file is missing.
+     */
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Splits a comma-separated list, trimming whitespace and dropping empty entries.
+     *
+     * @param value The comma-separated list.
+     * @return The unmodifiable list entries.
+     */
+    private static List<String> splitList(String value) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.trim().isEmpty()) {
+                entries.add(entry.trim());
+            }
+        }
+        return List.copyOf(entries);
+    }
+}
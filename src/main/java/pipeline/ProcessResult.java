@@ -0,0 +1,72 @@
+package pipeline;
+
+import java.util.List;
+
+/**
+ * The outcome of a child process run by the {@link ProcessRunner}.
+ *
+ * @param command The command and its arguments.
+ * @param exitCode The exit code (non-zero when the process was killed).
+ * @param timedOut true if the process was killed because it ran past its timeout.
+ * @param durationNanos The time from start to exit, in nanoseconds.
+ * @param lines The last lines of output kept by the ring buffer, in the order they were read.
+ * @param droppedLines The number of earlier lines that did not fit in the ring buffer.
+ */
+public record ProcessResult(List<String> command, int exitCode, boolean timedOut, long durationNanos,
+                            List<OutputLine> lines, long droppedLines) {
+
+    /**
+     * Tells whether the process exited normally with code 0.
+     *
+     * @return true if the process succeeded.
+     */
+    public boolean success() {
+        return exitCode == 0 && !timedOut;
+    }
+
+    /**
+     * Returns the kept output of both streams, in the order it was read.
+     *
+     * @return The output, one line per line.
+     */
+    public String output() {
+        return join(null);
+    }
+
+    /**
+     * Returns the kept standard output.
+     *
+     * @return The standard output, one line per line.
+     */
+    public String stdout() {
+        return join(OutputLine.Stream.STDOUT);
+    }
+
+    /**
+     * Returns the kept standard error.
+     *
+     * @return The standard error, one line per line.
+     */
+    public String stderr() {
+        return join(OutputLine.Stream.STDERR);
+    }
+
+    /**
+     * Joins the kept lines of one stream, noting the lines that were dropped.
+     *
+     * @param stream The stream, or null for both.
+     * @return The joined lines.
+     */
+    private String join(OutputLine.Stream stream) {
+        StringBuilder text = new StringBuilder();
+        if (droppedLines > 0) {
+            text.append("[").append(droppedLines).append(" earlier lines dropped]\n");
+        }
+        for (OutputLine line : lines) {
+            if (stream == null || line.stream() == stream) {
+                text.append(line.text()).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,435 @@
+package pipeline;
+
+import metrics.Metrics;
+import metrics.Span;
+import metrics.Tracer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs a child process for a stage. Its standard output and error are drained on virtual threads
+ * into a bounded ring buffer, so a chatty process never blocks on a full pipe and never fills the
+ * memory. The lines are also handed to sinks (console, log file...) through a bounded queue:
+ * when the sinks fall behind, the queue fills and the process is slowed down instead.
+ * A process running past its timeout is killed, and so is a process whose stage is cancelled
+ * (the waiting thread is interrupted), together with its child processes.
+ *
+ * Usage: {@code new ProcessRunner("git", "status").directory(dir).timeout(Duration.ofMinutes(1)).run()}.
+ */
+public class ProcessRunner {
+
+    private static final int DEFAULT_BUFFER_LINES = 10_000;
+    private static final int SINK_QUEUE_CAPACITY = 1024;
+    private static final long SINK_POLL_MILLIS = 20;
+    private static final Duration KILL_GRACE = Duration.ofSeconds(2);
+
+    private final List<String> command;
+    private final Map<String, String> environment = new LinkedHashMap<>();
+    private final List<OutputSink> sinks = new ArrayList<>();
+    private final List<Consumer<ProcessHandle>> startListeners = new ArrayList<>();
+    private Path directory;
+    private Duration timeout;
+    private byte[] input;
+    private boolean inheritInput;
+    private boolean mergeErrors;
+    private int bufferLines = DEFAULT_BUFFER_LINES;
+
+    /**
+     * Constructor for the ProcessRunner class.
+     *
+     * @param command The command and its arguments, passed to the program unchanged.
+     */
+    public ProcessRunner(List<String> command) {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("Empty command");
+        }
+        this.command = List.copyOf(command);
+    }
+
+    /**
+     * Constructor for the ProcessRunner class.
+     *
+     * @param command The command and its arguments, passed to the program unchanged.
+     */
+    public ProcessRunner(String... command) {
+        this(List.of(command));
+    }
+
+    /**
+     * Sets the working directory.
+     *
+     * @param directory The working directory (the pipeline's by default).
+     * @return This runner.
+     */
+    public ProcessRunner directory(Path directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * Sets an environment variable of the process.
+     *
+     * @param name The variable name.
+     * @param value The value.
+     * @return This runner.
+     */
+    public ProcessRunner environment(String name, String value) {
+        environment.put(name, value);
+        return this;
+    }
+
+    /**
+     * Kills the process when it runs longer than a timeout.
+     *
+     * @param timeout The timeout, or null for none (the default).
+     * @return This runner.
+     */
+    public ProcessRunner timeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Writes bytes to the standard input of the process, then closes it.
+     * Without input, the standard input is closed right away.
+     *
+     * @param input The bytes to write.
+     * @return This runner.
+     */
+    public ProcessRunner input(byte[] input) {
+        this.input = input;
+        return this;
+    }
+
+    /**
+     * Lets the process read the standard input of the pipeline, e.g. for interactive programs.
+     *
+     * @return This runner.
+     */
+    public ProcessRunner inheritInput() {
+        this.inheritInput = true;
+        return this;
+    }
+
+    /**
+     * Merges the standard error into the standard output, keeping their exact interleaving
+     * (e.g., for compiler diagnostics). Every line is then reported as STDOUT.
+     *
+     * @return This runner.
+     */
+    public ProcessRunner mergeErrors() {
+        this.mergeErrors = true;
+        return this;
+    }
+
+    /**
+     * Sets how many of the last output lines are kept in the result.
+     *
+     * @param lines The ring buffer size in lines.
+     * @return This runner.
+     */
+    public ProcessRunner bufferLines(int lines) {
+        if (lines < 1) {
+            throw new IllegalArgumentException("The buffer must hold at least one line, got " + lines);
+        }
+        this.bufferLines = lines;
+        return this;
+    }
+
+    /**
+     * Adds a sink receiving every line as it is read. Sinks are not closed by the runner.
+     *
+     * @param sink The sink.
+     * @return This runner.
+     */
+    public ProcessRunner sink(OutputSink sink) {
+        sinks.add(sink);
+        return this;
+    }
+
+    /**
+     * Adds a listener called with the process as soon as it started, e.g. to sample its resources.
+     *
+     * @param listener The listener.
+     * @return This runner.
+     */
+    public ProcessRunner onStart(Consumer<ProcessHandle> listener) {
+        startListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Starts the process and waits for it to exit.
+     *
+     * @return The exit code, kept output and timing of the process.
+     * @throws IOException if the program cannot be started.
+     * @throws InterruptedException if the calling thread is interrupted; the process is killed first.
+     */
+    public ProcessResult run() throws IOException, InterruptedException {
+        String name = Paths.get(command.get(0)).getFileName().toString();
+        ProcessResult result;
+        if (Tracer.current() == null) {
+            result = execute(name, null);
+        } else {
+            // Traced below the current step. Only the program name is recorded: arguments may hold credentials
+            try (Span span = Metrics.tracer().startSpan("process " + name)) {
+                span.setAttribute("process.executable.name", name);
+                try {
+                    result = execute(name, span);
+                } catch (IOException | InterruptedException e) {
+                    span.setStatus(false, e.toString());
+                    throw e;
+                }
+                span.setAttribute("process.exit_code", result.exitCode());
+                span.setAttribute("process.timed_out", result.timedOut());
+                span.setStatus(result.success(), result.timedOut() ? "timed out" : "exit code " + result.exitCode());
+            }
+        }
+        Metrics.registry().timer("process.duration", "process", name).record(result.durationNanos());
+        return result;
+    }
+
+    /**
+     * Starts the process and waits for it to exit.
+     *
+     * @param name The program name, used to name the threads and the output lines.
+     * @param span The span tracing the process, or null if it is not traced.
+     * @return The exit code, kept output and timing of the process.
+     * @throws IOException if the program cannot be started.
+     * @throws InterruptedException if the calling thread is interrupted; the process is killed first.
+     */
+    private ProcessResult execute(String name, Span span) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(mergeErrors);
+        if (directory != null) {
+            builder.directory(directory.toFile());
+        }
+        builder.environment().putAll(environment);
+        if (inheritInput) {
+            builder.redirectInput(ProcessBuilder.Redirect.INHERIT);
+        }
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        startListeners.forEach(listener -> listener.accept(process.toHandle()));
+        if (span != null) {
+            span.setAttribute("process.pid", process.pid());
+        }
+
+        LineBuffer buffer = new LineBuffer(bufferLines);
+        BlockingQueue<OutputLine> queue = sinks.isEmpty() ? null : new ArrayBlockingQueue<>(SINK_QUEUE_CAPACITY);
+        List<Thread> drains = new ArrayList<>();
+        drains.add(drain(process.getInputStream(), name, OutputLine.Stream.STDOUT, buffer, queue));
+        if (!mergeErrors) {
+            drains.add(drain(process.getErrorStream(), name, OutputLine.Stream.STDERR, buffer, queue));
+        }
+        Thread dispatcher = queue == null ? null
+                : Thread.ofVirtual().name(name + "-sinks").start(() -> dispatch(queue, drains));
+        if (!inheritInput) {
+            writeInput(process, name);
+        }
+
+        boolean timedOut = false;
+        try {
+            if (!awaitExit(process, timeout)) {
+                timedOut = true;
+                kill(process, KILL_GRACE);
+            }
+            for (Thread drain : drains) {
+                drain.join();
+            }
+            if (dispatcher != null) {
+                dispatcher.join();
+            }
+        } catch (InterruptedException e) {
+            kill(process, Duration.ZERO);  // The stage was cancelled: stop at once
+            throw e;
+        }
+
+        return new ProcessResult(command, process.exitValue(), timedOut, System.nanoTime() - start,
+                buffer.lines(), buffer.dropped());
+    }
+
+    /**
+     * Starts a virtual thread reading one stream of the process line by line.
+     *
+     * @param stream The stream.
+     * @param name The process name.
+     * @param type Which stream it is.
+     * @param buffer The ring buffer keeping the last lines.
+     * @param queue The queue to the sinks, or null if there are none.
+     * @return The started thread.
+     */
+    private static Thread drain(InputStream stream, String name, OutputLine.Stream type, LineBuffer buffer,
+                                BlockingQueue<OutputLine> queue) {
+        return Thread.ofVirtual().name(name + "-" + type.name().toLowerCase()).start(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    OutputLine line = new OutputLine(name, type, text, System.currentTimeMillis());
+                    buffer.add(line);
+                    if (queue != null) {
+                        queue.put(line);  // Blocks while the sinks catch up
+                    }
+                }
+            } catch (IOException e) {
+                // The stream closes when the process is killed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Hands queued lines to the sinks until both streams are drained.
+     * A sink that throws is reported once and gets no further lines.
+     *
+     * @param queue The queue filled by the drain threads.
+     * @param drains The drain threads.
+     */
+    private void dispatch(BlockingQueue<OutputLine> queue, List<Thread> drains) {
+        List<OutputSink> active = new ArrayList<>(sinks);
+        try {
+            while (true) {
+                OutputLine line = queue.poll(SINK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    if (drains.stream().noneMatch(Thread::isAlive) && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                for (OutputSink sink : new ArrayList<>(active)) {
+                    try {
+                        sink.accept(line);
+                    } catch (RuntimeException e) {
+                        System.out.println("Output sink failed, detaching it: " + e);
+                        active.remove(sink);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the input to the process on a virtual thread, or closes its input right away.
+     *
+     * @param process The process.
+     * @param name The process name.
+     */
+    private void writeInput(Process process, String name) {
+        byte[] bytes = input;
+        Thread.ofVirtual().name(name + "-stdin").start(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                if (bytes != null) {
+                    stdin.write(bytes);
+                }
+            } catch (IOException e) {
+                // The process exited without reading all of its input
+            }
+        });
+    }
+
+    /**
+     * Waits for a process to exit. {@link Process#waitFor} blocks in {@link Object#wait}, which pins a
+     * virtual thread to its carrier thread; waiting on {@link Process#onExit} parks it instead, so the
+     * stage tasks waiting for child processes do not hold platform threads.
+     *
+     * @param process The process.
+     * @param timeout How long to wait, or null to wait until it exits.
+     * @return true if the process exited, false if the timeout elapsed first.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static boolean awaitExit(Process process, Duration timeout) throws InterruptedException {
+        try {
+            if (timeout == null) {
+                process.onExit().get();
+            } else {
+                process.onExit().get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not wait for the process", e.getCause());  // onExit never fails
+        }
+    }
+
+    /**
+     * Kills a process and its descendants: politely first, forcibly after the grace period.
+     *
+     * @param process The process.
+     * @param grace How long to wait for a polite stop.
+     */
+    private static void kill(Process process, Duration grace) {
+        List<ProcessHandle> descendants = process.descendants().toList();
+        if (!grace.isZero()) {
+            descendants.forEach(ProcessHandle::destroy);
+            process.destroy();
+            try {
+                if (awaitExit(process, grace)) {
+                    descendants.forEach(ProcessHandle::destroyForcibly);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        descendants.forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        try {
+            awaitExit(process, KILL_GRACE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Keeps the last lines of output, dropping the oldest ones. Both drain threads add to it.
+     */
+    private static class LineBuffer {
+        private final int capacity;
+        private final Deque<OutputLine> lines = new ArrayDeque<>();
+        private long dropped;
+
+        LineBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(OutputLine line) {
+            if (lines.size() == capacity) {
+                lines.removeFirst();
+                dropped++;
+            }
+            lines.addLast(line);
+        }
+
+        synchronized List<OutputLine> lines() {
+            return List.copyOf(lines);
+        }
+
+        synchronized long dropped() {
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package pipeline;
+
+import metrics.Metrics;
+import metrics.Span;
+import metrics.Tracer;
+import stages.Stage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The StageScheduler runs the pipeline stages as a dependency graph (DAG).
+ * Every stage whose dependencies have all succeeded is started right away on a bounded
+ * executor, so independent stages run at the same time. As soon as one stage fails,
+ * the stages still running are cancelled and no further stage is started; the run only
+ * returns once the cancelled stages have stopped.
+ */
+public class StageScheduler {
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final Map<String, List<String>> dependencies = new HashMap<>();
+    private final int parallelism;
+
+    /**
+     * Constructor for the StageScheduler class.
+     * @param parallelism The maximum number of stages allowed to run at the same time.
+     */
+    public StageScheduler(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds a stage to the pipeline.
+     * @param stage The stage to run.
+     * @param dependsOn The names of the stages that must succeed before this one starts.
+     */
+    public void addStage(Stage stage, List<String> dependsOn) {
+        if (stages.containsKey(stage.getName())) {
+            throw new IllegalArgumentException("Stage declared twice: " + stage.getName());
+        }
+        stages.put(stage.getName(), stage);
+        dependencies.put(stage.getName(), new ArrayList<>(dependsOn));
+    }
+
+    /**
+     * Checks that every dependency refers to a known stage and that the graph has no cycle.
+     * @throws IllegalArgumentException if the stage graph is invalid.
+     */
+    public void validate() {
+        for (Map.Entry<String, List<String>> entry : dependencies.entrySet()) {
+            for (String dependency : entry.getValue()) {
+                if (!stages.containsKey(dependency)) {
+                    throw new IllegalArgumentException("Stage '" + entry.getKey()
+                            + "' depends on unknown stage '" + dependency + "'");
+                }
+            }
+        }
+
+        // Kahn's algorithm: if not every stage can be ordered, there is a cycle
+        Map<String, Integer> remaining = countDependencies();
+        Deque<String> ready = new ArrayDeque<>();
+        remaining.forEach((name, count) -> {
+            if (count == 0) {
+                ready.add(name);
+            }
+        });
+        int ordered = 0;
+        Map<String, List<String>> dependents = findDependents();
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            ordered++;
+            for (String dependent : dependents.get(name)) {
+                if (remaining.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (ordered != stages.size()) {
+            throw new IllegalArgumentException("Stage dependencies contain a cycle");
+        }
+    }
+
+    /**
+     * Runs every stage, starting each one as soon as its dependencies have succeeded.
+     * @return true if every stage succeeded, false if a stage failed.
+     * @throws InterruptedException if the pipeline is interrupted while waiting for stages.
+     */
+    public boolean run() throws InterruptedException {
+        validate();
+
+        Map<String, Integer> remaining = countDependencies();
+        Map<String, List<String>> dependents = findDependents();
+        Map<String, Future<StageOutcome>> running = new HashMap<>();
+
+        // Stage spans are nested below the span of the caller (the whole pipeline run)
+        Span pipelineSpan = Tracer.current();
+        try (ExecutorService executor = TaskExecutors.newScope("pipeline-stage", parallelism)) {
+            CompletionService<StageOutcome> completion = new ExecutorCompletionService<>(executor);
+            for (String name : stages.keySet()) {
+                if (remaining.get(name) == 0) {
+                    running.put(name, completion.submit(() -> runStage(stages.get(name), pipelineSpan)));
+                }
+            }
+
+            while (!running.isEmpty()) {
+                StageOutcome outcome = awaitNext(completion);
+                running.remove(outcome.name());
+
+                if (!outcome.success()) {
+                    System.out.println("Stage '" + outcome.name() + "' failed. Stopping pipeline.");
+                    // Fail fast: cancel the sibling stages that are still running
+                    for (Map.Entry<String, Future<StageOutcome>> entry : running.entrySet()) {
+                        System.out.println("Cancelling stage '" + entry.getKey() + "'...");
+                        entry.getValue().cancel(true);
+                    }
+                    return false;
+                }
+
+                System.out.println("Stage '" + outcome.name() + "' succeeded.");
+                for (String dependent : dependents.get(outcome.name())) {
+                    if (remaining.merge(dependent, -1, Integer::sum) == 0) {
+                        running.put(dependent, completion.submit(() -> runStage(stages.get(dependent), pipelineSpan)));
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Runs a single stage, turning any exception into a failed outcome.
+     * The stage is traced as a span and its duration recorded by outcome.
+     * @param stage The stage to run.
+     * @param pipelineSpan The span of the pipeline run, or null if it is not traced.
+     * @return The outcome of the stage.
+     */
+    private StageOutcome runStage(Stage stage, Span pipelineSpan) {
+        System.out.println("Starting stage '" + stage.getName() + "'...");
+        long start = System.nanoTime();
+        boolean success = false;
+        try (Span span = Metrics.tracer().startSpan("stage " + stage.getName(), pipelineSpan)) {
+            span.setAttribute("pipeline.stage", stage.getName());
+            try {
+                success = stage.execute();
+                span.setStatus(success, "stage failed");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                span.setStatus(false, "cancelled");
+            } catch (Exception e) {
+                e.printStackTrace();
+                span.setStatus(false, e.toString());
+            }
+        }
+        String outcome = success ? "success" : Thread.currentThread().isInterrupted() ? "cancelled" : "failure";
+        Metrics.registry().timer("stage.duration", "stage", stage.getName(), "outcome", outcome)
+                .record(System.nanoTime() - start);
+        return new StageOutcome(stage.getName(), success);
+    }
+
+    /**
+     * Waits for the next stage to finish.
+     * @param completion The completion service the stages were submitted to.
+     * @return The outcome of the stage that finished.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private StageOutcome awaitNext(CompletionService<StageOutcome> completion) throws InterruptedException {
+        Future<StageOutcome> future = completion.take();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // runStage catches exceptions, so only errors (e.g. OutOfMemoryError) end up here
+            throw new IllegalStateException("Stage crashed", e.getCause());
+        }
+    }
+
+    /**
+     * Counts the number of unfinished dependencies of every stage.
+     * @return A mutable map from stage name to dependency count.
+     */
+    private Map<String, Integer> countDependencies() {
+        Map<String, Integer> remaining = new HashMap<>();
+        for (String name : stages.keySet()) {
+            remaining.put(name, dependencies.get(name).size());
+        }
+        return remaining;
+    }
+
+    /**
+     * Inverts the dependency map so each stage knows which stages are waiting on it.
+     * @return A map from stage name to the names of the stages depending on it.
+     */
+    private Map<String, List<String>> findDependents() {
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (String name : stages.keySet()) {
+            dependents.put(name, new ArrayList<>());
+        }
+        for (String name : stages.keySet()) {
+            for (String dependency : dependencies.get(name)) {
+                dependents.get(dependency).add(name);
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * The result of running one stage.
+     * @param name The stage name.
+     * @param success true if the stage succeeded.
+     */
+    private record StageOutcome(String name, boolean success) {
+    }
+}
@@ -0,0 +1,219 @@
+package pipeline;
+
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Metrics;
+import metrics.Timer;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TaskExecutors creates the executors the pipeline runs its work on: the stages themselves, and the
+ * tasks of a stage (scripts compiled, fixtures run, JAR entries compressed, shards sent to workers).
+ * The "pipeline.executor" setting picks the threads they run on:
+ * <ul>
+ *   <li>platform: a fixed pool of platform threads, one per task allowed to run at the same time.</li>
+ *   <li>virtual: a new virtual thread per task. A task waiting for a child process, a socket or the
+ *       file system unmounts from its carrier thread, so thousands of waiting tasks cost no platform
+ *       thread. The same limit applies to the tasks running at the same time: the others wait for a
+ *       permit, parked.</li>
+ * </ul>
+ * Every executor is the scope of the work that created it: closing it cancels the tasks still
+ * running and waits for them to end, so no task outlives the stage (or the pipeline run) it belongs to.
+ *
+ * Every executor records, tagged by pool and mode, the tasks run, the threads started, how
+ * long tasks waited before starting and how many ran at the same time, so both modes can be
+ * compared on the same pipeline.
+ */
+public final class TaskExecutors {
+
+    /**
+     * The threads the tasks run on.
+     */
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private static volatile Mode mode = Mode.PLATFORM;
+
+    /**
+     * Utility class.
+     */
+    private TaskExecutors() {
+    }
+
+    /**
+     * Selects the threads of the executors created from now on.
+     *
+     * @param newMode The mode.
+     */
+    public static void setMode(Mode newMode) {
+        mode = newMode;
+    }
+
+    /**
+     * Selects the threads of the executors created from now on, from the "pipeline.executor" setting.
+     *
+     * @param config The pipeline configuration.
+     */
+    public static void configure(PipelineConfig config) {
+        setMode(modeOf(config));
+    }
+
+    /**
+     * Reads the "pipeline.executor" setting.
+     *
+     * @param config The pipeline configuration.
+     * @return The mode it selects.
+     * @throws IllegalArgumentException if the setting is not a mode.
+     */
+    public static Mode modeOf(PipelineConfig config) {
+        return Mode.valueOf(config.get("pipeline.executor", "platform").toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the threads the executors created now run on.
+     *
+     * @return The mode.
+     */
+    public static Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Creates the executor of one scope of work. Use it with try-with-resources: closing it cancels the
+     * tasks still running and waits for them to end.
+     *
+     * @param pool The name of the pool, used for thread names and metric tags (e.g. "build-compile").
+     * @param maxConcurrency The maximum number of tasks running at the same time.
+     * @return The executor.
+     */
+    public static ExecutorService newScope(String pool, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency of " + pool + " must be at least 1, got " + maxConcurrency);
+        }
+        return new ScopeExecutor(pool, mode, maxConcurrency);
+    }
+
+    /**
+     * An executor that runs its tasks on platform or virtual threads and records how they ran.
+     */
+    private static final class ScopeExecutor extends AbstractExecutorService {
+
+        private final ExecutorService threads;
+        private final Semaphore permits;
+        private final AtomicInteger running = new AtomicInteger();
+        private final Counter tasks;
+        private final Timer queueWait;
+        private final Gauge peak;
+
+        /**
+         * Constructor for the ScopeExecutor class.
+         *
+         * @param pool The name of the pool.
+         * @param mode The threads to run the tasks on.
+         * @param maxConcurrency The maximum number of tasks running at the same time.
+         */
+        ScopeExecutor(String pool, Mode mode, int maxConcurrency) {
+            String modeTag = mode.name().toLowerCase(Locale.ROOT);
+            Counter started = Metrics.registry().counter("executor.threads.started", "pool", pool, "mode", modeTag);
+            tasks = Metrics.registry().counter("executor.tasks", "pool", pool, "mode", modeTag);
+            queueWait = Metrics.registry().timer("executor.queue.wait", "pool", pool, "mode", modeTag);
+            peak = Metrics.registry().gauge("executor.tasks.peak", "pool", pool, "mode", modeTag);
+
+            ThreadFactory names = mode == Mode.VIRTUAL
+                    ? Thread.ofVirtual().name(pool + "-", 1).factory()
+                    : Thread.ofPlatform().name(pool + "-", 1).factory();
+            ThreadFactory factory = runnable -> {
+                started.increment();
+                return names.newThread(runnable);
+            };
+            if (mode == Mode.VIRTUAL) {
+                threads = Executors.newThreadPerTaskExecutor(factory);
+                permits = new Semaphore(maxConcurrency);
+            } else {
+                threads = Executors.newFixedThreadPool(maxConcurrency, factory);
+                permits = null;  // The pool size is the limit
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            long submitted = System.nanoTime();
+            threads.execute(() -> {
+                if (permits != null) {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        return;  // Cancelled before it started, like a queued task of a shut down pool
+                    }
+                }
+                try {
+                    queueWait.record(System.nanoTime() - submitted);
+                    tasks.increment();
+                    peak.recordMax(running.incrementAndGet());
+                    command.run();
+                } finally {
+                    running.decrementAndGet();
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            threads.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return threads.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return threads.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return threads.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return threads.awaitTermination(timeout, unit);
+        }
+
+        /**
+         * Ends the scope: interrupts the tasks still running and waits for them to end. An interrupt
+         * while waiting is kept for the caller but does not stop the wait.
+         */
+        @Override
+        public void close() {
+            shutdownNow();
+            boolean interrupted = false;
+            while (!isTerminated()) {
+                try {
+                    awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
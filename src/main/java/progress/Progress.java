@@ -0,0 +1,92 @@
+package progress;
+
+import java.io.PrintStream;
+
+/**
+ * Entry point of the console progress display. {@link #start} installs a single renderer for
+ * the whole pipeline; stages then ask for a {@link #bar} per stage or worker and update it.
+ * Bars created while no renderer runs (progress disabled, or code run outside the pipeline)
+ * are counted but never drawn.
+ */
+public final class Progress {
+
+    /**
+     * How the progress is shown.
+     */
+    public enum Mode {
+        /** Live bars on a terminal, plain lines otherwise. */
+        AUTO,
+        /** Live bars redrawn in place with escape codes. */
+        TTY,
+        /** One line per bar every 10 percent, for log files and CI consoles. */
+        PLAIN,
+        /** No progress at all. */
+        OFF
+    }
+
+    private static ProgressRenderer renderer;
+    private static PrintStream originalOut;
+    private static PrintStream originalErr;
+
+    private Progress() {
+    }
+
+    /**
+     * Starts the renderer and routes the standard output and error through it, so the lines
+     * printed by the stages never break a bar. Does nothing if it already runs.
+     *
+     * @param mode How to show the progress.
+     * @param framesPerSecond The maximum number of times per second the bars are redrawn.
+     */
+    public static synchronized void start(Mode mode, int framesPerSecond) {
+        if (renderer != null || mode == Mode.OFF) {
+            return;
+        }
+        boolean terminal = mode == Mode.TTY || (mode == Mode.AUTO && isTerminal());
+        originalOut = System.out;
+        originalErr = System.err;
+        renderer = new ProgressRenderer(originalOut, terminal, framesPerSecond);
+        System.setOut(renderer.wrap(originalOut));
+        System.setErr(renderer.wrap(originalErr));
+    }
+
+    /**
+     * Draws the last frame, stops the renderer and restores the standard output and error.
+     */
+    public static synchronized void stop() {
+        if (renderer == null) {
+            return;
+        }
+        System.out.flush();
+        System.err.flush();
+        renderer.stop();
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+        renderer = null;
+    }
+
+    /**
+     * Creates a bar, drawn until it is closed.
+     *
+     * @param label The label of the bar, usually the stage name.
+     * @param total The amount of work to do, in any unit (files, classes, nanoseconds...).
+     * @return The bar.
+     */
+    public static synchronized ProgressBar bar(String label, long total) {
+        ProgressBar bar = new ProgressBar(label, total, renderer);
+        if (renderer != null) {
+            renderer.add(bar);
+        }
+        return bar;
+    }
+
+    /**
+     * Tells whether the standard output is a terminal that understands escape codes.
+     * The JVM only provides a console when both the input and the output are terminals.
+     *
+     * @return true for an interactive terminal.
+     */
+    private static boolean isTerminal() {
+        return System.console() != null && !"dumb".equals(System.getenv("TERM"));
+    }
+}
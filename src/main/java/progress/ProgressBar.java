@@ -0,0 +1,196 @@
+package progress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of one stage or worker, drawn by the {@link ProgressRenderer}. Updating it only
+ * writes atomic counters, so it is cheap enough to call from every worker thread on every item;
+ * the renderer picks the values up on its next frame. Closing the bar prints its final state once.
+ */
+public final class ProgressBar implements AutoCloseable {
+
+    private static final int MAX_LABEL_LENGTH = 12;
+
+    private final byte[] label;
+    private final ProgressRenderer renderer;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong itemsDone = new AtomicLong(-1);
+    private final AtomicLong itemsTotal = new AtomicLong(-1);
+    private volatile long remainingMillis = -1;
+    private volatile boolean closed;
+
+    // Touched only by the renderer, under its lock: the last percentage logged in plain mode
+    int loggedPercent = -1;
+
+    /**
+     * Constructor for the ProgressBar class. Bars are created by {@link Progress#bar}.
+     *
+     * @param label The label drawn in front of the bar, cut to 12 characters.
+     * @param total The amount of work to do.
+     * @param renderer The renderer drawing the bar, or null if progress is not shown.
+     */
+    ProgressBar(String label, long total, ProgressRenderer renderer) {
+        String cut = label.length() > MAX_LABEL_LENGTH ? label.substring(0, MAX_LABEL_LENGTH) : label;
+        this.label = cut.getBytes(StandardCharsets.UTF_8);
+        this.total.set(Math.max(0, total));
+        this.renderer = renderer;
+    }
+
+    /**
+     * Marks one more unit of work as done.
+     */
+    public void advance() {
+        advance(1);
+    }
+
+    /**
+     * Marks more work as done.
+     *
+     * @param amount The units of work done since the last update.
+     */
+    public void advance(long amount) {
+        done.addAndGet(amount);
+        changed();
+    }
+
+    /**
+     * Sets the work done so far.
+     *
+     * @param amount The units of work done.
+     */
+    public void set(long amount) {
+        done.set(amount);
+        changed();
+    }
+
+    /**
+     * Changes the amount of work to do, e.g. once it is known.
+     *
+     * @param amount The units of work.
+     */
+    public void setTotal(long amount) {
+        total.set(Math.max(0, amount));
+        changed();
+    }
+
+    /**
+     * Shows a count of items next to the bar, when the work is measured in another unit
+     * (e.g. the expected duration of the test classes, shown with the number of classes).
+     *
+     * @param finished The items finished.
+     * @param count The number of items.
+     */
+    public void setItems(long finished, long count) {
+        itemsDone.set(finished);
+        itemsTotal.set(count);
+        changed();
+    }
+
+    /**
+     * Shows an estimate of the time left.
+     *
+     * @param millis The estimated time left in milliseconds, or -1 to show none.
+     */
+    public void setRemainingMillis(long millis) {
+        remainingMillis = millis;
+        changed();
+    }
+
+    /**
+     * Ends the bar: it is drawn one last time in its final state and then removed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (renderer != null) {
+            renderer.closed();  // Drawn right away, so its last line comes before what the stage prints next
+        }
+    }
+
+    /**
+     * Tells the renderer that the bar needs to be drawn again.
+     */
+    private void changed() {
+        if (renderer != null) {
+            renderer.markDirty();
+        }
+    }
+
+    /**
+     * Returns the label.
+     *
+     * @return The UTF-8 bytes of the label.
+     */
+    byte[] label() {
+        return label;
+    }
+
+    /**
+     * Returns the work done.
+     *
+     * @return The units of work done.
+     */
+    long done() {
+        return done.get();
+    }
+
+    /**
+     * Returns the work to do.
+     *
+     * @return The units of work.
+     */
+    long total() {
+        return total.get();
+    }
+
+    /**
+     * Returns the items finished.
+     *
+     * @return The count, or -1 when no items are shown.
+     */
+    long itemsDone() {
+        return itemsDone.get();
+    }
+
+    /**
+     * Returns the number of items.
+     *
+     * @return The count, or -1 when no items are shown.
+     */
+    long itemsTotal() {
+        return itemsTotal.get();
+    }
+
+    /**
+     * Returns the estimated time left.
+     *
+     * @return The milliseconds left, or -1 if unknown.
+     */
+    long remainingMillis() {
+        return remainingMillis;
+    }
+
+    /**
+     * Tells whether the bar was closed.
+     *
+     * @return true once {@link #close()} was called.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the share of the work done.
+     *
+     * @return The percentage, between 0 and 100.
+     */
+    int percent() {
+        long work = total.get();
+        if (work == 0) {
+            return closed ? 100 : 0;
+        }
+        return (int) Math.max(0, Math.min(100, done.get() * 100 / work));
+    }
+}
@@ -0,0 +1,338 @@
+package progress;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws every open {@link ProgressBar} from a single thread, at most a fixed number of frames per
+ * second, however often the bars are updated. Each frame is composed in one preallocated buffer
+ * and written with a single call, so drawing allocates nothing and costs one write per frame.
+ *
+ * On a terminal the bars stay below the log: the renderer owns the console, and a line printed
+ * by a stage first erases the bars, which are drawn again under it on the next frame. Without a
+ * terminal (a file, a CI log), no escape codes are written; a bar is logged as a plain line every
+ * 10 percent and when it closes.
+ */
+final class ProgressRenderer {
+
+    private static final int LABEL_WIDTH = 12;
+    private static final int BAR_WIDTH = 30;
+    private static final int LINE_CAPACITY = LABEL_WIDTH + BAR_WIDTH + 96;
+    private static final int PLAIN_STEP_PERCENT = 10;
+    private static final byte ESC = 0x1B;
+    private static final byte[] SECONDS_LEFT = "s left".getBytes(StandardCharsets.US_ASCII);
+
+    private final PrintStream out;
+    private final boolean terminal;
+    private final long frameNanos;
+    private final List<ProgressBar> bars = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Object console = new Object();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Guarded by console
+    private byte[] frame = new byte[4096];
+    private int length;
+    private final byte[] digits = new byte[20];
+    private final byte[] erase = new byte[16];
+    private int drawnLines;
+    private boolean atLineStart = true;
+
+    /**
+     * Constructor for the ProgressRenderer class. The renderer thread starts right away.
+     *
+     * @param out The real standard output.
+     * @param terminal true to draw live bars with escape codes, false to log plain lines.
+     * @param framesPerSecond The maximum number of frames drawn per second.
+     */
+    ProgressRenderer(PrintStream out, boolean terminal, int framesPerSecond) {
+        this.out = out;
+        this.terminal = terminal;
+        this.frameNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, framesPerSecond);
+        this.thread = new Thread(this::run, "progress-renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts drawing a bar.
+     *
+     * @param bar The bar.
+     */
+    void add(ProgressBar bar) {
+        bars.add(bar);
+        markDirty();
+    }
+
+    /**
+     * Asks for the next frame to be drawn. Called on every update, so it avoids writing the
+     * shared flag when it is already set.
+     */
+    void markDirty() {
+        if (!dirty.get()) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Draws a frame right away, so a bar that was just closed is printed in its final state.
+     */
+    void closed() {
+        synchronized (console) {
+            draw();
+        }
+    }
+
+    /**
+     * Wraps a stream of the console so what is printed on it does not mix with the bars.
+     *
+     * @param target The stream (standard output or error).
+     * @return The stream to install in its place.
+     */
+    PrintStream wrap(PrintStream target) {
+        return new PrintStream(new ConsoleStream(target), true, target.charset());
+    }
+
+    /**
+     * Stops the renderer thread and draws the last frame. Bars still open stay on screen as they are.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (console) {
+            draw();
+            drawnLines = 0;  // Left on screen, above whatever is printed next
+        }
+    }
+
+    /**
+     * The renderer loop: one frame per interval, only when a bar changed.
+     */
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(frameNanos);
+            if (dirty.get()) {
+                dirty.set(false);
+                synchronized (console) {
+                    draw();
+                }
+            }
+        }
+    }
+
+    /**
+     * Composes and writes one frame. Closed bars are printed one last time and dropped.
+     * Must hold the console lock.
+     */
+    private void draw() {
+        if (!atLineStart) {
+            dirty.set(true);  // A line is half printed; draw once it is complete
+            return;
+        }
+        length = 0;
+        if (terminal && drawnLines > 0) {
+            int eraseLength = eraseSequence();
+            ensureCapacity(eraseLength);
+            System.arraycopy(erase, 0, frame, 0, eraseLength);
+            length = eraseLength;
+        }
+
+        // Closed bars first: their last line stays in the log, above the bars still running
+        for (ProgressBar bar : bars) {
+            if (bar.isClosed()) {
+                appendLine(bar);
+                bars.remove(bar);
+            }
+        }
+        int lines = 0;
+        for (ProgressBar bar : bars) {
+            if (bar.isClosed()) {
+                continue;  // Closed since the first loop, printed on the next frame
+            } else if (terminal) {
+                appendLine(bar);
+                lines++;
+            } else {
+                int step = bar.percent() / PLAIN_STEP_PERCENT * PLAIN_STEP_PERCENT;
+                if (step != bar.loggedPercent) {
+                    bar.loggedPercent = step;
+                    appendLine(bar);
+                }
+            }
+        }
+        if (length > 0) {
+            out.write(frame, 0, length);
+            out.flush();
+        }
+        drawnLines = lines;
+    }
+
+    /**
+     * Erases the bars currently on screen, before something else is printed. Must hold the console lock.
+     */
+    private void eraseBars() {
+        if (terminal && drawnLines > 0) {
+            out.write(erase, 0, eraseSequence());
+            out.flush();
+            drawnLines = 0;
+        }
+    }
+
+    /**
+     * Writes into the erase buffer the escape codes moving up to the first bar and clearing
+     * everything below it.
+     *
+     * @return The length of the sequence.
+     */
+    private int eraseSequence() {
+        int position = 0;
+        erase[position++] = ESC;
+        erase[position++] = '[';
+        position = writeDigits(erase, position, drawnLines);
+        erase[position++] = 'A';  // Cursor up
+        erase[position++] = ESC;
+        erase[position++] = '[';
+        erase[position++] = 'J';  // Clear to the end of the screen
+        return position;
+    }
+
+    /**
+     * Appends the line of one bar to the frame, e.g. "test         [=====     ] 17% 2/12 ~8s left".
+     *
+     * @param bar The bar.
+     */
+    private void appendLine(ProgressBar bar) {
+        byte[] label = bar.label();
+        ensureCapacity(LINE_CAPACITY + label.length);
+        System.arraycopy(label, 0, frame, length, label.length);
+        length += label.length;
+        for (int i = label.length; i < LABEL_WIDTH; i++) {
+            frame[length++] = ' ';
+        }
+
+        int percent = bar.percent();
+        int filled = percent * BAR_WIDTH / 100;
+        frame[length++] = ' ';
+        frame[length++] = '[';
+        for (int i = 0; i < BAR_WIDTH; i++) {
+            frame[length++] = (byte) (i < filled ? '=' : ' ');
+        }
+        frame[length++] = ']';
+        frame[length++] = ' ';
+        length = writeDigits(frame, length, percent);
+        frame[length++] = '%';
+
+        long itemsTotal = bar.itemsTotal();
+        long done = itemsTotal >= 0 ? bar.itemsDone() : bar.done();
+        long total = itemsTotal >= 0 ? itemsTotal : bar.total();
+        if (total > 0) {
+            frame[length++] = ' ';
+            length = writeDigits(frame, length, done);
+            frame[length++] = '/';
+            length = writeDigits(frame, length, total);
+        }
+
+        long remainingMillis = bar.remainingMillis();
+        if (remainingMillis >= 0 && percent < 100 && !bar.isClosed()) {
+            frame[length++] = ' ';
+            frame[length++] = '~';
+            length = writeDigits(frame, length, (remainingMillis + 999) / 1000);
+            System.arraycopy(SECONDS_LEFT, 0, frame, length, SECONDS_LEFT.length);
+            length += SECONDS_LEFT.length;
+        }
+        frame[length++] = '\n';
+    }
+
+    /**
+     * Writes a number in decimal without creating a string.
+     *
+     * @param target The buffer.
+     * @param position Where to write.
+     * @param value The number, negative values are written as 0.
+     * @return The position after the number.
+     */
+    private int writeDigits(byte[] target, int position, long value) {
+        long rest = Math.max(0, value);
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest > 0);
+        while (count > 0) {
+            target[position++] = digits[--count];
+        }
+        return position;
+    }
+
+    /**
+     * Grows the frame buffer when many bars are open. Only allocates when a frame gets larger than ever before.
+     *
+     * @param extra The number of bytes about to be appended.
+     */
+    private void ensureCapacity(int extra) {
+        if (length + extra > frame.length) {
+            byte[] larger = new byte[Math.max(frame.length * 2, length + extra)];
+            System.arraycopy(frame, 0, larger, 0, length);
+            frame = larger;
+        }
+    }
+
+    /**
+     * A console stream that erases the bars before anything is printed on it.
+     */
+    private final class ConsoleStream extends OutputStream {
+        private final PrintStream target;
+
+        /**
+         * Constructor for the ConsoleStream class.
+         *
+         * @param target The console stream written to.
+         */
+        ConsoleStream(PrintStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            synchronized (console) {
+                eraseBars();
+                target.write(b);
+                atLineStart = b == '\n';
+            }
+            if (!bars.isEmpty()) {
+                markDirty();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) {
+            if (count == 0) {
+                return;
+            }
+            synchronized (console) {
+                eraseBars();
+                target.write(bytes, offset, count);
+                atLineStart = bytes[offset + count - 1] == '\n';
+            }
+            if (!bars.isEmpty()) {
+                markDirty();
+            }
+        }
+
+        @Override
+        public void flush() {
+            target.flush();
+        }
+    }
+}
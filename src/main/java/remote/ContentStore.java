@@ -0,0 +1,269 @@
+package remote;
+
+import artifact.ArtifactIO;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed store: every blob is a file named after the SHA-256 digest of its bytes, so
+ * a file is stored once however many tasks use it, and a blob is known to be intact when its name
+ * matches its contents. The coordinator and every worker keep their own store; tasks only name
+ * digests, and a blob crosses the network when the other side does not hold it yet.
+ *
+ * Layout: "&lt;dir&gt;/cas/&lt;first two digits&gt;/&lt;digest&gt;" for blobs and
+ * "&lt;dir&gt;/ac/&lt;first two digits&gt;/&lt;key&gt;" for the action cache, the results of
+ * tasks already run, keyed by the digest of the task.
+ */
+public final class ContentStore {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path casDir;
+    private final Path actionDir;
+
+    /**
+     * Constructor for the ContentStore class.
+     *
+     * @param dir The directory of the store, created on first write.
+     */
+    public ContentStore(Path dir) {
+        this.casDir = dir.resolve("cas");
+        this.actionDir = dir.resolve("ac");
+    }
+
+    /**
+     * Tells whether the store holds a blob.
+     *
+     * @param digest The digest of the blob.
+     * @return true if the blob is stored.
+     */
+    public boolean contains(String digest) {
+        return Files.isRegularFile(path(digest));
+    }
+
+    /**
+     * Returns the file of a blob.
+     *
+     * @param digest The digest of the blob.
+     * @return The file, which may not exist.
+     */
+    public Path path(String digest) {
+        return shard(casDir, digest);
+    }
+
+    /**
+     * Stores a copy of a file.
+     *
+     * @param file The file.
+     * @return The digest of its contents.
+     * @throws IOException if the file cannot be read or stored.
+     */
+    public String put(Path file) throws IOException {
+        String digest = digest(file);
+        if (!contains(digest)) {
+            Path temp = tempFile(casDir);
+            ArtifactIO.copy(file, temp);
+            publish(temp, path(digest));
+        }
+        return digest;
+    }
+
+    /**
+     * Stores a blob received from another store, checking that it matches its digest.
+     *
+     * @param digest The announced digest.
+     * @param bytes The contents.
+     * @throws IOException if the contents do not match the digest or cannot be stored.
+     */
+    public void put(String digest, byte[] bytes) throws IOException {
+        String actual = digest(bytes);
+        if (!actual.equals(digest)) {
+            throw new IOException("Corrupt blob: expected " + digest + ", got " + actual);
+        }
+        if (!contains(digest)) {
+            Path temp = tempFile(casDir);
+            Files.write(temp, bytes);
+            publish(temp, path(digest));
+        }
+    }
+
+    /**
+     * Reads a blob.
+     *
+     * @param digest The digest of the blob.
+     * @return The contents.
+     * @throws IOException if the blob is missing.
+     */
+    public byte[] get(String digest) throws IOException {
+        return Files.readAllBytes(path(digest));
+    }
+
+    /**
+     * Copies a blob to a file, replacing it.
+     *
+     * @param digest The digest of the blob.
+     * @param target The file to write.
+     * @throws IOException if the blob is missing or the file cannot be written.
+     */
+    public void copyTo(String digest, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        ArtifactIO.copy(path(digest), target);
+    }
+
+    /**
+     * Reads a cached action result.
+     *
+     * @param key The digest of the action.
+     * @return The encoded result, or null if the action was never run.
+     * @throws IOException if the entry cannot be read.
+     */
+    public byte[] getAction(String key) throws IOException {
+        Path file = shard(actionDir, key);
+        return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+    }
+
+    /**
+     * Records the result of an action.
+     *
+     * @param key The digest of the action.
+     * @param result The encoded result.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void putAction(String key, byte[] result) throws IOException {
+        Path temp = tempFile(actionDir);
+        Files.write(temp, result);
+        publish(temp, shard(actionDir, key));
+    }
+
+    /**
+     * Lists every file below a directory, by relative path. The files are not stored: a tree is
+     * described by digests, and only the files a worker is missing are read again and sent.
+     *
+     * @param dir The directory, which may not exist.
+     * @return Every file by its path relative to the directory, with "/" separators, sorted.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public static Map<String, Path> listTree(Path dir) throws IOException {
+        Map<String, Path> files = new TreeMap<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(Files::isRegularFile).forEach(file -> files.put(relativeName(dir, file), file));
+        }
+        return files;
+    }
+
+    /**
+     * Computes the digest identifying a tree, so a worker materializes each version of a tree once.
+     *
+     * @param tree The digest of every file by its relative path.
+     * @return The digest of the tree.
+     */
+    public static String treeDigest(Map<String, String> tree) {
+        MessageDigest digest = sha256();
+        new TreeMap<>(tree).forEach((name, fileDigest) ->
+                digest.update((name + " " + fileDigest + "\n").getBytes(StandardCharsets.UTF_8)));
+        return HEX.formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file, remembered while the file does not change.
+     *
+     * @param file The file.
+     * @return The digest, in lowercase hexadecimal.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String digest(Path file) throws IOException {
+        return ArtifactIO.sha256(file);
+    }
+
+    /**
+     * Computes the SHA-256 digest of bytes.
+     *
+     * @param bytes The bytes.
+     * @return The digest, in lowercase hexadecimal.
+     */
+    public static String digest(byte[] bytes) {
+        return HEX.formatHex(sha256().digest(bytes));
+    }
+
+    /**
+     * Returns the path of a file relative to a directory, with "/" separators on every platform.
+     *
+     * @param dir The directory.
+     * @param file A file below it.
+     * @return The relative name.
+     */
+    static String relativeName(Path dir, Path file) {
+        return dir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Returns the file of an entry, below a subdirectory named after the first two digits of its key
+     * so no directory grows too large.
+     *
+     * @param dir The blob or action directory.
+     * @param key The digest.
+     * @return The file.
+     */
+    private static Path shard(Path dir, String key) {
+        if (key.length() < 3 || !key.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+            throw new IllegalArgumentException("Invalid digest: " + key);
+        }
+        return dir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Creates a temporary file in a directory of the store, so entries are moved into place atomically.
+     *
+     * @param dir The blob or action directory.
+     * @return The temporary file.
+     * @throws IOException if the directory cannot be created.
+     */
+    private static Path tempFile(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return dir.resolve(".tmp-" + UUID.randomUUID());
+    }
+
+    /**
+     * Moves a written temporary file into place. Readers never see a partial entry.
+     *
+     * @param temp The temporary file.
+     * @param target The entry.
+     * @throws IOException if the file cannot be moved.
+     */
+    private static void publish(Path temp, Path target) throws IOException {
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     *
+     * @return A new digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One message of the worker protocol: a type byte, the payload length as a 4-byte big-endian
+ * integer, then the payload. Payloads are written with {@link DataOutputStream}; strings are
+ * written as a length and UTF-8 bytes so compiler output longer than 64 KB fits.
+ *
+ * A connection carries one task: the coordinator opens it with {@link #HELLO} and the shared
+ * token, uploads the blobs the worker is missing, sends the task, reads the result and downloads
+ * the artifacts it is missing.
+ *
+ * @param type The message type, one of the constants of this class.
+ * @param payload The payload.
+ */
+record Frame(byte type, byte[] payload) {
+
+    /** Asks for the worker's capacity. Answered by {@link #PONG} with the number of task slots. */
+    static final byte PING = 1;
+    static final byte PONG = 2;
+    /** A list of digests; the worker answers {@link #MISSING} with those it does not hold. */
+    static final byte FIND_MISSING = 3;
+    static final byte MISSING = 4;
+    /** A digest followed by the bytes of the blob. */
+    static final byte BLOB = 5;
+    /** A list of digests; the worker answers one {@link #BLOB} per digest, then {@link #END}. */
+    static final byte GET = 6;
+    static final byte END = 7;
+    /** A toolchain name and the source files; answered by {@link #COMPILED}. */
+    static final byte COMPILE = 8;
+    static final byte COMPILED = 9;
+    /** Class directories, parameters and test classes; answered by {@link #ENTRY} frames, then {@link #RESULT}. */
+    static final byte TEST = 10;
+    static final byte ENTRY = 11;
+    static final byte RESULT = 12;
+    /** The task failed on the worker; the payload is the message. */
+    static final byte ERROR = 13;
+    /** The first frame of every connection, holding the shared token. Not answered unless it is refused. */
+    static final byte HELLO = 14;
+
+    private static final int MAX_PAYLOAD_BYTES = 256 * 1024 * 1024;
+
+    /**
+     * Writes the payload of a frame.
+     */
+    @FunctionalInterface
+    interface Encoder {
+
+        /**
+         * Writes the payload.
+         *
+         * @param out The payload stream.
+         * @throws IOException if writing fails.
+         */
+        void encode(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Creates a frame from an encoder.
+     *
+     * @param type The message type.
+     * @param encoder Writes the payload.
+     * @return The frame.
+     * @throws IOException if the encoder fails.
+     */
+    static Frame of(byte type, Encoder encoder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encoder.encode(out);
+        }
+        return new Frame(type, bytes.toByteArray());
+    }
+
+    /**
+     * Writes the frame and flushes the stream.
+     *
+     * @param out The connection.
+     * @throws IOException if writing fails.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        append(out);
+        out.flush();
+    }
+
+    /**
+     * Writes the frame without flushing, so several small frames go out together.
+     *
+     * @param out The connection.
+     * @throws IOException if writing fails.
+     */
+    void append(DataOutputStream out) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param in The connection.
+     * @return The frame, or null if the peer closed the connection between frames.
+     * @throws IOException if the frame is truncated or too large.
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        return read(in, MAX_PAYLOAD_BYTES);
+    }
+
+    /**
+     * Reads the next frame, refusing a larger payload, e.g. before the peer is authenticated.
+     *
+     * @param in The connection.
+     * @param maxPayloadBytes The largest accepted payload.
+     * @return The frame, or null if the peer closed the connection between frames.
+     * @throws IOException if the frame is truncated or too large.
+     */
+    static Frame read(DataInputStream in, int maxPayloadBytes) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        int length = in.readInt();
+        if (length < 0 || length > maxPayloadBytes) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame((byte) type, payload);
+    }
+
+    /**
+     * Reads the next frame and checks its type. An {@link #ERROR} frame is turned into an exception.
+     *
+     * @param in The connection.
+     * @param expected The expected type.
+     * @return The frame.
+     * @throws IOException if the connection closed, the worker reported an error or the type is unexpected.
+     */
+    static Frame expect(DataInputStream in, byte expected) throws IOException {
+        Frame frame = read(in);
+        if (frame == null) {
+            throw new EOFException("Connection closed by the worker");
+        }
+        if (frame.type == ERROR) {
+            throw new IOException(readString(frame.input()));
+        }
+        if (frame.type != expected) {
+            throw new IOException("Unexpected frame type " + frame.type + ", expected " + expected);
+        }
+        return frame;
+    }
+
+    /**
+     * Opens the payload for reading.
+     *
+     * @return The payload stream.
+     */
+    DataInputStream input() {
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Writes a string of any length.
+     *
+     * @param out The payload stream.
+     * @param value The string.
+     * @throws IOException if writing fails.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}.
+     *
+     * @param in The payload stream.
+     * @return The string.
+     * @throws IOException if the payload is truncated.
+     */
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,348 @@
+package remote;
+
+import history.TestHistory;
+import metrics.Metrics;
+import metrics.Span;
+import metrics.Tracer;
+import pipeline.PipelineConfig;
+import pipeline.TaskExecutors;
+import runner.TestRunner;
+import toolchain.Toolchain;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Sends build and test tasks to the workers listed in "remote.workers" (see {@link RemoteWorker}).
+ * Compile tasks (a file, or the files of a batch toolchain) go one at a time to the least busy worker;
+ * the test classes are split into one shard per worker, balanced by their expected duration.
+ * A worker that cannot be reached or fails a task is dropped for the rest of the run, and its work
+ * is done in this process instead.
+ *
+ * Inputs and outputs travel as blobs of the {@link ContentStore}: only the files a worker does not
+ * hold yet are uploaded, and only the artifacts this process does not hold yet are downloaded.
+ */
+public final class RemoteExecutor {
+
+    private static final String DEFAULT_STORE_DIR = ".pipeline-cache/remote";
+    private static final long DEFAULT_TIMEOUT_SECONDS = 600;
+    private static final long DEFAULT_EXPECTED_NANOS = 1_000_000_000L;
+
+    private final List<WorkerClient> workers;
+    private final ContentStore store;
+
+    /**
+     * Constructor for the RemoteExecutor class, for workers started without a token.
+     *
+     * @param addresses The worker addresses, as "host:port".
+     * @param store The local content store artifacts are downloaded into.
+     * @param timeoutMillis How long a task may wait for a worker to answer.
+     */
+    public RemoteExecutor(List<String> addresses, ContentStore store, int timeoutMillis) {
+        this(addresses, store, timeoutMillis, "");
+    }
+
+    /**
+     * Constructor for the RemoteExecutor class.
+     *
+     * @param addresses The worker addresses, as "host:port".
+     * @param store The local content store artifacts are downloaded into.
+     * @param timeoutMillis How long a task may wait for a worker to answer.
+     * @param token The token shared with the workers, empty if they were started without one.
+     */
+    public RemoteExecutor(List<String> addresses, ContentStore store, int timeoutMillis, String token) {
+        this.workers = new ArrayList<>();
+        for (String address : addresses) {
+            workers.add(new WorkerClient(address, timeoutMillis, token));
+        }
+        this.store = store;
+    }
+
+    /**
+     * Creates an executor for the workers of the configuration.
+     *
+     * @param config The pipeline configuration.
+     * @return The executor, or null if "remote.workers" lists no worker.
+     */
+    public static RemoteExecutor fromConfig(PipelineConfig config) {
+        List<String> addresses = config.getList("remote.workers", List.of());
+        if (addresses.isEmpty()) {
+            return null;
+        }
+        long timeoutSeconds = config.getLong("remote.timeout", DEFAULT_TIMEOUT_SECONDS);
+        return new RemoteExecutor(addresses, new ContentStore(config.getPath("remote.store.dir", DEFAULT_STORE_DIR)),
+                (int) Math.min(Integer.MAX_VALUE, timeoutSeconds * 1000), config.get("remote.token", ""));
+    }
+
+    /**
+     * Returns the number of tasks the workers run at once, pinging each worker the first time.
+     *
+     * @return The sum of the slots of the workers that are up, 0 if none is.
+     */
+    public int capacity() {
+        int capacity = 0;
+        for (WorkerClient worker : availableWorkers()) {
+            capacity += worker.slots();
+        }
+        return capacity;
+    }
+
+    /**
+     * Wraps a toolchain so it compiles on the workers.
+     *
+     * @param local The toolchain, also used when no worker is available.
+     * @return The remote toolchain.
+     */
+    public Toolchain wrap(Toolchain local) {
+        return new RemoteToolchain(local, this);
+    }
+
+    /**
+     * Returns the workers that answered and did not fail since.
+     *
+     * @return The workers that are up.
+     */
+    List<WorkerClient> availableWorkers() {
+        List<WorkerClient> available = new ArrayList<>();
+        for (WorkerClient worker : workers) {
+            if (worker.ping()) {
+                available.add(worker);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Picks the worker with the most free slots and counts one more task on it.
+     *
+     * @return The worker, or null if none is up.
+     */
+    synchronized WorkerClient acquire() {
+        WorkerClient best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (WorkerClient worker : availableWorkers()) {
+            double load = (double) worker.running().get() / worker.slots();
+            if (load < bestLoad) {
+                best = worker;
+                bestLoad = load;
+            }
+        }
+        if (best != null) {
+            best.running().incrementAndGet();
+        }
+        return best;
+    }
+
+    /**
+     * Counts one task less on a worker.
+     *
+     * @param worker The worker returned by {@link #acquire()}.
+     */
+    void release(WorkerClient worker) {
+        worker.running().decrementAndGet();
+    }
+
+    /**
+     * Returns the local content store.
+     *
+     * @return The store artifacts are downloaded into.
+     */
+    ContentStore store() {
+        return store;
+    }
+
+    /**
+     * Runs test classes on the workers, one shard per worker, and merges the results.
+     * The class directories are sent as trees of digests, so a worker receives each class file once.
+     * The shards are balanced longest-first by expected duration: each class goes to the shard
+     * with the least expected work so far.
+     *
+     * @param classDirs The directories holding the test classes and the code under test.
+     * @param classNames The fully qualified names of the test classes.
+     * @param parameters The JUnit configuration parameters, used on every worker.
+     * @param expectedDurations The expected duration of the classes, by class name.
+     * @param consumer Receives the duration and outcome of every class and method as it finishes.
+     * @return The counts and failures of every shard, added up.
+     * @throws IOException if no worker is available or a shard failed; the caller runs the tests itself.
+     */
+    public TestRunner.Result runTests(List<Path> classDirs, List<String> classNames, Map<String, String> parameters,
+                                      Map<String, Long> expectedDurations, Consumer<TestHistory.Entry> consumer)
+            throws IOException {
+        List<WorkerClient> available = availableWorkers();
+        if (available.isEmpty()) {
+            throw new IOException("No remote worker available");
+        }
+
+        List<Map<String, String>> trees = new ArrayList<>();
+        Map<String, Path> blobs = new HashMap<>();
+        for (Path dir : classDirs) {
+            Map<String, String> tree = new LinkedHashMap<>();
+            for (Map.Entry<String, Path> file : ContentStore.listTree(dir).entrySet()) {
+                String digest = ContentStore.digest(file.getValue());
+                tree.put(file.getKey(), digest);
+                blobs.put(digest, file.getValue());
+            }
+            trees.add(tree);
+        }
+
+        List<List<String>> shards = balance(classNames, expectedDurations, Math.min(available.size(),
+                classNames.size()));
+        System.out.println("Running " + classNames.size() + " test classes on " + shards.size() + " remote workers...");
+        try (ExecutorService threads = TaskExecutors.newScope("remote-shards", shards.size())) {
+            List<Future<TestRunner.Result>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                WorkerClient worker = available.get(i);
+                List<String> shard = shards.get(i);
+                Callable<TestRunner.Result> task = () -> runShard(worker, trees, blobs, shard, parameters,
+                        expectedDurations, consumer);
+                futures.add(threads.submit(Tracer.wrap(task)));
+            }
+
+            long succeeded = 0;
+            long failed = 0;
+            long skipped = 0;
+            long failureCount = 0;
+            StringBuilder failureReport = new StringBuilder();
+            IOException failure = null;
+            for (Future<TestRunner.Result> future : futures) {
+                try {
+                    TestRunner.Result result = future.get();
+                    succeeded += result.succeeded();
+                    failed += result.failed();
+                    skipped += result.skipped();
+                    failureCount += result.failureCount();
+                    failureReport.append(result.failureReport());
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return new TestRunner.Result(succeeded, failed, skipped, failureCount, failureReport.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the remote workers", e);
+        }
+    }
+
+    /**
+     * Runs one shard of test classes on a worker.
+     *
+     * @param worker The worker.
+     * @param trees The class directories, as file names and digests.
+     * @param blobs The class files by digest, uploaded when the worker is missing them.
+     * @param classNames The test classes of the shard.
+     * @param parameters The JUnit configuration parameters.
+     * @param expectedDurations The expected duration of the classes, by class name.
+     * @param consumer Receives every finished class and method.
+     * @return The result of the shard.
+     * @throws IOException if the worker failed; it is then marked down.
+     */
+    private TestRunner.Result runShard(WorkerClient worker, List<Map<String, String>> trees, Map<String, Path> blobs,
+                                       List<String> classNames, Map<String, String> parameters,
+                                       Map<String, Long> expectedDurations, Consumer<TestHistory.Entry> consumer)
+            throws IOException {
+        worker.running().incrementAndGet();
+        try (Span span = Metrics.tracer().startSpan("remote tests");
+             WorkerClient.Connection connection = worker.connect()) {
+            span.setAttribute("remote.worker", worker.toString());
+            span.setAttribute("test.classes", classNames.size());
+            int uploaded = connection.upload(blobs);
+            span.setAttribute("remote.blobs.uploaded", uploaded);
+            Metrics.registry().counter("remote.blobs.uploaded").increment(uploaded);
+
+            connection.send(Frame.of(Frame.TEST, request -> {
+                request.writeInt(trees.size());
+                for (Map<String, String> tree : trees) {
+                    WorkerClient.writeTree(request, tree);
+                }
+                request.writeInt(parameters.size());
+                for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                    request.writeUTF(parameter.getKey());
+                    Frame.writeString(request, parameter.getValue());
+                }
+                List<String> known = classNames.stream().filter(expectedDurations::containsKey).toList();
+                request.writeInt(known.size());
+                for (String className : known) {
+                    request.writeUTF(className);
+                    request.writeLong(expectedDurations.get(className));
+                }
+                request.writeInt(classNames.size());
+                for (String className : classNames) {
+                    request.writeUTF(className);
+                }
+            }));
+
+            Frame frame;
+            while ((frame = connection.receive()).type() == Frame.ENTRY) {
+                DataInputStream entry = frame.input();
+                TestHistory.Outcome outcome = TestHistory.Outcome.valueOf(entry.readUTF());
+                long nanos = entry.readLong();
+                consumer.accept(new TestHistory.Entry(entry.readUTF(), entry.readUTF(), nanos, outcome));
+            }
+            if (frame.type() != Frame.RESULT) {
+                throw new IOException("Unexpected frame type " + frame.type() + " from " + worker);
+            }
+            DataInputStream result = frame.input();
+            TestRunner.Result shardResult = new TestRunner.Result(result.readLong(), result.readLong(),
+                    result.readLong(), result.readLong(), Frame.readString(result));
+            span.setStatus(shardResult.failureCount() == 0, shardResult.failureCount() + " failures");
+            Metrics.registry().counter("remote.tasks", "kind", "test", "result", "success").increment();
+            return shardResult;
+        } catch (IOException e) {
+            Metrics.registry().counter("remote.tasks", "kind", "test", "result", "failure").increment();
+            worker.markDown(e);
+            throw new IOException("Remote worker " + worker + " failed: " + e.getMessage(), e);
+        } finally {
+            worker.running().decrementAndGet();
+        }
+    }
+
+    /**
+     * Splits test classes into shards of about the same expected duration: the classes are taken
+     * longest-first and each goes to the shard with the least expected work so far.
+     *
+     * @param classNames The test classes.
+     * @param expectedDurations The expected duration of the classes with a history, by class name.
+     * @param count The number of shards.
+     * @return The shards, none of them empty.
+     */
+    static List<List<String>> balance(List<String> classNames, Map<String, Long> expectedDurations, int count) {
+        // Classes without history are expected to take as long as the average known class
+        long average = expectedDurations.isEmpty() ? DEFAULT_EXPECTED_NANOS
+                : expectedDurations.values().stream().mapToLong(Long::longValue).sum() / expectedDurations.size();
+        List<String> sorted = new ArrayList<>(classNames);
+        sorted.sort(Comparator.comparingLong((String name) -> expectedDurations.getOrDefault(name, average))
+                .reversed().thenComparing(Comparator.naturalOrder()));
+
+        List<List<String>> shards = new ArrayList<>();
+        long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (String className : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            shards.get(lightest).add(className);
+            loads[lightest] += expectedDurations.getOrDefault(className, average);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,220 @@
+package remote;
+
+import metrics.Metrics;
+import metrics.Span;
+import toolchain.CompileResult;
+import toolchain.Toolchain;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A toolchain that compiles on a remote worker: the sources are sent by digest, the worker runs
+ * the toolchain of the same name, and the artifacts come back through the content store into the
+ * output directory. The files of a batch toolchain go to one worker together, with the output
+ * directory as their classpath, since they may reference each other and the classes built before;
+ * every other file is its own task. When no worker is available, the worker fails, or a file fails
+ * to compile there, the files are compiled locally.
+ */
+final class RemoteToolchain implements Toolchain {
+
+    private final Toolchain local;
+    private final RemoteExecutor executor;
+
+    /**
+     * Constructor for the RemoteToolchain class.
+     *
+     * @param local The toolchain of this process, also used as the fallback.
+     * @param executor The executor choosing the worker.
+     */
+    RemoteToolchain(Toolchain local, RemoteExecutor executor) {
+        this.local = local;
+        this.executor = executor;
+    }
+
+    @Override
+    public String getName() {
+        return local.getName();
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return local.getExtensions();
+    }
+
+    /**
+     * A batch is compiled by one worker, like by one local invocation.
+     *
+     * @return true if the local toolchain accepts several files at once.
+     */
+    @Override
+    public boolean supportsBatch() {
+        return local.supportsBatch();
+    }
+
+    @Override
+    public boolean supportsDaemon() {
+        return false;
+    }
+
+    @Override
+    public List<CompileResult> compile(List<Path> sources, Path outputDir) throws IOException, InterruptedException {
+        WorkerClient worker = executor.acquire();
+        if (worker == null) {
+            return local.compile(sources, outputDir);
+        }
+        List<CompileResult> results;
+        try {
+            results = compileOn(worker, sources, outputDir);
+        } finally {
+            executor.release(worker);
+        }
+        return results != null ? results : local.compile(sources, outputDir);
+    }
+
+    /**
+     * Compiles files on a worker.
+     *
+     * @param worker The worker.
+     * @param sources The source files.
+     * @param outputDir The directory the artifacts are copied to.
+     * @return One result per file, or null to compile the files locally: the worker failed, and is
+     *         marked down, or a file failed to compile there, maybe for want of a tool or an input.
+     * @throws IOException if the output directory cannot be read.
+     */
+    private List<CompileResult> compileOn(WorkerClient worker, List<Path> sources, Path outputDir)
+            throws IOException {
+        Map<String, Path> blobs = new LinkedHashMap<>();
+        Map<String, String> classPath = local.supportsBatch() ? classPath(outputDir, blobs) : Map.of();
+        try (Span span = Metrics.tracer().startSpan("remote compile");
+             WorkerClient.Connection connection = worker.connect()) {
+            span.setAttribute("remote.worker", worker.toString());
+            span.setAttribute("build.files", sources.size());
+            List<String> digests = new ArrayList<>();
+            for (Path source : sources) {
+                String digest = ContentStore.digest(source);
+                blobs.put(digest, source);
+                digests.add(digest);
+            }
+            int uploaded = connection.upload(blobs);
+            span.setAttribute("remote.blobs.uploaded", uploaded);
+            Metrics.registry().counter("remote.blobs.uploaded").increment(uploaded);
+
+            Frame compiled = connection.request(Frame.of(Frame.COMPILE, request -> {
+                request.writeUTF(local.getName());
+                WorkerClient.writeTree(request, classPath);
+                request.writeInt(sources.size());
+                for (int i = 0; i < sources.size(); i++) {
+                    request.writeUTF(sources.get(i).getFileName().toString());
+                    request.writeUTF(digests.get(i));
+                }
+            }), Frame.COMPILED);
+
+            DataInputStream answer = compiled.input();
+            int count = answer.readInt();
+            if (count != sources.size()) {
+                throw new IOException("Expected " + sources.size() + " results, got " + count);
+            }
+            List<CompileResult> results = new ArrayList<>();
+            List<Map<String, String>> artifacts = new ArrayList<>();
+            List<String> needed = new ArrayList<>();
+            boolean success = true;
+            for (int i = 0; i < count; i++) {
+                boolean fileSuccess = answer.readBoolean();
+                String output = Frame.readString(answer);
+                Map<String, String> files = new LinkedHashMap<>();
+                int artifactCount = answer.readInt();
+                for (int j = 0; j < artifactCount; j++) {
+                    files.put(answer.readUTF(), answer.readUTF());
+                }
+                success &= fileSuccess;
+                artifacts.add(files);
+                needed.addAll(files.values());
+                results.add(new CompileResult(sources.get(i), fileSuccess, output, List.of(),
+                        files.keySet().stream().map(Paths::get).toList()));
+            }
+            if (!success) {
+                span.setStatus(false, "compiled with errors, compiling locally");
+                Metrics.registry().counter("remote.tasks", "kind", "compile", "result", "fallback").increment();
+                return null;
+            }
+
+            int downloaded = connection.download(needed, executor.store());
+            span.setAttribute("remote.blobs.downloaded", downloaded);
+            Metrics.registry().counter("remote.blobs.downloaded").increment(downloaded);
+
+            for (Map<String, String> files : artifacts) {
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    Path target = outputDir.resolve(file.getKey()).normalize();
+                    if (!target.startsWith(outputDir.normalize())) {
+                        throw new IOException("Invalid artifact name: " + file.getKey());
+                    }
+                    executor.store().copyTo(file.getValue(), target);
+                }
+            }
+            Metrics.registry().counter("remote.tasks", "kind", "compile", "result", "success").increment();
+            return results;
+        } catch (IOException e) {
+            Metrics.registry().counter("remote.tasks", "kind", "compile", "result", "failure").increment();
+            worker.markDown(e);
+            return null;
+        }
+    }
+
+    /**
+     * Lists the artifacts already in the output directory, sent to the worker as the classpath of a
+     * batch. Hidden directories, where other compilers are writing right now, are skipped, and so
+     * are files that go away while they are listed.
+     *
+     * @param outputDir The output directory.
+     * @param blobs Receives every listed file by digest, to be uploaded.
+     * @return The digest of every file by its path relative to the output directory.
+     * @throws IOException if the directory cannot be read.
+     */
+    private static Map<String, String> classPath(Path outputDir, Map<String, Path> blobs) throws IOException {
+        Map<String, String> tree = new TreeMap<>();
+        if (!Files.isDirectory(outputDir)) {
+            return tree;
+        }
+        Files.walkFileTree(outputDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                boolean hidden = !dir.equals(outputDir) && dir.getFileName().toString().startsWith(".");
+                return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                try {
+                    String digest = ContentStore.digest(file);
+                    tree.put(ContentStore.relativeName(outputDir, file), digest);
+                    blobs.put(digest, file);
+                } catch (NoSuchFileException e) {
+                    // Replaced while listing
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+        return tree;
+    }
+}
@@ -0,0 +1,579 @@
+package remote;
+
+import history.LongestFirstClassOrderer;
+import history.TestHistory;
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherFactory;
+import pipeline.PipelineConfig;
+import runner.TestDaemon;
+import runner.TestRunner;
+import toolchain.CompileResult;
+import toolchain.Toolchain;
+import toolchain.ToolchainRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * A worker process the pipeline sends compile and test tasks to (see {@link RemoteExecutor}).
+ * It listens on a TCP port and speaks the {@link Frame} protocol: the coordinator uploads the
+ * inputs the worker's {@link ContentStore} is missing, sends a task naming its inputs by digest,
+ * and downloads the artifacts it is missing. Compile results are kept in the action cache, so a
+ * file compiled once by any coordinator is never compiled again by this worker.
+ *
+ * Test classes are loaded like in the test daemon, by a child-first loader over the class
+ * directories the coordinator sent; the JUnit platform stays loaded between runs.
+ *
+ * A worker compiles and runs whatever classes it is sent, so it only listens on the address of
+ * "remote.worker.bind" (loopback by default), and every connection must open with the token of
+ * "remote.token". A worker bound to another address refuses to start without a token.
+ *
+ * Usage: {@code java -cp <pipeline classpath> remote.RemoteWorker <port> [store dir] [slots]}
+ */
+public final class RemoteWorker {
+
+    private static final String DEFAULT_STORE_DIR = ".pipeline-cache/remote-worker";
+    private static final String ACTION_VERSION = "2";
+    private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+    private static final int MAX_HELLO_BYTES = 4096;
+    private static final int HELLO_TIMEOUT_MILLIS = 10_000;
+
+    private final InetAddress bindAddress;
+    private final int port;
+    private final byte[] token;
+    private final Path storeDir;
+    private final ContentStore store;
+    private final int slots;
+    private final Semaphore compileSlots;
+    private final ToolchainRegistry toolchains = ToolchainRegistry.load();
+    private final Object testLock = new Object();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private LauncherSession session;
+    private ServerSocket server;
+    private ExecutorService connections;
+    private URLClassLoader testLoader;  // Guarded by testLock
+    private List<String> testLoaderTrees = List.of();
+
+    /**
+     * Constructor for the RemoteWorker class, listening on loopback without a token.
+     *
+     * @param port The TCP port to listen on, 0 for any free port.
+     * @param storeDir The directory of the worker's content store.
+     * @param slots The number of compile tasks run at once.
+     */
+    public RemoteWorker(int port, Path storeDir, int slots) {
+        this(InetAddress.getLoopbackAddress(), port, "", storeDir, slots);
+    }
+
+    /**
+     * Constructor for the RemoteWorker class.
+     *
+     * @param bindAddress The address to listen on.
+     * @param port The TCP port to listen on, 0 for any free port.
+     * @param token The token every connection must present, empty to accept any connection.
+     * @param storeDir The directory of the worker's content store.
+     * @param slots The number of compile tasks run at once.
+     */
+    public RemoteWorker(InetAddress bindAddress, int port, String token, Path storeDir, int slots) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.storeDir = storeDir;
+        this.store = new ContentStore(storeDir);
+        this.slots = slots;
+        this.compileSlots = new Semaphore(slots);
+    }
+
+    /**
+     * Starts a worker, bound to "remote.worker.bind" and checking "remote.token".
+     *
+     * @param args The port, then optionally the store directory and the number of task slots.
+     * @throws IOException if the port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: remote.RemoteWorker <port> [store dir] [slots]");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[0]);
+        Path storeDir = Paths.get(args.length > 1 ? args[1] : DEFAULT_STORE_DIR);
+        int slots = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        InetAddress bindAddress;
+        String token;
+        try {
+            PipelineConfig config = PipelineConfig.load();
+            bindAddress = InetAddress.getByName(config.get("remote.worker.bind", DEFAULT_BIND_ADDRESS));
+            token = config.get("remote.token", "");
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (token.isEmpty() && !bindAddress.isLoopbackAddress()) {
+            System.out.println("Refusing to listen on " + bindAddress.getHostAddress()
+                    + " without a token: set remote.token on the workers and the pipeline.");
+            System.exit(2);
+        }
+        RemoteWorker worker = new RemoteWorker(bindAddress, port, token, storeDir, slots);
+        worker.start();
+        System.out.println("Remote worker " + ProcessHandle.current().pid() + " listening on "
+                + bindAddress.getHostAddress() + ":" + worker.getPort() + " with " + slots + " slots, store "
+                + storeDir);
+    }
+
+    /**
+     * Binds the port and accepts connections on a thread of its own until {@link #stop()} is called.
+     *
+     * @throws IOException if the port cannot be bound.
+     */
+    public void start() throws IOException {
+        session = LauncherFactory.openSession();
+        connections = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "remote-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(bindAddress, port));
+        new Thread(this::accept, "remote-worker-accept").start();
+    }
+
+    /**
+     * Stops accepting connections and drops the connections in progress.
+     */
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Closed anyway
+        }
+        connections.shutdownNow();
+        for (Socket socket : openSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closed anyway
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * Returns the port the worker listens on.
+     *
+     * @return The bound port.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     */
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                connections.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            if (!server.isClosed()) {
+                System.out.println("Remote worker stopped accepting connections: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles one connection: frames are answered in order until the coordinator closes it.
+     *
+     * @param socket The connected socket.
+     */
+    private void handle(Socket socket) {
+        openSockets.add(socket);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), WorkerClient.BUFFER_BYTES));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), WorkerClient.BUFFER_BYTES));
+            if (!authenticate(socket, in)) {
+                Frame.of(Frame.ERROR, payload -> Frame.writeString(payload, "Invalid remote.token")).writeTo(out);
+                return;
+            }
+            Frame frame;
+            while ((frame = Frame.read(in)) != null) {
+                try {
+                    dispatch(frame, out);
+                } catch (IOException | RuntimeException e) {
+                    String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                    Frame.of(Frame.ERROR, payload -> Frame.writeString(payload, message)).writeTo(out);
+                }
+            }
+        } catch (SocketException e) {
+            // The coordinator went away
+        } catch (IOException e) {
+            System.out.println("Connection failed: " + e.getMessage());
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the first frame of a connection and checks the token it holds. Until then, only a
+     * small frame is accepted and the peer has a few seconds to send it.
+     *
+     * @param socket The connected socket.
+     * @param in The connection.
+     * @return true if the connection presented the token of this worker.
+     * @throws IOException if the connection fails.
+     */
+    private boolean authenticate(Socket socket, DataInputStream in) throws IOException {
+        socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+        Frame hello = Frame.read(in, MAX_HELLO_BYTES);
+        socket.setSoTimeout(0);
+        if (hello == null || hello.type() != Frame.HELLO) {
+            return false;
+        }
+        byte[] presented = Frame.readString(hello.input()).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(presented, token);
+    }
+
+    /**
+     * Answers one frame.
+     *
+     * @param frame The frame.
+     * @param out The connection.
+     * @throws IOException if the request is invalid or its inputs are missing.
+     */
+    private void dispatch(Frame frame, DataOutputStream out) throws IOException {
+        DataInputStream payload = frame.input();
+        switch (frame.type()) {
+            case Frame.PING -> Frame.of(Frame.PONG, pong -> pong.writeInt(slots)).writeTo(out);
+            case Frame.FIND_MISSING -> {
+                List<String> missing = new ArrayList<>();
+                for (String digest : WorkerClient.readDigests(payload)) {
+                    if (!store.contains(digest)) {
+                        missing.add(digest);
+                    }
+                }
+                Frame.of(Frame.MISSING, answer -> WorkerClient.writeDigests(answer, missing)).writeTo(out);
+            }
+            case Frame.BLOB -> {
+                String digest = payload.readUTF();
+                store.put(digest, payload.readAllBytes());
+            }
+            case Frame.GET -> {
+                for (String digest : WorkerClient.readDigests(payload)) {
+                    byte[] bytes = store.get(digest);
+                    Frame.of(Frame.BLOB, blob -> {
+                        blob.writeUTF(digest);
+                        blob.write(bytes);
+                    }).append(out);
+                }
+                new Frame(Frame.END, new byte[0]).writeTo(out);
+            }
+            case Frame.COMPILE -> compile(payload).writeTo(out);
+            case Frame.TEST -> test(payload, out);
+            default -> throw new IOException("Unknown frame type " + frame.type());
+        }
+    }
+
+    /**
+     * Runs a compile task, or answers it from the action cache.
+     * Request: the toolchain name, the classpath as a tree of the artifacts built before (empty for
+     * toolchains compiling each file on its own), then the name and digest of every source file.
+     * The classpath is written into the output directory before compiling, so the sources can
+     * reference those classes; only the artifacts the compiler writes are sent back.
+     * Answer: per file, the success flag, the compiler output and the digest of every artifact.
+     *
+     * @param request The request payload.
+     * @return The {@link Frame#COMPILED} frame.
+     * @throws IOException if a source is missing or the toolchain is unknown.
+     */
+    private Frame compile(DataInputStream request) throws IOException {
+        String toolchainName = request.readUTF();
+        Map<String, String> classPath = WorkerClient.readTree(request);
+        int count = request.readInt();
+        List<String> names = new ArrayList<>();
+        List<String> digests = new ArrayList<>();
+        StringBuilder action = new StringBuilder(ACTION_VERSION).append("\ncompile\n").append(toolchainName)
+                .append('\n').append(System.getProperty("java.version"))
+                .append('\n').append(ContentStore.treeDigest(classPath));
+        for (int i = 0; i < count; i++) {
+            String name = request.readUTF();
+            if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals("..")) {
+                throw new IOException("Invalid source file name: " + name);
+            }
+            names.add(name);
+            digests.add(request.readUTF());
+            action.append('\n').append(names.get(i)).append(' ').append(digests.get(i));
+        }
+        String actionKey = ContentStore.digest(action.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] cached = store.getAction(actionKey);
+        if (cached != null) {
+            return new Frame(Frame.COMPILED, cached);
+        }
+
+        Toolchain toolchain = toolchains.find(names.get(0));
+        if (toolchain == null || !toolchain.getName().equals(toolchainName)) {
+            throw new IOException("No " + toolchainName + " toolchain for " + names.get(0) + " on this worker");
+        }
+        for (String digest : digests) {
+            if (!store.contains(digest)) {
+                throw new IOException("Missing input blob " + digest);
+            }
+        }
+        for (String digest : classPath.values()) {
+            if (!store.contains(digest)) {
+                throw new IOException("Missing classpath blob " + digest);
+            }
+        }
+
+        Path scratch = storeDir.resolve("work").resolve(UUID.randomUUID().toString());
+        try {
+            // Every file in its own directory, under its own name: compilers derive class names from file names
+            List<Path> sources = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Path source = scratch.resolve("src").resolve(String.valueOf(i)).resolve(names.get(i));
+                store.copyTo(digests.get(i), source);
+                sources.add(source);
+            }
+            Path outputDir = scratch.resolve("out");
+            Files.createDirectories(outputDir);
+            for (Map.Entry<String, String> file : classPath.entrySet()) {
+                Path target = outputDir.resolve(file.getKey()).normalize();
+                if (!target.startsWith(outputDir)) {
+                    throw new IOException("Invalid file name in classpath: " + file.getKey());
+                }
+                store.copyTo(file.getValue(), target);
+            }
+
+            List<CompileResult> results;
+            compileSlots.acquireUninterruptibly();
+            try {
+                results = toolchain.compile(sources, outputDir);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compiling", e);
+            } finally {
+                compileSlots.release();
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            boolean success = true;
+            try (DataOutputStream answer = new DataOutputStream(bytes)) {
+                answer.writeInt(results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    CompileResult result = results.get(i);
+                    success &= result.success();
+                    answer.writeBoolean(result.success());
+                    // Messages name the file as the coordinator knows it, not by its scratch path
+                    Frame.writeString(answer, result.output().replace(sources.get(i).toString(), names.get(i)));
+                    answer.writeInt(result.artifacts().size());
+                    for (Path artifact : result.artifacts()) {
+                        answer.writeUTF(artifact.toString().replace(artifact.getFileSystem().getSeparator(), "/"));
+                        answer.writeUTF(store.put(outputDir.resolve(artifact)));
+                    }
+                }
+            }
+            if (success) {
+                store.putAction(actionKey, bytes.toByteArray());  // Failures are not cached, as in the build cache
+            }
+            return new Frame(Frame.COMPILED, bytes.toByteArray());
+        } finally {
+            deleteRecursively(scratch);
+        }
+    }
+
+    /**
+     * Runs test classes, streaming an {@link Frame#ENTRY} frame per finished class and method and
+     * a {@link Frame#RESULT} frame at the end.
+     * Request: the class directories as trees of file names and digests, the JUnit parameters,
+     * the expected class durations and the test classes.
+     * Runs are serialized: the test class loader and the class order are shared by the worker.
+     *
+     * @param request The request payload.
+     * @param out The connection.
+     * @throws IOException if an input is missing.
+     */
+    private void test(DataInputStream request, DataOutputStream out) throws IOException {
+        List<Map<String, String>> trees = new ArrayList<>();
+        int treeCount = request.readInt();
+        for (int i = 0; i < treeCount; i++) {
+            trees.add(WorkerClient.readTree(request));
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        int parameterCount = request.readInt();
+        for (int i = 0; i < parameterCount; i++) {
+            parameters.put(request.readUTF(), Frame.readString(request));
+        }
+        Map<String, Long> durations = new HashMap<>();
+        int durationCount = request.readInt();
+        for (int i = 0; i < durationCount; i++) {
+            durations.put(request.readUTF(), request.readLong());
+        }
+        List<String> classNames = new ArrayList<>();
+        int classCount = request.readInt();
+        for (int i = 0; i < classCount; i++) {
+            classNames.add(request.readUTF());
+        }
+
+        synchronized (testLock) {
+            Thread thread = Thread.currentThread();
+            ClassLoader previous = thread.getContextClassLoader();
+            try {
+                thread.setContextClassLoader(testLoader(trees));
+                parameters.put(LongestFirstClassOrderer.DURATIONS_PARAMETER,
+                        LongestFirstClassOrderer.encode(durations));
+                TestRunner.Result result = TestRunner.run(session, classNames, parameters, entry -> send(out, entry));
+                synchronized (out) {
+                    Frame.of(Frame.RESULT, answer -> {
+                        answer.writeLong(result.succeeded());
+                        answer.writeLong(result.failed());
+                        answer.writeLong(result.skipped());
+                        answer.writeLong(result.failureCount());
+                        Frame.writeString(answer, result.failureReport());
+                    }).writeTo(out);
+                }
+            } finally {
+                thread.setContextClassLoader(previous);
+            }
+        }
+    }
+
+    /**
+     * Streams one finished test to the coordinator. Tests finish on several threads at once.
+     *
+     * @param out The connection.
+     * @param entry The finished test.
+     */
+    private static void send(DataOutputStream out, TestHistory.Entry entry) {
+        synchronized (out) {
+            try {
+                Frame.of(Frame.ENTRY, payload -> {
+                    payload.writeUTF(entry.outcome().name());
+                    payload.writeLong(entry.durationNanos());
+                    payload.writeUTF(entry.className());
+                    payload.writeUTF(entry.methodName());
+                }).writeTo(out);
+            } catch (IOException e) {
+                // The coordinator went away; the run finishes and its result is dropped
+            }
+        }
+    }
+
+    /**
+     * Returns the class loader for a set of class directories, materializing each tree once
+     * below "trees/&lt;tree digest&gt;". The loader and its trees are replaced when a tree changes.
+     * Must hold the test lock.
+     *
+     * @param trees The class directories, as file names and digests.
+     * @return The test class loader.
+     * @throws IOException if a blob is missing or a tree cannot be written.
+     */
+    private ClassLoader testLoader(List<Map<String, String>> trees) throws IOException {
+        List<String> treeDigests = new ArrayList<>();
+        for (Map<String, String> tree : trees) {
+            treeDigests.add(ContentStore.treeDigest(tree));
+        }
+        if (testLoader != null && treeDigests.equals(testLoaderTrees)) {
+            return testLoader;
+        }
+
+        URL[] urls = new URL[trees.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = materialize(trees.get(i), treeDigests.get(i)).toUri().toURL();
+        }
+        if (testLoader != null) {
+            testLoader.close();
+            for (String stale : testLoaderTrees) {
+                if (!treeDigests.contains(stale)) {
+                    deleteRecursively(storeDir.resolve("trees").resolve(stale));
+                }
+            }
+        }
+        testLoader = new TestDaemon.ChildFirstClassLoader(urls, RemoteWorker.class.getClassLoader());
+        testLoaderTrees = treeDigests;
+        return testLoader;
+    }
+
+    /**
+     * Writes the files of a tree into its directory, unless it is already there.
+     *
+     * @param tree The file names and digests.
+     * @param treeDigest The digest of the tree.
+     * @return The directory.
+     * @throws IOException if a blob is missing or a file cannot be written.
+     */
+    private Path materialize(Map<String, String> tree, String treeDigest) throws IOException {
+        Path dir = storeDir.resolve("trees").resolve(treeDigest);
+        if (Files.isDirectory(dir)) {
+            return dir;
+        }
+        Path temp = storeDir.resolve("trees").resolve(".tmp-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(temp);
+            for (Map.Entry<String, String> file : tree.entrySet()) {
+                Path target = temp.resolve(file.getKey()).normalize();
+                if (!target.startsWith(temp)) {
+                    throw new IOException("Invalid file name in tree: " + file.getKey());
+                }
+                if (!store.contains(file.getValue())) {
+                    throw new IOException("Missing input blob " + file.getValue() + " for " + file.getKey());
+                }
+                store.copyTo(file.getValue(), target);
+            }
+            Files.move(temp, dir, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteRecursively(temp);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a directory and everything below it, if it exists.
+     *
+     * @param dir The directory.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The coordinator's view of one worker: its address, whether it answered, how many task slots
+ * it offers and how many of them the coordinator is using. Every task opens its own connection.
+ */
+final class WorkerClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+    private final String token;
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile int slots = -1;  // -1 until the first ping
+    private volatile boolean down;
+
+    /**
+     * Constructor for the WorkerClient class.
+     *
+     * @param address The worker address, as "host:port".
+     * @param timeoutMillis How long a task may wait for the worker to answer.
+     * @param token The token shared with the worker.
+     */
+    WorkerClient(String address, int timeoutMillis, String token) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0 || colon == address.length() - 1) {
+            throw new IllegalArgumentException("Worker address must be host:port, got: " + address);
+        }
+        this.host = address.substring(0, colon);
+        this.port = Integer.parseInt(address.substring(colon + 1));
+        this.timeoutMillis = timeoutMillis;
+        this.token = token;
+    }
+
+    /**
+     * Asks the worker for its number of task slots, once. A worker that does not answer is marked down.
+     *
+     * @return true if the worker is up.
+     */
+    boolean ping() {
+        if (slots >= 0 || down) {
+            return !down;
+        }
+        try (Connection connection = connect()) {
+            Frame pong = connection.request(new Frame(Frame.PING, new byte[0]), Frame.PONG);
+            slots = Math.max(1, pong.input().readInt());
+        } catch (IOException e) {
+            markDown(e);
+        }
+        return !down;
+    }
+
+    /**
+     * Stops sending tasks to the worker for the rest of the run.
+     *
+     * @param cause Why the worker failed.
+     */
+    void markDown(Exception cause) {
+        if (!down) {
+            down = true;
+            System.out.println("Remote worker " + this + " is unavailable: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Tells whether the worker failed.
+     *
+     * @return true once the worker is marked down.
+     */
+    boolean isDown() {
+        return down;
+    }
+
+    /**
+     * Returns the number of tasks the worker runs at once.
+     *
+     * @return The slots reported by the worker, 1 if it was not pinged yet.
+     */
+    int slots() {
+        return Math.max(1, slots);
+    }
+
+    /**
+     * Returns the number of tasks the coordinator is running on the worker.
+     *
+     * @return The counter of running tasks, updated by the caller.
+     */
+    AtomicInteger running() {
+        return running;
+    }
+
+    /**
+     * Opens a connection for one task, presenting the shared token. A refused token is reported
+     * by the worker in answer to the first request.
+     *
+     * @return The connection.
+     * @throws IOException if the worker cannot be reached.
+     */
+    Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            Connection connection = new Connection(socket);
+            Frame.of(Frame.HELLO, hello -> Frame.writeString(hello, token)).append(connection.out);
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    /**
+     * One connection to the worker, carrying one task.
+     */
+    final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        /**
+         * Constructor for the Connection class.
+         *
+         * @param socket The connected socket.
+         * @throws IOException if the streams cannot be opened.
+         */
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_BYTES));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES));
+        }
+
+        /**
+         * Sends a frame.
+         *
+         * @param frame The frame.
+         * @throws IOException if the worker cannot be reached.
+         */
+        void send(Frame frame) throws IOException {
+            frame.writeTo(out);
+        }
+
+        /**
+         * Reads the next frame of a given type.
+         *
+         * @param type The expected type.
+         * @return The frame.
+         * @throws IOException if the worker failed or answered something else.
+         */
+        Frame receive(byte type) throws IOException {
+            return Frame.expect(in, type);
+        }
+
+        /**
+         * Reads the next frame, whatever its type; an error frame becomes an exception.
+         *
+         * @return The frame.
+         * @throws IOException if the worker failed or closed the connection.
+         */
+        Frame receive() throws IOException {
+            Frame frame = Frame.read(in);
+            if (frame == null) {
+                throw new IOException("Connection closed by the worker");
+            } else if (frame.type() == Frame.ERROR) {
+                throw new IOException(Frame.readString(frame.input()));
+            }
+            return frame;
+        }
+
+        /**
+         * Sends a frame and reads the answer.
+         *
+         * @param request The request.
+         * @param type The expected type of the answer.
+         * @return The answer.
+         * @throws IOException if the worker failed or answered something else.
+         */
+        Frame request(Frame request, byte type) throws IOException {
+            send(request);
+            return receive(type);
+        }
+
+        /**
+         * Sends the worker the files it does not hold yet.
+         *
+         * @param blobs Files by digest.
+         * @return The number of files sent.
+         * @throws IOException if a file cannot be read or the worker cannot be reached.
+         */
+        int upload(Map<String, Path> blobs) throws IOException {
+            if (blobs.isEmpty()) {
+                return 0;
+            }
+            Frame missing = request(Frame.of(Frame.FIND_MISSING, payload -> writeDigests(payload, blobs.keySet())),
+                    Frame.MISSING);
+            List<String> digests = readDigests(missing.input());
+            for (String digest : digests) {
+                byte[] bytes = Files.readAllBytes(blobs.get(digest));
+                Frame blob = Frame.of(Frame.BLOB, payload -> {
+                    payload.writeUTF(digest);
+                    payload.write(bytes);
+                });
+                blob.append(out);  // The buffer flushes as it fills; small class files go out together
+            }
+            out.flush();
+            return digests.size();
+        }
+
+        /**
+         * Fetches the blobs the store does not hold yet from the worker.
+         *
+         * @param digests The blobs needed.
+         * @param store The store the blobs are written to.
+         * @return The number of blobs fetched.
+         * @throws IOException if a blob is corrupt or the worker cannot be reached.
+         */
+        int download(Collection<String> digests, ContentStore store) throws IOException {
+            List<String> missing = new ArrayList<>();
+            for (String digest : digests) {
+                if (!store.contains(digest) && !missing.contains(digest)) {
+                    missing.add(digest);
+                }
+            }
+            if (missing.isEmpty()) {
+                return 0;
+            }
+            send(Frame.of(Frame.GET, payload -> writeDigests(payload, missing)));
+            Frame frame;
+            while ((frame = receive()).type() != Frame.END) {
+                if (frame.type() != Frame.BLOB) {
+                    throw new IOException("Unexpected frame type " + frame.type() + " while downloading");
+                }
+                DataInputStream payload = frame.input();
+                String digest = payload.readUTF();
+                store.put(digest, payload.readAllBytes());
+            }
+            return missing.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Writes a list of digests.
+     *
+     * @param out The payload stream.
+     * @param digests The digests.
+     * @throws IOException if writing fails.
+     */
+    static void writeDigests(DataOutputStream out, Collection<String> digests) throws IOException {
+        out.writeInt(digests.size());
+        for (String digest : digests) {
+            out.writeUTF(digest);
+        }
+    }
+
+    /**
+     * Reads a list of digests written by {@link #writeDigests}.
+     *
+     * @param in The payload stream.
+     * @return The digests.
+     * @throws IOException if the payload is truncated.
+     */
+    static List<String> readDigests(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> digests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            digests.add(in.readUTF());
+        }
+        return digests;
+    }
+
+    /**
+     * Writes a tree: the relative name and digest of every file of a directory.
+     *
+     * @param out The payload stream.
+     * @param tree The digest of every file by its relative path.
+     * @throws IOException if writing fails.
+     */
+    static void writeTree(DataOutputStream out, Map<String, String> tree) throws IOException {
+        out.writeInt(tree.size());
+        for (Map.Entry<String, String> file : tree.entrySet()) {
+            out.writeUTF(file.getKey());
+            out.writeUTF(file.getValue());
+        }
+    }
+
+    /**
+     * Reads a tree written by {@link #writeTree}.
+     *
+     * @param in The payload stream.
+     * @return The digest of every file by its relative path, in the order written.
+     * @throws IOException if the payload is truncated.
+     */
+    static Map<String, String> readTree(DataInputStream in) throws IOException {
+        Map<String, String> tree = new LinkedHashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            tree.put(in.readUTF(), in.readUTF());
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,85 @@
+package runner;
+
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Hands out JUnit launcher sessions to the test runs of the pipeline process. Normally every run
+ * opens a session and closes it when done. Once {@link #share()} is called, e.g. when the pipelines
+ * of several projects run in one process, finished sessions are kept open and handed to the next
+ * run, so the test engines are found and started once per session rather than once per run.
+ *
+ * A session runs one request at a time: concurrent runs each borrow a session of their own, so the
+ * pool holds at most as many sessions as runs ever went on at the same time.
+ */
+public final class LauncherPool {
+
+    private static final Deque<LauncherSession> IDLE = new ArrayDeque<>();
+    private static boolean shared;
+
+    /**
+     * Utility class.
+     */
+    private LauncherPool() {
+    }
+
+    /**
+     * Keeps the sessions open between runs from now on.
+     */
+    public static synchronized void share() {
+        shared = true;
+    }
+
+    /**
+     * Closes the sessions kept open and stops keeping them.
+     */
+    public static synchronized void closeAll() {
+        shared = false;
+        while (!IDLE.isEmpty()) {
+            IDLE.pop().close();
+        }
+    }
+
+    /**
+     * Returns a session no other run is using: an idle one if any, otherwise a new one.
+     *
+     * @return The session, to be handed back to {@link #release}.
+     */
+    public static LauncherSession borrow() {
+        synchronized (LauncherPool.class) {
+            if (!IDLE.isEmpty()) {
+                return IDLE.pop();
+            }
+        }
+
+        // Engines are looked up through the context class loader: use the pipeline's, not the one
+        // of the test classes of this run, which a shared session would otherwise keep alive
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(LauncherPool.class.getClassLoader());
+        try {
+            return LauncherFactory.openSession();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    /**
+     * Hands a session back once its run is over. It is kept for the next run while sessions are
+     * shared, and closed otherwise.
+     *
+     * @param session The session returned by {@link #borrow}.
+     */
+    public static void release(LauncherSession session) {
+        synchronized (LauncherPool.class) {
+            if (shared) {
+                IDLE.push(session);
+                return;
+            }
+        }
+        session.close();
+    }
+}
@@ -0,0 +1,445 @@
+package runner;
+
+import history.LongestFirstClassOrderer;
+import history.TestHistory;
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherFactory;
+import pipeline.PipelineConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The TestDaemon is a long-lived test runner the test stage talks to over a Unix domain socket.
+ * It keeps the JVM, the JUnit platform and its engines loaded between runs, so a run only pays for
+ * the tests themselves. Test classes are loaded by a child class loader over the class directories;
+ * when a class file changes, the loader is dropped and a fresh one loads the new classes.
+ * The daemon stops by itself after "test.daemon.idleTimeout" seconds without requests; it
+ * reloads its configuration when a config file changes, so the timeout can be changed live.
+ *
+ * Protocol: one request per connection, as tab-separated UTF-8 lines.
+ * <ul>
+ *   <li>{@code PING} answers {@code PONG <pid> <version> <runs> <uptime seconds>}.</li>
+ *   <li>{@code SHUTDOWN} answers {@code BYE} and stops the daemon.</li>
+ *   <li>{@code RUN}, then {@code classpath <dir>}, {@code param <key> <value>},
+ *       {@code duration <class> <nanos>} and {@code class <name>} lines, then {@code END}.
+ *       The daemon streams {@code ENTRY <outcome> <nanos> <class> <method>} lines as tests finish,
+ *       then {@code RESULT <succeeded> <failed> <skipped> <failures>}, {@code FAILURE <line>} lines
+ *       and {@code DONE}, or {@code ERROR <message>}.</li>
+ * </ul>
+ */
+public class TestDaemon {
+
+    static final String SEPARATOR = "\t";
+    private static final String PROTOCOL_VERSION = "1";
+    private static final long IDLE_CHECK_SECONDS = 5;
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 1800;
+
+    // Loaded once by the daemon and shared with every test loader; everything else is loaded fresh
+    private static final List<String> SHARED_PACKAGES = List.of("java.", "javax.", "jdk.", "sun.", "com.sun.",
+            "org.junit.", "org.opentest4j.", "org.apiguardian.", "history.", "runner.");
+
+    private final Path socket;
+    private volatile PipelineConfig config;
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final Object runLock = new Object();
+    private volatile long lastActivityMillis = System.currentTimeMillis();
+    private ServerSocketChannel server;
+    private LauncherSession session;
+    private int runs;
+    private URLClassLoader testLoader;
+    private List<Path> testLoaderPath = List.of();
+    private String testLoaderFingerprint;
+
+    /**
+     * Constructor for the TestDaemon class.
+     *
+     * @param socket The socket file to listen on.
+     * @param config The pipeline configuration, reloaded when its files change.
+     */
+    public TestDaemon(Path socket, PipelineConfig config) {
+        this.socket = socket;
+        this.config = config;
+    }
+
+    /**
+     * Starts a daemon, normally spawned by the test stage.
+     *
+     * @param args The socket file, then the config overlays of the pipeline that started it.
+     * @throws IOException if the socket cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: runner.TestDaemon <socket file> [config overlay...]");
+            System.exit(2);
+        }
+        List<Path> overlays = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            overlays.add(Paths.get(args[i]));
+        }
+        new TestDaemon(Paths.get(args[0]), PipelineConfig.load(overlays)).serve();
+        System.exit(0);
+    }
+
+    /**
+     * Computes the version of the running pipeline: the protocol version and the classpath it was
+     * started with, including the size and modification time of every jar and of the daemon's own
+     * class file. A client only talks to a daemon of the same version, so a rebuilt pipeline
+     * replaces its stale daemon.
+     *
+     * @return The version hash.
+     */
+    public static String version() {
+        StringBuilder description = new StringBuilder(PROTOCOL_VERSION);
+        try {
+            URL self = TestDaemon.class.getResource("TestDaemon.class");
+            if (self != null && self.getProtocol().equals("file")) {
+                description.append(' ').append(Files.getLastModifiedTime(Paths.get(self.toURI())).toMillis());
+            }
+        } catch (IOException | URISyntaxException e) {
+            description.append(" unknown");
+        }
+        for (String entry : System.getProperty("java.class.path").split(java.io.File.pathSeparator)) {
+            description.append('\n').append(entry);
+            Path path = Paths.get(entry);
+            try {
+                if (Files.isRegularFile(path)) {
+                    description.append(' ').append(Files.size(path)).append(' ')
+                            .append(Files.getLastModifiedTime(path).toMillis());
+                }
+            } catch (IOException e) {
+                description.append(" unreadable");
+            }
+        }
+        return HexFormat.of().formatHex(sha256().digest(description.toString().getBytes(StandardCharsets.UTF_8)))
+                .substring(0, 16);
+    }
+
+    /**
+     * Serves requests until the idle timeout or a shutdown request.
+     *
+     * @throws IOException if the socket cannot be bound.
+     */
+    public void serve() throws IOException {
+        Path parent = socket.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.deleteIfExists(socket);  // Left behind by a daemon that did not stop cleanly
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Path pidFile = pidFile(socket);
+        Files.writeString(pidFile, String.valueOf(ProcessHandle.current().pid()), StandardCharsets.UTF_8);
+        session = LauncherFactory.openSession();
+        System.out.println("Test daemon " + ProcessHandle.current().pid() + " listening on " + socket);
+
+        ScheduledExecutorService idleChecker = Executors.newSingleThreadScheduledExecutor(TestDaemon::daemonThread);
+        idleChecker.scheduleAtFixedRate(this::stopIfIdle, IDLE_CHECK_SECONDS, IDLE_CHECK_SECONDS, TimeUnit.SECONDS);
+        ExecutorService connections = Executors.newCachedThreadPool(TestDaemon::daemonThread);
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                activeRequests.incrementAndGet();
+                lastActivityMillis = System.currentTimeMillis();
+                connections.execute(() -> handle(channel));
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by the idle timeout or a shutdown request
+        } finally {
+            idleChecker.shutdownNow();
+            connections.shutdownNow();
+            session.close();
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(pidFile);
+            System.out.println("Test daemon stopped after " + runs + " runs.");
+        }
+    }
+
+    /**
+     * Returns the file a daemon records its process id in, next to its socket.
+     *
+     * @param socket The socket file.
+     * @return The pid file.
+     */
+    static Path pidFile(Path socket) {
+        return socket.resolveSibling(socket.getFileName() + ".pid");
+    }
+
+    /**
+     * Handles one connection.
+     *
+     * @param channel The connected channel.
+     */
+    private void handle(SocketChannel channel) {
+        try (channel;
+             BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            String command = reader.readLine();
+            if ("PING".equals(command)) {
+                writer.println(String.join(SEPARATOR, "PONG", String.valueOf(ProcessHandle.current().pid()),
+                        version(), String.valueOf(runs),
+                        String.valueOf((System.currentTimeMillis() - startMillis) / 1000)));
+            } else if ("SHUTDOWN".equals(command)) {
+                writer.println("BYE");
+                writer.flush();
+                server.close();
+            } else if ("RUN".equals(command)) {
+                run(reader, writer);
+            } else {
+                writer.println("ERROR" + SEPARATOR + "Unknown command: " + command);
+            }
+        } catch (IOException e) {
+            System.out.println("Connection failed: " + e.getMessage());
+        } finally {
+            lastActivityMillis = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads a run request, runs the tests and streams the results back.
+     * Runs are serialized: the test class loader and the class order are shared by the daemon.
+     *
+     * @param reader The request lines after "RUN".
+     * @param writer The response.
+     * @throws IOException if the request cannot be read.
+     */
+    private void run(BufferedReader reader, PrintWriter writer) throws IOException {
+        List<Path> classpath = new ArrayList<>();
+        Map<String, String> parameters = new LinkedHashMap<>();
+        Map<String, Long> durations = new HashMap<>();
+        List<String> classNames = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.equals("END")) {
+            String[] fields = line.split(SEPARATOR, -1);
+            switch (fields[0]) {
+                case "classpath" -> classpath.add(Paths.get(fields[1]));
+                case "param" -> parameters.put(fields[1], fields[2]);
+                case "duration" -> durations.put(fields[1], Long.parseLong(fields[2]));
+                case "class" -> classNames.add(fields[1]);
+                default -> {
+                    writer.println("ERROR" + SEPARATOR + "Unknown request line: " + line);
+                    return;
+                }
+            }
+        }
+        if (line == null) {
+            return;  // The client went away
+        }
+
+        synchronized (runLock) {
+            Thread thread = Thread.currentThread();
+            ClassLoader previous = thread.getContextClassLoader();
+            try {
+                thread.setContextClassLoader(testLoader(classpath));
+                parameters.put(LongestFirstClassOrderer.DURATIONS_PARAMETER,
+                        LongestFirstClassOrderer.encode(durations));
+                TestRunner.Result result = TestRunner.run(session, classNames, parameters,
+                        entry -> send(writer, entry));
+                runs++;
+                synchronized (writer) {
+                    writer.println(String.join(SEPARATOR, "RESULT", String.valueOf(result.succeeded()),
+                            String.valueOf(result.failed()), String.valueOf(result.skipped()),
+                            String.valueOf(result.failureCount())));
+                    for (String failure : result.failureReport().split("\\R")) {
+                        if (!failure.isEmpty()) {
+                            writer.println("FAILURE" + SEPARATOR + failure);
+                        }
+                    }
+                    writer.println("DONE");
+                }
+            } catch (RuntimeException e) {
+                writer.println("ERROR" + SEPARATOR + e);
+            } finally {
+                thread.setContextClassLoader(previous);
+            }
+        }
+    }
+
+    /**
+     * Streams one finished test to the client. Tests finish on several threads at once.
+     *
+     * @param writer The response.
+     * @param entry The finished test.
+     */
+    private static void send(PrintWriter writer, TestHistory.Entry entry) {
+        synchronized (writer) {
+            writer.println(String.join(SEPARATOR, "ENTRY", entry.outcome().name(),
+                    String.valueOf(entry.durationNanos()), entry.className(), entry.methodName()));
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns the class loader for the test classes, replacing it when a class file changed.
+     *
+     * @param classpath The directories holding the test classes and the code under test.
+     * @return The test class loader.
+     * @throws IOException if a directory cannot be read.
+     */
+    private ClassLoader testLoader(List<Path> classpath) throws IOException {
+        String fingerprint = fingerprint(classpath);
+        if (testLoader != null && classpath.equals(testLoaderPath) && fingerprint.equals(testLoaderFingerprint)) {
+            return testLoader;
+        }
+
+        if (testLoader != null) {
+            testLoader.close();
+            System.out.println("Class files changed, reloading the test classes.");
+        }
+        URL[] urls = new URL[classpath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = classpath.get(i).toUri().toURL();
+        }
+        testLoader = new ChildFirstClassLoader(urls, TestDaemon.class.getClassLoader());
+        testLoaderPath = classpath;
+        testLoaderFingerprint = fingerprint;
+        return testLoader;
+    }
+
+    /**
+     * Hashes the name, size and modification time of every file below the class directories.
+     *
+     * @param classpath The class directories.
+     * @return The fingerprint.
+     * @throws IOException if a directory cannot be read.
+     */
+    private static String fingerprint(List<Path> classpath) throws IOException {
+        MessageDigest digest = sha256();
+        for (Path directory : classpath) {
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(directory)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                digest.update((file + " " + attributes.size() + " " + attributes.lastModifiedTime().toMillis() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Stops the daemon when no request arrived for the idle timeout.
+     */
+    private void stopIfIdle() {
+        try {
+            config = config.reloadIfChanged();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Keeping the previous configuration: " + e.getMessage());
+        }
+        long idleTimeoutMillis = config.getLong("test.daemon.idleTimeout", DEFAULT_IDLE_TIMEOUT_SECONDS) * 1000;
+        if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivityMillis > idleTimeoutMillis) {
+            System.out.println("Idle for " + idleTimeoutMillis / 1000 + " seconds, stopping.");
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates a daemon thread, so request threads never keep the JVM alive.
+     *
+     * @param task The thread's task.
+     * @return The new thread.
+     */
+    private static Thread daemonThread(Runnable task) {
+        Thread thread = new Thread(task, "test-daemon");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     *
+     * @return A new digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Loads classes from its own directories before asking its parent, so recompiled classes
+     * replace the ones on the daemon's classpath. JDK, JUnit and pipeline support classes are
+     * always taken from the parent, so the launcher and the tests agree on their identity.
+     * Also used by the remote workers, which load the test classes they receive the same way.
+     */
+    public static class ChildFirstClassLoader extends URLClassLoader {
+
+        static {
+            registerAsParallelCapable();
+        }
+
+        /**
+         * Constructor for the ChildFirstClassLoader class.
+         *
+         * @param urls The class directories, searched first.
+         * @param parent The loader of the launcher and the pipeline support classes.
+         */
+        public ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            for (String shared : SHARED_PACKAGES) {
+                if (name.startsWith(shared)) {
+                    return super.loadClass(name, resolve);
+                }
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    try {
+                        loaded = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package runner;
+
+import history.TestHistory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Talks to the test daemon from the test stage: checks its health, starts it when it is not
+ * running (or runs an outdated pipeline), and runs tests through it.
+ */
+public class TestDaemonClient {
+
+    private static final long PING_TIMEOUT_MILLIS = 2000;
+    private static final long START_TIMEOUT_MILLIS = 15_000;
+    private static final long START_POLL_MILLIS = 100;
+
+    private final Path socket;
+    private final List<Path> overlays;
+
+    /**
+     * Constructor for the TestDaemonClient class.
+     *
+     * @param socket The socket file of the daemon.
+     * @param overlays The config overlays passed to a daemon this client starts.
+     */
+    public TestDaemonClient(Path socket, List<Path> overlays) {
+        this.socket = socket.toAbsolutePath();
+        this.overlays = overlays;
+    }
+
+    /**
+     * Makes sure a healthy daemon of the current pipeline version is listening, starting one if needed.
+     * A daemon that does not answer in time is killed; a daemon of another version is asked to stop.
+     *
+     * @return true if a daemon is ready, false if none could be started.
+     */
+    public boolean ensureRunning() {
+        String[] pong = ping();
+        if (pong != null && pong[2].equals(TestDaemon.version())) {
+            return true;
+        }
+        if (pong != null) {
+            System.out.println("Test daemon " + pong[1] + " runs an outdated pipeline, replacing it.");
+            request("SHUTDOWN");
+            awaitSocketRemoved();
+        } else {
+            killUnresponsive();
+        }
+        return start();
+    }
+
+    /**
+     * Runs test classes in the daemon.
+     *
+     * @param classpath The directories holding the test classes and the code under test.
+     * @param classNames The test classes.
+     * @param parameters The JUnit configuration parameters.
+     * @param expectedDurations The expected duration of each class, to start the longest first.
+     * @param consumer Receives the duration and outcome of every class and method as it finishes.
+     * @return The counts and failures of the run.
+     * @throws IOException if the daemon cannot be reached or fails.
+     */
+    public TestRunner.Result run(List<Path> classpath, List<String> classNames, Map<String, String> parameters,
+                                 Map<String, Long> expectedDurations, Consumer<TestHistory.Entry> consumer)
+            throws IOException {
+        String separator = TestDaemon.SEPARATOR;
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+             BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            writer.println("RUN");
+            for (Path directory : classpath) {
+                writer.println("classpath" + separator + directory.toAbsolutePath());
+            }
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                writer.println("param" + separator + parameter.getKey() + separator + parameter.getValue());
+            }
+            for (Map.Entry<String, Long> duration : expectedDurations.entrySet()) {
+                writer.println("duration" + separator + duration.getKey() + separator + duration.getValue());
+            }
+            for (String className : classNames) {
+                writer.println("class" + separator + className);
+            }
+            writer.println("END");
+            writer.flush();
+
+            long[] counts = null;
+            StringBuilder failures = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(separator, -1);
+                switch (fields[0]) {
+                    case "ENTRY" -> consumer.accept(new TestHistory.Entry(fields[3], fields[4],
+                            Long.parseLong(fields[2]), TestHistory.Outcome.valueOf(fields[1])));
+                    case "RESULT" -> counts = new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), Long.parseLong(fields[4])};
+                    case "FAILURE" -> failures.append(fields[1]).append(System.lineSeparator());
+                    case "DONE" -> {
+                        if (counts == null) {
+                            throw new IOException("The test daemon sent no result");
+                        }
+                        return new TestRunner.Result(counts[0], counts[1], counts[2], counts[3], failures.toString());
+                    }
+                    case "ERROR" -> throw new IOException("The test daemon failed: " + fields[1]);
+                    default -> throw new IOException("Unexpected answer from the test daemon: " + line);
+                }
+            }
+            throw new IOException("The test daemon closed the connection");
+        }
+    }
+
+    /**
+     * Checks that the daemon answers, within a short timeout.
+     *
+     * @return The fields of the PONG answer (pid, version, runs, uptime), or null if it did not answer.
+     */
+    private String[] ping() {
+        String answer = request("PING");
+        if (answer == null || !answer.startsWith("PONG")) {
+            return null;
+        }
+        String[] fields = answer.split(TestDaemon.SEPARATOR);
+        return fields.length >= 3 ? fields : null;
+    }
+
+    /**
+     * Sends a one-line request and reads the one-line answer. The channel is closed by a watchdog
+     * if the daemon does not answer in time, which fails the blocked read.
+     *
+     * @param command The request.
+     * @return The answer, or null if the daemon could not be reached or did not answer.
+     */
+    private String request(String command) {
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            Thread watchdog = new Thread(() -> {
+                try {
+                    Thread.sleep(PING_TIMEOUT_MILLIS);
+                    channel.close();
+                } catch (InterruptedException | IOException e) {
+                    // Answered in time, or already closed
+                }
+            }, "test-daemon-watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+            try {
+                PrintWriter writer = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+                writer.println(command);
+                writer.flush();
+                return new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8)).readLine();
+            } finally {
+                watchdog.interrupt();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a stopping daemon to remove its socket, so it cannot remove the socket of its successor.
+     */
+    private void awaitSocketRemoved() {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        try {
+            while (Files.exists(socket) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(START_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Kills a daemon that holds the socket but does not answer, using the pid it recorded.
+     */
+    private void killUnresponsive() {
+        Path pidFile = TestDaemon.pidFile(socket);
+        try {
+            if (Files.exists(pidFile)) {
+                long pid = Long.parseLong(Files.readString(pidFile, StandardCharsets.UTF_8).trim());
+                ProcessHandle.of(pid)
+                        .filter(process -> process.info().command().map(command -> command.contains("java"))
+                                .orElse(false))
+                        .ifPresent(process -> {
+                            System.out.println("Test daemon " + pid + " does not answer, killing it.");
+                            process.destroyForcibly();
+                        });
+                Files.deleteIfExists(pidFile);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // No usable pid; the new daemon replaces the socket anyway
+        }
+    }
+
+    /**
+     * Starts a daemon with the classpath of this pipeline and waits until it answers.
+     * Its output goes to a log file next to the socket.
+     *
+     * @return true if the daemon answered before the start timeout.
+     */
+    private boolean start() {
+        Path logFile = socket.resolveSibling(socket.getFileName() + ".log");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        try {
+            Files.createDirectories(socket.getParent());
+            List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                    TestDaemon.class.getName(), socket.toString()));
+            for (Path overlay : overlays) {
+                command.add(overlay.toAbsolutePath().toString());
+            }
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(Redirect.appendTo(logFile.toFile()))
+                    .start();
+            process.getOutputStream().close();
+            System.out.println("Started test daemon " + process.pid() + ".");
+
+            long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+            while (System.currentTimeMillis() < deadline && process.isAlive()) {
+                if (ping() != null) {
+                    return true;
+                }
+                Thread.sleep(START_POLL_MILLIS);
+            }
+            System.out.println("The test daemon did not start, see " + logFile);
+            process.destroy();
+            return false;
+        } catch (IOException e) {
+            System.out.println("Could not start the test daemon: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package runner;
+
+import history.TestHistory;
+import org.junit.platform.engine.DiscoverySelector;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs test classes through an open JUnit launcher session. Used both in the pipeline process
+ * and in the test daemon, so the two report the same results.
+ */
+public final class TestRunner {
+
+    private static final int MAX_STACK_TRACE_LINES = 10;
+
+    private TestRunner() {
+    }
+
+    /**
+     * The outcome of one run.
+     *
+     * @param succeeded The number of tests that passed.
+     * @param failed The number of tests that failed.
+     * @param skipped The number of tests that were skipped.
+     * @param failureCount The number of failures, including failing containers.
+     * @param failureReport The failures with shortened stack traces, empty if none.
+     */
+    public record Result(long succeeded, long failed, long skipped, long failureCount, String failureReport) {
+    }
+
+    /**
+     * Runs test classes as one discovery request. The classes are resolved through the
+     * context class loader of the calling thread.
+     *
+     * @param session The launcher session.
+     * @param classNames The fully qualified names of the test classes.
+     * @param parameters The JUnit configuration parameters (parallelism, class order...).
+     * @param consumer Receives the duration and outcome of every class and method as it finishes.
+     * @return The counts and failures of the run.
+     */
+    public static Result run(LauncherSession session, List<String> classNames, Map<String, String> parameters,
+                             Consumer<TestHistory.Entry> consumer) {
+        List<DiscoverySelector> selectors = new ArrayList<>();
+        for (String className : classNames) {
+            selectors.add(DiscoverySelectors.selectClass(className));
+        }
+        LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request()
+                .selectors(selectors)
+                .configurationParameters(parameters)
+                .build();
+
+        SummaryGeneratingListener summaryListener = new SummaryGeneratingListener();
+        session.getLauncher().execute(request, summaryListener, new TimingListener(consumer));
+
+        TestExecutionSummary summary = summaryListener.getSummary();
+        StringWriter report = new StringWriter();
+        if (summary.getTotalFailureCount() > 0) {
+            PrintWriter writer = new PrintWriter(report);
+            summary.printFailuresTo(writer, MAX_STACK_TRACE_LINES);
+            writer.flush();
+        }
+        return new Result(summary.getTestsSucceededCount(), summary.getTestsFailedCount(),
+                summary.getTestsSkippedCount(), summary.getTotalFailureCount(), report.toString());
+    }
+}
@@ -0,0 +1,80 @@
+package runner;
+
+import history.TestHistory;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Times every test class and method and hands the duration and outcome to a consumer as soon as
+ * it finishes. Tests finish on several threads at once, so the consumer must be thread-safe.
+ */
+public class TimingListener implements TestExecutionListener {
+
+    private final Consumer<TestHistory.Entry> consumer;
+    private final Map<String, Long> startTimes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for the TimingListener class.
+     *
+     * @param consumer Receives an entry for every finished or skipped class and method.
+     *                 Class entries have an empty method name.
+     */
+    public TimingListener(Consumer<TestHistory.Entry> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void executionStarted(TestIdentifier identifier) {
+        startTimes.put(identifier.getUniqueId(), System.nanoTime());
+    }
+
+    @Override
+    public void executionSkipped(TestIdentifier identifier, String reason) {
+        TestSource source = identifier.getSource().orElse(null);
+        if (source instanceof MethodSource method) {
+            consumer.accept(new TestHistory.Entry(method.getClassName(), method.getMethodName(), 0,
+                    TestHistory.Outcome.SKIPPED));
+        } else if (source instanceof ClassSource classSource) {
+            consumer.accept(new TestHistory.Entry(classSource.getClassName(), "", 0, TestHistory.Outcome.SKIPPED));
+        }
+    }
+
+    @Override
+    public void executionFinished(TestIdentifier identifier, TestExecutionResult result) {
+        Long startTime = startTimes.remove(identifier.getUniqueId());
+        long duration = startTime == null ? 0 : System.nanoTime() - startTime;
+        TestSource source = identifier.getSource().orElse(null);
+
+        if (source instanceof MethodSource method) {
+            consumer.accept(new TestHistory.Entry(method.getClassName(), method.getMethodName(), duration,
+                    toOutcome(result)));
+        } else if (source instanceof ClassSource classSource) {
+            consumer.accept(new TestHistory.Entry(classSource.getClassName(), "", duration, toOutcome(result)));
+        }
+    }
+
+    /**
+     * Maps a JUnit result onto a history outcome.
+     *
+     * @param result The JUnit result.
+     * @return The outcome.
+     */
+    private static TestHistory.Outcome toOutcome(TestExecutionResult result) {
+        switch (result.getStatus()) {
+            case SUCCESSFUL:
+                return TestHistory.Outcome.SUCCESSFUL;
+            case ABORTED:
+                return TestHistory.Outcome.ABORTED;
+            default:
+                return TestHistory.Outcome.FAILED;
+        }
+    }
+}
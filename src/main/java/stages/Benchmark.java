@@ -0,0 +1,264 @@
+package stages;
+
+import bench.BenchmarkResult;
+import metrics.Metrics;
+import pipeline.OutputLine;
+import pipeline.OutputSink;
+import pipeline.PipelineConfig;
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The Benchmark class runs the JMH benchmarks of the project (the jar built from the benchmarks
+ * module) and compares their scores with the last accepted run. The stage fails when a benchmark
+ * got significantly slower: its confidence interval no longer overlaps the previous one and the
+ * score moved by at least "benchmark.threshold" percent in the wrong direction.
+ */
+public class Benchmark implements Stage {
+
+  private static final String ANSI_RESET = "\u001B[0m";
+  private static final String ANSI_GREEN = "\u001B[32m";
+  private static final String ANSI_RED = "\u001B[31m";
+
+  private static final String DEFAULT_JAR = "benchmarks/target/benchmarks.jar";
+  private static final String DEFAULT_RESULTS_DIR = ".pipeline-cache/benchmarks";
+  private static final String RESULTS_FILE = "results.json";
+  private static final String BASELINE_FILE = "baseline.json";
+  private static final int DEFAULT_FORKS = 1;
+  private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+  private static final int DEFAULT_ITERATIONS = 5;
+  private static final String DEFAULT_ITERATION_TIME = "1s";
+  private static final int DEFAULT_THRESHOLD_PERCENT = 5;
+  private static final int DEFAULT_TIMEOUT_SECONDS = 3600;
+  private static final String LIST_HEADER = "Benchmarks:";
+
+  private final PipelineConfig config;
+
+  /**
+   * Constructor for the Benchmark class.
+   *
+   * @param config The pipeline configuration holding the benchmark settings.
+   */
+  public Benchmark(PipelineConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Returns the name of this stage in config.properties.
+   *
+   * @return "benchmark"
+   */
+  @Override
+  public String getName() {
+    return "benchmark";
+  }
+
+  /**
+   * Runs the benchmark stage.
+   *
+   * @return true if no benchmark regressed (or there are none), false otherwise.
+   */
+  @Override
+  public boolean execute() {
+    Path jar = config.getPath("benchmark.jar", DEFAULT_JAR);
+    if (!Files.isRegularFile(jar)) {
+      System.out.println("No benchmark jar at " + jar + ", skipping benchmarks.");
+      return true;
+    }
+
+    try {
+      List<String> benchmarks = listBenchmarks(jar);
+      if (benchmarks.isEmpty()) {
+        System.out.println("No benchmarks match '" + config.get("benchmark.include", "") + "', skipping benchmarks.");
+        return true;
+      }
+      System.out.println("Running " + benchmarks.size() + " benchmarks...");
+
+      Path resultsDir = config.getPath("benchmark.results.dir", DEFAULT_RESULTS_DIR);
+      Files.createDirectories(resultsDir);
+      Path resultsFile = resultsDir.resolve(RESULTS_FILE);
+      Files.deleteIfExists(resultsFile);
+      ProcessResult run = runBenchmarks(jar, resultsFile);
+      if (!run.success() || !Files.exists(resultsFile)) {
+        printInRed(run.timedOut() ? "Benchmarks timed out."
+            : "Benchmarks failed with exit code " + run.exitCode() + ".");
+        return false;
+      }
+
+      List<BenchmarkResult> results = BenchmarkResult.parse(Files.readString(resultsFile, StandardCharsets.UTF_8));
+      Path baselineFile = resultsDir.resolve(BASELINE_FILE);
+      List<BenchmarkResult> previous = Files.exists(baselineFile)
+          ? BenchmarkResult.parse(Files.readString(baselineFile, StandardCharsets.UTF_8))
+          : List.of();
+
+      if (!report(results, previous)) {
+        printInRed("Benchmark regression detected. The baseline is kept, see " + resultsFile + ".");
+        return false;
+      }
+      // Only a run without regressions becomes the reference of the next one
+      Files.copy(resultsFile, baselineFile, StandardCopyOption.REPLACE_EXISTING);
+      printInGreen("Benchmarks passed.");
+      return true;
+    } catch (IOException | IllegalArgumentException e) {
+      printInRed("Benchmarks failed: " + e.getMessage());
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Lists the benchmarks of the jar matching "benchmark.include".
+   *
+   * @param jar The benchmark jar.
+   * @return The benchmark names.
+   * @throws IOException if the jar cannot be run or fails.
+   * @throws InterruptedException if the stage is cancelled.
+   */
+  private List<String> listBenchmarks(Path jar) throws IOException, InterruptedException {
+    List<String> command = jmh(jar);
+    command.add("-l");
+    String include = config.get("benchmark.include", "");
+    if (!include.isEmpty()) {
+      command.add(include);
+    }
+    ProcessResult result = new ProcessRunner(command).mergeErrors().bufferLines(Integer.MAX_VALUE).run();
+    if (!result.success()) {
+      throw new IOException("cannot list the benchmarks of " + jar + "\n" + result.output());
+    }
+
+    List<String> benchmarks = new ArrayList<>();
+    boolean listed = false;
+    for (OutputLine line : result.lines()) {
+      if (listed && !line.text().isBlank()) {
+        benchmarks.add(line.text().trim());
+      }
+      listed |= line.text().startsWith(LIST_HEADER);
+    }
+    return benchmarks;
+  }
+
+  /**
+   * Runs the benchmarks, streaming the JMH output to the console.
+   *
+   * @param jar The benchmark jar.
+   * @param resultsFile The JSON file the results are written to.
+   * @return The result of the run.
+   * @throws IOException if the jar cannot be run.
+   * @throws InterruptedException if the stage is cancelled.
+   */
+  private ProcessResult runBenchmarks(Path jar, Path resultsFile) throws IOException, InterruptedException {
+    List<String> command = jmh(jar);
+    String include = config.get("benchmark.include", "");
+    if (!include.isEmpty()) {
+      command.add(include);
+    }
+    command.addAll(List.of(
+        "-f", Integer.toString(config.getInt("benchmark.forks", DEFAULT_FORKS)),
+        "-wi", Integer.toString(config.getInt("benchmark.warmupIterations", DEFAULT_WARMUP_ITERATIONS)),
+        "-w", config.get("benchmark.warmupTime", DEFAULT_ITERATION_TIME),
+        "-i", Integer.toString(config.getInt("benchmark.iterations", DEFAULT_ITERATIONS)),
+        "-r", config.get("benchmark.measurementTime", DEFAULT_ITERATION_TIME),
+        "-rf", "json",
+        "-rff", resultsFile.toAbsolutePath().toString()));
+    for (String profiler : config.getList("benchmark.profilers", List.of())) {
+      command.addAll(List.of("-prof", profiler));  // e.g. "gc" adds the allocation rate per operation
+    }
+    String jvmArgs = config.get("benchmark.jvmArgs", "");
+    if (!jvmArgs.isEmpty()) {
+      command.addAll(List.of("-jvmArgsAppend", jvmArgs));
+    }
+
+    return new ProcessRunner(command)
+        .timeout(Duration.ofSeconds(config.getInt("benchmark.timeout", DEFAULT_TIMEOUT_SECONDS)))
+        .sink(OutputSink.console(""))
+        .run();
+  }
+
+  /**
+   * Builds the command running the JMH jar.
+   *
+   * @param jar The benchmark jar.
+   * @return The command, to which JMH options are added.
+   */
+  private static List<String> jmh(Path jar) {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-jar");
+    command.add(jar.toString());
+    return command;
+  }
+
+  /**
+   * Prints every benchmark with its change since the previous run.
+   *
+   * @param results The results of this run.
+   * @param previous The results of the last accepted run (empty on the first run).
+   * @return true if no benchmark regressed.
+   */
+  private boolean report(List<BenchmarkResult> results, List<BenchmarkResult> previous) {
+    Map<String, BenchmarkResult> previousByKey = new HashMap<>();
+    for (BenchmarkResult result : previous) {
+      previousByKey.put(result.key(), result);
+    }
+    double threshold = config.getInt("benchmark.threshold", DEFAULT_THRESHOLD_PERCENT);
+
+    boolean passed = true;
+    for (BenchmarkResult result : results) {
+      String score = String.format(Locale.ROOT, "%s: %.3f %s", result.key(), result.score(), result.unit());
+      BenchmarkResult before = previousByKey.get(result.key());
+      if (before == null || !before.mode().equals(result.mode()) || !before.unit().equals(result.unit())) {
+        System.out.println(score + " (new)");
+        Metrics.registry().counter("benchmark.results", "change", "new").increment();
+        continue;
+      }
+
+      BenchmarkResult.Change change = result.compareTo(before, threshold);
+      Metrics.registry().counter("benchmark.results", "change", change.regression() ? "regression"
+          : change.significant() ? "significant" : "noise").increment();
+      String line = String.format(Locale.ROOT, "%s (%+.1f%% vs %.3f%s)", score, change.changePercent(),
+          before.score(), change.significant() ? "" : ", within noise");
+      if (change.regression()) {
+        printInRed(line + " REGRESSION");
+        passed = false;
+      } else if (change.significant()) {
+        printInGreen(line);
+      } else {
+        System.out.println(line);
+      }
+    }
+    return passed;
+  }
+
+  /**
+   * Prints the provided message in green text.
+   *
+   * @param message The message to print in green.
+   */
+  private static void printInGreen(String message) {
+    System.out.println(ANSI_GREEN + message + ANSI_RESET);
+  }
+
+  /**
+   * Prints the provided message in red text.
+   *
+   * @param message The message to print in red.
+   */
+  private static void printInRed(String message) {
+    System.out.println(ANSI_RED + message + ANSI_RESET);
+  }
+}
@@ -1,18 +1,45 @@
 package stages;
 
-import java.io.File;
+import cache.BuildCache;
+import cache.RemoteCache;
+import metrics.Metrics;
+import metrics.Span;
+import metrics.Tracer;
+import packaging.JarPackager;
+import pipeline.PipelineConfig;
+import pipeline.TaskExecutors;
+import progress.Progress;
+import progress.ProgressBar;
+import remote.RemoteExecutor;
+import toolchain.CompileResult;
+import toolchain.Toolchain;
+import toolchain.ToolchainRegistry;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 
 /**
- * The Build class simulates the build process of a project.
+ * The Build class runs the build process of a project.
  * It handles compilation, testing, and packaging of source files
- * defined in a configuration file.
+ * defined in a configuration file. Each source file is compiled by the
+ * toolchain registered for its extension (see {@link ToolchainRegistry}).
  */
-public class Build {
+public class Build implements Stage {
 
     // ANSI escape codes for colored output
     private static final String ANSI_RESET = "\u001B[0m";
@@ -20,229 +47,358 @@ public class Build {
     private static final String ANSI_GREEN = "\u001B[32m";
     private static final String ANSI_RED = "\u001B[31m";
 
-    private List<String> sourceFiles;
-    private static final String CONFIG_FILE = "config.properties";
-    private Properties properties = new Properties();
+    // Where the scripts are read from, also watched by "--watch"
+    public static final Path SCRIPTS_DIR = Paths.get("src/main/java/scripts");
+    private static final String DEFAULT_OUTPUT_DIR = "target/scripts";
+    private static final String DEFAULT_CACHE_DIR = ".pipeline-cache/build";
+    private static final long DEFAULT_CACHE_MAX_BYTES = 512L * 1024 * 1024;
+    private static final List<String> DEFAULT_CACHE_KEYS = List.of("pipeline.language");
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    // Zip timestamps are local times from 1980; a fixed one keeps the JAR reproducible
+    private static final String DEFAULT_PACKAGE_TIMESTAMP = "1980-02-01T00:00:00Z";
+
+    // Toolchains are discovered once and shared by every Build instance
+    private static final ToolchainRegistry TOOLCHAINS = ToolchainRegistry.load();
+
+    private final PipelineConfig config;
+    private final List<String> sourceFiles;
+    private final int parallelism;
+    private final Path outputDir;
+    private BuildCache buildCache;
+    private RemoteCache remoteCache;
+    private final RemoteExecutor remote;
+    private final Map<String, String> cacheKeyConfig = new HashMap<>();
+    private ProgressBar progress;  // The bar of the running build, advanced by the compile workers
 
     /**
      * Constructor to initialize the Build object.
-     * It loads the script names from the config.properties file.
+     * It reads the script names and build settings from the pipeline configuration.
+     * @param config The pipeline configuration.
      */
-    public Build() {
-        loadConfig();
-        String scripts = properties.getProperty("scripts");
-        if (scripts != null && !scripts.isEmpty()) {
-            // Split the script names and trim any whitespace
-            sourceFiles = Arrays.asList(scripts.split(","));
-        } else {
+    public Build(PipelineConfig config) {
+        this(config, config.getList("scripts", List.of()));
+        if (sourceFiles.isEmpty()) {
             System.out.println("No scripts found in config.properties");
         }
     }
 
     /**
-     * Simulates the entire build process.
+     * Constructor for a build of some of the scripts only, e.g. the ones that changed in watch mode.
+     * The other build settings are read from the pipeline configuration.
+     * @param config The pipeline configuration.
+     * @param sourceFiles The names of the scripts to compile.
+     */
+    public Build(PipelineConfig config, List<String> sourceFiles) {
+        this.config = config;
+        this.sourceFiles = List.copyOf(sourceFiles);
+
+        // Number of files compiled at the same time, defaults to one worker per core
+        parallelism = config.getInt("build.parallelism", Runtime.getRuntime().availableProcessors());
+
+        outputDir = config.getPath("build.output.dir", DEFAULT_OUTPUT_DIR);
+
+        // Incremental build cache, keyed by file contents, toolchain and the "build.cache.keys" values
+        if (config.getBoolean("build.cache.enabled", true)) {
+            buildCache = new BuildCache(config.getPath("build.cache.dir", DEFAULT_CACHE_DIR),
+                    config.getLong("build.cache.maxBytes", DEFAULT_CACHE_MAX_BYTES));
+            for (String key : config.getList("build.cache.keys", DEFAULT_CACHE_KEYS)) {
+                cacheKeyConfig.put(key, config.get(key, ""));
+            }
+
+            // Shared cache server, checked when the local cache misses
+            remoteCache = RemoteCache.fromConfig(config);
+        }
+
+        // Remote workers listed in "remote.workers" compile the files, or null to compile here
+        remote = RemoteExecutor.fromConfig(config);
+    }
+
+    /**
+     * Returns the name of this stage in config.properties.
+     * @return "build"
+     */
+    @Override
+    public String getName() {
+        return "build";
+    }
+
+    /**
+     * Runs the entire build process.
      * This includes compilation, testing, and packaging.
      * @return true if the build is successful, false otherwise.
      */
+    @Override
     public boolean execute() {
         System.out.println("Executing build stage...");
 
-        // Step 1: Simulate Compilation/Execution
-        if (!simulateCompilation()) {
-            printInRed("Compilation/Execution failed.");
-            return false;
-        }
-        updateProgressBar(33);
+        // One unit per source file, plus the testing and packaging steps
+        try (ProgressBar bar = Progress.bar(getName(), sourceFiles.size() + 2)) {
+            progress = bar;
 
-        // Step 2: Simulate Testing
-        if (!simulateTesting()) {
-            printInRed("Tests failed.");
-            return false;
-        }
-        updateProgressBar(66);
+            // Step 1: Compilation/Execution
+            if (!runStep("compile", this::compileSources)) {
+                printInRed("Compilation/Execution failed.");
+                return false;
+            }
 
-        // Step 3: Simulate Packaging
-        if (!simulatePackaging()) {
-            printInRed("Packaging failed.");
-            return false;
+            // Step 2: Simulate Testing
+            if (!runStep("test", this::simulateTesting)) {
+                printInRed("Tests failed.");
+                return false;
+            }
+            bar.advance();
+
+            // Step 3: Packaging
+            if (!runStep("package", this::packageJar)) {
+                printInRed("Packaging failed.");
+                return false;
+            }
+            bar.advance();
         }
-        updateProgressBar(100);
 
         printInGreen("Build successful.");
         return true;
     }
 
     /**
-     * Simulates the compilation and execution of source files.
-     * @return true if compilation and execution are successful, false otherwise.
+     * Compiles the source files with the toolchain registered for their extension.
+     * Files whose contents, toolchain and configuration did not change since a previous build
+     * are restored from the build cache, or else from the shared cache server of "build.cache.remote.url".
+     * Of the remaining files, those of batch toolchains are compiled together in a single invocation
+     * and every other file is dispatched as its own task.
+     * All tasks run on a pool of "build.parallelism" workers. With "remote.workers", the tasks are
+     * sent to remote workers instead, and the pool grows to the slots of the workers.
+     * Results are reported in the order of the scripts list and every failure is reported, not only the first one.
+     * @return true if compilation is successful, false otherwise.
      */
-    private boolean simulateCompilation() {
+    private boolean compileSources() {
         System.out.println("Compiling/Running source files...");
 
-        if (sourceFiles == null || sourceFiles.isEmpty()) {
+        if (sourceFiles.isEmpty()) {
             System.out.println("No source files to compile.");
             return false;
         }
 
+        List<Path> sources = new ArrayList<>();
         for (String file : sourceFiles) {
-            File sourceFile = new File("src/main/java/scripts/" + file.trim());
-            if (!sourceFile.exists()) {
-                printInRed("Source file not found: " + file);
-                return false;
+            sources.add(config.getDirectory().resolve(SCRIPTS_DIR).resolve(file));
+        }
+
+        Map<Path, CompileResult> results = new ConcurrentHashMap<>();
+        Map<Path, String> cacheKeys = new ConcurrentHashMap<>();
+        int threads = remote == null ? parallelism : Math.max(parallelism, remote.capacity());
+        try (ExecutorService workers = TaskExecutors.newScope("build", Math.min(threads, sources.size()))) {
+            // Phase 1: reject unknown files and restore unchanged ones from the build cache
+            Map<Toolchain, String> batchDigests = batchDigests(sources);
+            List<Callable<Void>> lookups = new ArrayList<>();
+            for (Path source : sources) {
+                lookups.add(Tracer.wrap(() -> {
+                    lookUp(source, batchDigests, results, cacheKeys);
+                    return null;
+                }));
+            }
+            awaitAll(workers.invokeAll(lookups));
+
+            // Phase 2: one task per batch toolchain, one task per file otherwise
+            Map<Toolchain, List<Path>> batches = new LinkedHashMap<>();
+            List<Callable<List<CompileResult>>> tasks = new ArrayList<>();
+            for (Path source : sources) {
+                if (results.containsKey(source)) {
+                    continue;
+                }
+                Toolchain local = TOOLCHAINS.find(source.getFileName().toString());
+                Toolchain toolchain = remote == null ? local : remote.wrap(local);
+                if (toolchain.supportsBatch()) {
+                    batches.computeIfAbsent(toolchain, key -> new ArrayList<>()).add(source);
+                } else {
+                    tasks.add(Tracer.wrap(() -> compileWith(toolchain, List.of(source), cacheKeys)));
+                }
             }
+            batches.forEach((toolchain, files) ->
+                    tasks.add(Tracer.wrap(() -> compileWith(toolchain, files, cacheKeys))));
 
-            System.out.println("Processing " + sourceFile.getPath() + "...");
-
-            // Handle different file formats based on file extension
-            if (file.endsWith(".java")) {
-                if (!simulateJavaCompilation(file)) return false;
-            } else if (file.endsWith(".py")) {
-                if (!simulatePythonExecution(file)) return false;
-            } else if (file.endsWith(".js")) {
-                if (!simulateJavaScriptExecution(file)) return false;
-            } else if (file.endsWith(".ts")) {
-                if (!simulateTypeScriptTranspile(file)) return false;
-            } else if (file.endsWith(".c")) {
-                if (!simulateCCompilation(file)) return false;
-            } else if (file.endsWith(".cpp")) {
-                if (!simulateCppCompilation(file)) return false;
-            } else if (file.endsWith(".cs")) {
-                if (!simulateCSharpCompilation(file)) return false;
-            } else if (file.endsWith(".rb")) {
-                if (!simulateRubyExecution(file)) return false;
-            } else if (file.endsWith(".php")) {
-                if (!simulatePhpExecution(file)) return false;
-            } else if (file.endsWith(".swift")) {
-                if (!simulateSwiftCompilation(file)) return false;
-            } else if (file.endsWith(".go")) {
-                if (!simulateGoCompilation(file)) return false;
-            } else if (file.endsWith(".kt")) {
-                if (!simulateKotlinCompilation(file)) return false;
-            } else if (file.endsWith(".rs")) {
-                if (!simulateRustCompilation(file)) return false;
-            } else if (file.endsWith(".sh")) {
-                if (!simulateBashExecution(file)) return false;
-            } else if (file.endsWith(".r")) {
-                if (!simulateRExecution(file)) return false;
-            } else if (file.endsWith(".pl")) {
-                if (!simulatePerlExecution(file)) return false;
-            } else if (file.endsWith(".scala")) {
-                if (!simulateScalaCompilation(file)) return false;
-            } else if (file.endsWith(".dart")) {
-                if (!simulateDartCompilation(file)) return false;
-            } else if (file.endsWith(".hs")) {
-                if (!simulateHaskellCompilation(file)) return false;
-            } else if (file.endsWith(".ex")) {
-                if (!simulateElixirExecution(file)) return false;
-            } else {
-                printInRed("Unsupported file type: " + file);
-                return false;
+            for (List<CompileResult> batch : awaitAll(workers.invokeAll(tasks))) {
+                for (CompileResult result : batch) {
+                    results.put(result.source(), result);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            printInRed("Compilation interrupted.");
+            return false;
+        } catch (ExecutionException e) {
+            printInRed("Compilation crashed: " + e.getCause());
+            return false;
+        } catch (IOException e) {
+            printInRed("Could not read the source files: " + e.getMessage());
+            return false;
         }
 
-        printInGreen("Compilation/Execution successful.");
-        return true;
-    }
-
-    // Simulated compilation/execution methods for various programming languages
-    private boolean simulateJavaCompilation(String file) {
-        System.out.println("Compiling Java file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulatePythonExecution(String file) {
-        System.out.println("Running Python file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateJavaScriptExecution(String file) {
-        System.out.println("Running JavaScript file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateTypeScriptTranspile(String file) {
-        System.out.println("Transpiling TypeScript file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateCCompilation(String file) {
-        System.out.println("Compiling C file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateCppCompilation(String file) {
-        System.out.println("Compiling C++ file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateCSharpCompilation(String file) {
-        System.out.println("Compiling C# file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateRubyExecution(String file) {
-        System.out.println("Running Ruby file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulatePhpExecution(String file) {
-        System.out.println("Running PHP file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateSwiftCompilation(String file) {
-        System.out.println("Compiling Swift file: " + file);
-        return !file.contains("Error");
-    }
-
-    private boolean simulateGoCompilation(String file) {
-        System.out.println("Compiling Go file: " + file);
-        return !file.contains("Error");
-    }
+        if (buildCache != null) {
+            try {
+                buildCache.evict();
+            } catch (IOException e) {
+                System.out.println("Could not evict old build cache entries: " + e.getMessage());
+            }
+        }
 
-    private boolean simulateKotlinCompilation(String file) {
-        System.out.println("Compiling Kotlin file: " + file);
-        return !file.contains("Error");
-    }
+        // Report in the order the files were listed in config.properties
+        List<CompileResult> failures = new ArrayList<>();
+        for (Path source : sources) {
+            CompileResult result = results.get(source);
+            if (!result.success()) {
+                failures.add(result);
+            }
+        }
 
-    private boolean simulateRustCompilation(String file) {
-        System.out.println("Compiling Rust file: " + file);
-        return !file.contains("Error");
-    }
+        if (!failures.isEmpty()) {
+            printInRed(failures.size() + " of " + sources.size() + " source files failed:");
+            for (CompileResult failure : failures) {
+                printInRed("  " + failure.source() + ": " + failure.output().trim());
+            }
+            return false;
+        }
 
-    private boolean simulateBashExecution(String file) {
-        System.out.println("Running Bash script: " + file);
-        return !file.contains("Error");
+        printInGreen("Compilation/Execution successful.");
+        return true;
     }
 
-    private boolean simulateRExecution(String file) {
-        System.out.println("Running R script: " + file);
-        return !file.contains("Error");
+    /**
+     * Digests the sources of every batch toolchain together. A file of a batch may reference the
+     * others, so their contents are part of its cache key: a change to one recompiles the batch.
+     * @param sources The source files of the build.
+     * @return The batch digest of every batch toolchain handling existing files, by toolchain.
+     * @throws IOException if a source file cannot be read.
+     */
+    private Map<Toolchain, String> batchDigests(List<Path> sources) throws IOException {
+        Map<Toolchain, String> digests = new HashMap<>();
+        if (buildCache == null) {
+            return digests;
+        }
+        Map<Toolchain, List<Path>> batches = new HashMap<>();
+        for (Path source : sources) {
+            Toolchain toolchain = TOOLCHAINS.find(source.getFileName().toString());
+            if (toolchain != null && toolchain.supportsBatch() && Files.exists(source)) {
+                batches.computeIfAbsent(toolchain, key -> new ArrayList<>()).add(source);
+            }
+        }
+        for (Map.Entry<Toolchain, List<Path>> batch : batches.entrySet()) {
+            digests.put(batch.getKey(), BuildCache.batchDigest(batch.getValue()));
+        }
+        return digests;
     }
 
-    private boolean simulatePerlExecution(String file) {
-        System.out.println("Running Perl script: " + file);
-        return !file.contains("Error");
-    }
+    /**
+     * Checks that a source file can be compiled and tries to restore it from the build cache,
+     * then from the remote cache. A remote hit is also stored in the local cache.
+     * Files that are rejected or restored get their result right away; the others get a cache key.
+     * @param source The source file.
+     * @param batchDigests The batch digest of every batch toolchain, by toolchain.
+     * @param results The results collected so far, by source file.
+     * @param cacheKeys The cache keys of the files still to compile, by source file.
+     * @throws IOException if the file or the cache cannot be read.
+     */
+    private void lookUp(Path source, Map<Toolchain, String> batchDigests, Map<Path, CompileResult> results,
+                        Map<Path, String> cacheKeys) throws IOException {
+        Toolchain toolchain = TOOLCHAINS.find(source.getFileName().toString());
+        if (toolchain == null) {
+            results.put(source, new CompileResult(source, false, "Unsupported file type"));
+            return;
+        }
+        if (!Files.exists(source)) {
+            results.put(source, new CompileResult(source, false, "Source file not found"));
+            return;
+        }
+        if (buildCache == null) {
+            return;
+        }
 
-    private boolean simulateScalaCompilation(String file) {
-        System.out.println("Compiling Scala file: " + file);
-        return !file.contains("Error");
+        String key = BuildCache.key(source, toolchain, cacheKeyConfig, batchDigests.getOrDefault(toolchain, ""));
+        CompileResult cached = buildCache.restore(key, source, outputDir);
+        if (cached != null) {
+            System.out.println("Restored " + source + " from the build cache.");
+        } else if (remoteCache != null) {
+            cached = remoteCache.restore(key, source, outputDir);
+            Metrics.registry().counter("build.cache.remote.lookups", "result", cached != null ? "hit" : "miss")
+                    .increment();
+            if (cached != null) {
+                System.out.println("Restored " + source + " from the remote build cache.");
+                buildCache.store(key, cached, outputDir);  // Local next time
+            }
+        }
+        if (cached != null) {
+            results.put(source, cached);
+            progress.advance();
+        } else {
+            cacheKeys.put(source, key);
+        }
+        Metrics.registry().counter("build.cache.lookups", "result", cached != null ? "hit" : "miss").increment();
     }
 
-    private boolean simulateDartCompilation(String file) {
-        System.out.println("Compiling Dart file: " + file);
-        return !file.contains("Error");
+    /**
+     * Compiles a group of source files with one toolchain and caches the successful results.
+     * @param toolchain The toolchain handling the files.
+     * @param sources The files to compile.
+     * @param cacheKeys The cache keys of the files, by source file.
+     * @return One result per file.
+     * @throws Exception if the toolchain could not be run.
+     */
+    private List<CompileResult> compileWith(Toolchain toolchain, List<Path> sources, Map<Path, String> cacheKeys)
+            throws Exception {
+        for (Path source : sources) {
+            System.out.println("Processing " + source + " with the " + toolchain.getName() + " toolchain...");
+        }
+        List<CompileResult> compiled;
+        try (Span span = Metrics.tracer().startSpan("compile " + toolchain.getName())) {
+            span.setAttribute("build.toolchain", toolchain.getName());
+            span.setAttribute("build.files", sources.size());
+            compiled = Metrics.registry().timer("build.compile.duration", "toolchain", toolchain.getName())
+                    .recordCallable(() -> toolchain.compile(sources, outputDir));
+        }
+        progress.advance(sources.size());
+        for (CompileResult result : compiled) {
+            Metrics.registry().counter("build.files.compiled", "toolchain", toolchain.getName(),
+                    "result", result.success() ? "success" : "failure").increment();
+        }
+        if (buildCache != null) {
+            for (CompileResult result : compiled) {
+                buildCache.store(cacheKeys.get(result.source()), result, outputDir);
+                if (remoteCache != null) {
+                    remoteCache.store(cacheKeys.get(result.source()), result, outputDir);
+                }
+            }
+        }
+        return compiled;
     }
 
-    private boolean simulateHaskellCompilation(String file) {
-        System.out.println("Compiling Haskell file: " + file);
-        return !file.contains("Error");
+    /**
+     * Runs one step of the build as a span of the trace.
+     * @param name The name of the step.
+     * @param step The step.
+     * @return true if the step succeeded, false otherwise.
+     */
+    private static boolean runStep(String name, BooleanSupplier step) {
+        try (Span span = Metrics.tracer().startSpan(name)) {
+            boolean success = step.getAsBoolean();
+            span.setStatus(success, name + " failed");
+            return success;
+        }
     }
 
-    private boolean simulateElixirExecution(String file) {
-        System.out.println("Running Elixir file: " + file);
-        return !file.contains("Error");
+    /**
+     * Waits for every task and returns their results, in submission order.
+     * @param futures The futures of the submitted tasks.
+     * @param <T> The result type of the tasks.
+     * @return The results of the tasks.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws ExecutionException if a task threw an exception.
+     */
+    private static <T> List<T> awaitAll(List<Future<T>> futures) throws InterruptedException, ExecutionException {
+        List<T> values = new ArrayList<>();
+        for (Future<T> future : futures) {
+            values.add(future.get());
+        }
+        return values;
     }
 
     /**
@@ -264,35 +420,57 @@ public class Build {
     }
 
     /**
-     * Simulates packaging the project into a JAR file.
+     * Packages the build output and the "package.resources.dirs" directories into a reproducible JAR
+     * (see {@link JarPackager}). Entries unchanged since the previous JAR are copied from it without
+     * compressing them again, and an identical JAR is left untouched.
      * @return true if packaging is successful, false otherwise.
      */
-    private boolean simulatePackaging() {
+    private boolean packageJar() {
         System.out.println("Packaging the project into a JAR file...");
 
-        if (properties.getProperty("app.version") == null) {
+        String version = config.get("app.version");
+        if (version == null) {
             printInRed("Packaging failed due to missing version in config.properties");
             return false;
         }
+        String name = config.get("app.name", "app");
 
-        printInGreen("Packaging successful.");
-        System.out.println("JAR file created: my-maven-project-1.0.jar");
-        return true;
-    }
+        List<Path> roots = new ArrayList<>(List.of(outputDir));
+        for (String dir : config.getList("package.resources.dirs", List.of())) {
+            roots.add(config.resolve(dir));
+        }
+        Map<String, String> manifest = new LinkedHashMap<>();
+        manifest.put("Created-By", "diego-pipeline");
+        manifest.put("Implementation-Title", name);
+        manifest.put("Implementation-Version", version);
+        String mainClass = config.get("package.mainClass", "");
+        if (!mainClass.isEmpty()) {
+            manifest.put("Main-Class", mainClass);
+        }
 
-    /**
-     * Loads properties from the config.properties file.
-     */
-    private void loadConfig() {
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream(CONFIG_FILE)) {
-            if (input == null) {
-                System.out.println("Sorry, unable to find " + CONFIG_FILE);
-                return;
-            }
-            properties.load(input);
-        } catch (IOException ex) {
-            ex.printStackTrace();
+        String file = config.get("package.file", "");
+        Path jar = config.resolve(file.isEmpty() ? "target/" + name + "-" + version + ".jar" : file);
+        JarPackager.Result result;
+        try (Span span = Metrics.tracer().startSpan("package")) {
+            JarPackager packager = new JarPackager(parallelism,
+                    config.getInt("package.compressionLevel", DEFAULT_COMPRESSION_LEVEL),
+                    Instant.parse(config.get("package.timestamp", DEFAULT_PACKAGE_TIMESTAMP)));
+            result = packager.pack(roots, jar, manifest);
+            span.setAttribute("package.entries", result.entries());
+            span.setAttribute("package.reused", result.reused());
+        } catch (IOException | IllegalArgumentException | DateTimeException e) {
+            printInRed("Packaging failed: " + e.getMessage());
+            return false;
         }
+        Metrics.registry().counter("package.entries", "result", "reused").increment(result.reused());
+        Metrics.registry().counter("package.entries", "result", "written")
+                .increment(result.entries() - result.reused());
+
+        printInGreen("Packaging successful.");
+        System.out.println("JAR file created: " + result.jar() + " (" + result.entries() + " entries, "
+                + result.reused() + " reused, " + result.bytes() + " bytes, sha256 " + result.sha256() + ")"
+                + (result.unchanged() ? ", unchanged since the previous build" : ""));
+        return true;
     }
 
     /**
@@ -310,25 +488,4 @@ public class Build {
     private void printInRed(String message) {
         System.out.println(ANSI_BOLD + ANSI_RED + message + ANSI_RESET);
     }
-
-    /**
-     * Simulates a progress bar for the build process.
-     * @param progress The percentage of the build process completed.
-     */
-    private void updateProgressBar(int progress) {
-        final int totalBars = 50; // Number of bars in the progress bar
-        int filledBars = (int) ((progress / 100.0) * totalBars);
-        StringBuilder progressBar = new StringBuilder("[");
-
-        for (int i = 0; i < totalBars; i++) {
-            if (i < filledBars) {
-                progressBar.append("=");
-            } else {
-                progressBar.append(" ");
-            }
-        }
-
-        progressBar.append("] ").append(progress).append("%");
-        System.out.print("\r" + progressBar.toString());
-    }
 }
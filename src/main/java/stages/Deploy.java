@@ -1,111 +1,133 @@
 package stages;
 
-import java.io.BufferedReader;
+import git.GitBackend;
+import git.JGitBackend;
+import git.ProcessGitBackend;
+import impact.GitChanges;
+import metrics.Metrics;
+import metrics.Span;
+import pipeline.PipelineConfig;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Properties;
+import java.nio.file.Path;
 
 /**
  * The Deploy class automates the deployment of a project to a GitHub repository.
- * It reads the GitHub credentials from the config.properties file and uses Git commands
- * to commit and push the changes to the specified repository.
+ * It reads the GitHub credentials from the pipeline configuration, then stages, commits and
+ * pushes the changes through a {@link GitBackend} (JGit in-process, or the git command line).
  */
-public class Deploy {
+public class Deploy implements Stage {
+
+  private static final String DEFAULT_LAST_DEPLOY_FILE = ".pipeline-cache/last-deployed-commit";
+  private static final String DEFAULT_COMMIT_MESSAGE = "Automated deployment from pipeline";
 
-  private static final String CONFIG_FILE = "config.properties";
-  private static Properties properties = new Properties();
+  private final PipelineConfig config;
 
   /**
    * Constructor for the Deploy class.
-   * Loads GitHub credentials from the config.properties file.
+   *
+   * @param config The pipeline configuration holding the GitHub credentials.
    */
-  public Deploy() {
-    try (InputStream input = Deploy.class.getClassLoader().getResourceAsStream(CONFIG_FILE)) {
-      if (input == null) {
-        System.out.println("Sorry, unable to find " + CONFIG_FILE);
-        return;
-      }
-      properties.load(input);
-    } catch (IOException ex) {
-      ex.printStackTrace();
-    }
+  public Deploy(PipelineConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Returns the name of this stage in config.properties.
+   *
+   * @return "deploy"
+   */
+  @Override
+  public String getName() {
+    return "deploy";
+  }
+
+  /**
+   * Runs the deployment stage.
+   *
+   * @return true if the deployment is successful, false otherwise.
+   */
+  @Override
+  public boolean execute() {
+    return deploy();
   }
 
   /**
    * Deploys the project to the GitHub repository.
-   * The method stages the files, commits the changes, and pushes them to the repository.
+   * The method stages the changed files, commits them, and pushes the current branch to the repository.
+   * The credentials are only required for HTTPS repositories; a local (e.g., bare) repository needs none.
    *
    * @return true if the deployment is successful, false otherwise.
    */
   public boolean deploy() {
-    String githubUsername = properties.getProperty("github.username");
-    String githubToken = properties.getProperty("github.token");
-    String repoUrl = properties.getProperty("github.repo_url");
+    String githubUsername = config.get("github.username");
+    String githubToken = config.get("github.token");
+    String repoUrl = config.get("github.repo_url");
 
-    if (githubUsername == null || githubToken == null || repoUrl == null) {
+    boolean needsCredentials = repoUrl != null && repoUrl.startsWith("https://");
+    if (repoUrl == null || (needsCredentials && (githubUsername == null || githubToken == null))) {
       System.out.println("GitHub credentials or repository URL are missing.");
       return false;
     }
+    GitBackend.Credentials credentials = needsCredentials
+        ? new GitBackend.Credentials(githubUsername, githubToken) : null;
 
-    try {
-      // Set up the Git configuration with the credentials
-      setGitCredentials(githubUsername, githubToken);
+    try (GitBackend git = openBackend()) {
+      int staged;
+      try (Span step = Metrics.tracer().startSpan("stage changes")) {
+        staged = git.stageChanges();
+        step.setAttribute("deploy.paths.staged", staged);
+      }
+      Metrics.registry().counter("deploy.paths.staged").increment(staged);
+      System.out.println("Staged " + staged + " changed paths with " + git.getName() + ".");
 
-      // Add files to Git, commit changes, and push to the GitHub repository
-      executeGitCommand("git add .");
-      executeGitCommand("git commit -m 'Automated deployment from pipeline'");
-      executeGitCommand("git push " + repoUrl);
+      try (Span commit = Metrics.tracer().startSpan("commit")) {
+        boolean committed = git.commit(config.get("deploy.commit.message", DEFAULT_COMMIT_MESSAGE));
+        commit.setAttribute("deploy.committed", committed);
+        if (!committed) {
+          System.out.println("Nothing to commit, pushing the current branch.");
+        }
+      }
+
+      try (Span push = Metrics.tracer().startSpan("push")) {
+        int objects = git.push(repoUrl, credentials);
+        push.setAttribute("deploy.objects.pushed", objects);
+        Metrics.registry().counter("deploy.objects.pushed").increment(objects);
+      }
 
       System.out.println("Deployment to GitHub successful.");
+
+      // Remember what was deployed, so the test stage can run only the tests affected since then
+      GitChanges.recordCommit(config.getPath("deploy.lastCommitFile", DEFAULT_LAST_DEPLOY_FILE), git.headCommit());
       return true;
-    } catch (Exception e) {
-      e.printStackTrace();
+    } catch (IOException e) {
+      System.out.println("Deployment failed: " + e.getMessage());
       return false;
     }
   }
 
   /**
-   * Sets up Git credentials for authentication using the GitHub username and token.
-   *
-   * @param username GitHub username.
-   * @param token GitHub personal access token.
-   * @throws IOException if an I/O error occurs.
-   * @throws InterruptedException if the process is interrupted.
-   */
-  private void setGitCredentials(String username, String token) throws IOException, InterruptedException {
-    // Store credentials in the git-credentials helper
-    String credentialHelperCommand = "git config --global credential.helper store";
-    executeGitCommand(credentialHelperCommand);
-
-    // Use the token for GitHub authentication
-    String authString = "https://" + username + ":" + token + "@github.com";
-    executeGitCommand("git remote set-url origin " + authString);
-  }
-
-  /**
-   * Executes the given Git command in the system's shell.
+   * Opens the git backend selected by "deploy.git.backend". JGit runs in-process; if it cannot
+   * open the repository, the git command line is used instead.
    *
-   * @param command The Git command to execute (e.g., "git add .", "git commit -m 'message'").
-   * @throws IOException if an I/O error occurs while executing the command.
-   * @throws InterruptedException if the process is interrupted while waiting for the command to finish.
+   * @return The backend.
+   * @throws IOException if the selected backend is unknown.
    */
-  private void executeGitCommand(String command) throws IOException, InterruptedException {
-    ProcessBuilder processBuilder = new ProcessBuilder(command.split(" "));
-    processBuilder.redirectErrorStream(true);
-    Process process = processBuilder.start();
-
-    // Read the output from the command
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        System.out.println(line);
-      }
-    }
-
-    int exitCode = process.waitFor();
-    if (exitCode != 0) {
-      throw new RuntimeException("Git command failed: " + command);
+  private GitBackend openBackend() throws IOException {
+    Path workTree = config.getPath("deploy.repo.dir", ".");
+    String backend = config.get("deploy.git.backend", "jgit");
+    switch (backend) {
+      case "jgit":
+        try {
+          return new JGitBackend(workTree);
+        } catch (IOException | RuntimeException e) {
+          System.out.println("JGit cannot open the repository (" + e.getMessage() + "), using the git command.");
+          return new ProcessGitBackend(workTree);
+        }
+      case "process":
+        return new ProcessGitBackend(workTree);
+      default:
+        throw new IOException("Unknown deploy.git.backend: " + backend);
     }
   }
 }
@@ -0,0 +1,23 @@
+package stages;
+
+/**
+ * A Stage is a single step of the pipeline (build, test, validate, deploy...).
+ * Stages are run by the scheduler as soon as every stage they depend on has succeeded.
+ */
+public interface Stage {
+
+  /**
+   * Returns the name used to refer to this stage in config.properties.
+   *
+   * @return The stage name (e.g., "build").
+   */
+  String getName();
+
+  /**
+   * Runs the stage.
+   *
+   * @return true if the stage succeeded, false otherwise.
+   * @throws Exception if an error occurs while running the stage.
+   */
+  boolean execute() throws Exception;
+}
@@ -1,119 +1,689 @@
 package stages;
 
-import org.junit.platform.console.ConsoleLauncher;
+import cache.BuildCache;
+import cache.RemoteCache;
+import history.LongestFirstClassOrderer;
+import history.TestHistory;
+import impact.DependencyIndex;
+import impact.GitChanges;
+import metrics.Metrics;
+import metrics.Span;
+import pipeline.PipelineConfig;
+import progress.Progress;
+import progress.ProgressBar;
+import org.junit.platform.launcher.LauncherSession;
+import remote.RemoteExecutor;
+import runner.LauncherPool;
+import runner.TestDaemon;
+import runner.TestDaemonClient;
+import runner.TestRunner;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Arrays;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * The Test class handles running JUnit tests as specified in the config.properties file.
- * It dynamically loads test files, runs them, and tracks progress with a progress bar.
+ * It dynamically loads test files, runs them in parallel through the JUnit Platform launcher,
+ * and tracks progress with a progress bar.
  */
-public class Test {
+public class Test implements Stage {
 
-  private static final String CONFIG_FILE = "config.properties";
-  private static Properties properties = new Properties();
-  private static List<String> testFiles;
+  private static final String DEFAULT_INDEX_FILE = ".pipeline-cache/test-index.properties";
+  private static final String DEFAULT_LAST_DEPLOY_FILE = ".pipeline-cache/last-deployed-commit";
+  private static final List<String> DEFAULT_CLASSES_DIRS = List.of("target/classes", "target/test-classes");
+  private static final String DEFAULT_HISTORY_FILE = ".pipeline-cache/test-history.bin";
+  private static final String DEFAULT_DAEMON_SOCKET = ".pipeline-cache/test-daemon.sock";
+  private static final List<String> DEFAULT_IMPACT_IGNORE = List.of("README.md", ".gitignore", ".idea/",
+      ".pipeline-cache/");
 
   // ANSI escape codes for colored output
   private static final String ANSI_RESET = "\u001B[0m";
   private static final String ANSI_GREEN = "\u001B[32m";
   private static final String ANSI_RED = "\u001B[31m";
 
+  private final PipelineConfig config;
+  private final Shard shard;
+  private final List<String> changedFiles;  // In watch mode, the files that changed; null otherwise
+  private final boolean reloadClasses;
+
   /**
-   * Loads the test file names from the config.properties file.
+   * Constructor for the Test class, running every configured test class.
+   *
+   * @param config The pipeline configuration.
    */
-  public static void loadConfig() {
-    try (InputStream input = Test.class.getClassLoader().getResourceAsStream(CONFIG_FILE)) {
-      if (input == null) {
-        System.out.println("Sorry, unable to find " + CONFIG_FILE);
-        return;
-      }
-      properties.load(input);
+  public Test(PipelineConfig config) {
+    this(config, Shard.ALL);
+  }
 
-      String tests = properties.getProperty("tests");
-      if (tests != null && !tests.isEmpty()) {
-        testFiles = Arrays.asList(tests.split(","));
-      } else {
-        System.out.println("No tests found in config.properties");
-        testFiles = null;
-      }
+  /**
+   * Constructor for the Test class, running only the test classes of one shard.
+   *
+   * @param config The pipeline configuration.
+   * @param shard The shard of test classes this pipeline process runs.
+   */
+  public Test(PipelineConfig config, Shard shard) {
+    this.config = config;
+    this.shard = shard;
+    this.changedFiles = null;
+    this.reloadClasses = false;
+  }
 
-    } catch (IOException ex) {
-      ex.printStackTrace();
+  /**
+   * Constructor for the Test class in watch mode, running only the test classes affected by files
+   * that just changed. The pipeline process stays up between runs, so the classes are loaded again
+   * from "test.classes.dirs" every time, in a class loader of their own. The batch mode uses it too,
+   * so that projects with test classes of the same name run side by side.
+   *
+   * @param config The pipeline configuration.
+   * @param changedFiles The changed files, absolute or relative to the project directory,
+   *                     or null to run the test classes selected by "test.mode".
+   */
+  public Test(PipelineConfig config, Collection<Path> changedFiles) {
+    this.config = config;
+    this.shard = Shard.ALL;
+    this.reloadClasses = true;
+    if (changedFiles == null) {
+      this.changedFiles = null;
+      return;
     }
+    Path workingDir = config.getDirectory().toAbsolutePath();
+    List<String> files = new ArrayList<>();
+    for (Path file : changedFiles) {
+      Path absolute = file.toAbsolutePath().normalize();
+      Path relative = absolute.startsWith(workingDir) ? workingDir.relativize(absolute) : absolute;
+      files.add(relative.toString().replace('\\', '/'));
+    }
+    this.changedFiles = files;
+  }
+
+  /**
+   * Returns the name of this stage in config.properties.
+   *
+   * @return "test"
+   */
+  @Override
+  public String getName() {
+    return "test";
   }
 
   /**
-   * Runs the tests specified in the config.properties file.
-   * Displays a progress bar as the tests are executed.
+   * Runs the test stage.
    *
    * @return true if all tests pass, false if any test fails.
    */
-  public static boolean runTests() {
-    loadConfig();
+  @Override
+  public boolean execute() {
+    if (!reloadClasses) {
+      return runTests(shard);
+    }
 
-    if (testFiles == null || testFiles.isEmpty()) {
+    // Watch mode: classes loaded by an earlier run would hide the recompiled ones
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    try (URLClassLoader loader = new TestDaemon.ChildFirstClassLoader(classDirUrls(), Test.class.getClassLoader())) {
+      thread.setContextClassLoader(loader);
+      return runTests(shard);
+    } catch (IOException e) {
+      printInRed("Cannot load the test classes: " + e.getMessage());
+      return false;
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+  }
+
+  /**
+   * Runs the tests of one shard.
+   * Every test class of the shard goes into a single discovery request that is executed
+   * through one launcher session, with Jupiter running the classes in parallel. With
+   * "test.daemon.enabled", the request goes to a warm test daemon instead of a launcher
+   * started in this process. With "remote.workers", the classes are split over the remote
+   * workers; if a worker fails, every class runs again locally. With "build.cache.remote.url",
+   * classes that passed against the same compiled classes are skipped.
+   * Displays a progress bar as the test classes finish.
+   *
+   * @param shard The shard of test classes to run.
+   * @return true if all tests pass, false if any test fails.
+   */
+  public boolean runTests(Shard shard) {
+    List<String> testFiles = config.getList("tests", List.of());
+    if (testFiles.isEmpty()) {
       System.out.println("No tests found.");
       return true;  // No tests to run, assume passing
     }
 
+    List<String> classNames = new ArrayList<>();
+    for (String testFile : testFiles) {
+      classNames.add("stages." + testFile);
+    }
+    if (changedFiles != null || config.get("test.mode", "all").equals("affected")) {
+      try (Span span = Metrics.tracer().startSpan("select affected tests")) {
+        classNames = changedFiles != null ? selectChangedTests(classNames) : selectAffectedTests(classNames);
+        span.setAttribute("test.classes.selected", classNames.size());
+      }
+    }
+    classNames = shard.select(classNames);
+    if (shard.count() > 1) {
+      System.out.println("Running shard " + shard + ": " + classNames.size() + " of " + testFiles.size()
+          + " test classes.");
+    }
+    if (classNames.isEmpty()) {
+      System.out.println("No tests to run.");
+      updateDependencyIndex(shard);
+      return true;
+    }
+
+    // Unknown classes are reported up front; JUnit would only log a discovery warning for them
     boolean allTestsPassed = true;
-    int totalTests = testFiles.size();
-    int completedTests = 0;
+    List<String> selectedClasses = new ArrayList<>();
+    for (String className : classNames) {
+      if (isLoadable(className)) {
+        selectedClasses.add(className);
+      } else {
+        printInRed("Test class not found: " + className);
+        allTestsPassed = false;
+      }
+    }
+    if (selectedClasses.isEmpty()) {
+      return allTestsPassed;
+    }
 
-    // Loop through the test scripts and execute them using JUnit's ConsoleLauncher
-    for (String testFile : testFiles) {
-      System.out.println("Running test: " + testFile.trim());
+    // Classes that passed against the same compiled classes are not run again
+    RemoteCache remoteCache = config.getBoolean("test.cache.enabled", true) ? RemoteCache.fromConfig(config) : null;
+    Map<String, String> cacheKeys = remoteCache != null ? testCacheKeys(selectedClasses) : Map.of();
+    if (!cacheKeys.isEmpty()) {
+      List<String> uncachedClasses = new ArrayList<>();
+      for (String className : selectedClasses) {
+        if (remoteCache.testPassed(cacheKeys.get(className))) {
+          printInGreen("Test passed (cached): " + className);
+        } else {
+          uncachedClasses.add(className);
+        }
+      }
+      Metrics.registry().counter("tests.cached").increment(selectedClasses.size() - uncachedClasses.size());
+      selectedClasses = uncachedClasses;
+      if (selectedClasses.isEmpty()) {
+        System.out.println("Every test class passed before with the same inputs.");
+        updateDependencyIndex(shard);
+        return allTestsPassed;
+      }
+    }
 
-      // Use JUnit ConsoleLauncher to run the test class dynamically
-      String[] args = new String[]{"--select-class", "stages." + testFile.trim()};
+    int parallelism = config.getInt("test.parallelism", Runtime.getRuntime().availableProcessors());
+    boolean parallel = config.getBoolean("test.parallel.enabled", true);
+    System.out.println("Running " + selectedClasses.size() + " test classes"
+        + (parallel ? " on " + parallelism + " threads" : "") + "...");
 
-      int exitCode = ConsoleLauncher.execute(System.out, System.err, args).getExitCode();
-      if (exitCode != 0) {
-        printInRed("Test failed: " + testFile.trim());
-        allTestsPassed = false;
-      } else {
-        printInGreen("Test passed: " + testFile.trim());
+    // Durations of previous runs order the classes longest-first and drive the time estimate
+    TestHistory history = TestHistory.load(config.getPath("test.history.file", DEFAULT_HISTORY_FILE));
+    Map<String, Long> expectedDurations = history.expectedClassDurations(selectedClasses);
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    parameters.put("junit.jupiter.execution.parallel.enabled", String.valueOf(parallel));
+    // Test classes run concurrently, the methods of one class keep running on the same thread
+    parameters.put("junit.jupiter.execution.parallel.mode.default", "same_thread");
+    parameters.put("junit.jupiter.execution.parallel.mode.classes.default", "concurrent");
+    parameters.put("junit.jupiter.execution.parallel.config.strategy", "fixed");
+    parameters.put("junit.jupiter.execution.parallel.config.fixed.parallelism", String.valueOf(parallelism));
+    parameters.put("junit.jupiter.testclass.order.default", LongestFirstClassOrderer.class.getName());
+
+    int workers = parallel ? parallelism : 1;
+    ClassProgressListener progressListener = null;
+    TestRunner.Result result = null;
+    try (Span span = Metrics.tracer().startSpan("run tests"); ProgressBar bar = Progress.bar(getName(), 0)) {
+      span.setAttribute("test.classes", selectedClasses.size());
+      RemoteExecutor remote = RemoteExecutor.fromConfig(config);
+      if (remote != null) {
+        progressListener = new ClassProgressListener(selectedClasses, expectedDurations, workers, bar);
+        try {
+          result = remote.runTests(classDirs(), selectedClasses, parameters, expectedDurations, progressListener);
+        } catch (IOException e) {
+          printInRed(e.getMessage() + ", running the tests in this process.");
+        }
+      }
+      if (result == null && config.getBoolean("test.daemon.enabled", false)) {
+        TestDaemonClient daemon = new TestDaemonClient(config.getPath("test.daemon.socket", DEFAULT_DAEMON_SOCKET),
+            config.getOverlays());
+        if (daemon.ensureRunning()) {
+          progressListener = new ClassProgressListener(selectedClasses, expectedDurations, workers, bar);
+          try {
+            result = daemon.run(classDirs(), selectedClasses, parameters, expectedDurations, progressListener);
+          } catch (IOException e) {
+            printInRed(e.getMessage() + ", running the tests in this process.");
+          }
+        } else {
+          System.out.println("No test daemon available, running the tests in this process.");
+        }
+      }
+      if (result == null) {
+        progressListener = new ClassProgressListener(selectedClasses, expectedDurations, workers, bar);
+        // The daemon and the remote workers receive the durations apart and add them the same way
+        parameters.put(LongestFirstClassOrderer.DURATIONS_PARAMETER,
+            LongestFirstClassOrderer.encode(expectedDurations));
+        LauncherSession session = LauncherPool.borrow();
+        try {
+          result = TestRunner.run(session, selectedClasses, parameters, progressListener);
+        } finally {
+          LauncherPool.release(session);
+        }
+      }
+      span.setStatus(result.failureCount() == 0, result.failureCount() + " failures");
+    }
+    Metrics.registry().counter("tests.run", "outcome", "passed").increment(result.succeeded());
+    Metrics.registry().counter("tests.run", "outcome", "failed").increment(result.failed());
+    Metrics.registry().counter("tests.run", "outcome", "skipped").increment(result.skipped());
+
+    try {
+      history.append(progressListener.getEntries());
+    } catch (IOException e) {
+      System.out.println("Could not record the test durations: " + e.getMessage());
+    }
+    if (!cacheKeys.isEmpty()) {
+      for (String className : progressListener.getPassedClasses()) {
+        remoteCache.storeTestPassed(cacheKeys.get(className), className);
       }
+    }
 
-      // Update progress bar after each test
-      completedTests++;
-      updateProgressBar(completedTests, totalTests);
+    System.out.println(result.succeeded() + " tests passed, " + result.failed() + " failed, "
+        + result.skipped() + " skipped.");
+    if (result.failureCount() > 0) {
+      System.out.print(result.failureReport());
+      allTestsPassed = false;
     }
 
+    if (allTestsPassed) {
+      updateDependencyIndex(shard);
+    }
     return allTestsPassed;
   }
 
   /**
-   * Updates the progress bar based on the number of completed tests.
+   * Computes the cache key of every test class from the contents of "test.classes.dirs".
+   *
+   * @param classNames The test classes to run.
+   * @return The key of each class, or an empty map if the classes cannot be read.
+   */
+  private Map<String, String> testCacheKeys(List<String> classNames) {
+    String classes;
+    try {
+      classes = BuildCache.classesDigest(classDirs());
+    } catch (IOException e) {
+      System.out.println("Could not hash the test classes, running every test: " + e.getMessage());
+      return Map.of();
+    }
+    Map<String, String> keys = new HashMap<>();
+    for (String className : classNames) {
+      keys.put(className, BuildCache.testKey(className, classes));
+    }
+    return keys;
+  }
+
+  /**
+   * Keeps only the test classes whose transitive dependencies changed since the last deployed
+   * commit (or, if nothing was deployed yet, since the last green run). Every test class is kept
+   * when the dependency index is missing, git cannot list the changes, or a file other than a
+   * Java source changed (build files, resources...), since its impact cannot be traced.
    *
-   * @param completedTests The number of tests completed.
-   * @param totalTests The total number of tests to run.
+   * @param classNames The configured test classes.
+   * @return The test classes to run.
    */
-  private static void updateProgressBar(int completedTests, int totalTests) {
-    int progressPercentage = (completedTests * 100) / totalTests;
-    final int progressBarLength = 50;  // Length of the progress bar
+  private List<String> selectAffectedTests(List<String> classNames) {
+    DependencyIndex index = DependencyIndex.load(config.getPath("test.index.file", DEFAULT_INDEX_FILE));
+    if (index == null) {
+      System.out.println("No test dependency index yet, running all tests.");
+      return classNames;
+    }
+
+    String base = GitChanges.readCommit(config.getPath("deploy.lastCommitFile", DEFAULT_LAST_DEPLOY_FILE));
+    if (base == null) {
+      base = index.getCommit();
+    }
+    List<String> changedFiles = GitChanges.changedFiles(config.getDirectory(), base);
+    if (changedFiles == null) {
+      System.out.println("Cannot list the changes since " + base + ", running all tests.");
+      return classNames;
+    }
+
+    List<String> selected = testsAffectedBy(index, classNames, changedFiles);
+    System.out.println("Test impact analysis: " + selected.size() + " of " + classNames.size()
+        + " test classes affected by " + changedFiles.size() + " changed files since " + base + ".");
+    return selected;
+  }
 
-    StringBuilder progressBar = new StringBuilder("[");
-    int filledLength = (progressPercentage * progressBarLength) / 100;
+  /**
+   * Keeps only the test classes whose transitive dependencies are among the files that changed
+   * while watching. Every test class is kept when the dependency index is missing.
+   *
+   * @param classNames The configured test classes.
+   * @return The test classes to run.
+   */
+  private List<String> selectChangedTests(List<String> classNames) {
+    DependencyIndex index = DependencyIndex.load(config.getPath("test.index.file", DEFAULT_INDEX_FILE));
+    if (index == null) {
+      System.out.println("No test dependency index yet, running all tests.");
+      return classNames;
+    }
+    List<String> selected = testsAffectedBy(index, classNames, changedFiles);
+    System.out.println("Test impact analysis: " + selected.size() + " of " + classNames.size()
+        + " test classes affected by " + changedFiles.size() + " changed files.");
+    return selected;
+  }
 
-    // Fill the progress bar with '=' and ' ' for incomplete sections
-    for (int i = 0; i < progressBarLength; i++) {
-      if (i < filledLength) {
-        progressBar.append("=");
+  /**
+   * Finds the test classes that can reach a changed file. A Java source maps to the classes
+   * compiled from it, and a class file below "test.classes.dirs" to its class. Every test class
+   * is kept when any other file changed (build files, resources...), since its impact cannot be traced.
+   *
+   * @param index The dependency index.
+   * @param classNames The configured test classes.
+   * @param changedFiles The changed files, relative to the project directory.
+   * @return The affected test classes, in configuration order.
+   */
+  private List<String> testsAffectedBy(DependencyIndex index, List<String> classNames, List<String> changedFiles) {
+    List<String> ignored = config.getList("test.impact.ignore", DEFAULT_IMPACT_IGNORE);
+    Set<String> changedClasses = new HashSet<>();
+    for (String file : changedFiles) {
+      if (isIgnored(file, ignored)) {
+        continue;
+      }
+      String compiledClass = compiledClassName(file);
+      if (compiledClass != null) {
+        changedClasses.add(compiledClass);
+      } else if (file.endsWith(".java")) {
+        changedClasses.addAll(index.classesForSource(file));
       } else {
-        progressBar.append(" ");
+        System.out.println("Changed file " + file + " is not a Java source, running all tests.");
+        return classNames;
+      }
+    }
+
+    // Test classes missing from the index are new and always run
+    Set<String> affected = index.affectedTests(classNames, changedClasses);
+    List<String> selected = new ArrayList<>();
+    for (String className : classNames) {
+      if (affected.contains(className) || changedClasses.contains(className) || !index.contains(className)) {
+        selected.add(className);
       }
     }
+    return selected;
+  }
+
+  /**
+   * Returns the class of a class file below one of the class directories.
+   * Nested classes map to their top-level class, which the index tracks.
+   *
+   * @param file The changed file.
+   * @return The fully qualified class name, or null if the file is not a class file of a class directory.
+   */
+  private String compiledClassName(String file) {
+    if (!file.endsWith(".class")) {
+      return null;
+    }
+    Path path = config.resolve(file).toAbsolutePath().normalize();
+    for (Path classDir : classDirs()) {
+      Path dir = classDir.toAbsolutePath().normalize();
+      if (path.startsWith(dir)) {
+        String name = dir.relativize(path).toString().replace('\\', '/');
+        name = name.substring(0, name.length() - ".class".length());
+        int nested = name.indexOf('$');
+        return (nested >= 0 ? name.substring(0, nested) : name).replace('/', '.');
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether a changed file is listed in "test.impact.ignore".
+   * Entries ending with "/" match every file below that directory.
+   *
+   * @param file The changed file.
+   * @param ignored The ignored files and directories.
+   * @return true if the change cannot affect any test.
+   */
+  private static boolean isIgnored(String file, List<String> ignored) {
+    for (String entry : ignored) {
+      if (file.equals(entry) || (entry.endsWith("/") && file.startsWith(entry))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rebuilds the dependency index from the compiled classes after a green run of the whole suite.
+   * A single shard passing says nothing about the other shards, so sharded runs leave it alone.
+   *
+   * @param shard The shard that was run.
+   */
+  private void updateDependencyIndex(Shard shard) {
+    if (shard.count() > 1) {
+      return;
+    }
+    String commit = GitChanges.headCommit(config.getDirectory());
+    if (commit == null) {
+      return;
+    }
+
+    try {
+      DependencyIndex.build(classDirs(), commit).save(config.getPath("test.index.file", DEFAULT_INDEX_FILE));
+    } catch (IOException e) {
+      System.out.println("Could not update the test dependency index: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the directories holding the compiled test classes and the code under test.
+   *
+   * @return The directories listed in "test.classes.dirs".
+   */
+  private List<Path> classDirs() {
+    List<Path> classDirs = new ArrayList<>();
+    for (String dir : config.getList("test.classes.dirs", DEFAULT_CLASSES_DIRS)) {
+      classDirs.add(config.resolve(dir));
+    }
+    return classDirs;
+  }
+
+  /**
+   * Returns the class directories as URLs, for a class loader.
+   *
+   * @return The directories listed in "test.classes.dirs".
+   * @throws IOException if a directory cannot be turned into a URL.
+   */
+  private URL[] classDirUrls() throws IOException {
+    List<Path> classDirs = classDirs();
+    URL[] urls = new URL[classDirs.size()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = classDirs.get(i).toUri().toURL();
+    }
+    return urls;
+  }
+
+  /**
+   * Checks whether a test class can be loaded.
+   *
+   * @param className The fully qualified class name.
+   * @return true if the class is on the classpath.
+   */
+  private static boolean isLoadable(String className) {
+    try {
+      Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * A slice of the test classes, so several pipeline processes can split the test stage.
+   * Shards are numbered from 1 to count; the classes are sorted by name and dealt out in turn.
+   *
+   * @param index The 1-based number of this shard.
+   * @param count The total number of shards.
+   */
+  public record Shard(int index, int count) {
+
+    /** The single shard holding every test class. */
+    public static final Shard ALL = new Shard(1, 1);
+
+    public Shard {
+      if (count < 1 || index < 1 || index > count) {
+        throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+      }
+    }
+
+    /**
+     * Parses a shard written as "i/n" (e.g., "2/4").
+     *
+     * @param value The shard specification.
+     * @return The parsed shard.
+     * @throws IllegalArgumentException if the value is not two numbers i/n with 1 <= i <= n.
+     */
+    public static Shard parse(String value) {
+      String[] parts = value.trim().split("/");
+      try {
+        if (parts.length == 2) {
+          return new Shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+      } catch (NumberFormatException e) {
+        // Reported below, with the whole value
+      }
+      throw new IllegalArgumentException("Shard must be written as i/n, got: " + value);
+    }
+
+    /**
+     * Selects the test classes belonging to this shard.
+     *
+     * @param classNames Every test class.
+     * @return The test classes of this shard, sorted by name.
+     */
+    public List<String> select(List<String> classNames) {
+      List<String> sorted = new ArrayList<>(classNames);
+      Collections.sort(sorted);
+      List<String> selected = new ArrayList<>();
+      for (int i = index - 1; i < sorted.size(); i += count) {
+        selected.add(sorted.get(i));
+      }
+      return selected;
+    }
+
+    @Override
+    public String toString() {
+      return index + "/" + count;
+    }
+  }
+
+  /**
+   * Reports each test class as it finishes, collects the duration and outcome of every class
+   * and method for the test history, and advances the progress bar.
+   * Progress is weighted by the expected duration of each class, so the bar and the remaining
+   * time follow the work left rather than the number of finished classes.
+   * Tests finish on several threads at once, so the callbacks are synchronized.
+   */
+  private static class ClassProgressListener implements Consumer<TestHistory.Entry> {
+    private static final long DEFAULT_EXPECTED_NANOS = 1_000_000_000L;
+
+    private final Set<String> classNames;
+    private final Map<String, Long> expectedNanos = new HashMap<>();
+    private final boolean hasHistory;
+    private final int workers;
+    private final ProgressBar progress;
+    private final List<TestHistory.Entry> entries = new ArrayList<>();
+    private final Set<String> classesWithFailures = new HashSet<>();
+    private final List<String> passedClasses = new ArrayList<>();
+    private long totalExpectedNanos;
+    private long finishedExpectedNanos;
+    private int finishedClasses;
+
+    ClassProgressListener(List<String> classNames, Map<String, Long> history, int workers, ProgressBar progress) {
+      this.classNames = new HashSet<>(classNames);
+      this.workers = workers;
+      this.progress = progress;
+      this.hasHistory = !history.isEmpty();
+
+      // Classes without history are expected to take as long as the average known class
+      long knownAverage = history.isEmpty() ? DEFAULT_EXPECTED_NANOS
+          : history.values().stream().mapToLong(Long::longValue).sum() / history.size();
+      for (String className : this.classNames) {
+        long expected = Math.max(1, history.getOrDefault(className, knownAverage));
+        expectedNanos.put(className, expected);
+        totalExpectedNanos += expected;
+      }
+      progress.set(0);
+      progress.setTotal(totalExpectedNanos);
+      progress.setItems(0, this.classNames.size());
+    }
+
+    @Override
+    public void accept(TestHistory.Entry entry) {
+      TestHistory.Outcome classOutcome = record(entry);
+      // Printed outside the lock, so a slow console never holds back the other test threads
+      if (classOutcome == TestHistory.Outcome.SUCCESSFUL) {
+        printInGreen("Test passed: " + entry.className());
+      } else if (classOutcome != null) {
+        printInRed("Test failed: " + entry.className());
+      }
+    }
+
+    /**
+     * Records an entry and, when a test class finished, advances the progress bar.
+     *
+     * @param entry The duration and outcome of a class or method.
+     * @return The outcome of the class if the entry finishes a test class, null otherwise.
+     */
+    private synchronized TestHistory.Outcome record(TestHistory.Entry entry) {
+      entries.add(entry);
+      String className = entry.className();
+      if (entry.outcome() == TestHistory.Outcome.FAILED) {
+        classesWithFailures.add(className);
+      }
+      if (!entry.methodName().isEmpty() || !classNames.contains(className)) {
+        return null;
+      }
+
+      finishedClasses++;
+      finishedExpectedNanos += expectedNanos.get(className);
+      long remainingNanos = totalExpectedNanos - finishedExpectedNanos;
+      int busyWorkers = Math.max(1, Math.min(workers, classNames.size() - finishedClasses));
+      progress.setRemainingMillis(hasHistory ? remainingNanos / busyWorkers / 1_000_000 : -1);
+      progress.setItems(finishedClasses, classNames.size());
+      progress.set(finishedExpectedNanos);
+
+      // A class whose methods failed still finishes successfully as a container
+      if (entry.outcome() == TestHistory.Outcome.SUCCESSFUL && !classesWithFailures.contains(className)) {
+        passedClasses.add(className);
+        return TestHistory.Outcome.SUCCESSFUL;
+      }
+      return TestHistory.Outcome.FAILED;
+    }
+
+    /**
+     * Returns the recorded durations and outcomes.
+     *
+     * @return The entries of this run.
+     */
+    synchronized List<TestHistory.Entry> getEntries() {
+      return new ArrayList<>(entries);
+    }
 
-    progressBar.append("] ").append(progressPercentage).append("%");
-    System.out.print("\r" + progressBar.toString());
-    if (progressPercentage == 100) {
-      System.out.println();  // Print a new line when progress is complete
+    /**
+     * Returns the test classes that finished without a failure.
+     *
+     * @return The passed classes, in the order they finished.
+     */
+    synchronized List<String> getPassedClasses() {
+      return new ArrayList<>(passedClasses);
     }
   }
 
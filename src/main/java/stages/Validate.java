@@ -1,25 +1,365 @@
 package stages;
 
-import java.io.BufferedReader;
+import golden.Fixture;
+import metrics.Metrics;
+import metrics.Span;
+import metrics.Tracer;
+import perf.PerfBaseline;
+import perf.PerfMetrics;
+import perf.ProcessProbe;
+import pipeline.OutputLine;
+import pipeline.OutputSink;
+import pipeline.PipelineConfig;
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+import pipeline.TaskExecutors;
+import progress.Progress;
+import progress.ProgressBar;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
- * The Validate class handles the validation of a program by running it and asking the user
- * if it worked as intended. If the program runs successfully and the user confirms, the validation is considered successful.
+ * The Validate class handles the validation of a program by running it.
+ * By default ("golden" mode) the configured main class is run against every recorded fixture
+ * (input, arguments, expected output, exit code and duration) and its output is compared to the
+ * golden files, so the stage runs unattended. Each run is also measured (wall time, CPU time, peak
+ * RSS and garbage collections) and fails the stage when it regresses past the stored baseline.
+ * In "interactive" mode the program is run once and
+ * the user is asked if it worked as intended.
  */
-public class Validate {
+public class Validate implements Stage {
+
+  private static final String ANSI_RESET = "\u001B[0m";
+  private static final String ANSI_GREEN = "\u001B[32m";
+  private static final String ANSI_RED = "\u001B[31m";
+
+  private static final String DEFAULT_CLASSPATH = "target/classes";
+  private static final String DEFAULT_FIXTURES_DIR = "src/test/fixtures";
+  private static final int DEFAULT_TIMEOUT_SECONDS = 60;
+  // A fixture may run this many percent slower than its recorded duration
+  private static final int DEFAULT_TIMING_TOLERANCE = 200;
+  // Added to every time limit, so short runs are not failed by JVM startup jitter
+  private static final long TIMING_SLACK_MILLIS = 100;
+  private static final int MAX_OUTPUT_LINES = 100_000;
+  private static final int MAX_ERROR_LINES = 10;
+
+  private static final String DEFAULT_PERF_BASELINE_FILE = ".pipeline-cache/perf-baseline.properties";
+  private static final String DEFAULT_PERF_DIR = ".pipeline-cache/perf";
+  private static final int DEFAULT_PERF_RUNS = 1;
+  // Allowed increase over the baseline, in percent
+  private static final Map<PerfMetrics.Metric, Integer> DEFAULT_PERF_TOLERANCES = Map.of(
+      PerfMetrics.Metric.WALL, 50, PerfMetrics.Metric.CPU, 50, PerfMetrics.Metric.RSS, 30,
+      PerfMetrics.Metric.GC, 100);
+  // Absolute allowance on top of the percentage, so short runs are not failed by noise
+  private static final Map<PerfMetrics.Metric, Long> PERF_SLACK = Map.of(
+      PerfMetrics.Metric.WALL, 100L, PerfMetrics.Metric.CPU, 100L, PerfMetrics.Metric.RSS, 16_384L,
+      PerfMetrics.Metric.GC, 2L);
+
+  private final PipelineConfig config;
+
+  /**
+   * Constructor for the Validate class.
+   *
+   * @param config The pipeline configuration holding the validated main class and fixtures.
+   */
+  public Validate(PipelineConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Returns the name of this stage in config.properties.
+   *
+   * @return "validate"
+   */
+  @Override
+  public String getName() {
+    return "validate";
+  }
+
+  /**
+   * Runs the validation stage.
+   *
+   * @return true if the program was validated, false otherwise.
+   */
+  @Override
+  public boolean execute() {
+    if (config.get("validate.mode", "golden").equals("interactive")) {
+      return validateProgram();
+    }
+    return validateFixtures();
+  }
+
+  /**
+   * Runs the program against every fixture, in parallel, and compares the outcomes with the
+   * golden files. With "validate.record=true", the outcomes (and the performance baseline) are
+   * recorded as the new golden files instead; fixtures without a golden output are always recorded.
+   *
+   * @return true if every fixture passed (or there are none), false otherwise.
+   */
+  public boolean validateFixtures() {
+    Path fixturesDir = config.getPath("validate.fixtures.dir", DEFAULT_FIXTURES_DIR);
+    List<Fixture> fixtures;
+    try {
+      fixtures = Fixture.loadAll(fixturesDir);
+    } catch (IOException e) {
+      printInRed("Cannot read the validation fixtures: " + e.getMessage());
+      return false;
+    }
+    if (fixtures.isEmpty()) {
+      System.out.println("No validation fixtures in " + fixturesDir + ", skipping validation.");
+      return true;
+    }
+    if (mainClass().isEmpty()) {
+      printInRed("validate.mainClass is not set, cannot run the " + fixtures.size() + " validation fixtures.");
+      return false;
+    }
+
+    boolean record = config.getBoolean("validate.record", false);
+    Path baselineFile = config.getPath("validate.perf.baseline.file", DEFAULT_PERF_BASELINE_FILE);
+    PerfBaseline baseline = config.getBoolean("validate.perf.enabled", true) ? PerfBaseline.load(baselineFile) : null;
+    System.out.println((record ? "Recording " : "Validating ") + fixtures.size() + " fixtures of "
+        + mainClass() + "...");
+
+    int parallelism = config.getInt("validate.parallelism", Runtime.getRuntime().availableProcessors());
+    // Closing the scope kills the programs still running when the stage is cancelled
+    try (ExecutorService workers = TaskExecutors.newScope("validate", Math.min(parallelism, fixtures.size()));
+         ProgressBar bar = Progress.bar(getName(), fixtures.size())) {
+      List<Callable<Outcome>> runs = new ArrayList<>();
+      for (Fixture fixture : fixtures) {
+        runs.add(Tracer.wrap(() -> {
+          try (Span span = Metrics.tracer().startSpan("fixture " + fixture.name())) {
+            Outcome outcome = runFixture(fixture, record || !fixture.isRecorded(), baseline);
+            span.setStatus(outcome.passed(), "fixture failed");
+            bar.advance();
+            return outcome;
+          }
+        }));
+      }
+
+      // Reported in fixture order, whatever order they finished in
+      int failed = 0;
+      for (Future<Outcome> future : workers.invokeAll(runs)) {
+        Outcome outcome = future.get();
+        Metrics.registry().counter("validate.fixtures", "outcome", outcome.passed() ? "passed" : "failed").increment();
+        if (outcome.passed()) {
+          printInGreen("Fixture passed: " + outcome.name() + outcome.report());
+        } else {
+          printInRed("Fixture failed: " + outcome.name());
+          System.out.print(outcome.report());
+          failed++;
+        }
+      }
+
+      System.out.println((fixtures.size() - failed) + " fixtures passed, " + failed + " failed.");
+      if (baseline != null) {
+        baseline.save(baselineFile);
+      }
+      return failed == 0;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (IOException e) {
+      printInRed("Cannot save the performance baseline: " + e.getMessage());
+      return false;
+    } catch (ExecutionException e) {
+      printInRed("Validation failed: " + e.getCause());
+      return false;
+    }
+  }
+
+  /**
+   * Runs the program with the input and arguments of a fixture and checks its exit code, output,
+   * duration and resource usage, or records them.
+   *
+   * @param fixture The fixture.
+   * @param record true to record the outcome as the golden files.
+   * @param baseline The performance baseline, or null when the program is not measured.
+   * @return The outcome.
+   * @throws IOException if the program cannot be started or the golden files cannot be written.
+   * @throws InterruptedException if the stage is cancelled.
+   */
+  private Outcome runFixture(Fixture fixture, boolean record, PerfBaseline baseline)
+      throws IOException, InterruptedException {
+    int timeout = config.getInt("validate.timeout", DEFAULT_TIMEOUT_SECONDS);
+    int runs = baseline == null ? 1 : config.getInt("validate.perf.runs", DEFAULT_PERF_RUNS);
+    List<PerfMetrics> measured = new ArrayList<>();
+    ProcessResult result = null;
+    for (int run = 0; run < runs; run++) {
+      ProcessProbe probe = baseline == null ? null : newProbe(fixture);
+      ProcessResult current = launch(fixture, probe, timeout);
+      if (probe != null) {
+        measured.add(probe.finish(current.durationNanos()));
+      }
+      if (result == null) {
+        result = current;  // The output and exit code of the first run are checked
+      }
+      if (!current.success() && current.exitCode() != fixture.expectedExitCode()) {
+        break;  // No point measuring a run that fails anyway
+      }
+    }
+    long millis = result.durationNanos() / 1_000_000;
+    List<String> output = result.lines().stream()
+        .filter(line -> line.stream() == OutputLine.Stream.STDOUT)
+        .map(OutputLine::text)
+        .toList();
+
+    if (result.timedOut()) {
+      return new Outcome(fixture.name(), false, "  Timed out after " + timeout + " s.\n" + errors(result));
+    }
+    if (result.droppedLines() > 0) {
+      return new Outcome(fixture.name(), false, "  The program printed more than " + MAX_OUTPUT_LINES
+          + " lines.\n");
+    }
+    PerfMetrics metrics = measured.isEmpty() ? null : PerfMetrics.median(measured);
+    if (record) {
+      fixture.record(output, result.exitCode(), millis);
+      if (metrics != null) {
+        baseline.put(fixture.name(), metrics);
+      }
+      return new Outcome(fixture.name(), true, " (recorded, " + (metrics != null ? metrics : millis + " ms") + ")");
+    }
+
+    String mismatches = fixture.compare(output, result.exitCode(), errors(result));
+    if (!mismatches.isEmpty()) {
+      return new Outcome(fixture.name(), false, mismatches);
+    }
+
+    // Timings are only compared once the run is known to be correct
+    StringBuilder report = new StringBuilder(fixture.compareTiming(millis,
+        config.getInt("validate.timing.tolerance", DEFAULT_TIMING_TOLERANCE), TIMING_SLACK_MILLIS));
+    String summary = metrics != null ? metrics.toString() : millis + " ms";
+    if (metrics != null) {
+      PerfMetrics reference = baseline.get(fixture.name());
+      if (reference == null) {
+        if (report.isEmpty()) {
+          baseline.put(fixture.name(), metrics);  // Never taken from a failing run
+          summary += ", baseline recorded";
+        }
+      } else {
+        for (String regression : PerfBaseline.regressions(reference, metrics, tolerances())) {
+          report.append("  Performance regression: ").append(regression).append(".\n");
+        }
+      }
+    }
+    return report.isEmpty()
+        ? new Outcome(fixture.name(), true, " (" + summary + ")")
+        : new Outcome(fixture.name(), false, report.toString());
+  }
+
+  /**
+   * Runs the program once with the input and arguments of a fixture.
+   *
+   * @param fixture The fixture.
+   * @param probe The probe measuring the run, or null.
+   * @param timeout The timeout in seconds.
+   * @return The result of the run.
+   * @throws IOException if the program cannot be started.
+   * @throws InterruptedException if the stage is cancelled.
+   */
+  private ProcessResult launch(Fixture fixture, ProcessProbe probe, int timeout)
+      throws IOException, InterruptedException {
+    ProcessRunner runner = new ProcessRunner(command(probe != null ? probe.jvmOptions() : List.of(), fixture.args()))
+        .directory(config.getDirectory().toAbsolutePath())
+        .input(fixture.input())
+        .timeout(Duration.ofSeconds(timeout))
+        .bufferLines(MAX_OUTPUT_LINES);
+    if (probe != null) {
+      runner.onStart(probe::attach);
+    }
+    return runner.run();
+  }
+
+  /**
+   * Creates the probe measuring one run of a fixture.
+   *
+   * @param fixture The fixture.
+   * @return The probe.
+   * @throws IOException if its GC log cannot be created.
+   */
+  private ProcessProbe newProbe(Fixture fixture) throws IOException {
+    Path perfDir = config.getPath("validate.perf.dir", DEFAULT_PERF_DIR);
+    Path jfrFile = config.getBoolean("validate.perf.jfr", false) ? perfDir.resolve(fixture.name() + ".jfr") : null;
+    return new ProcessProbe(perfDir, jfrFile);
+  }
+
+  /**
+   * Reads the tolerance of every compared metric.
+   *
+   * @return The tolerances, by metric.
+   */
+  private Map<PerfMetrics.Metric, PerfBaseline.Tolerance> tolerances() {
+    Map<PerfMetrics.Metric, PerfBaseline.Tolerance> tolerances = new EnumMap<>(PerfMetrics.Metric.class);
+    for (PerfMetrics.Metric metric : PerfMetrics.Metric.values()) {
+      int percent = config.getInt("validate.perf.tolerance." + metric.key(), DEFAULT_PERF_TOLERANCES.get(metric));
+      tolerances.put(metric, new PerfBaseline.Tolerance(percent, PERF_SLACK.get(metric)));
+    }
+    return tolerances;
+  }
+
+  /**
+   * Builds the command running the configured main class.
+   *
+   * @param jvmOptions The JVM options.
+   * @param args The program arguments.
+   * @return The command and its arguments.
+   */
+  private List<String> command(List<String> jvmOptions, List<String> args) {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(config.get("validate.classpath", DEFAULT_CLASSPATH));
+    command.add(mainClass());
+    command.addAll(args);
+    return command;
+  }
+
+  /**
+   * Returns the validated main class.
+   *
+   * @return The class name, or an empty string when it is not set.
+   */
+  private String mainClass() {
+    return config.get("validate.mainClass", "");
+  }
+
+  /**
+   * Returns the last lines the program printed to its standard error.
+   *
+   * @param result The result of the program.
+   * @return The lines, indented, or an empty string.
+   */
+  private static String errors(ProcessResult result) {
+    List<String> errors = result.lines().stream()
+        .filter(line -> line.stream() == OutputLine.Stream.STDERR)
+        .map(OutputLine::text)
+        .toList();
+    return String.join("\n", errors.subList(Math.max(0, errors.size() - MAX_ERROR_LINES), errors.size()))
+        .indent(4);
+  }
 
   /**
    * Runs the program and prompts the user for validation input after it finishes running.
+   * Only used when "validate.mode" is "interactive", since it waits for the user.
    *
    * @return true if the program ran successfully and the user confirms it worked as intended, false otherwise.
    */
-  public static boolean validateProgram() {
+  public boolean validateProgram() {
     System.out.println("Starting program validation...");
 
-    // Run the program (assuming it's a Java program for this example)
+    // Run the program with the console attached
     boolean programRanSuccessfully = runProgram();
 
     if (programRanSuccessfully) {
@@ -32,30 +372,36 @@ public class Validate {
   }
 
   /**
-   * Runs the Java program using the ProcessBuilder.
-   * The program's output is inherited by the current process, so it's shown in the console.
+   * Runs the configured main class through the ProcessRunner.
+   * The program's output is streamed to the console as it runs, and it reads the console input.
    *
    * @return true if the program runs and exits successfully, false otherwise.
    */
-  private static boolean runProgram() {
+  private boolean runProgram() {
+    if (mainClass().isEmpty()) {
+      System.out.println("validate.mainClass is not set.");
+      return false;
+    }
     try {
-      // Command to run the Java program (replace 'YourMainClass' with the actual class)
-      ProcessBuilder processBuilder = new ProcessBuilder("java", "-cp", "target/classes", "stages.YourMainClass");
-      processBuilder.inheritIO();  // This will redirect program output to the console
+      ProcessResult result = new ProcessRunner(command(List.of(), List.of()))
+          .directory(config.getDirectory().toAbsolutePath())
+          .inheritInput()
+          .sink(OutputSink.console(""))
+          .run();
 
-      Process process = processBuilder.start();
-      int exitCode = process.waitFor();
-
-      if (exitCode == 0) {
+      if (result.success()) {
         System.out.println("Program finished successfully.");
         return true;
       } else {
         System.out.println("Program exited with errors.");
         return false;
       }
-    } catch (IOException | InterruptedException e) {
+    } catch (IOException e) {
       e.printStackTrace();
       return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
@@ -78,4 +424,32 @@ public class Validate {
       return false;  // Validation failed
     }
   }
+
+  /**
+   * Prints the provided message in green text.
+   *
+   * @param message The message to print in green.
+   */
+  private static void printInGreen(String message) {
+    System.out.println(ANSI_GREEN + message + ANSI_RESET);
+  }
+
+  /**
+   * Prints the provided message in red text.
+   *
+   * @param message The message to print in red.
+   */
+  private static void printInRed(String message) {
+    System.out.println(ANSI_RED + message + ANSI_RESET);
+  }
+
+  /**
+   * The outcome of one fixture.
+   *
+   * @param name The fixture name.
+   * @param passed true if the fixture passed (or was recorded).
+   * @param report The details printed after the fixture name.
+   */
+  private record Outcome(String name, boolean passed, String report) {
+  }
 }
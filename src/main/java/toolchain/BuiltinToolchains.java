@@ -0,0 +1,277 @@
+package toolchain;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The toolchains shipped with the pipeline, one nested class per language.
+ * Each one invokes the real compiler or interpreter found on the PATH; interpreted
+ * languages are syntax-checked without being run.
+ */
+public final class BuiltinToolchains {
+
+    private BuiltinToolchains() {
+    }
+
+    /**
+     * Creates a mutable command line from its parts.
+     * @param parts The command and its first arguments.
+     * @return The command line.
+     */
+    private static List<String> args(String... parts) {
+        return new ArrayList<>(Arrays.asList(parts));
+    }
+
+    /** Compiles Java files by running javac, used when the JVM has no in-process compiler. */
+    public static final class Java extends ProcessToolchain {
+        public Java() {
+            super("java", true, ".java");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("javac", "-cp", classPath.toString(), "-d", outputDir.toString()), sources);
+        }
+    }
+
+    /** Byte-compiles Python files into the output directory. */
+    public static final class Python extends ProcessToolchain {
+        public Python() {
+            super("python", false, ".py");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            Path source = sources.get(0);
+            return args("python3", "-c",
+                    "import py_compile, sys; py_compile.compile(sys.argv[1], cfile=sys.argv[2], doraise=True)",
+                    source.toString(), outputDir.resolve(baseName(source) + ".pyc").toString());
+        }
+    }
+
+    /** Syntax-checks JavaScript files with node. */
+    public static final class JavaScript extends ProcessToolchain {
+        public JavaScript() {
+            super("javascript", false, ".js");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("node", "--check"), sources);
+        }
+    }
+
+    /** Transpiles TypeScript files with tsc. */
+    public static final class TypeScript extends ProcessToolchain {
+        public TypeScript() {
+            super("typescript", true, ".ts");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("tsc", "--outDir", outputDir.toString()), sources);
+        }
+    }
+
+    /** Compiles C files into object files with gcc. */
+    public static final class C extends ProcessToolchain {
+        public C() {
+            super("c", false, ".c");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            Path source = sources.get(0);
+            return args("gcc", "-c", source.toString(), "-o", outputDir.resolve(baseName(source) + ".o").toString());
+        }
+    }
+
+    /** Compiles C++ files into object files with g++. */
+    public static final class Cpp extends ProcessToolchain {
+        public Cpp() {
+            super("c++", false, ".cpp");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            Path source = sources.get(0);
+            return args("g++", "-c", source.toString(), "-o", outputDir.resolve(baseName(source) + ".o").toString());
+        }
+    }
+
+    /** Compiles C# files into a library with csc. */
+    public static final class CSharp extends ProcessToolchain {
+        public CSharp() {
+            super("c#", false, ".cs");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            Path source = sources.get(0);
+            return args("csc", "-nologo", "-target:library",
+                    "-out:" + outputDir.resolve(baseName(source) + ".dll"), source.toString());
+        }
+    }
+
+    /** Syntax-checks Ruby files. */
+    public static final class Ruby extends ProcessToolchain {
+        public Ruby() {
+            super("ruby", false, ".rb");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("ruby", "-c"), sources);
+        }
+    }
+
+    /** Lints PHP files. */
+    public static final class Php extends ProcessToolchain {
+        public Php() {
+            super("php", false, ".php");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("php", "-l"), sources);
+        }
+    }
+
+    /** Type-checks Swift files with swiftc. */
+    public static final class Swift extends ProcessToolchain {
+        public Swift() {
+            super("swift", true, ".swift");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("swiftc", "-typecheck"), sources);
+        }
+    }
+
+    /** Builds Go files with the go tool. */
+    public static final class Go extends ProcessToolchain {
+        public Go() {
+            super("go", false, ".go");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            Path source = sources.get(0);
+            return args("go", "build", "-o", outputDir.resolve(baseName(source)).toString(), source.toString());
+        }
+    }
+
+    /** Compiles Kotlin files with kotlinc. */
+    public static final class Kotlin extends ProcessToolchain {
+        public Kotlin() {
+            super("kotlin", true, ".kt");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("kotlinc", "-cp", classPath.toString(), "-d", outputDir.toString()), sources);
+        }
+    }
+
+    /** Compiles Rust files into libraries with rustc. */
+    public static final class Rust extends ProcessToolchain {
+        public Rust() {
+            super("rust", false, ".rs");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("rustc", "--crate-type", "lib", "--out-dir", outputDir.toString()), sources);
+        }
+    }
+
+    /** Syntax-checks Bash scripts. */
+    public static final class Bash extends ProcessToolchain {
+        public Bash() {
+            super("bash", false, ".sh");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("bash", "-n"), sources);
+        }
+    }
+
+    /** Parses R scripts with Rscript. */
+    public static final class R extends ProcessToolchain {
+        public R() {
+            super("r", false, ".r", ".R");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("Rscript", "-e", "invisible(parse(file = commandArgs(TRUE)[1]))"), sources);
+        }
+    }
+
+    /** Syntax-checks Perl scripts. */
+    public static final class Perl extends ProcessToolchain {
+        public Perl() {
+            super("perl", false, ".pl");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("perl", "-c"), sources);
+        }
+    }
+
+    /** Compiles Scala files with scalac. */
+    public static final class Scala extends ProcessToolchain {
+        public Scala() {
+            super("scala", true, ".scala");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("scalac", "-classpath", classPath.toString(), "-d", outputDir.toString()), sources);
+        }
+    }
+
+    /** Compiles Dart files into kernel snapshots. */
+    public static final class Dart extends ProcessToolchain {
+        public Dart() {
+            super("dart", false, ".dart");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            Path source = sources.get(0);
+            return args("dart", "compile", "kernel", "-o", outputDir.resolve(baseName(source) + ".dill").toString(),
+                    source.toString());
+        }
+    }
+
+    /** Compiles Haskell files with ghc. */
+    public static final class Haskell extends ProcessToolchain {
+        public Haskell() {
+            super("haskell", false, ".hs");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("ghc", "-c", "-odir", outputDir.toString(), "-hidir", outputDir.toString()),
+                    sources);
+        }
+    }
+
+    /** Compiles Elixir files with elixirc. */
+    public static final class Elixir extends ProcessToolchain {
+        public Elixir() {
+            super("elixir", true, ".ex");
+        }
+
+        @Override
+        protected List<String> command(List<Path> sources, Path outputDir, Path classPath) {
+            return withSources(args("elixirc", "-pa", classPath.toString(), "-o", outputDir.toString()), sources);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package toolchain;
+
+import java.nio.file.Path;
+
+/**
+ * A single compiler message (error, warning or note) attached to a source position.
+ * @param source The source file the message refers to, or null if it is not tied to a file.
+ * @param line The line number, or -1 if unknown.
+ * @param column The column number, or -1 if unknown.
+ * @param kind The severity of the message.
+ * @param message The message reported by the compiler.
+ */
+public record CompileDiagnostic(Path source, long line, long column, Kind kind, String message) {
+
+    /**
+     * The severity of a compiler message.
+     */
+    public enum Kind {
+        ERROR,
+        WARNING,
+        NOTE
+    }
+
+    @Override
+    public String toString() {
+        String position = source == null ? "" : source + (line > 0 ? ":" + line : "") + ": ";
+        return position + kind.name().toLowerCase() + ": " + message;
+    }
+}
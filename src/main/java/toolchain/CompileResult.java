@@ -0,0 +1,26 @@
+package toolchain;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The outcome of compiling one source file.
+ * @param source The source file.
+ * @param success true if the file compiled successfully.
+ * @param output The compiler output (errors, warnings) for this file.
+ * @param diagnostics The compiler messages for this file, when the toolchain reports them structurally.
+ * @param artifacts The files produced for this source, relative to the output directory.
+ */
+public record CompileResult(Path source, boolean success, String output, List<CompileDiagnostic> diagnostics,
+                            List<Path> artifacts) {
+
+    /**
+     * Creates a result for a toolchain that only reports plain text output.
+     * @param source The source file.
+     * @param success true if the file compiled successfully.
+     * @param output The compiler output for this file.
+     */
+    public CompileResult(Path source, boolean success, String output) {
+        this(source, success, output, List.of(), List.of());
+    }
+}
@@ -0,0 +1,223 @@
+package toolchain;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compiles Java files inside the pipeline's own JVM through {@link ToolProvider#getSystemJavaCompiler()}.
+ * Every file goes into a single batched compilation task, and the compiler and its file managers
+ * are kept for the lifetime of the JVM so later builds start with a warm compiler.
+ * When the JVM has no system compiler (plain JRE), it falls back to running javac.
+ *
+ * A file manager is not thread-safe: each compilation borrows one of its own from a pool, so the
+ * batches of concurrent builds (e.g. the projects of a batch run) compile in parallel. The pool
+ * holds at most as many file managers as compilations ever ran at the same time.
+ */
+public final class JavaCompilerToolchain implements Toolchain {
+
+    // One compiler per JVM, and idle file managers kept warm: each caches the platform classes and jars
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+    private static final Deque<StandardJavaFileManager> IDLE = new ArrayDeque<>();
+
+    private final Toolchain fallback = new BuiltinToolchains.Java();
+
+    @Override
+    public String getName() {
+        return "java";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of(".java");
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsDaemon() {
+        return COMPILER != null;  // The compiler stays loaded in the pipeline JVM
+    }
+
+    @Override
+    public List<CompileResult> compile(List<Path> sources, Path outputDir) throws IOException, InterruptedException {
+        if (COMPILER == null) {
+            return fallback.compile(sources, outputDir);
+        }
+        Files.createDirectories(outputDir);
+
+        StandardJavaFileManager manager = borrowFileManager();
+        boolean reusable = false;
+        try {
+            manager.setLocationFromPaths(StandardLocation.CLASS_OUTPUT, List.of(outputDir));
+            manager.setLocationFromPaths(StandardLocation.CLASS_PATH, List.of(outputDir));
+
+            DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+            OutputRecorder recorder = new OutputRecorder(manager);
+            Iterable<? extends JavaFileObject> units = manager.getJavaFileObjectsFromPaths(sources);
+            boolean success = COMPILER.getTask(null, recorder, collector, null, null, units).call();
+            manager.flush();
+            reusable = true;
+
+            return toResults(sources, success, collector.getDiagnostics(), recorder.getOutputs(), outputDir);
+        } finally {
+            releaseFileManager(manager, reusable);
+        }
+    }
+
+    /**
+     * Returns a file manager no other compilation is using: an idle one if any, otherwise a new one.
+     * @return The file manager, to be handed back to {@link #releaseFileManager}.
+     */
+    private static StandardJavaFileManager borrowFileManager() {
+        synchronized (IDLE) {
+            if (!IDLE.isEmpty()) {
+                return IDLE.pop();
+            }
+        }
+        return COMPILER.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hands a file manager back once its compilation is over.
+     * @param manager The file manager returned by {@link #borrowFileManager}.
+     * @param reusable false if the compilation failed with an exception, so the manager is closed instead.
+     * @throws IOException if the file manager cannot be closed.
+     */
+    private static void releaseFileManager(StandardJavaFileManager manager, boolean reusable) throws IOException {
+        if (reusable) {
+            synchronized (IDLE) {
+                IDLE.push(manager);
+            }
+        } else {
+            manager.close();
+        }
+    }
+
+    /**
+     * Splits the diagnostics of a batch into one result per source file.
+     * @param sources The compiled source files.
+     * @param success true if the whole batch compiled.
+     * @param diagnostics The diagnostics reported by the compiler.
+     * @param outputs The class files written for each source, keyed by absolute source path.
+     * @param outputDir The output directory the class files were written to.
+     * @return One result per source file, in the same order as the sources.
+     */
+    private static List<CompileResult> toResults(List<Path> sources, boolean success,
+                                                 List<Diagnostic<? extends JavaFileObject>> diagnostics,
+                                                 Map<Path, List<Path>> outputs, Path outputDir) {
+        Map<Path, Path> byAbsolutePath = new HashMap<>();
+        Map<Path, List<CompileDiagnostic>> bySource = new HashMap<>();
+        for (Path source : sources) {
+            byAbsolutePath.put(source.toAbsolutePath().normalize(), source);
+            bySource.put(source, new ArrayList<>());
+        }
+
+        List<CompileDiagnostic> unattached = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            Path source = null;
+            if (diagnostic.getSource() != null) {
+                source = byAbsolutePath.get(Paths.get(diagnostic.getSource().toUri()).normalize());
+            }
+            CompileDiagnostic converted = new CompileDiagnostic(source, diagnostic.getLineNumber(),
+                    diagnostic.getColumnNumber(), toKind(diagnostic.getKind()), diagnostic.getMessage(Locale.ROOT));
+            if (source != null) {
+                bySource.get(source).add(converted);
+            } else {
+                unattached.add(converted);
+            }
+        }
+
+        List<CompileResult> results = new ArrayList<>();
+        for (Path source : sources) {
+            List<CompileDiagnostic> fileDiagnostics = new ArrayList<>(bySource.get(source));
+            fileDiagnostics.addAll(unattached);
+            boolean hasErrors = fileDiagnostics.stream().anyMatch(d -> d.kind() == CompileDiagnostic.Kind.ERROR);
+
+            String output;
+            if (!success && !hasErrors) {
+                // javac generates no classes at all when any file of the batch fails
+                output = "Not compiled: other files of the batch failed";
+            } else {
+                StringBuilder text = new StringBuilder();
+                for (CompileDiagnostic diagnostic : fileDiagnostics) {
+                    text.append(diagnostic).append(System.lineSeparator());
+                }
+                output = text.toString();
+            }
+            List<Path> artifacts = new ArrayList<>();
+            Path absoluteOutputDir = outputDir.toAbsolutePath().normalize();
+            for (Path classFile : outputs.getOrDefault(source.toAbsolutePath().normalize(), List.of())) {
+                artifacts.add(absoluteOutputDir.relativize(classFile));
+            }
+            results.add(new CompileResult(source, success && !hasErrors, output, List.copyOf(fileDiagnostics),
+                    artifacts));
+        }
+        return results;
+    }
+
+    /**
+     * Wraps the borrowed file manager to record which class files each source produced,
+     * so every source gets its own artifacts even though the whole batch compiles at once.
+     */
+    private static final class OutputRecorder extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<Path, List<Path>> outputs = new HashMap<>();
+
+        OutputRecorder(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) throws IOException {
+            JavaFileObject output = super.getJavaFileForOutput(location, className, kind, sibling);
+            if (sibling != null && location == StandardLocation.CLASS_OUTPUT) {
+                Path source = Paths.get(sibling.toUri()).normalize();
+                outputs.computeIfAbsent(source, key -> new ArrayList<>()).add(Paths.get(output.toUri()).normalize());
+            }
+            return output;
+        }
+
+        Map<Path, List<Path>> getOutputs() {
+            return outputs;
+        }
+    }
+
+    /**
+     * Maps a javac diagnostic kind onto the toolchain-neutral severity.
+     * @param kind The javac diagnostic kind.
+     * @return The matching severity.
+     */
+    private static CompileDiagnostic.Kind toKind(Diagnostic.Kind kind) {
+        switch (kind) {
+            case ERROR:
+                return CompileDiagnostic.Kind.ERROR;
+            case WARNING:
+            case MANDATORY_WARNING:
+                return CompileDiagnostic.Kind.WARNING;
+            default:
+                return CompileDiagnostic.Kind.NOTE;
+        }
+    }
+}
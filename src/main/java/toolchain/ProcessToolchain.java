@@ -0,0 +1,173 @@
+package toolchain;
+
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Base class for toolchains that run an external compiler or interpreter.
+ * Subclasses only describe the command line; this class runs it in a staging
+ * directory, moves the produced files into the output directory and turns
+ * the exit code and output into results.
+ */
+public abstract class ProcessToolchain implements Toolchain {
+
+    private final String name;
+    private final boolean batch;
+    private final List<String> extensions;
+
+    /**
+     * Constructor for the ProcessToolchain class.
+     * @param name The toolchain name.
+     * @param batch true if the command accepts several source files at once.
+     * @param extensions The file extensions handled by the toolchain.
+     */
+    protected ProcessToolchain(String name, boolean batch, String... extensions) {
+        this.name = name;
+        this.batch = batch;
+        this.extensions = List.of(extensions);
+    }
+
+    /**
+     * Builds the command line compiling the given sources.
+     * @param sources The source files to compile.
+     * @param outputDir The directory compiled artifacts are written to.
+     * @param classPath The output directory of the build, holding the artifacts of sources compiled
+     *                  before (or restored from the cache), which the sources may reference.
+     * @return The command and its arguments.
+     */
+    protected abstract List<String> command(List<Path> sources, Path outputDir, Path classPath);
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return batch;
+    }
+
+    @Override
+    public boolean supportsDaemon() {
+        return false;  // A new process is started for every invocation
+    }
+
+    @Override
+    public List<CompileResult> compile(List<Path> sources, Path outputDir) throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+
+        // Each invocation writes into its own staging directory so its artifacts can be told apart
+        Path staging = Files.createTempDirectory(outputDir, ".staging-");
+        try {
+            List<String> command = command(sources, staging, outputDir);
+
+            ProcessResult result;
+            try {
+                // Merged streams keep the diagnostics in the order the compiler wrote them
+                result = new ProcessRunner(command).mergeErrors().run();
+            } catch (IOException e) {
+                return results(sources, false, "Toolchain not available: " + command.get(0), List.of());
+            }
+
+            List<Path> artifacts = result.success() ? publish(staging, outputDir) : List.of();
+            return results(sources, result.success(), result.output(), artifacts);
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    /**
+     * Moves the files produced in a staging directory into the output directory.
+     * @param staging The staging directory the command wrote to.
+     * @param outputDir The output directory.
+     * @return The moved files, relative to the output directory.
+     * @throws IOException if a file cannot be moved.
+     */
+    private static List<Path> publish(Path staging, Path outputDir) throws IOException {
+        List<Path> produced;
+        try (Stream<Path> files = Files.walk(staging)) {
+            produced = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        List<Path> artifacts = new ArrayList<>();
+        for (Path file : produced) {
+            Path relative = staging.relativize(file);
+            Path target = outputDir.resolve(relative);
+            Files.createDirectories(target.getParent());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            artifacts.add(relative);
+        }
+        return artifacts;
+    }
+
+    /**
+     * Deletes a directory and everything below it.
+     * @param directory The directory to delete.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the file name of a source without its extension, used to name artifacts.
+     * @param source The source file.
+     * @return The base name (e.g., "Main" for "Main.java").
+     */
+    protected static String baseName(Path source) {
+        String fileName = source.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    /**
+     * Adds every source path to a command line.
+     * @param command The command being built.
+     * @param sources The source files.
+     * @return The command, for chaining.
+     */
+    protected static List<String> withSources(List<String> command, List<Path> sources) {
+        for (Path source : sources) {
+            command.add(source.toString());
+        }
+        return command;
+    }
+
+    /**
+     * Builds the same result for every source of an invocation.
+     * A batch invocation cannot tell which file produced which artifact, so every
+     * source of the batch is credited with all of them.
+     * @param sources The source files.
+     * @param success true if the invocation succeeded.
+     * @param output The output of the invocation.
+     * @param artifacts The files produced by the invocation, relative to the output directory.
+     * @return One result per source file.
+     */
+    private static List<CompileResult> results(List<Path> sources, boolean success, String output,
+                                               List<Path> artifacts) {
+        List<CompileResult> results = new ArrayList<>();
+        for (Path source : sources) {
+            results.add(new CompileResult(source, success, output, List.of(), artifacts));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,49 @@
+package toolchain;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A Toolchain compiles (or checks) the source files of one language.
+ * Implementations are discovered with {@link java.util.ServiceLoader}, so a new language
+ * is added by listing its class in META-INF/services/toolchain.Toolchain.
+ */
+public interface Toolchain {
+
+    /**
+     * Returns the name of the toolchain, used in log messages.
+     * @return The toolchain name (e.g., "java").
+     */
+    String getName();
+
+    /**
+     * Returns the file extensions handled by this toolchain, including the dot.
+     * @return The handled extensions (e.g., ".java").
+     */
+    List<String> getExtensions();
+
+    /**
+     * Tells whether several files can be compiled in a single invocation.
+     * Batch toolchains receive every file of their language at once; the others get one file per call.
+     * @return true if the toolchain supports batch mode.
+     */
+    boolean supportsBatch();
+
+    /**
+     * Tells whether the toolchain keeps a warm compiler between invocations
+     * instead of starting a new one for every call.
+     * @return true if the toolchain supports daemon mode.
+     */
+    boolean supportsDaemon();
+
+    /**
+     * Compiles the given source files.
+     * @param sources The source files to compile (a single file unless {@link #supportsBatch()}).
+     * @param outputDir The directory compiled artifacts are written to.
+     * @return One result per source file, in the same order as the sources.
+     * @throws IOException if an I/O error occurs while compiling.
+     * @throws InterruptedException if interrupted while waiting for the compiler.
+     */
+    List<CompileResult> compile(List<Path> sources, Path outputDir) throws IOException, InterruptedException;
+}
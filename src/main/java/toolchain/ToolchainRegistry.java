@@ -0,0 +1,64 @@
+package toolchain;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The ToolchainRegistry maps file extensions to the toolchain compiling them.
+ * Toolchains are discovered once with {@link ServiceLoader}; looking one up is a single
+ * hash lookup, however many languages are registered.
+ */
+public final class ToolchainRegistry {
+
+    private final Map<String, Toolchain> byExtension = new HashMap<>();
+
+    /**
+     * Creates a registry holding every toolchain found on the classpath.
+     * @return The loaded registry.
+     */
+    public static ToolchainRegistry load() {
+        ToolchainRegistry registry = new ToolchainRegistry();
+        for (Toolchain toolchain : ServiceLoader.load(Toolchain.class)) {
+            registry.register(toolchain);
+        }
+        return registry;
+    }
+
+    /**
+     * Registers a toolchain for all of its extensions.
+     * The first toolchain registered for an extension wins.
+     * @param toolchain The toolchain to register.
+     */
+    public void register(Toolchain toolchain) {
+        for (String extension : toolchain.getExtensions()) {
+            Toolchain existing = byExtension.putIfAbsent(extension, toolchain);
+            if (existing != null && existing != toolchain) {
+                System.out.println("Ignoring toolchain " + toolchain.getName() + " for " + extension
+                        + ", already handled by " + existing.getName());
+            }
+        }
+    }
+
+    /**
+     * Finds the toolchain handling a file.
+     * @param fileName The name of the source file.
+     * @return The toolchain, or null if no toolchain handles the file's extension.
+     */
+    public Toolchain find(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        return byExtension.get(fileName.substring(dot));
+    }
+
+    /**
+     * Returns every registered toolchain.
+     * @return The registered toolchains, keyed by extension.
+     */
+    public Map<String, Toolchain> getToolchains() {
+        return Collections.unmodifiableMap(byExtension);
+    }
+}
@@ -0,0 +1,293 @@
+package cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import toolchain.CompileResult;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores and restores through a cache server started on a free port of this machine.
+ */
+class TestCacheServer {
+
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    @TempDir
+    Path dir;
+
+    private CacheServer server;
+
+    /**
+     * Stops the server.
+     */
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * A stored result comes back with its output and the same artifact bytes.
+     *
+     * @throws Exception if the server cannot be started.
+     */
+    @Test
+    void restoresAStoredResult() throws Exception {
+        RemoteCache cache = startServer(1024 * 1024);
+        Path outputDir = dir.resolve("out");
+        Files.createDirectories(outputDir.resolve("pkg"));
+        byte[] bytes = new byte[10_000];
+        Arrays.fill(bytes, (byte) 7);
+        Files.write(outputDir.resolve("pkg/A.class"), bytes);
+        String key = sha256("A".getBytes());
+        cache.store(key, new CompileResult(Path.of("A.java"), true, "warning", List.of(),
+                List.of(Path.of("pkg/A.class"))), outputDir);
+
+        Path restoreDir = dir.resolve("restored");
+        CompileResult result = cache.restore(key, Path.of("A.java"), restoreDir);
+
+        assertNotNull(result);
+        assertEquals("warning", result.output());
+        assertEquals(List.of(Path.of("pkg/A.class")), result.artifacts());
+        assertArrayEquals(bytes, Files.readAllBytes(restoreDir.resolve("pkg/A.class")));
+        assertNull(cache.restore(sha256("B".getBytes()), Path.of("B.java"), restoreDir));
+    }
+
+    /**
+     * Only passing test classes are recorded, under their own key.
+     *
+     * @throws Exception if the server cannot be started.
+     */
+    @Test
+    void recordsPassedTests() throws Exception {
+        RemoteCache cache = startServer(1024 * 1024);
+        String key = BuildCache.testKey("stages.TestA", "classes");
+
+        assertFalse(cache.testPassed(key));
+        cache.storeTestPassed(key, "stages.TestA");
+
+        assertTrue(cache.testPassed(key));
+        assertFalse(cache.testPassed(BuildCache.testKey("stages.TestA", "changed classes")));
+    }
+
+    /**
+     * A blob that does not match its digest is rejected.
+     *
+     * @throws Exception if the server cannot be started.
+     */
+    @Test
+    void rejectsADamagedBlob() throws Exception {
+        startServer(1024 * 1024);
+
+        assertEquals(400, put("cas/" + sha256("expected".getBytes()), "damaged".getBytes()));
+        assertEquals(404, get("cas/" + sha256("expected".getBytes())));
+    }
+
+    /**
+     * Past the cap, the least recently used blob goes first.
+     *
+     * @throws Exception if the server cannot be started.
+     */
+    @Test
+    void evictsTheLeastRecentlyUsedBlob() throws Exception {
+        startServer(1000);
+        byte[] first = blob(1);
+        byte[] second = blob(2);
+        byte[] third = blob(3);
+        assertEquals(200, put("cas/" + sha256(first), first));
+        assertEquals(200, put("cas/" + sha256(second), second));
+        setLastUse(sha256(first), 1_000);
+        setLastUse(sha256(second), 2_000);
+
+        assertEquals(200, put("cas/" + sha256(third), third));
+
+        awaitEviction(sha256(first));
+
+        assertEquals(404, get("cas/" + sha256(first)));
+        assertEquals(200, get("cas/" + sha256(second)));
+        assertEquals(200, get("cas/" + sha256(third)));
+    }
+
+    /**
+     * Concurrent uploads of the same blob count it once, so they do not evict it.
+     *
+     * @throws Exception if the server cannot be started.
+     */
+    @Test
+    void countsConcurrentUploadsOfOneBlobOnce() throws Exception {
+        startServer(1000);
+        byte[] bytes = blob(1);
+        String path = "cas/" + sha256(bytes);
+
+        ExecutorService uploads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                statuses.add(uploads.submit(() -> put(path, bytes)));
+            }
+            for (Future<Integer> status : statuses) {
+                assertEquals(200, status.get());
+            }
+        } finally {
+            uploads.shutdown();
+        }
+
+        assertEquals(200, get(path));
+    }
+
+    /**
+     * A server with a token answers 401 to requests without it, and serves a client sending it.
+     *
+     * @throws Exception if the server cannot be started.
+     */
+    @Test
+    void requiresTheTokenWhenOneIsSet() throws Exception {
+        server = new CacheServer(InetAddress.getLoopbackAddress(), 0, "secret", dir.resolve("server"), 1024 * 1024);
+        server.start();
+        byte[] bytes = blob(1);
+        RemoteCache wrongToken = new RemoteCache(uri(""), Duration.ofSeconds(10), true, "guess");
+        RemoteCache rightToken = new RemoteCache(uri(""), Duration.ofSeconds(10), true, "secret");
+
+        assertEquals(401, put("cas/" + sha256(bytes), bytes));
+        assertEquals(401, get("cas/" + sha256(bytes)));
+        wrongToken.storeTestPassed(sha256("A".getBytes()), "stages.TestA");
+        rightToken.storeTestPassed(sha256("B".getBytes()), "stages.TestB");
+
+        assertFalse(rightToken.testPassed(sha256("A".getBytes())));
+        assertTrue(rightToken.testPassed(sha256("B".getBytes())));
+        assertFalse(wrongToken.testPassed(sha256("B".getBytes())));
+    }
+
+    /**
+     * Starts a server with an empty store.
+     *
+     * @param maxBytes The size cap of the server.
+     * @return A client of the server.
+     * @throws IOException if the server cannot bind a port.
+     */
+    private RemoteCache startServer(long maxBytes) throws IOException {
+        server = new CacheServer(0, dir.resolve("server"), maxBytes);
+        server.start();
+        return new RemoteCache(uri(""), Duration.ofSeconds(10), true);
+    }
+
+    /**
+     * Uploads bytes to a path of the server.
+     *
+     * @param path The path, "ac/&lt;key&gt;" or "cas/&lt;digest&gt;".
+     * @param bytes The body.
+     * @return The status of the response.
+     * @throws Exception if the server cannot be reached.
+     */
+    private int put(String path, byte[] bytes) throws Exception {
+        return CLIENT.send(HttpRequest.newBuilder(uri(path)).PUT(HttpRequest.BodyPublishers.ofByteArray(bytes))
+                .build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * Downloads a path of the server.
+     *
+     * @param path The path, "ac/&lt;key&gt;" or "cas/&lt;digest&gt;".
+     * @return The status of the response.
+     * @throws Exception if the server cannot be reached.
+     */
+    private int get(String path) throws Exception {
+        return CLIENT.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+
+    /**
+     * Waits up to five seconds for a blob to leave the store. Eviction runs once the upload is
+     * answered, and downloading the blob meanwhile would count as a use.
+     *
+     * @param digest The digest of the blob.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void awaitEviction(String digest) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (Files.exists(storedFile(digest)) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Backdates the last use of a stored blob.
+     *
+     * @param digest The digest of the blob.
+     * @param millis The time of the last use, in milliseconds.
+     * @throws IOException if the file cannot be touched.
+     */
+    private void setLastUse(String digest, long millis) throws IOException {
+        Files.setLastModifiedTime(storedFile(digest), FileTime.fromMillis(millis));
+    }
+
+    /**
+     * Returns where the server stores a blob.
+     *
+     * @param digest The digest of the blob.
+     * @return The stored file.
+     */
+    private Path storedFile(String digest) {
+        return dir.resolve("server/cas").resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    /**
+     * Returns the address of a path of the server.
+     *
+     * @param path The path.
+     * @return The URI.
+     */
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getPort() + "/" + path);
+    }
+
+    /**
+     * Creates a 400-byte blob.
+     *
+     * @param seed The byte the blob is filled with.
+     * @return The blob.
+     */
+    private static byte[] blob(int seed) {
+        byte[] bytes = new byte[400];
+        Arrays.fill(bytes, (byte) seed);
+        return bytes;
+    }
+
+    /**
+     * Computes the SHA-256 digest of bytes.
+     *
+     * @param bytes The bytes.
+     * @return The digest, in lowercase hexadecimal.
+     * @throws Exception if SHA-256 is not available.
+     */
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
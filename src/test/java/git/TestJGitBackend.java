@@ -0,0 +1,131 @@
+package git;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pipeline.ProcessResult;
+import pipeline.ProcessRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stages, commits and pushes a clone of a local bare repository, with JGit and with the git
+ * command line. Both backends must count the same paths and objects.
+ */
+class TestJGitBackend {
+
+    @TempDir
+    Path dir;
+
+    private Path bare;
+    private Path clone;
+
+    /**
+     * Creates a bare repository and a clone holding one pushed commit of three files.
+     *
+     * @throws Exception if git fails.
+     */
+    @BeforeEach
+    void cloneABareRepository() throws Exception {
+        bare = dir.resolve("remote.git");
+        clone = dir.resolve("clone");
+        git(dir, "init", "--quiet", "--bare", bare.toString());
+        git(dir, "clone", "--quiet", bare.toString(), clone.toString());
+        git(clone, "symbolic-ref", "HEAD", "refs/heads/main");
+        git(clone, "config", "user.name", "Pipeline Test");
+        git(clone, "config", "user.email", "pipeline@example.com");
+        for (String name : List.of("a.txt", "b.txt", "c.txt")) {
+            Files.writeString(clone.resolve(name), name + "\n");
+        }
+        git(clone, "add", "--all");
+        git(clone, "commit", "--quiet", "-m", "Initial commit");
+        git(clone, "push", "--quiet", "origin", "main");
+    }
+
+    /**
+     * Runs the scenario with JGit.
+     *
+     * @throws Exception if git fails.
+     */
+    @Test
+    void stagesCommitsAndPushesWithJGit() throws Exception {
+        try (GitBackend backend = new JGitBackend(clone)) {
+            stageCommitAndPush(backend);
+        }
+    }
+
+    /**
+     * Runs the scenario with the git command line.
+     *
+     * @throws Exception if git fails.
+     */
+    @Test
+    void stagesCommitsAndPushesWithTheGitCommandLine() throws Exception {
+        try (GitBackend backend = new ProcessGitBackend(clone)) {
+            stageCommitAndPush(backend);
+        }
+    }
+
+    /**
+     * Edits and deletes files, then pushes them and a second small change.
+     *
+     * @param backend The backend under test, on the clone.
+     * @throws Exception if git fails.
+     */
+    private void stageCommitAndPush(GitBackend backend) throws Exception {
+        Files.writeString(clone.resolve("a.txt"), "a.txt, edited\n");
+        Files.delete(clone.resolve("b.txt"));
+
+        assertEquals(2, backend.stageChanges(), "a.txt and b.txt, not c.txt");
+        assertTrue(backend.commit("Edit a, delete b"));
+        assertFalse(backend.commit("Nothing staged"));
+        assertTrue(backend.push(bare.toString(), null) > 0);
+        assertEquals(backend.headCommit(), remoteMain());
+        assertEquals("", git(clone, "status", "--porcelain"));
+        assertEquals("a.txt\nc.txt\n", git(bare, "ls-tree", "--name-only", "main"));
+
+        Files.writeString(clone.resolve("c.txt"), "c.txt, edited\n");
+
+        assertEquals(1, backend.stageChanges());
+        assertTrue(backend.commit("Edit c"));
+        assertEquals(3, backend.push(bare.toString(), null), "The new commit, its tree and c.txt only");
+        assertEquals(backend.headCommit(), remoteMain());
+        assertEquals(0, backend.push(bare.toString(), null), "Already up to date");
+    }
+
+    /**
+     * Reads the main branch of the bare repository.
+     *
+     * @return The commit hash it points to.
+     * @throws Exception if git fails.
+     */
+    private String remoteMain() throws Exception {
+        return git(bare, "rev-parse", "refs/heads/main").trim();
+    }
+
+    /**
+     * Runs the git command line.
+     *
+     * @param directory The directory to run it in.
+     * @param args The git arguments.
+     * @return The standard output.
+     * @throws Exception if git fails.
+     */
+    private static String git(Path directory, String... args) throws Exception {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        ProcessResult result = new ProcessRunner(command).directory(directory).bufferLines(Integer.MAX_VALUE).run();
+        if (!result.success()) {
+            throw new IOException("git " + String.join(" ", args) + " failed: " + result.stderr());
+        }
+        return result.stdout();
+    }
+}
@@ -0,0 +1,113 @@
+package golden;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares runs with their golden files, and records and loads fixtures.
+ */
+class TestFixture {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A run with the expected output and exit code matches.
+     */
+    @Test
+    void matchesTheExpectedRun() {
+        Fixture fixture = fixture(List.of("3"), 0, 100);
+
+        assertEquals("", fixture.compare(List.of("3"), 0, "    unused\n"));
+    }
+
+    /**
+     * A wrong exit code is reported with the standard error of the program.
+     */
+    @Test
+    void reportsAWrongExitCode() {
+        Fixture fixture = fixture(List.of("3"), 0, 100);
+
+        assertEquals("  Exit code 1, expected 0.\n    Exception in thread \"main\"\n",
+                fixture.compare(List.of("3"), 1, "    Exception in thread \"main\"\n"));
+        assertEquals("", fixture(List.of(), 2, 100).compare(List.of(), 2, ""), "An expected failure");
+    }
+
+    /**
+     * A wrong output is reported as an indented diff against the golden file.
+     */
+    @Test
+    void reportsAWrongOutput() {
+        Fixture fixture = fixture(List.of("sum", "3"), 0, 100);
+
+        assertEquals("  Output differs from sum.out:\n    @@ -1 +1 @@\n     sum\n    -3\n    +4\n",
+                fixture.compare(List.of("sum", "4"), 0, ""));
+    }
+
+    /**
+     * A run may be slower than recorded by the tolerance plus the slack, not more.
+     */
+    @Test
+    void allowsTheTimingTolerance() {
+        Fixture fixture = fixture(List.of(), 0, 100);
+
+        // 100 ms recorded, 200 % tolerance, 100 ms slack: 400 ms limit
+        assertEquals("", fixture.compareTiming(50, 200, 100));
+        assertEquals("", fixture.compareTiming(400, 200, 100));
+        assertEquals("  Took 401 ms, recorded 100 ms (limit 400 ms).\n", fixture.compareTiming(401, 200, 100));
+        assertEquals("", fixture(List.of(), 0, -1).compareTiming(1_000_000, 0, 0), "No recorded duration");
+    }
+
+    /**
+     * A recorded run is loaded back with its input, arguments, output, exit code and duration.
+     *
+     * @throws Exception if the files cannot be written or read.
+     */
+    @Test
+    void loadsARecordedFixture() throws Exception {
+        Files.write(dir.resolve("sum.in"), new byte[] {'1', ' ', '2'});
+        Files.writeString(dir.resolve("sum.args"), "--verbose\n\n-n\n");
+        Files.writeString(dir.resolve("new.in"), "");
+
+        List<Fixture> fixtures = Fixture.loadAll(dir);
+        assertEquals(List.of("new", "sum"), fixtures.stream().map(Fixture::name).toList());
+        assertFalse(fixtures.get(0).isRecorded());
+        assertNull(fixtures.get(0).expectedOutput());
+
+        fixtures.get(1).record(List.of("sum", "3"), 4, 120);
+        Fixture sum = Fixture.loadAll(dir).get(1);
+
+        assertTrue(sum.isRecorded());
+        assertArrayEquals(new byte[] {'1', ' ', '2'}, sum.input());
+        assertEquals(List.of("--verbose", "-n"), sum.args());
+        assertEquals(List.of("sum", "3"), sum.expectedOutput());
+        assertEquals(4, sum.expectedExitCode());
+        assertEquals(120, sum.recordedMillis());
+
+        sum.record(List.of("sum", "3"), 0, 80);
+        assertFalse(Files.exists(dir.resolve("sum.exit")), "Exit code 0 is the default");
+        assertEquals(0, Fixture.loadAll(dir).get(1).expectedExitCode());
+    }
+
+    /**
+     * Creates a fixture named "sum" in the temporary directory, without input or arguments.
+     *
+     * @param output The expected output.
+     * @param exitCode The expected exit code.
+     * @param millis The recorded duration, or -1.
+     * @return The fixture.
+     */
+    private Fixture fixture(List<String> output, int exitCode, long millis) {
+        return new Fixture("sum", dir, new byte[0], List.of(), output, exitCode, millis);
+    }
+}
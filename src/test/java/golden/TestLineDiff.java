@@ -0,0 +1,89 @@
+package golden;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Diffs small outputs line by line, and long ones by their first difference.
+ */
+class TestLineDiff {
+
+    /**
+     * Equal outputs have no diff.
+     */
+    @Test
+    void equalOutputsHaveNoDiff() {
+        assertEquals("", LineDiff.diff(List.of("a", "b"), List.of("a", "b")));
+        assertEquals("", LineDiff.diff(List.of(), List.of()));
+    }
+
+    /**
+     * An unexpected line is shown with "+", between its context lines.
+     */
+    @Test
+    void showsAnInsertedLine() {
+        assertEquals("@@ -1 +1 @@\n a\n b\n+x\n c\n",
+                LineDiff.diff(List.of("a", "b", "c"), List.of("a", "b", "x", "c")));
+    }
+
+    /**
+     * A missing line is shown with "-".
+     */
+    @Test
+    void showsADeletedLine() {
+        assertEquals("@@ -1 +1 @@\n a\n-b\n c\n", LineDiff.diff(List.of("a", "b", "c"), List.of("a", "c")));
+        assertEquals("@@ -1 +1 @@\n a\n-b\n", LineDiff.diff(List.of("a", "b"), List.of("a")));
+    }
+
+    /**
+     * A changed line is shown as the expected line removed, then the printed line added.
+     */
+    @Test
+    void showsAChangedLine() {
+        assertEquals("@@ -1 +1 @@\n a\n-b\n+B\n c\n", LineDiff.diff(List.of("a", "b", "c"), List.of("a", "B", "c")));
+    }
+
+    /**
+     * Changes far apart get a hunk each, with two lines of context and their line numbers.
+     */
+    @Test
+    void splitsDistantChangesIntoHunks() {
+        List<String> expected = numbers(1, 10);
+        List<String> actual = new ArrayList<>(expected);
+        actual.set(1, "two");
+        actual.set(8, "nine");
+
+        assertEquals("@@ -1 +1 @@\n 1\n-2\n+two\n 3\n 4\n"
+                + "@@ -7 +7 @@\n 7\n 8\n-9\n+nine\n 10\n", LineDiff.diff(expected, actual));
+    }
+
+    /**
+     * Outputs too long to diff report their first differing line.
+     */
+    @Test
+    void reportsTheFirstDifferenceOfLongOutputs() {
+        List<String> expected = numbers(1, 3000);
+        List<String> actual = new ArrayList<>(expected);
+        actual.set(1499, "changed");
+        actual.remove(2999);
+
+        assertEquals("First difference at line 1500 (3000 lines expected, 2999 printed):\n-1500\n+changed\n",
+                LineDiff.diff(expected, actual));
+    }
+
+    /**
+     * Builds consecutive numbers as lines.
+     *
+     * @param from The first number.
+     * @param to The last number, included.
+     * @return The lines.
+     */
+    private static List<String> numbers(int from, int to) {
+        return IntStream.rangeClosed(from, to).mapToObj(String::valueOf).toList();
+    }
+}
@@ -0,0 +1,80 @@
+package history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Orders the classes of a launch by the durations passed with it.
+ */
+class TestLongestFirstClassOrderer {
+
+    private static final List<String> STARTED = new CopyOnWriteArrayList<>();
+
+    /**
+     * The encoded durations decode to the same map, skipping malformed pairs.
+     */
+    @Test
+    void decodesWhatItEncodes() {
+        Map<String, Long> durations = Map.of("a.TestA", 5L, "TestB", 7_000_000_000L);
+
+        assertEquals(durations, LongestFirstClassOrderer.decode(LongestFirstClassOrderer.encode(durations)));
+        assertEquals(Map.of("TestC", 3L), LongestFirstClassOrderer.decode("TestC=3,=4,TestD=x,TestE"));
+    }
+
+    /**
+     * Two launches with opposite durations start their classes in opposite orders.
+     */
+    @Test
+    void ordersEachLaunchByItsOwnDurations() {
+        assertEquals(List.of(Slow.class.getName(), Fast.class.getName()),
+                launch(Map.of(Slow.class.getName(), 2L, Fast.class.getName(), 1L)));
+        assertEquals(List.of(Fast.class.getName(), Slow.class.getName()),
+                launch(Map.of(Slow.class.getName(), 1L, Fast.class.getName(), 2L)));
+    }
+
+    /**
+     * Runs the sample classes one after the other.
+     *
+     * @param durations The expected durations of the launch.
+     * @return The classes, in the order they started.
+     */
+    private static List<String> launch(Map<String, Long> durations) {
+        STARTED.clear();
+        LauncherFactory.create().execute(LauncherDiscoveryRequestBuilder.request()
+                .selectors(DiscoverySelectors.selectClass(Fast.class), DiscoverySelectors.selectClass(Slow.class))
+                .configurationParameter("junit.jupiter.testclass.order.default",
+                        LongestFirstClassOrderer.class.getName())
+                .configurationParameter(LongestFirstClassOrderer.DURATIONS_PARAMETER,
+                        LongestFirstClassOrderer.encode(durations))
+                .build());
+        return List.copyOf(STARTED);
+    }
+
+    /**
+     * A sample class, only run by {@link #launch(Map)}.
+     */
+    static class Fast {
+        @Test
+        void run() {
+            STARTED.add(Fast.class.getName());
+        }
+    }
+
+    /**
+     * A sample class, only run by {@link #launch(Map)}.
+     */
+    static class Slow {
+        @Test
+        void run() {
+            STARTED.add(Slow.class.getName());
+        }
+    }
+}
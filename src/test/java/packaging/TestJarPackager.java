@@ -0,0 +1,152 @@
+package packaging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Packages the same tree twice: the JAR must not depend on the file times or the time zone,
+ * and only the entries that changed are compressed again.
+ */
+class TestJarPackager {
+
+    private static final Instant TIMESTAMP = Instant.parse("2000-01-01T00:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Packaging again with other file times and another default time zone gives the same bytes,
+     * and the previous JAR is left untouched.
+     *
+     * @throws Exception if the tree cannot be written or packaged.
+     */
+    @Test
+    void packagesTheSameBytesWhateverTheTimesAndTimeZone() throws Exception {
+        Path classes = tree();
+        Path jar = dir.resolve("target/app.jar");
+        JarPackager.Result first = packager().pack(List.of(classes), jar, manifest());
+        FileTime written = Files.getLastModifiedTime(jar);
+
+        TimeZone zone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+            touchAll(classes, FileTime.from(Instant.parse("2031-06-15T12:34:56Z")));
+            JarPackager.Result second = packager().pack(List.of(classes), jar, manifest());
+
+            assertEquals(first.sha256(), second.sha256());
+            assertEquals(first.bytes(), second.bytes());
+            assertTrue(second.unchanged());
+            assertEquals(second.entries(), second.reused());
+            assertEquals(written, Files.getLastModifiedTime(jar));
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    /**
+     * After one file changed, every other entry is copied from the previous JAR, and the new JAR
+     * reads back with the new contents.
+     *
+     * @throws Exception if the tree cannot be written or packaged.
+     */
+    @Test
+    void compressesOnlyTheChangedEntryAgain() throws Exception {
+        Path classes = tree();
+        Path jar = dir.resolve("target/app.jar");
+        JarPackager.Result first = packager().pack(List.of(classes), jar, manifest());
+        byte[] changed = "changed contents, longer than before".repeat(20).getBytes();
+        Files.write(classes.resolve("pkg/B.class"), changed);
+
+        JarPackager.Result second = packager().pack(List.of(classes), jar, manifest());
+
+        assertFalse(second.unchanged());
+        assertNotEquals(first.sha256(), second.sha256());
+        assertEquals(first.entries(), second.entries());
+        assertEquals(second.entries() - 1, second.reused());
+        try (JarFile file = new JarFile(jar.toFile())) {
+            List<String> names = new ArrayList<>();
+            file.stream().map(JarEntry::getName).forEach(names::add);
+            assertEquals(List.of("META-INF/", "META-INF/MANIFEST.MF", "app.properties", "pkg/", "pkg/A.class",
+                    "pkg/B.class", "pkg/sub/", "pkg/sub/C.class"), names);
+            assertEquals("pkg.A", file.getManifest().getMainAttributes().getValue("Main-Class"));
+            assertArrayEquals(changed, file.getInputStream(file.getEntry("pkg/B.class")).readAllBytes());
+            assertArrayEquals(Files.readAllBytes(classes.resolve("pkg/A.class")),
+                    file.getInputStream(file.getEntry("pkg/A.class")).readAllBytes());
+            assertEquals(LocalDateTime.ofInstant(TIMESTAMP, ZoneOffset.UTC),
+                    file.getEntry("pkg/A.class").getTimeLocal());
+        }
+    }
+
+    /**
+     * Creates a packager with two threads, so entries are prepared out of order.
+     *
+     * @return The packager.
+     */
+    private static JarPackager packager() {
+        return new JarPackager(2, 6, TIMESTAMP);
+    }
+
+    /**
+     * Creates the manifest attributes.
+     *
+     * @return The attributes.
+     */
+    private static Map<String, String> manifest() {
+        Map<String, String> manifest = new LinkedHashMap<>();
+        manifest.put("Main-Class", "pkg.A");
+        return manifest;
+    }
+
+    /**
+     * Writes a small build output: compressible and tiny classes, a subdirectory and a resource.
+     *
+     * @return The directory.
+     * @throws IOException if a file cannot be written.
+     */
+    private Path tree() throws IOException {
+        Path classes = dir.resolve("classes");
+        Files.createDirectories(classes.resolve("pkg/sub"));
+        Files.writeString(classes.resolve("pkg/A.class"), "class A, compressible ".repeat(100));
+        Files.writeString(classes.resolve("pkg/B.class"), "B");
+        Files.writeString(classes.resolve("pkg/sub/C.class"), "class C ".repeat(50));
+        Files.writeString(classes.resolve("app.properties"), "name=app\n");
+        return classes;
+    }
+
+    /**
+     * Sets the modification time of every file and directory below a directory.
+     *
+     * @param root The directory.
+     * @param time The new modification time.
+     * @throws IOException if a time cannot be set.
+     */
+    private static void touchAll(Path root, FileTime time) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.toList()) {
+                Files.setLastModifiedTime(path, time);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package perf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares runs with their baseline, and saves and loads baseline files.
+ */
+class TestPerfBaseline {
+
+    private static final PerfMetrics BASELINE = new PerfMetrics(1000, 800, 50_000, 4);
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The limit is the baseline plus the percentage, plus the slack.
+     */
+    @Test
+    void limitAddsThePercentageAndTheSlack() {
+        assertEquals(1550, new PerfBaseline.Tolerance(50, 50).limit(1000));
+        assertEquals(1000, new PerfBaseline.Tolerance(0, 0).limit(1000));
+        assertEquals(2, new PerfBaseline.Tolerance(100, 2).limit(0));
+    }
+
+    /**
+     * Metrics up to their limit are no regression.
+     */
+    @Test
+    void acceptsMetricsUnderTheirLimit() {
+        PerfMetrics current = new PerfMetrics(1550, 800, 60_000, 6);
+
+        assertEquals(List.of(), PerfBaseline.regressions(BASELINE, current, tolerances()));
+    }
+
+    /**
+     * Each metric past its limit is reported, with its value, baseline and limit.
+     */
+    @Test
+    void reportsMetricsOverTheirLimit() {
+        PerfMetrics current = new PerfMetrics(1551, 800, 60_000, 7);
+
+        assertEquals(List.of("wall 1551 ms, baseline 1000 ms (limit 1550)",
+                        "gc 7 collections, baseline 4 collections (limit 6)"),
+                PerfBaseline.regressions(BASELINE, current, tolerances()));
+    }
+
+    /**
+     * Metrics not measured on this platform, in the run or in the baseline, are skipped,
+     * and metrics without a tolerance are not compared.
+     */
+    @Test
+    void skipsMetricsThatWereNotMeasured() {
+        PerfMetrics unmeasured = new PerfMetrics(1000, 800, -1, -1);
+
+        assertEquals(List.of(), PerfBaseline.regressions(BASELINE, unmeasured, tolerances()));
+        assertEquals(List.of(), PerfBaseline.regressions(unmeasured, new PerfMetrics(1000, 800, 999_999, 100),
+                tolerances()));
+        assertEquals(List.of(), PerfBaseline.regressions(BASELINE, new PerfMetrics(1000, 999_999, 50_000, 4),
+                Map.of(PerfMetrics.Metric.WALL, new PerfBaseline.Tolerance(0, 0))));
+    }
+
+    /**
+     * A saved baseline loads back with every metric, including the unmeasured ones.
+     *
+     * @throws Exception if the file cannot be written.
+     */
+    @Test
+    void savesAndLoadsTheBaseline() throws Exception {
+        Path file = dir.resolve("perf/baseline.properties");
+        PerfBaseline baseline = PerfBaseline.load(file);
+        assertNull(baseline.get("sum"));
+
+        baseline.put("sum", BASELINE);
+        baseline.put("sort", new PerfMetrics(20, 10, -1, 0));
+        baseline.save(file);
+
+        PerfBaseline loaded = PerfBaseline.load(file);
+        assertEquals(BASELINE, loaded.get("sum"));
+        assertEquals(new PerfMetrics(20, 10, -1, 0), loaded.get("sort"));
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            assertEquals(List.of(file), files.toList(), "No temporary file left behind");
+        }
+    }
+
+    /**
+     * An unreadable baseline file is ignored, and a program with an invalid number is measured again.
+     *
+     * @throws Exception if the file cannot be written.
+     */
+    @Test
+    void ignoresAMalformedBaseline() throws Exception {
+        Path file = dir.resolve("baseline.properties");
+        Files.writeString(file, "sum.wall=\\u12\n");
+        assertNull(PerfBaseline.load(file).get("sum"));
+
+        Files.writeString(file, "sum.wall=fast\nsum.cpu=1\nsort.wall=20\nsort.cpu=10\nsort.rss=-1\nsort.gc=0\n");
+        PerfBaseline loaded = PerfBaseline.load(file);
+        assertNull(loaded.get("sum"));
+        assertEquals(new PerfMetrics(20, 10, -1, 0), loaded.get("sort"));
+
+        loaded.save(file);
+        assertTrue(Files.readString(file).contains("fast"), "Saving an unchanged baseline writes nothing");
+    }
+
+    /**
+     * Builds the tolerances of the tests: 50 % and 50 ms of wall time, 20 % and 1000 kB of RSS,
+     * 50 % of collections.
+     *
+     * @return The tolerances.
+     */
+    private static Map<PerfMetrics.Metric, PerfBaseline.Tolerance> tolerances() {
+        Map<PerfMetrics.Metric, PerfBaseline.Tolerance> tolerances = new EnumMap<>(PerfMetrics.Metric.class);
+        tolerances.put(PerfMetrics.Metric.WALL, new PerfBaseline.Tolerance(50, 50));
+        tolerances.put(PerfMetrics.Metric.RSS, new PerfBaseline.Tolerance(20, 1000));
+        tolerances.put(PerfMetrics.Metric.GC, new PerfBaseline.Tolerance(50, 0));
+        return tolerances;
+    }
+}
@@ -0,0 +1,102 @@
+package pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Watches directories and files that come and go, like the build output across "mvn clean".
+ */
+class TestFileWatcher {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A class directory deleted and compiled again is still watched.
+     *
+     * @throws Exception if the files cannot be written.
+     */
+    @Test
+    void watchesATreeCreatedAgainAfterItWasDeleted() throws Exception {
+        Path classes = dir.resolve("target/test-classes");
+        try (FileWatcher watcher = new FileWatcher(Duration.ofMillis(100))) {
+            watcher.watchTree(classes);
+
+            Path first = write(classes.resolve("pkg/TestA.class"));
+            assertTrue(awaitChanges(watcher).contains(first));
+
+            delete(dir.resolve("target"));
+            awaitChanges(watcher);
+            Path second = write(classes.resolve("pkg/TestB.class"));
+
+            assertTrue(awaitChanges(watcher).contains(second));
+        }
+    }
+
+    /**
+     * A watched file is reported when it is created in a directory that did not exist.
+     *
+     * @throws Exception if the file cannot be written.
+     */
+    @Test
+    void reportsAFileCreatedInAMissingDirectory() throws Exception {
+        Path overlay = dir.resolve("conf/local/config.local.properties").toAbsolutePath().normalize();
+        try (FileWatcher watcher = new FileWatcher(Duration.ofMillis(100))) {
+            watcher.watchFiles(List.of(overlay));
+
+            write(overlay);
+
+            assertTrue(awaitChanges(watcher).contains(overlay));
+        }
+    }
+
+    /**
+     * Waits for the next changes, failing the test instead of hanging.
+     *
+     * @param watcher The watcher.
+     * @return The changed files.
+     */
+    private static Set<Path> awaitChanges(FileWatcher watcher) {
+        return assertTimeoutPreemptively(TIMEOUT, () -> watcher.awaitChanges().files());
+    }
+
+    /**
+     * Writes a file, creating its directories.
+     *
+     * @param file The file.
+     * @return The file, as an absolute normalized path.
+     * @throws IOException if the file cannot be written.
+     */
+    private static Path write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, "x").toAbsolutePath().normalize();
+    }
+
+    /**
+     * Deletes a directory and everything below it.
+     *
+     * @param directory The directory.
+     * @throws IOException if a file cannot be deleted.
+     */
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Loads configuration snapshots: references, overlays, validation and reloading.
+ */
+class TestPipelineConfig {
+
+    // Never set, so references to it fall back to their default
+    private static final String UNSET = "PIPELINE_TEST_UNSET_VARIABLE";
+
+    @TempDir
+    Path dir;
+
+    /**
+     * References resolve to another key, then an environment variable, then their default.
+     */
+    @Test
+    void resolvesReferences() {
+        PipelineConfig config = PipelineConfig.of(Map.of(
+                "app.name", "demo",
+                "package.file", "target/${app.name}.jar",
+                "remote.token", "${" + UNSET + ":-none}",
+                "deploy.branch", "${app.name}-${" + UNSET + ":-main}",
+                "home", "${PATH:-unused}",
+                "empty", "${" + UNSET + ":-}"));
+
+        assertEquals("target/demo.jar", config.get("package.file"));
+        assertEquals("none", config.get("remote.token"));
+        assertEquals("demo-main", config.get("deploy.branch"));
+        assertEquals(System.getenv("PATH"), config.get("home"));
+        assertEquals("", config.get("empty"));
+    }
+
+    /**
+     * A reference to a missing variable without a default fails the load, naming the key.
+     */
+    @Test
+    void rejectsAMissingVariable() {
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> PipelineConfig.of(Map.of("remote.token", "${" + UNSET + "}")));
+
+        assertTrue(error.getMessage().contains("remote.token: ${" + UNSET + "} is neither"), error.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> PipelineConfig.of(Map.of("a", "${b}", "b", "${a}")));
+    }
+
+    /**
+     * Later overlays override the earlier ones, which override config.properties.
+     *
+     * @throws Exception if the overlays cannot be written.
+     */
+    @Test
+    void appliesOverlaysInOrder() throws Exception {
+        Path first = write("first.properties", "app.name=first\npipeline.parallelism=2\n");
+        Path second = write("second.properties", "app.name=second\n");
+
+        PipelineConfig config = PipelineConfig.load(dir, List.of(first, second));
+
+        assertEquals("second", config.get("app.name"));
+        assertEquals(2, config.getInt("pipeline.parallelism", 0));
+        assertEquals(".pipeline-cache/build", config.get("build.cache.dir"), "Kept from config.properties");
+        assertEquals(List.of(first, second), config.getOverlays());
+        assertTrue(config.getSources().containsAll(List.of(dir.resolve("config.local.properties"), first, second)));
+        assertEquals(dir.resolve("out"), config.resolve("out"));
+
+        Path local = write("config.local.properties", "app.name=local\npipeline.parallelism=3\n");
+        PipelineConfig withLocal = PipelineConfig.load(dir, List.of(second));
+        assertEquals("second", withLocal.get("app.name"), "Command-line overlays win over config.overlays");
+        assertEquals(3, withLocal.getInt("pipeline.parallelism", 0));
+        assertTrue(withLocal.getSources().contains(local));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> PipelineConfig.load(dir, List.of(dir.resolve("missing.properties"))));
+    }
+
+    /**
+     * Invalid numbers, booleans and choices are all reported when the snapshot is loaded.
+     *
+     * @throws Exception if the overlay cannot be written.
+     */
+    @Test
+    void rejectsInvalidValuesAtLoad() throws Exception {
+        Path overlay = write("invalid.properties",
+                "pipeline.executor=fibers\npipeline.parallelism=many\nbuild.parallelism=0\n"
+                        + "build.cache.enabled=yes\nremote.timeout=soon\n");
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> PipelineConfig.load(dir, List.of(overlay)));
+
+        List<String> lines = error.getMessage().lines().toList();
+        assertEquals("Invalid configuration:", lines.get(0));
+        assertEquals(6, lines.size(), error.getMessage());
+        assertEquals("  build.cache.enabled: must be true or false, got yes", lines.get(1));
+        assertEquals("  build.parallelism: must be at least 1, got 0", lines.get(2));
+        assertTrue(lines.get(3).startsWith("  pipeline.executor: must be one of "), lines.get(3));
+        assertTrue(lines.get(3).endsWith(", got fibers"), lines.get(3));
+        assertEquals("  pipeline.parallelism: not a number: many", lines.get(4));
+        assertEquals("  remote.timeout: not a number: soon", lines.get(5));
+        assertThrows(IllegalArgumentException.class, () -> PipelineConfig.of(Map.of("test.mode", "some")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PipelineConfig.of(Map.of("package.compressionLevel", "10")));
+    }
+
+    /**
+     * Touching an overlay makes the snapshot stale, and reloading reads the new values.
+     *
+     * @throws Exception if the overlay cannot be written.
+     */
+    @Test
+    void reloadsWhenAnOverlayChanges() throws Exception {
+        Path overlay = write("overlay.properties", "app.name=before\n");
+        PipelineConfig config = PipelineConfig.load(dir, List.of(overlay));
+        assertFalse(config.isStale());
+        assertSame(config, config.reloadIfChanged());
+
+        Files.writeString(overlay, "app.name=after\n");
+        touch(overlay);
+
+        assertTrue(config.isStale());
+        PipelineConfig reloaded = config.reloadIfChanged();
+        assertNotSame(config, reloaded);
+        assertEquals("after", reloaded.get("app.name"));
+        assertEquals("before", config.get("app.name"), "A snapshot never changes");
+        assertFalse(reloaded.isStale());
+
+        write("config.local.properties", "app.name=local\n");
+        assertTrue(reloaded.isStale(), "Creating an optional overlay makes the snapshot stale");
+        assertEquals("after", reloaded.reloadIfChanged().get("app.name"));
+    }
+
+    /**
+     * Writes a file of the temporary directory.
+     *
+     * @param name The file name.
+     * @param contents The contents.
+     * @return The file.
+     * @throws IOException if the file cannot be written.
+     */
+    private Path write(String name, String contents) throws IOException {
+        return Files.writeString(dir.resolve(name), contents);
+    }
+
+    /**
+     * Moves the modification time of a file forward, so the change is seen on file systems
+     * with a coarse timestamp resolution.
+     *
+     * @param file The file.
+     * @throws IOException if the time cannot be set.
+     */
+    private static void touch(Path file) throws IOException {
+        FileTime time = Files.getLastModifiedTime(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(time.toMillis() + 10_000));
+    }
+}
@@ -0,0 +1,160 @@
+package pipeline;
+
+import org.junit.jupiter.api.Test;
+import stages.Stage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs stage graphs: invalid graphs, independent stages running together, and fail-fast.
+ */
+class TestStageScheduler {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * A dependency cycle is rejected before any stage runs.
+     */
+    @Test
+    void rejectsACycle() {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        StageScheduler scheduler = new StageScheduler(2);
+        scheduler.addStage(recording("build", ran), List.of());
+        scheduler.addStage(recording("test", ran), List.of("build", "deploy"));
+        scheduler.addStage(recording("deploy", ran), List.of("test"));
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, scheduler::run);
+
+        assertEquals("Stage dependencies contain a cycle", error.getMessage());
+        assertEquals(List.of(), ran);
+    }
+
+    /**
+     * A dependency on a stage that was never added is rejected, naming both stages.
+     */
+    @Test
+    void rejectsAnUnknownDependency() {
+        StageScheduler scheduler = new StageScheduler(1);
+        scheduler.addStage(recording("build", new CopyOnWriteArrayList<>()), List.of("compile"));
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, scheduler::validate);
+
+        assertEquals("Stage 'build' depends on unknown stage 'compile'", error.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> scheduler.addStage(recording("build", List.of()), List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new StageScheduler(0));
+    }
+
+    /**
+     * Independent stages run at the same time, and a stage depending on both starts after them.
+     */
+    @Test
+    void overlapsIndependentStages() {
+        // Each stage only succeeds once the other one has started
+        CountDownLatch started = new CountDownLatch(2);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        StageScheduler scheduler = new StageScheduler(2);
+        scheduler.addStage(meeting("test", started, ran), List.of());
+        scheduler.addStage(meeting("validate", started, ran), List.of());
+        scheduler.addStage(recording("deploy", ran), List.of("test", "validate"));
+
+        assertTrue(assertTimeoutPreemptively(TIMEOUT, scheduler::run));
+
+        assertEquals(3, ran.size());
+        assertEquals("deploy", ran.get(2));
+    }
+
+    /**
+     * A failing stage cancels its running siblings, the run waits for them to stop,
+     * and no dependent stage is started.
+     */
+    @Test
+    void cancelsRunningSiblingsWhenAStageFails() {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        StageScheduler scheduler = new StageScheduler(2);
+        scheduler.addStage(stage("test", () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } finally {
+                cancelled.countDown();
+            }
+            return true;
+        }), List.of());
+        scheduler.addStage(stage("validate", () -> {
+            started.await();
+            return false;
+        }), List.of());
+        scheduler.addStage(recording("deploy", ran), List.of("test"));
+
+        assertFalse(assertTimeoutPreemptively(TIMEOUT, scheduler::run));
+
+        assertEquals(0, cancelled.getCount(), "The run returns once the cancelled stage has stopped");
+        assertEquals(List.of(), ran);
+    }
+
+    /**
+     * Creates a stage that records its name and succeeds.
+     *
+     * @param name The stage name.
+     * @param ran The names of the stages run so far.
+     * @return The stage.
+     */
+    private static Stage recording(String name, List<String> ran) {
+        return stage(name, () -> ran.add(name));
+    }
+
+    /**
+     * Creates a stage that waits for the other stages sharing its latch to start,
+     * then records its name.
+     *
+     * @param name The stage name.
+     * @param started The latch counted down by every stage when it starts.
+     * @param ran The names of the stages run so far.
+     * @return The stage, failing if the other stages did not start in time.
+     */
+    private static Stage meeting(String name, CountDownLatch started, List<String> ran) {
+        return stage(name, () -> {
+            started.countDown();
+            if (!started.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS)) {
+                return false;
+            }
+            ran.add(name);
+            return true;
+        });
+    }
+
+    /**
+     * Creates a stage from its body.
+     *
+     * @param name The stage name.
+     * @param body The body, returning whether the stage succeeded.
+     * @return The stage.
+     */
+    private static Stage stage(String name, Callable<Boolean> body) {
+        return new Stage() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public boolean execute() throws Exception {
+                return body.call();
+            }
+        };
+    }
+}
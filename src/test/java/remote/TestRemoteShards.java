@@ -0,0 +1,287 @@
+package remote;
+
+import history.TestHistory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pipeline.PipelineConfig;
+import runner.TestRunner;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs test classes on several workers started on free ports of this machine.
+ * The sample test classes record where they were loaded from, which tells the worker that ran them.
+ */
+class TestRemoteShards {
+
+    private static final String OUT_PROPERTY = "remote.sample.out";
+
+    @TempDir
+    Path dir;
+
+    private final List<RemoteWorker> workers = new ArrayList<>();
+    private Path classes;
+    private Path out;
+
+    /**
+     * Compiles the sample test classes.
+     *
+     * @throws Exception if they do not compile.
+     */
+    @BeforeEach
+    void compileSamples() throws Exception {
+        classes = dir.resolve("classes");
+        out = Files.createDirectories(dir.resolve("out"));
+        System.setProperty(OUT_PROPERTY, out.toString());
+        compile(sample("SampleA", ""), sample("SampleB", ""), sample("SampleC", "fails(\"boom C\");"),
+                sample("SampleD", "fails(\"boom D\");"), sample("SampleSlow", "awaitGo();"));
+    }
+
+    /**
+     * Stops the workers.
+     */
+    @AfterEach
+    void stopWorkers() {
+        workers.forEach(RemoteWorker::stop);
+        System.clearProperty(OUT_PROPERTY);
+    }
+
+    /**
+     * Classes go longest-first to the shard with the least expected work.
+     */
+    @Test
+    void balancesShardsByExpectedDuration() {
+        Map<String, Long> durations = Map.of("A", 10L, "B", 6L, "C", 5L, "D", 1L);
+
+        assertEquals(List.of(List.of("A", "D"), List.of("B", "C")),
+                RemoteExecutor.balance(List.of("D", "C", "B", "A"), durations, 2));
+        assertEquals(List.of(List.of("A"), List.of("B"), List.of("C", "D")),
+                RemoteExecutor.balance(List.of("A", "B", "C", "D"), durations, 3));
+    }
+
+    /**
+     * Each worker runs its shard, and the counts and failures of the shards are added up.
+     *
+     * @throws Exception if the workers cannot be started.
+     */
+    @Test
+    void mergesTheResultsOfEveryShard() throws Exception {
+        RemoteExecutor executor = executor(startWorkers(3));
+        List<String> classNames = List.of("stages.SampleA", "stages.SampleB", "stages.SampleC", "stages.SampleD");
+        Map<String, Long> durations = Map.of("stages.SampleA", 40L, "stages.SampleB", 30L, "stages.SampleC", 20L,
+                "stages.SampleD", 10L);
+        List<TestHistory.Entry> entries = new CopyOnWriteArrayList<>();
+
+        TestRunner.Result result = executor.runTests(List.of(classes), classNames, Map.of(), durations, entries::add);
+
+        assertEquals(6, result.succeeded());
+        assertEquals(2, result.failed());
+        assertEquals(2, result.failureCount());
+        assertTrue(result.failureReport().contains("boom C"), result.failureReport());
+        assertTrue(result.failureReport().contains("boom D"), result.failureReport());
+        assertEquals(12, entries.size(), "4 classes and 8 methods");
+
+        List<List<String>> shards = RemoteExecutor.balance(classNames, durations, 3);
+        for (int i = 0; i < shards.size(); i++) {
+            for (String className : shards.get(i)) {
+                assertTrue(loadedFrom(className).contains("worker" + i), className + " ran on worker " + i);
+            }
+        }
+    }
+
+    /**
+     * A worker stopped while it runs its shard fails the remote run; the test stage then runs
+     * every class in this process.
+     *
+     * @throws Exception if the workers cannot be started.
+     */
+    @Test
+    void runsTheTestsLocallyWhenAWorkerStopsMidRun() throws Exception {
+        List<Integer> ports = startWorkers(2);
+        Map<String, String> values = new HashMap<>();
+        values.put("tests", "SampleA,SampleSlow");  // Sorted by name: SampleSlow goes to the second worker
+        values.put("test.classes.dirs", classes.toString());
+        values.put("test.history.file", dir.resolve("history.bin").toString());
+        values.put("test.index.file", dir.resolve("index.properties").toString());
+        values.put("remote.workers", "localhost:" + ports.get(0) + ",localhost:" + ports.get(1));
+        values.put("remote.store.dir", dir.resolve("coordinator").toString());
+        stages.Test stage = new stages.Test(PipelineConfig.of(values), (List<Path>) null);
+
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> passed = thread.submit(stage::execute);
+            awaitFile(out.resolve("stages.SampleSlow"));
+            assertTrue(loadedFrom("stages.SampleSlow").contains("worker1"));
+            Files.delete(out.resolve("stages.SampleSlow"));
+            workers.get(1).stop();
+            Files.createFile(out.resolve("go"));
+
+            assertTrue(passed.get());
+        } finally {
+            thread.shutdown();
+        }
+        assertFalse(loadedFrom("stages.SampleSlow").contains("worker"), "ran again in this process");
+        assertFalse(loadedFrom("stages.SampleA").contains("worker"), "ran again in this process");
+    }
+
+    /**
+     * A worker started with a token refuses connections without it.
+     *
+     * @throws Exception if the worker cannot be started.
+     */
+    @Test
+    void refusesAConnectionWithoutTheToken() throws Exception {
+        RemoteWorker worker = new RemoteWorker(InetAddress.getLoopbackAddress(), 0, "secret",
+                dir.resolve("worker"), 1);
+        workers.add(worker);
+        worker.start();
+        List<String> address = List.of("localhost:" + worker.getPort());
+        List<String> classNames = List.of("stages.SampleA");
+
+        RemoteExecutor wrongToken = new RemoteExecutor(address, new ContentStore(dir.resolve("c1")), 30_000, "guess");
+        assertThrows(IOException.class,
+                () -> wrongToken.runTests(List.of(classes), classNames, Map.of(), Map.of(), entry -> { }));
+
+        RemoteExecutor rightToken = new RemoteExecutor(address, new ContentStore(dir.resolve("c2")), 30_000, "secret");
+        assertEquals(2, rightToken.runTests(List.of(classes), classNames, Map.of(), Map.of(), entry -> { })
+                .succeeded());
+    }
+
+    /**
+     * Starts workers, each with a store of its own named after its index.
+     *
+     * @param count The number of workers.
+     * @return The ports of the workers.
+     * @throws IOException if a worker cannot bind a port.
+     */
+    private List<Integer> startWorkers(int count) throws IOException {
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RemoteWorker worker = new RemoteWorker(0, dir.resolve("worker" + i), 2);
+            workers.add(worker);
+            worker.start();
+            ports.add(worker.getPort());
+        }
+        return ports;
+    }
+
+    /**
+     * Creates a coordinator for workers of this machine.
+     *
+     * @param ports The ports of the workers.
+     * @return The executor.
+     */
+    private RemoteExecutor executor(List<Integer> ports) {
+        return new RemoteExecutor(ports.stream().map(port -> "localhost:" + port).toList(),
+                new ContentStore(dir.resolve("coordinator")), 30_000);
+    }
+
+    /**
+     * Reads where a sample class was loaded from when it last ran.
+     *
+     * @param className The sample class.
+     * @return The location of its class file.
+     * @throws IOException if the class did not run.
+     */
+    private String loadedFrom(String className) throws IOException {
+        return Files.readString(out.resolve(className));
+    }
+
+    /**
+     * Waits up to thirty seconds for a file to exist.
+     *
+     * @param file The file.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void awaitFile(Path file) throws InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (!Files.exists(file) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(Files.exists(file), file + " was not written");
+    }
+
+    /**
+     * Writes a sample test class with a passing test, and a second test doing the given work.
+     * Every instance records where the class was loaded from.
+     *
+     * @param name The class name, in the "stages" package.
+     * @param work The body of the second test.
+     * @return The source file.
+     * @throws IOException if the file cannot be written.
+     */
+    private Path sample(String name, String work) throws IOException {
+        Path file = dir.resolve("src/stages").resolve(name + ".java");
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, """
+                package stages;
+
+                import java.nio.file.Files;
+                import java.nio.file.Path;
+
+                public class %s {
+                    private static final Path OUT = Path.of(System.getProperty("%s"));
+
+                    public %s() throws Exception {
+                        Files.writeString(OUT.resolve(getClass().getName()),
+                                String.valueOf(getClass().getProtectionDomain().getCodeSource().getLocation()));
+                    }
+
+                    @org.junit.jupiter.api.Test
+                    void passes() {
+                    }
+
+                    @org.junit.jupiter.api.Test
+                    void works() throws Exception {
+                        %s
+                    }
+
+                    private static void fails(String message) {
+                        throw new AssertionError(message);
+                    }
+
+                    private static void awaitGo() throws Exception {
+                        for (int i = 0; i < 600 && !Files.exists(OUT.resolve("go")); i++) {
+                            Thread.sleep(50);
+                        }
+                    }
+                }
+                """.formatted(name, OUT_PROPERTY, name, work));
+    }
+
+    /**
+     * Compiles source files into the class directory, against JUnit.
+     *
+     * @param sources The source files.
+     * @throws Exception if they do not compile.
+     */
+    private void compile(Path... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        String junit = Path.of(Test.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        List<String> args = new ArrayList<>(List.of("-d", classes.toString(), "-cp", junit));
+        for (Path source : sources) {
+            args.add(source.toString());
+        }
+        assertEquals(0, compiler.run(null, null, null, args.toArray(new String[0])));
+    }
+}
@@ -0,0 +1,154 @@
+package remote;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import toolchain.CompileResult;
+import toolchain.JavaCompilerToolchain;
+import toolchain.Toolchain;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles through a worker started on a free port of this machine.
+ */
+class TestRemoteWorker {
+
+    @TempDir
+    Path dir;
+
+    private RemoteWorker worker;
+    private RemoteExecutor executor;
+    private Toolchain toolchain;
+    private Path outputDir;
+
+    /**
+     * Starts a worker and points a coordinator at it.
+     *
+     * @throws IOException if the worker cannot bind a port.
+     */
+    @BeforeEach
+    void startWorker() throws IOException {
+        worker = new RemoteWorker(0, dir.resolve("worker"), 2);
+        worker.start();
+        executor = new RemoteExecutor(List.of("localhost:" + worker.getPort()),
+                new ContentStore(dir.resolve("coordinator")), 30_000);
+        toolchain = executor.wrap(new JavaCompilerToolchain());
+        outputDir = dir.resolve("out");
+    }
+
+    /**
+     * Stops the worker.
+     */
+    @AfterEach
+    void stopWorker() {
+        worker.stop();
+    }
+
+    /**
+     * The files of a batch reach the worker together, so they can reference each other.
+     *
+     * @throws Exception if the compilation cannot run.
+     */
+    @Test
+    void compilesABatchWhoseFilesReferenceEachOther() throws Exception {
+        List<CompileResult> results = toolchain.compile(List.of(source("A", "int f() { return B.value(); }"),
+                source("B", "static int value() { return 1; }")), outputDir);
+
+        assertTrue(toolchain.supportsBatch());
+        assertTrue(results.stream().allMatch(CompileResult::success), () -> results.get(0).output());
+        assertTrue(Files.exists(outputDir.resolve("A.class")));
+        assertTrue(Files.exists(outputDir.resolve("B.class")));
+        assertEquals(1, cachedActions(), "compiled on the worker");
+    }
+
+    /**
+     * A file compiled on its own resolves the classes already in the output directory.
+     *
+     * @throws Exception if the compilation cannot run.
+     */
+    @Test
+    void compilesAgainstTheClassesBuiltBefore() throws Exception {
+        assertTrue(toolchain.compile(List.of(source("B", "static int value() { return 1; }")), outputDir)
+                .get(0).success());
+        Files.delete(dir.resolve("src/B.java"));
+
+        CompileResult result = toolchain.compile(List.of(source("A", "int f() { return B.value(); }")), outputDir)
+                .get(0);
+
+        assertTrue(result.success(), result::output);
+        assertEquals(List.of(Path.of("A.class")), result.artifacts());
+        assertEquals(2, cachedActions(), "both compiled on the worker");
+    }
+
+    /**
+     * A compile error is confirmed locally and reported; the worker stays in use.
+     *
+     * @throws Exception if the compilation cannot run.
+     */
+    @Test
+    void reportsCompileErrorsAndKeepsTheWorker() throws Exception {
+        CompileResult result = toolchain.compile(List.of(source("C", "int f() { return missing(); }")), outputDir)
+                .get(0);
+
+        assertFalse(result.success());
+        assertTrue(result.output().contains("missing"), result::output);
+        assertEquals(0, cachedActions(), "failures are not cached");
+        assertEquals(1, executor.availableWorkers().size());
+    }
+
+    /**
+     * Without a worker, the files are compiled in this process.
+     *
+     * @throws Exception if the compilation cannot run.
+     */
+    @Test
+    void compilesLocallyWhenNoWorkerAnswers() throws Exception {
+        worker.stop();
+
+        CompileResult result = toolchain.compile(List.of(source("D", "")), outputDir).get(0);
+
+        assertTrue(result.success(), result::output);
+        assertTrue(Files.exists(outputDir.resolve("D.class")));
+        assertTrue(executor.availableWorkers().isEmpty());
+    }
+
+    /**
+     * Counts the successful compile tasks the worker recorded.
+     *
+     * @return The number of action cache entries of the worker.
+     * @throws IOException if the store cannot be listed.
+     */
+    private long cachedActions() throws IOException {
+        Path actions = dir.resolve("worker/ac");
+        if (!Files.isDirectory(actions)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(actions)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Writes a class with the given members.
+     *
+     * @param name The class name.
+     * @param members The body of the class.
+     * @return The source file.
+     * @throws IOException if the file cannot be written.
+     */
+    private Path source(String name, String members) throws IOException {
+        Path file = dir.resolve("src").resolve(name + ".java");
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, "public class " + name + " { " + members + " }\n");
+    }
+}